@@ -0,0 +1,69 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the benchmarks. Accepts the standard JMH command line options, for example <code>-p size=1000</code> to change
+ * the size of the generated input, or a regular expression to select the benchmarks. Unless another format or file is
+ * given, the results are written as JSON to <code>jmh-result.json</code>, so that the results of different releases
+ * can be compared.
+ *
+ * @author Ren M. de Bloois
+ */
+public final class Benchmarks
+{
+	/**
+	 * This class cannot be constructed.
+	 */
+	private Benchmarks()
+	{
+		super();
+	}
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args The JMH command line options.
+	 * @throws Exception Whenever something goes wrong.
+	 */
+	static public void main( String... args ) throws Exception
+	{
+		CommandLineOptions options = new CommandLineOptions( args );
+		if( options.shouldHelp() )
+		{
+			options.showHelp();
+			return;
+		}
+
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent( options );
+		if( options.getIncludes().isEmpty() )
+			builder.include( "solidbase\\.benchmark\\..*" );
+		if( !options.getResultFormat().hasValue() )
+			builder.resultFormat( ResultFormatType.JSON );
+		if( !options.getResult().hasValue() )
+			builder.result( "jmh-result.json" );
+
+		new Runner( builder.build() ).run();
+	}
+}
@@ -0,0 +1,141 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import solidbase.core.Runner;
+import solidstack.io.FileResource;
+
+
+/**
+ * End-to-end benchmarks for IMPORT CSV, DUMP JSON and LOAD JSON against an in-memory HSQLDB database. Each benchmark
+ * executes a small SQL file with the {@link Runner}, like the command line does.
+ *
+ * @author Ren M. de Bloois
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class BulkBenchmarks
+{
+	static private final String URL = "jdbc:hsqldb:mem:benchmark";
+
+	/**
+	 * The number of records to import, dump and load.
+	 */
+	@Param( { "10000", "100000" } )
+	public int records;
+
+	private File folder;
+
+	/**
+	 * Generates the data file and the scripts, and creates the tables. The SOURCE table is filled and dumped, so that
+	 * LOAD JSON has a file to load.
+	 */
+	@Setup
+	public void setup()
+	{
+		this.folder = SyntheticData.createTempFolder( "solidbase-benchmark" );
+
+		SyntheticData.write( new File( this.folder, "data.csv" ), SyntheticData.csv( this.records ) );
+		SyntheticData.write( new File( this.folder, "setup.sql" ),
+				"CREATE TABLE SOURCE ( " + SyntheticData.TABLE_COLUMNS + " );\n" +
+				"CREATE TABLE TARGET ( " + SyntheticData.TABLE_COLUMNS + " );\n" +
+				"IMPORT CSV INTO SOURCE FILE \"data.csv\" ENCODING \"UTF-8\";\n" );
+		SyntheticData.write( new File( this.folder, "import.sql" ),
+				"DELETE FROM TARGET;\n" +
+				"IMPORT CSV INTO TARGET FILE \"data.csv\" ENCODING \"UTF-8\";\n" );
+		SyntheticData.write( new File( this.folder, "dump.sql" ),
+				"DUMP JSON FILE \"data.json\" SELECT * FROM SOURCE;\n" );
+		SyntheticData.write( new File( this.folder, "load.sql" ),
+				"DELETE FROM TARGET;\n" +
+				"LOAD JSON INTO TARGET FILE \"data.json\";\n" );
+
+		execute( "setup.sql" );
+		execute( "dump.sql" );
+	}
+
+	/**
+	 * Drops the tables and deletes the generated files.
+	 */
+	@TearDown
+	public void tearDown()
+	{
+		SyntheticData.write( new File( this.folder, "teardown.sql" ), "DROP TABLE SOURCE;\nDROP TABLE TARGET;\n" );
+		execute( "teardown.sql" );
+		SyntheticData.deleteFolder( this.folder );
+	}
+
+	/**
+	 * Imports the CSV file.
+	 */
+	@Benchmark
+	public void importCSV()
+	{
+		execute( "import.sql" );
+	}
+
+	/**
+	 * Dumps the SOURCE table to a JSON file.
+	 */
+	@Benchmark
+	public void dumpJSON()
+	{
+		execute( "dump.sql" );
+	}
+
+	/**
+	 * Loads the JSON file.
+	 */
+	@Benchmark
+	public void loadJSON()
+	{
+		execute( "load.sql" );
+	}
+
+	/**
+	 * Executes one of the generated SQL files.
+	 *
+	 * @param fileName The name of the SQL file.
+	 */
+	protected void execute( String fileName )
+	{
+		Runner runner = new Runner();
+		runner.setProgressListener( new QuietProgressListener() );
+		runner.setConnectionAttributes( "default", "org.hsqldb.jdbcDriver", URL, "sa", "" );
+		runner.setSQLFile( new FileResource( new File( this.folder, fileName ) ) );
+		runner.executeSQL();
+	}
+}
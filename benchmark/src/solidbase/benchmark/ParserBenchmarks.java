@@ -0,0 +1,196 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.benchmark;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import solidbase.core.Command;
+import solidbase.core.Factory;
+import solidbase.core.SQLSource;
+import solidbase.core.SystemException;
+import solidbase.core.UpgradeFile;
+import solidbase.util.CSVTokenizer;
+import solidbase.util.JSONScanner;
+import solidbase.util.JSONTokenizer;
+import solidbase.util.SQLTokenizer;
+import solidstack.io.MemoryResource;
+import solidstack.io.SourceLocation;
+import solidstack.io.SourceReaders;
+
+
+/**
+ * Benchmarks for the parsers. The input is generated in memory by {@link SyntheticData}, so that only the parsing is
+ * measured. Each benchmark returns a count, so that the JIT can't eliminate the work.
+ *
+ * @author Ren M. de Bloois
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class ParserBenchmarks
+{
+	/**
+	 * The number of records or statements in the generated input.
+	 */
+	@Param( { "1000", "100000" } )
+	public int size;
+
+	/**
+	 * The number of segments in the generated upgrade file. It contains {@link #size} statements in total.
+	 */
+	@Param( { "100" } )
+	public int segments;
+
+	private String csv;
+	private String json;
+	private String sql;
+	private byte[] sqlBytes;
+	private byte[] upgradeBytes;
+	private QuietProgressListener listener = new QuietProgressListener();
+
+	/**
+	 * Generates the input.
+	 */
+	@Setup
+	public void setup()
+	{
+		this.csv = SyntheticData.csv( this.size );
+		this.json = SyntheticData.json( this.size );
+		this.sql = SyntheticData.sql( this.size );
+		try
+		{
+			this.sqlBytes = this.sql.getBytes( "UTF-8" );
+			this.upgradeBytes = new UpgradeFileGenerator( this.segments, Math.max( this.size / this.segments, 1 ), 0 ).generate().getBytes( "UTF-8" );
+		}
+		catch( UnsupportedEncodingException e )
+		{
+			throw new SystemException( e );
+		}
+	}
+
+	/**
+	 * Tokenizes the CSV data.
+	 *
+	 * @return The number of values.
+	 */
+	@Benchmark
+	public int csvTokenizer()
+	{
+		CSVTokenizer tokenizer = new CSVTokenizer( SourceReaders.forString( this.csv ), ',', false );
+		int count = 0;
+		for( CSVTokenizer.Token token = tokenizer.get(); !token.isEndOfInput(); token = tokenizer.get() )
+			if( token.isValue() )
+				count++;
+		return count;
+	}
+
+	/**
+	 * Tokenizes the JSON data.
+	 *
+	 * @return The number of tokens.
+	 */
+	@Benchmark
+	public int jsonTokenizer()
+	{
+		JSONTokenizer tokenizer = new JSONTokenizer( SourceReaders.forString( this.json ) );
+		int count = 0;
+		for( JSONTokenizer.Token token = tokenizer.get(); token.getType() != JSONTokenizer.Token.TYPE.EOF; token = tokenizer.get() )
+			count++;
+		return count;
+	}
+
+	/**
+	 * Scans the JSON data with the cursor-style scanner that LOAD JSON uses.
+	 *
+	 * @return The number of tokens.
+	 */
+	@Benchmark
+	public int jsonScanner()
+	{
+		JSONScanner scanner = new JSONScanner( new StringReader( this.json ), new SourceLocation( null, 1 ) );
+		int count = 0;
+		while( scanner.next() != JSONScanner.TYPE.EOF )
+			count++;
+		return count;
+	}
+
+	/**
+	 * Tokenizes the SQL script.
+	 *
+	 * @return The number of tokens.
+	 */
+	@Benchmark
+	public int sqlTokenizer()
+	{
+		SQLTokenizer tokenizer = new SQLTokenizer( SourceReaders.forString( this.sql ) );
+		int count = 0;
+		for( SQLTokenizer.Token token = tokenizer.get(); !token.isEndOfInput(); token = tokenizer.get() )
+			count++;
+		return count;
+	}
+
+	/**
+	 * Reads the commands from the SQL script with {@link SQLSource#readCommand()}.
+	 *
+	 * @return The number of commands.
+	 */
+	@Benchmark
+	public int sqlSourceReadCommand()
+	{
+		SQLSource source = Factory.openSQLFile( new MemoryResource( this.sqlBytes ), this.listener ).getSource();
+		int count = 0;
+		try
+		{
+			for( Command command = source.readCommand(); command != null; command = source.readCommand() )
+				count++;
+		}
+		finally
+		{
+			source.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Scans the upgrade file completely. A memory resource is used, so that the saved index is not used.
+	 *
+	 * @return The encoding of the upgrade file.
+	 */
+	@Benchmark
+	public String upgradeFileScan()
+	{
+		UpgradeFile file = Factory.openUpgradeFile( new MemoryResource( this.upgradeBytes ), this.listener );
+		return file.getEncoding(); // The memory resource does not need to be closed
+	}
+}
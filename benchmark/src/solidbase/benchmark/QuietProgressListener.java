@@ -0,0 +1,40 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.benchmark;
+
+import solidbase.core.ProgressListener;
+
+
+/**
+ * A progress listener that prints nothing, so that console output does not influence the benchmarks.
+ *
+ * @author Ren M. de Bloois
+ */
+public class QuietProgressListener extends ProgressListener
+{
+	@Override
+	public void cr()
+	{
+		// Nothing
+	}
+
+	@Override
+	public void println( String message )
+	{
+		// Nothing
+	}
+}
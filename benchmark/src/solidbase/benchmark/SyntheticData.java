@@ -0,0 +1,199 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import solidbase.core.SystemException;
+
+
+/**
+ * Generates synthetic CSV, JSON and SQL files of a configurable size for the benchmarks. The contents are
+ * deterministic, so that the results of different runs can be compared.
+ *
+ * @author Ren M. de Bloois
+ */
+public final class SyntheticData
+{
+	/**
+	 * The columns of the benchmark table.
+	 */
+	static public final String TABLE_COLUMNS = "ID INTEGER, NAME VARCHAR(40), AMOUNT DECIMAL(10,2), CREATED DATE";
+
+	/**
+	 * This utility class cannot be instantiated.
+	 */
+	private SyntheticData()
+	{
+		super();
+	}
+
+	/**
+	 * Generates CSV data with the given number of records. Each record contains an integer, a quoted string, a decimal
+	 * and a date, matching {@link #TABLE_COLUMNS}.
+	 *
+	 * @param records The number of records.
+	 * @return The CSV data.
+	 */
+	static public String csv( int records )
+	{
+		StringBuilder result = new StringBuilder( records * 48 );
+		for( int i = 0; i < records; i++ )
+		{
+			result.append( i ).append( ",\"Name " ).append( i ).append( ", with \"\"quotes\"\"\"," );
+			result.append( i % 1000 ).append( '.' ).append( i % 10 ).append( "5," );
+			result.append( date( i ) ).append( '\n' );
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Generates a JSON array with the given number of records. Each record is an array containing an integer, a
+	 * string, a decimal and a date string.
+	 *
+	 * @param records The number of records.
+	 * @return The JSON data.
+	 */
+	static public String json( int records )
+	{
+		StringBuilder result = new StringBuilder( records * 48 );
+		result.append( "[\n" );
+		for( int i = 0; i < records; i++ )
+		{
+			if( i > 0 )
+				result.append( ",\n" );
+			result.append( '[' ).append( i ).append( ",\"Name " ).append( i ).append( ", with \\\"quotes\\\"\"," );
+			result.append( i % 1000 ).append( '.' ).append( i % 10 ).append( "5,\"" );
+			result.append( date( i ) ).append( "\"]" );
+		}
+		result.append( "\n]\n" );
+		return result.toString();
+	}
+
+	/**
+	 * Generates an SQL script with the given number of INSERT statements into the table BENCH.
+	 *
+	 * @param statements The number of statements.
+	 * @return The SQL script.
+	 */
+	static public String sql( int statements )
+	{
+		return sql( "BENCH", statements );
+	}
+
+	/**
+	 * Generates an SQL script with the given number of INSERT statements into the given table. The table should have
+	 * the {@link #TABLE_COLUMNS}.
+	 *
+	 * @param table The name of the table.
+	 * @param statements The number of statements.
+	 * @return The SQL script.
+	 */
+	static public String sql( String table, int statements )
+	{
+		StringBuilder result = new StringBuilder( statements * 80 );
+		for( int i = 0; i < statements; i++ )
+		{
+			if( i % 100 == 0 )
+				result.append( "\n--* SECTION \"Block " ).append( i / 100 ).append( "\"\n" );
+			result.append( "INSERT INTO " ).append( table ).append( " ( ID, NAME, AMOUNT, CREATED )\n" );
+			result.append( "VALUES ( " ).append( i ).append( ", 'Name ").append( i ).append( "', " );
+			result.append( i % 1000 ).append( '.' ).append( i % 10 ).append( "5, DATE '" ).append( date( i ) ).append( "' );\n" );
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Returns a date string for the given record.
+	 *
+	 * @param i The record number.
+	 * @return A date string.
+	 */
+	static private String date( int i )
+	{
+		int month = i % 12 + 1;
+		int day = i % 28 + 1;
+		return "2012-" + ( month < 10 ? "0" : "" ) + month + "-" + ( day < 10 ? "0" : "" ) + day;
+	}
+
+	/**
+	 * Writes the given text to a file, encoded as UTF-8.
+	 *
+	 * @param file The file to write.
+	 * @param text The text to write.
+	 */
+	static public void write( File file, String text )
+	{
+		try
+		{
+			OutputStream out = new FileOutputStream( file );
+			try
+			{
+				out.write( text.getBytes( "UTF-8" ) );
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
+	}
+
+	/**
+	 * Creates a new empty folder in the temporary folder.
+	 *
+	 * @param prefix The prefix for the name of the folder.
+	 * @return The folder.
+	 */
+	static public File createTempFolder( String prefix )
+	{
+		try
+		{
+			File result = File.createTempFile( prefix, "" );
+			if( !result.delete() || !result.mkdir() )
+				throw new IOException( "Could not create folder " + result );
+			return result;
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
+	}
+
+	/**
+	 * Deletes a folder and its contents.
+	 *
+	 * @param folder The folder to delete.
+	 */
+	static public void deleteFolder( File folder )
+	{
+		File[] files = folder.listFiles();
+		if( files != null )
+			for( File file : files )
+				if( file.isDirectory() )
+					deleteFolder( file );
+				else
+					file.delete();
+		folder.delete();
+	}
+}
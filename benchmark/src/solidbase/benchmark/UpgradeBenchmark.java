@@ -0,0 +1,162 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import solidbase.core.Runner;
+import solidbase.core.SystemException;
+import solidbase.util.DriverDataSource;
+import solidstack.io.FileResource;
+
+
+/**
+ * End-to-end upgrade benchmark. Generates an upgrade file with the {@link UpgradeFileGenerator} and runs it with
+ * {@link Runner#upgrade()} against a new in-memory HSQLDB database, first upgrading to the end of the main line and
+ * then downgrading one version. Reports the statements per second and how the time is divided over parsing, JDBC
+ * execution and {@link solidbase.core.DBVersion} bookkeeping, as measured by the {@link UpgradeTimer}.
+ * <p>
+ * This is not a JMH benchmark because an upgrade can only be executed once per database. Each run gets a new database
+ * and a new upgrade file, so the first upgrade scans the upgrade file and the downgrade uses its saved index. The first
+ * runs warm up the JIT.
+ * <p>
+ * Arguments: [segments] [statements per segment] [branches] [runs]. The defaults are 100, 100, 10 and 5.
+ *
+ * @author Ren M. de Bloois
+ */
+public final class UpgradeBenchmark
+{
+	/**
+	 * This class cannot be constructed.
+	 */
+	private UpgradeBenchmark()
+	{
+		super();
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args The number of segments, statements per segment, branches and runs.
+	 */
+	static public void main( String... args )
+	{
+		int segments = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 100;
+		int statements = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 100;
+		int branches = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 10;
+		int runs = args.length > 3 ? Integer.parseInt( args[ 3 ] ) : 5;
+
+		UpgradeFileGenerator generator = new UpgradeFileGenerator( segments, statements, branches );
+		String upgradeFile = generator.generate();
+		System.out.println( "Upgrade file with " + segments + " segments of " + statements + " statements, " + branches + " branches, "
+				+ upgradeFile.length() + " characters" );
+
+		File folder = SyntheticData.createTempFolder( "solidbase-benchmark" );
+		try
+		{
+			for( int run = 1; run <= runs; run++ )
+			{
+				File file = new File( folder, "upgrade" + run + ".sql" );
+				SyntheticData.write( file, upgradeFile );
+				UpgradeTimer timer = run( generator, file, "jdbc:hsqldb:mem:upgrade" + run );
+				if( timer.getStatements() < generator.getStatements() )
+					throw new IllegalStateException( "Expected at least " + generator.getStatements() + " statements, not " + timer.getStatements() );
+			}
+		}
+		finally
+		{
+			SyntheticData.deleteFolder( folder );
+		}
+	}
+
+	/**
+	 * Upgrades and downgrades a new database and prints the report.
+	 *
+	 * @param generator The generator of the upgrade file.
+	 * @param file The upgrade file.
+	 * @param url The URL of the new database.
+	 * @return The timer, for verification.
+	 */
+	static protected UpgradeTimer run( UpgradeFileGenerator generator, File file, String url )
+	{
+		DataSource database = new DriverDataSource( "org.hsqldb.jdbcDriver", url, "sa", "" );
+		UpgradeTimer timer = new UpgradeTimer();
+		DataSource dataSource = timer.wrap( database );
+
+		long start = System.nanoTime();
+		upgrade( file, dataSource, timer, generator.getTarget(), false );
+		if( generator.getDowngradeTarget() != null )
+			upgrade( file, dataSource, timer, generator.getDowngradeTarget(), true );
+		long total = System.nanoTime() - start;
+
+		System.out.println( timer.report( total ) );
+		shutdown( database );
+		return timer;
+	}
+
+	/**
+	 * Upgrades the database to the given target.
+	 *
+	 * @param file The upgrade file.
+	 * @param dataSource The database.
+	 * @param timer The timer.
+	 * @param target The target version.
+	 * @param downgradeAllowed Allow downgrades.
+	 */
+	static protected void upgrade( File file, DataSource dataSource, UpgradeTimer timer, String target, boolean downgradeAllowed )
+	{
+		Runner runner = new Runner();
+		runner.setProgressListener( timer );
+		runner.setConnectionAttributes( "default", dataSource, "sa", "" );
+		runner.setUpgradeFile( new FileResource( file ) );
+		runner.setUpgradeTarget( target );
+		runner.setDowngradeAllowed( downgradeAllowed );
+		runner.upgrade();
+	}
+
+	/**
+	 * Shuts the in-memory database down, so that its memory is released.
+	 *
+	 * @param dataSource The database.
+	 */
+	static protected void shutdown( DataSource dataSource )
+	{
+		try
+		{
+			Connection connection = dataSource.getConnection();
+			try
+			{
+				Statement statement = connection.createStatement();
+				statement.execute( "SHUTDOWN" );
+				statement.close();
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch( SQLException e )
+		{
+			throw new SystemException( e );
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.benchmark;
+
+
+/**
+ * Generates large valid upgrade files for the benchmarks. The upgrade file contains:
+ * <ul>
+ * <li>A SETUP segment that creates the version tables;</li>
+ * <li>A main line of UPGRADE segments from "" to "1", "2", etc. Each segment creates a table and fills it;</li>
+ * <li>Branches that leave the main line with an UPGRADE segment and return to it with a SWITCH segment;</li>
+ * <li>A DOWNGRADE segment that drops the table of the last segment of the main line.</li>
+ * </ul>
+ * The branches are never on the shortest path, so they only make the version graph larger.
+ *
+ * @author Ren M. de Bloois
+ */
+public class UpgradeFileGenerator
+{
+	/**
+	 * The number of segments in the main line.
+	 */
+	protected int segments;
+
+	/**
+	 * The number of statements per segment, including the CREATE TABLE.
+	 */
+	protected int statements;
+
+	/**
+	 * The number of branches.
+	 */
+	protected int branches;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param segments The number of segments in the main line.
+	 * @param statements The number of statements per segment, including the CREATE TABLE.
+	 * @param branches The number of branches.
+	 */
+	public UpgradeFileGenerator( int segments, int statements, int branches )
+	{
+		if( segments < 1 )
+			throw new IllegalArgumentException( "segments should be 1 or more" );
+		if( statements < 1 )
+			throw new IllegalArgumentException( "statements should be 1 or more" );
+		if( branches < 0 )
+			throw new IllegalArgumentException( "branches should be 0 or more" );
+
+		this.segments = segments;
+		this.statements = statements;
+		this.branches = branches;
+	}
+
+	/**
+	 * Returns the version at the end of the main line.
+	 *
+	 * @return The version at the end of the main line.
+	 */
+	public String getTarget()
+	{
+		return version( this.segments );
+	}
+
+	/**
+	 * Returns the target of the DOWNGRADE segment.
+	 *
+	 * @return The target of the DOWNGRADE segment, or null when the main line contains only 1 segment.
+	 */
+	public String getDowngradeTarget()
+	{
+		if( this.segments < 2 )
+			return null;
+		return version( this.segments - 1 );
+	}
+
+	/**
+	 * Returns the number of statements that are executed when upgrading to {@link #getTarget()} and then downgrading to
+	 * {@link #getDowngradeTarget()}, excluding the SETUP segment.
+	 *
+	 * @return The number of statements.
+	 */
+	public int getStatements()
+	{
+		return this.segments * this.statements + ( this.segments < 2 ? 0 : 1 );
+	}
+
+	/**
+	 * Generates the upgrade file.
+	 *
+	 * @return The upgrade file.
+	 */
+	public String generate()
+	{
+		StringBuilder result = new StringBuilder( ( this.segments + this.branches ) * this.statements * 80 );
+
+		result.append( "--* DEFINITION\n" );
+		result.append( "--*\tSETUP \"\" --> \"1.1\"\n" );
+		for( int i = 0; i < this.segments; i++ )
+		{
+			segment( result, "--*\t", "UPGRADE", version( i ), version( i + 1 ) );
+			for( int b = 1; b <= this.branches; b++ )
+				if( fork( b ) == i )
+				{
+					segment( result, "--*\t\t", "UPGRADE", version( i ), branch( b ) );
+					segment( result, "--*\t\t", "SWITCH", branch( b ), version( i + 1 ) );
+				}
+		}
+		if( getDowngradeTarget() != null )
+			segment( result, "--*\t", "DOWNGRADE", getTarget(), getDowngradeTarget() );
+		result.append( "--* /DEFINITION\n" );
+
+		result.append( "\n--* SETUP \"\" --> \"1.1\"\n" );
+		result.append( "CREATE TABLE DBVERSION ( VERSION VARCHAR(20), TARGET VARCHAR(20), STATEMENTS INTEGER NOT NULL, SPEC VARCHAR(5) NOT NULL );\n" );
+		result.append( "CREATE TABLE DBVERSIONLOG ( TYPE VARCHAR(1) NOT NULL, SOURCE VARCHAR(20), TARGET VARCHAR(20) NOT NULL, STATEMENT INTEGER NOT NULL, STAMP TIMESTAMP NOT NULL, COMMAND VARCHAR(4000), RESULT VARCHAR(4000) );\n" );
+		result.append( "CREATE INDEX DBVERSIONLOG_INDEX1 ON DBVERSIONLOG ( TYPE, TARGET );\n" );
+		result.append( "--* /SETUP\n" );
+
+		for( int i = 0; i < this.segments; i++ )
+		{
+			segment( result, "\n--* ", "UPGRADE", version( i ), version( i + 1 ) );
+			table( result, "SEGMENT" + ( i + 1 ) );
+			result.append( "--* /UPGRADE\n" );
+
+			for( int b = 1; b <= this.branches; b++ )
+				if( fork( b ) == i )
+				{
+					segment( result, "\n--* ", "UPGRADE", version( i ), branch( b ) );
+					table( result, "BRANCH" + b );
+					result.append( "--* /UPGRADE\n" );
+					segment( result, "\n--* ", "SWITCH", branch( b ), version( i + 1 ) );
+					result.append( "--* /SWITCH\n" );
+				}
+		}
+
+		if( getDowngradeTarget() != null )
+		{
+			segment( result, "\n--* ", "DOWNGRADE", getTarget(), getDowngradeTarget() );
+			result.append( "DROP TABLE SEGMENT" ).append( this.segments ).append( ";\n" );
+			result.append( "--* /DOWNGRADE\n" );
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Appends a segment header.
+	 *
+	 * @param result The upgrade file being generated.
+	 * @param prefix The text before the type of segment.
+	 * @param type The type of segment.
+	 * @param source The source version.
+	 * @param target The target version.
+	 */
+	protected void segment( StringBuilder result, String prefix, String type, String source, String target )
+	{
+		result.append( prefix ).append( type ).append( " \"" ).append( source ).append( "\" --> \"" ).append( target ).append( "\"\n" );
+	}
+
+	/**
+	 * Appends the statements that create and fill a table.
+	 *
+	 * @param result The upgrade file being generated.
+	 * @param table The name of the table.
+	 */
+	protected void table( StringBuilder result, String table )
+	{
+		result.append( "CREATE TABLE " ).append( table ).append( " ( " ).append( SyntheticData.TABLE_COLUMNS ).append( " );\n" );
+		result.append( SyntheticData.sql( table, this.statements - 1 ) );
+	}
+
+	/**
+	 * Returns the position in the main line where the given branch leaves it. The branches are spread evenly over the
+	 * main line.
+	 *
+	 * @param branch The number of the branch, starting with 1.
+	 * @return The number of the segment in the main line, starting with 0.
+	 */
+	protected int fork( int branch )
+	{
+		return (int)( (long)( branch - 1 ) * this.segments / this.branches );
+	}
+
+	/**
+	 * Returns the version in the main line after the given number of segments.
+	 *
+	 * @param segment The number of segments.
+	 * @return The version.
+	 */
+	static protected String version( int segment )
+	{
+		return segment == 0 ? "" : String.valueOf( segment );
+	}
+
+	/**
+	 * Returns the version at the end of the given branch.
+	 *
+	 * @param branch The number of the branch.
+	 * @return The version.
+	 */
+	static protected String branch( int branch )
+	{
+		return "branch-" + branch;
+	}
+}
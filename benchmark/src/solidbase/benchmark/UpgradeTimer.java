@@ -0,0 +1,222 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import solidbase.core.Command;
+import solidbase.core.SQLExecutionException;
+
+
+/**
+ * A progress listener that measures where the time of an upgrade goes. The data source of the database should be
+ * wrapped with {@link #wrap(DataSource)}, so that the time spent in JDBC calls can be measured. JDBC calls between
+ * {@link #executing(Command)} and {@link #executed()} are counted as the execution of the statements of the upgrade
+ * file. All other JDBC calls are counted as {@link solidbase.core.DBVersion} bookkeeping, this includes connecting to
+ * the database and reading the version tables. The remaining time is spent in parsing the upgrade file and in the
+ * upgrade processor itself.
+ *
+ * @author Ren M. de Bloois
+ */
+public class UpgradeTimer extends QuietProgressListener
+{
+	/**
+	 * Is a statement from the upgrade file being executed?
+	 */
+	protected boolean executing;
+
+	/**
+	 * The number of statements executed.
+	 */
+	protected int statements;
+
+	/**
+	 * The nanoseconds spent in JDBC calls executing the statements from the upgrade file.
+	 */
+	protected long executionTime;
+
+	/**
+	 * The nanoseconds spent in all other JDBC calls.
+	 */
+	protected long bookkeepingTime;
+
+	/**
+	 * Wraps the given data source so that the time spent in the JDBC calls is measured.
+	 *
+	 * @param dataSource The data source to wrap.
+	 * @return The wrapped data source.
+	 */
+	public DataSource wrap( DataSource dataSource )
+	{
+		return (DataSource)proxy( dataSource, DataSource.class );
+	}
+
+	/**
+	 * Creates a proxy for the given object that measures the time spent in its methods.
+	 *
+	 * @param object The object to proxy.
+	 * @param type The interface to proxy.
+	 * @return The proxy.
+	 */
+	protected Object proxy( Object object, Class< ? > type )
+	{
+		return Proxy.newProxyInstance( type.getClassLoader(), new Class< ? >[] { type }, new TimedHandler( object ) );
+	}
+
+	/**
+	 * Adds the given time to the execution or bookkeeping time.
+	 *
+	 * @param time The time in nanoseconds.
+	 */
+	protected void add( long time )
+	{
+		if( this.executing )
+			this.executionTime += time;
+		else
+			this.bookkeepingTime += time;
+	}
+
+	@Override
+	protected void executing( Command command )
+	{
+		this.executing = true;
+	}
+
+	@Override
+	protected void executed()
+	{
+		this.executing = false;
+		this.statements++;
+	}
+
+	@Override
+	protected void exception( SQLExecutionException exception )
+	{
+		this.executing = false;
+	}
+
+	/**
+	 * Returns the number of statements executed.
+	 *
+	 * @return The number of statements executed.
+	 */
+	public int getStatements()
+	{
+		return this.statements;
+	}
+
+	/**
+	 * Returns the nanoseconds spent in JDBC calls executing the statements from the upgrade file.
+	 *
+	 * @return The nanoseconds spent in JDBC calls executing the statements from the upgrade file.
+	 */
+	public long getExecutionTime()
+	{
+		return this.executionTime;
+	}
+
+	/**
+	 * Returns the nanoseconds spent in the other JDBC calls, mostly in {@link solidbase.core.DBVersion}.
+	 *
+	 * @return The nanoseconds spent in the other JDBC calls.
+	 */
+	public long getBookkeepingTime()
+	{
+		return this.bookkeepingTime;
+	}
+
+	/**
+	 * Returns a one line report.
+	 *
+	 * @param total The total time of the upgrade in nanoseconds.
+	 * @return A one line report.
+	 */
+	public String report( long total )
+	{
+		long parsingTime = total - this.executionTime - this.bookkeepingTime;
+		return this.statements + " statements in " + total / 1000000 + " ms, " + this.statements * 1000000000L / Math.max( total, 1 ) + " statements/s"
+				+ "; parsing " + percentage( parsingTime, total )
+				+ ", JDBC execution " + percentage( this.executionTime, total )
+				+ ", DBVersion bookkeeping " + percentage( this.bookkeepingTime, total );
+	}
+
+	/**
+	 * Formats the given time as milliseconds and a percentage of the total.
+	 *
+	 * @param time The time in nanoseconds.
+	 * @param total The total time in nanoseconds.
+	 * @return The formatted time.
+	 */
+	static protected String percentage( long time, long total )
+	{
+		return time / 1000000 + " ms (" + time * 100 / Math.max( total, 1 ) + "%)";
+	}
+
+
+	/**
+	 * Measures the time spent in the methods of a JDBC object. Connections and statements returned by the object are
+	 * proxied too.
+	 */
+	protected class TimedHandler implements InvocationHandler
+	{
+		/**
+		 * The JDBC object.
+		 */
+		protected Object object;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param object The JDBC object.
+		 */
+		protected TimedHandler( Object object )
+		{
+			this.object = object;
+		}
+
+		//@Override
+		public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+		{
+			Object result;
+			long start = System.nanoTime();
+			try
+			{
+				result = method.invoke( this.object, args );
+			}
+			catch( InvocationTargetException e )
+			{
+				throw e.getCause();
+			}
+			finally
+			{
+				add( System.nanoTime() - start );
+			}
+
+			Class< ? > type = method.getReturnType();
+			if( result != null && ( type == Connection.class || Statement.class.isAssignableFrom( type ) ) )
+				return proxy( result, type );
+			return result;
+		}
+	}
+}
@@ -16,7 +16,10 @@
 
 package solidbase;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -25,6 +28,7 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.commons.cli.CommandLine;
@@ -118,6 +122,11 @@ public class Main
 		options.addOption( "D", true, "parameter to the SQL file or upgrade file" );
 		options.addOption( "config", true, "specifies a properties file to use" );
 		options.addOption( "downgradeallowed", false, "allow downgrades to reach the target" );
+		options.addOption( "batch", true, "sends DML statements in batches of the given size" );
+		options.addOption( "tenants", true, "upgrades the tenant databases listed in the file" );
+		options.addOption( "threads", true, "number of tenants to upgrade at the same time" );
+		options.addOption( "metrics", true, "writes timings and counters to a JSON file" );
+		options.addOption( "profile", true, "writes a profile of the upgrade to a JSON file" );
 		options.addOption( "help", false, "Brings up this page" );
 
 		options.getOption( "dumplog" ).setArgName( "filename" );
@@ -132,6 +141,11 @@ public class Main
 		options.getOption( "D" ).setArgs( 2 );
 		options.getOption( "D" ).setValueSeparator( '=' );
 		options.getOption( "config" ).setArgName( "filename" );
+		options.getOption( "batch" ).setArgName( "size" );
+		options.getOption( "tenants" ).setArgName( "filename" );
+		options.getOption( "threads" ).setArgName( "count" );
+		options.getOption( "metrics" ).setArgName( "filename" );
+		options.getOption( "profile" ).setArgName( "filename" );
 
 		// Read the commandline options
 
@@ -198,9 +212,16 @@ public class Main
 		for( Entry<Object, Object> entry : configuration.getParameters().entrySet() )
 			runner.addParameter( (String)entry.getKey(), (String)entry.getValue() );
 
+		if( line.hasOption( "metrics" ) )
+			runner.setMetricsFile( Resources.getResource( line.getOptionValue( "metrics" ) ) );
+		if( line.hasOption( "profile" ) )
+			runner.setProfileFile( Resources.getResource( line.getOptionValue( "profile" ) ) );
+
 		if( configuration.getSqlFile() != null )
 		{
 			runner.setSQLFile( Resources.getResource( configuration.getSqlFile() ) );
+			if( line.hasOption( "batch" ) )
+				runner.setBatchSize( Integer.parseInt( line.getOptionValue( "batch" ) ) );
 			runner.executeSQL();
 		}
 		else if( opts.dumplog )
@@ -214,7 +235,58 @@ public class Main
 			runner.setUpgradeFile( Resources.getResource( configuration.getUpgradeFile() ) );
 			runner.setUpgradeTarget( configuration.getTarget() );
 			runner.setDowngradeAllowed( opts.downgradeallowed );
-			runner.upgrade();
+			if( line.hasOption( "tenants" ) )
+			{
+				readTenants( runner, line.getOptionValue( "tenants" ) );
+				if( line.hasOption( "threads" ) )
+					runner.setTenantThreads( Integer.parseInt( line.getOptionValue( "threads" ) ) );
+				Map< String, Throwable > failures = runner.upgradeTenants();
+				if( !failures.isEmpty() )
+					throw new FatalException( failures.size() + " tenant(s) failed to upgrade" );
+			}
+			else
+				runner.upgrade();
+		}
+	}
+
+
+	/**
+	 * Reads the tenants from the given file and adds them to the runner. Each line contains a tenant name and the URL
+	 * of its database, separated by an equals sign. Empty lines and lines starting with # are ignored. The driver, user
+	 * name and password are taken from the default database.
+	 *
+	 * @param runner The runner to add the tenants to.
+	 * @param fileName The name of the file containing the tenants.
+	 */
+	static protected void readTenants( Runner runner, String fileName )
+	{
+		try
+		{
+			BufferedReader reader = new BufferedReader( new FileReader( fileName ) );
+			try
+			{
+				String line = reader.readLine();
+				while( line != null )
+				{
+					line = line.trim();
+					if( line.length() > 0 && !line.startsWith( "#" ) )
+					{
+						int pos = line.indexOf( '=' );
+						if( pos < 0 )
+							throw new FatalException( "Line should match the following syntax: <name> = <url>, in " + fileName + ": " + line );
+						runner.addTenant( line.substring( 0, pos ).trim(), line.substring( pos + 1 ).trim(), null, null );
+					}
+					line = reader.readLine();
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+		catch( IOException e )
+		{
+			throw new FatalException( e.toString() );
 		}
 	}
 
@@ -16,6 +16,10 @@
 
 package solidbase.ant;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.tools.ant.BuildException;
 
 import solidbase.core.FatalException;
@@ -45,6 +49,16 @@ public class UpgradeTask extends DBTask
 	 */
 	protected boolean downgradeallowed;
 
+	/**
+	 * Field to store the nested collection of tenant connections.
+	 */
+	protected List< Connection > tenants = new ArrayList< Connection >();
+
+	/**
+	 * Field to store the configured number of tenants to upgrade at the same time.
+	 */
+	protected int threads;
+
 	/**
 	 * Returns the configured upgrade file.
 	 *
@@ -105,6 +119,49 @@ public class UpgradeTask extends DBTask
 		this.downgradeallowed = downgradeallowed;
 	}
 
+	/**
+	 * Creates a tenant connection. When tenants are configured, the upgrade is executed on each tenant instead of on
+	 * the default connection.
+	 *
+	 * @return The tenant connection created.
+	 */
+	public Connection createTenant()
+	{
+		Connection connection = new Connection();
+		this.tenants.add( connection );
+		return connection;
+	}
+
+	/**
+	 * Returns all configured tenant connections.
+	 *
+	 * @return All configured tenant connections.
+	 */
+	public List< Connection > getTenants()
+	{
+		return this.tenants;
+	}
+
+	/**
+	 * Returns the configured number of tenants to upgrade at the same time.
+	 *
+	 * @return The configured number of tenants to upgrade at the same time.
+	 */
+	public int getThreads()
+	{
+		return this.threads;
+	}
+
+	/**
+	 * Sets the number of tenants to upgrade at the same time.
+	 *
+	 * @param threads The number of tenants to upgrade at the same time.
+	 */
+	public void setThreads( int threads )
+	{
+		this.threads = threads;
+	}
+
 	/**
 	 * Validates the configuration of the Ant Task.
 	 */
@@ -115,6 +172,14 @@ public class UpgradeTask extends DBTask
 
 		if( this.upgradefile == null )
 			throw new BuildException( "The 'upgradefile' attribute is mandatory for the " + getTaskName() + " task" );
+
+		for( Connection tenant : this.tenants )
+		{
+			if( tenant.getName() == null )
+				throw new BuildException( "The 'name' attribute is mandatory for a 'tenant' element" );
+			if( tenant.getUrl() == null )
+				throw new BuildException( "The 'url' attribute is mandatory for a 'tenant' element" );
+		}
 	}
 
 	@Override
@@ -125,6 +190,10 @@ public class UpgradeTask extends DBTask
 		runner.setUpgradeFile( Resources.getResource( getProject().getBaseDir() ).resolve( this.upgradefile ) );
 		runner.setUpgradeTarget( this.upgradeTarget );
 		runner.setDowngradeAllowed( this.downgradeallowed );
+		for( Connection tenant : this.tenants )
+			runner.addTenant( tenant.getName(), tenant.getUrl(), tenant.getUsername(), tenant.getPassword() );
+		if( this.threads > 0 )
+			runner.setTenantThreads( this.threads );
 
 		return runner;
 	}
@@ -170,7 +239,14 @@ public class UpgradeTask extends DBTask
 		Runner runner = prepareRunner();
 		try
 		{
-			runner.upgrade();
+			if( !this.tenants.isEmpty() )
+			{
+				Map< String, Throwable > failures = runner.upgradeTenants();
+				if( !failures.isEmpty() )
+					throw new BuildException( failures.size() + " tenant(s) failed to upgrade" );
+			}
+			else
+				runner.upgrade();
 		}
 		catch( FatalException e )
 		{
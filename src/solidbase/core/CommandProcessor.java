@@ -18,6 +18,7 @@ package solidbase.core;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.regex.Matcher;
@@ -25,6 +26,9 @@ import java.util.regex.Pattern;
 
 import solidbase.core.Delimiter.Type;
 import solidbase.util.Assert;
+import solidbase.util.JDBCSupport;
+import solidbase.util.KeywordIndex;
+import solidbase.util.Metrics;
 import solidstack.io.Resource;
 import solidstack.io.SourceLocation;
 import solidstack.io.SourceReader;
@@ -136,6 +140,36 @@ abstract public class CommandProcessor
 	// TODO Only with { }?
 	static protected Pattern placeHolderPattern = Pattern.compile( "&(([A-Za-z\\$_][A-Za-z0-9\\$_]*)|\\{([A-Za-z\\$_][A-Za-z0-9\\$_]*)\\})" );
 
+	/**
+	 * The transient commands, indexed by their first keyword.
+	 */
+	static protected final KeywordIndex< Annotation > annotations = new KeywordIndex< Annotation >();
+
+	/**
+	 * The persistent commands, indexed by their first keyword.
+	 */
+	static protected final KeywordIndex< Annotation > commands = new KeywordIndex< Annotation >();
+
+	static
+	{
+		annotations.put( Annotation.SECTION, sectionPattern, "SECTION" );
+		annotations.put( Annotation.DELIMITER, delimiterPattern, "SET", "DELIMITER" );
+		annotations.put( Annotation.IGNORE_SQL_ERROR, ignoreSqlErrorPattern, "IGNORE" );
+		annotations.put( Annotation.END_IGNORE, ignoreEnd, "END", "/IGNORE" );
+		annotations.put( Annotation.SELECT_CONNECTION, selectConnectionPattern, "USE", "SELECT" );
+		annotations.put( Annotation.IF_SCRIPT, IF_SCRIPT_COMMAND, "IF" );
+		annotations.put( Annotation.ELSE, elsePattern, "ELSE" );
+		annotations.put( Annotation.END_IF, ifEndPattern, "END", "/IF" );
+		annotations.put( Annotation.SET_USER, setUserPattern, "SET" );
+		annotations.put( Annotation.SKIP, skipPattern, "SKIP" );
+		annotations.put( Annotation.END_SKIP, skipEnd, "END", "/SKIP" );
+		annotations.put( Annotation.JDBC_ESCAPING, JDBC_ESCAPING, "JDBC" );
+		annotations.put( Annotation.ENCODING, encodingPattern, "ENCODING" );
+		annotations.put( Annotation.SCRIPT, SCRIPT_COMMAND, "SCRIPT" );
+
+		commands.put( Annotation.RUN, runPattern, "RUN" );
+	}
+
 	/**
 	 * Current execution context.
 	 */
@@ -146,6 +180,16 @@ abstract public class CommandProcessor
 	 */
 	protected ProgressListener progress;
 
+	/**
+	 * The number of commands to parse ahead in a separate thread. 0 to parse the commands when they are executed.
+	 */
+	protected int prefetch;
+
+	/**
+	 * The timers and counters.
+	 */
+	protected Metrics metrics = new Metrics();
+
 	/**
 	 * Constructor.
 	 *
@@ -162,7 +206,54 @@ abstract public class CommandProcessor
 	}
 
 	/**
-	 * Execute the given command.
+	 * Returns the timers and counters. The plugins add their own.
+	 *
+	 * @return The timers and counters.
+	 */
+	public Metrics getMetrics()
+	{
+		return this.metrics;
+	}
+
+	/**
+	 * Sets the timers and counters. This way they can be shared between command processors.
+	 *
+	 * @param metrics The timers and counters.
+	 */
+	public void setMetrics( Metrics metrics )
+	{
+		Assert.notNull( metrics );
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the number of commands to parse ahead in a separate thread, so that parsing overlaps with the execution of
+	 * the commands in the database.
+	 *
+	 * @param prefetch The number of commands to parse ahead. 0 to parse the commands when they are executed.
+	 */
+	public void setPrefetch( int prefetch )
+	{
+		Assert.isTrue( prefetch >= 0 );
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Wraps the given source in a {@link PrefetchingSQLSource} if prefetching is enabled.
+	 *
+	 * @param source The source.
+	 * @return The source that parses ahead, or the given source if prefetching is not enabled.
+	 */
+	protected SQLSource prefetch( SQLSource source )
+	{
+		if( this.prefetch == 0 )
+			return source;
+		return new PrefetchingSQLSource( source, this.prefetch );
+	}
+
+	/**
+	 * Execute the given command. The time of the persistent commands is added to the 'statement' timer, and the part of
+	 * it that is spent in JDBC to the 'statement.jdbc' timer.
 	 *
 	 * @param command The command to be executed.
 	 * @param skip The command needs to be skipped.
@@ -177,13 +268,18 @@ abstract public class CommandProcessor
 			if( !skip )
 				this.progress.executing( command );
 
+		long start = System.nanoTime();
 		SQLExecutionException result = null;
 		try
 		{
 			if( !executeListeners( command, skip ) )
 				if( !skip )
 					if( command.isPersistent() )
+					{
+						long jdbc = System.nanoTime();
 						executeJdbc( command );
+						this.metrics.time( "statement.jdbc", System.nanoTime() - jdbc );
+					}
 					else
 						throw new SourceException( "Unknown command " + command.getCommand(), command.getLocation() );
 		}
@@ -201,7 +297,10 @@ abstract public class CommandProcessor
 
 		if( command.isPersistent() )
 			if( !skip )
+			{
+				this.metrics.time( "statement", System.nanoTime() - start );
 				this.progress.executed();
+			}
 			else
 				this.progress.skipped( command );
 
@@ -239,96 +338,75 @@ abstract public class CommandProcessor
 	protected boolean executeListeners( Command command, boolean skip ) throws SQLException
 	{
 		String sql = command.getCommand();
-		Matcher matcher;
 		if( command.isTransient() )
 		{
-			if( ( matcher = sectionPattern.matcher( sql ) ).matches() )
-			{
-				section( matcher.group( 1 ), matcher.group( 2 ), command );
-				return true;
-			}
-			if( ( matcher = delimiterPattern.matcher( sql ) ).matches() )
-			{
-				setDelimiters( parseDelimiters( matcher ) );
-				return true;
-			}
-			if( ( matcher = ignoreSqlErrorPattern.matcher( sql ) ).matches() )
-			{
-				this.context.pushIgnores( matcher.group( 1 ) );
-				return true;
-			}
-			if( ignoreEnd.matcher( sql ).matches() )
-			{
-				this.context.popIgnores();
-				return true;
-			}
-			if( ( matcher = selectConnectionPattern.matcher( sql ) ).matches() )
-			{
-				selectConnection( matcher.group( 1 ), command );
-				return true;
-			}
-			if( ( matcher = IF_SCRIPT_COMMAND.matcher( sql ) ).matches() )
-			{
-				ifScript( matcher.group( 1 ), command );
-				return true;
-			}
-			if( elsePattern.matcher( sql ).matches() )
-			{
-				this.context.doElse( command.getLocation() );
-				return true;
-			}
-			if( ifEndPattern.matcher( sql ).matches() )
-			{
-				this.context.endIf( command.getLocation() );
-				return true;
-			}
-			if( ( matcher = setUserPattern.matcher( sql ) ).matches() )
-			{
-				setUser( matcher.group( 1 ) );
-				return true;
-			}
-			if( skipPattern.matcher( sql ).matches() )
-			{
-				this.context.skip( true );
-				return true;
-			}
-			if( skipEnd.matcher( sql ).matches() )
-			{
-				this.context.endSkip( command.getLocation() );
-				return true;
-			}
-			if( ( matcher = JDBC_ESCAPING.matcher( sql ) ).matches() )
-			{
-				this.context.setJdbcEscaping( matcher.group( 1 ).equalsIgnoreCase( "ON" ) );
-				return true;
-			}
-			if( encodingPattern.matcher( sql ).matches() )
-			{
-				// Ignore, already picked up by the EncodingDetector
-				// TODO Check that it is the first line, and check with the detected encoding
-				return true;
-			}
-			if( ( matcher = SCRIPT_COMMAND.matcher( sql ) ).matches() )
+			KeywordIndex.Match< Annotation > match = annotations.match( sql );
+			if( match != null )
 			{
-				String script = matcher.group( 1 );
-				if( script != null )
-					script( script, command.getLocation() );
-				else
+				Matcher matcher = match.getMatcher();
+				switch( match.getValue() )
 				{
-					SourceReader reader = getReader();
-					StringBuilder buf = new StringBuilder();
-					while( true )
-					{
-						String line = reader.readLine();
-						if( line == null )
-							throw new SourceException( "Missing END SCRIPT for script", command.getLocation() );
-						if( END_SCRIPT_COMMAND.matcher( line ).matches() )
-							break;
-						buf.append( line ).append( '\n' );
-					}
-					script( buf.toString(), command.getLocation().nextLine() );
+					case SECTION:
+						section( matcher.group( 1 ), matcher.group( 2 ), command );
+						return true;
+					case DELIMITER:
+						setDelimiters( parseDelimiters( matcher ) );
+						return true;
+					case IGNORE_SQL_ERROR:
+						this.context.pushIgnores( matcher.group( 1 ) );
+						return true;
+					case END_IGNORE:
+						this.context.popIgnores();
+						return true;
+					case SELECT_CONNECTION:
+						selectConnection( matcher.group( 1 ), command );
+						return true;
+					case IF_SCRIPT:
+						ifScript( matcher.group( 1 ), command );
+						return true;
+					case ELSE:
+						this.context.doElse( command.getLocation() );
+						return true;
+					case END_IF:
+						this.context.endIf( command.getLocation() );
+						return true;
+					case SET_USER:
+						setUser( matcher.group( 1 ) );
+						return true;
+					case SKIP:
+						this.context.skip( true );
+						return true;
+					case END_SKIP:
+						this.context.endSkip( command.getLocation() );
+						return true;
+					case JDBC_ESCAPING:
+						this.context.setJdbcEscaping( matcher.group( 1 ).equalsIgnoreCase( "ON" ) );
+						return true;
+					case ENCODING:
+						// Ignore, already picked up by the EncodingDetector
+						// TODO Check that it is the first line, and check with the detected encoding
+						return true;
+					case SCRIPT:
+						String script = matcher.group( 1 );
+						if( script != null )
+							script( script, command.getLocation() );
+						else
+						{
+							SourceReader reader = getReader();
+							StringBuilder buf = new StringBuilder();
+							while( true )
+							{
+								String line = reader.readLine();
+								if( line == null )
+									throw new SourceException( "Missing END SCRIPT for script", command.getLocation() );
+								if( END_SCRIPT_COMMAND.matcher( line ).matches() )
+									break;
+								buf.append( line ).append( '\n' );
+							}
+							script( buf.toString(), command.getLocation().nextLine() );
+						}
+						return true;
 				}
-				return true;
 			}
 //			if( commitPattern.matcher( sql ).matches() )
 //			{
@@ -338,14 +416,15 @@ abstract public class CommandProcessor
 		}
 		else if( !skip )
 		{
-			if( ( matcher = runPattern.matcher( sql ) ).matches() )
+			KeywordIndex.Match< Annotation > match = commands.match( sql );
+			if( match != null && match.getValue() == Annotation.RUN )
 			{
-				run( matcher.group( 1 ) );
+				run( match.getMatcher().group( 1 ) );
 				return true;
 			}
 		}
 
-		for( CommandListener listener : PluginManager.listeners )
+		for( CommandListener listener : PluginManager.getListeners( command ) )
 			if( listener.execute( this, command, skip ) )
 				return true;
 
@@ -368,6 +447,25 @@ abstract public class CommandProcessor
 		return statement;
 	}
 
+	/**
+	 * Creates a new forward-only, read-only statement from the current connection, for streaming large query results.
+	 * JDBC escape processing is enabled or disabled according to the current configuration.
+	 *
+	 * @param fetchSize The number of rows to fetch per round trip. 0 selects a default that depends on the database,
+	 *        see {@link JDBCSupport#getDefaultFetchSize(Connection)}.
+	 * @return The statement.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	public Statement createStreamingStatement( int fetchSize ) throws SQLException
+	{
+		Connection connection = getCurrentDatabase().getConnection();
+		Assert.isFalse( connection.getAutoCommit(), "Autocommit should be false" ); // PostgreSQL only uses a cursor without autocommit
+		Statement statement = connection.createStatement( ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+		statement.setEscapeProcessing( this.context.getJdbcEscaping() );
+		statement.setFetchSize( fetchSize > 0 ? fetchSize : JDBCSupport.getDefaultFetchSize( connection ) );
+		return statement;
+	}
+
 	/**
 	 * Prepares a new statement from the current connection.
 
@@ -503,8 +601,18 @@ abstract public class CommandProcessor
 	{
 		SQLFile file = Factory.openSQLFile( getResource().resolve( url ), this.progress );
 		SQLProcessor processor = new SQLProcessor( this.progress );
-		processor.setContext( new SQLContext( this.context, file.getSource() ) );
-		processor.process();
+		processor.setPrefetch( this.prefetch );
+		SQLSource source = processor.prefetch( file.getSource() );
+		processor.setContext( new SQLContext( this.context, source ) );
+		try
+		{
+			processor.process();
+		}
+		finally
+		{
+			if( source instanceof PrefetchingSQLSource )
+				( (PrefetchingSQLSource)source ).stop();
+		}
 	}
 
 	protected Object script( String script, SourceLocation location )
@@ -632,4 +740,42 @@ abstract public class CommandProcessor
 	 * @return True if commands get committed or rollbacked automatically, false otherwise.
 	 */
 	abstract public boolean autoCommit();
+
+
+	/**
+	 * The commands that are built into the command processor.
+	 */
+	static protected enum Annotation
+	{
+		/** SECTION */
+		SECTION,
+		/** SET DELIMITER */
+		DELIMITER,
+		/** IGNORE SQL ERROR */
+		IGNORE_SQL_ERROR,
+		/** /IGNORE SQL ERROR */
+		END_IGNORE,
+		/** SELECT CONNECTION */
+		SELECT_CONNECTION,
+		/** IF SCRIPT */
+		IF_SCRIPT,
+		/** ELSE */
+		ELSE,
+		/** /IF */
+		END_IF,
+		/** SET USER */
+		SET_USER,
+		/** SKIP */
+		SKIP,
+		/** /SKIP */
+		END_SKIP,
+		/** JDBC ESCAPE PROCESSING */
+		JDBC_ESCAPING,
+		/** ENCODING */
+		ENCODING,
+		/** SCRIPT */
+		SCRIPT,
+		/** RUN */
+		RUN
+	}
 }
@@ -25,7 +25,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -36,6 +42,7 @@ import javax.xml.stream.XMLStreamWriter;
 import org.apache.commons.lang.StringUtils;
 
 import solidbase.util.Assert;
+import solidbase.util.Metrics;
 
 
 /**
@@ -80,6 +87,12 @@ public class DBVersion
 	 */
 	protected boolean specColumnExists;
 
+	/**
+	 * Does the DBVERSIONLOG table contain a DURATION column? The column is optional. When it exists, the execution time
+	 * in milliseconds of each statement and segment is logged in it.
+	 */
+	protected boolean durationColumnExists;
+
 	/**
 	 * The current version of the database.
 	 */
@@ -117,6 +130,38 @@ public class DBVersion
 	 */
 	protected ProgressListener callBack;
 
+	/**
+	 * The maximum number of log records to collect before they are inserted in one JDBC batch. 0 when log records are
+	 * inserted immediately.
+	 */
+	protected int logBatchSize;
+
+	/**
+	 * The insert statement for the log records that are waiting to be inserted.
+	 */
+	protected String pendingLogSql;
+
+	/**
+	 * The parameters of the log records that are waiting to be inserted.
+	 */
+	protected List< Object[] > pendingLog = new ArrayList< Object[] >();
+
+	/**
+	 * The prepared statements for the updates of the version tables, by SQL. The statements belong to
+	 * {@link #statementConnection}.
+	 */
+	protected Map< String, PreparedStatement > statementCache = new HashMap< String, PreparedStatement >();
+
+	/**
+	 * The connection that the cached statements belong to.
+	 */
+	protected Connection statementConnection;
+
+	/**
+	 * The timers and counters. The updates of the version tables are added to the 'dbversion' timer.
+	 */
+	protected Metrics metrics = new Metrics();
+
 	/**
 	 * An instance of this class needs to now in which database the version tables can be found. The default
 	 * connection of this database determines the schema where those tables reside.
@@ -143,11 +188,23 @@ public class DBVersion
 
 	/**
 	 * Signal that this instance is most likely not up to date with the database. This happens when the database is
-	 * initialized or upgraded to a new version of the DBVERSION tables.
+	 * initialized or upgraded to a new version of the DBVERSION tables. The cached statements are closed, because the
+	 * tables may have changed.
 	 */
 	protected void setStale()
 	{
 		this.stale = true;
+		closeStatements();
+	}
+
+	/**
+	 * Are both version tables found? When they are, only a SETUP block can change them.
+	 *
+	 * @return True if both version tables are found, false otherwise.
+	 */
+	protected boolean isComplete()
+	{
+		return this.versionRecordExists && this.logTableExists;
 	}
 
 	/**
@@ -294,8 +351,9 @@ public class DBVersion
 				PreparedStatement statement = connection.prepareStatement( "SELECT * FROM " + this.logTableName );
 				try
 				{
-					statement.executeQuery();
+					ResultSet resultSet = statement.executeQuery(); // Resultset is closed when the statement is closed
 					this.logTableExists = true;
+					this.durationColumnExists = Util.hasColumn( resultSet, "DURATION" );
 				}
 				finally
 				{
@@ -327,7 +385,8 @@ public class DBVersion
 	}
 
 	/**
-	 * Sets the number of statements executed and the target version.
+	 * Sets the number of statements executed and the target version. When a full batch of log records is waiting, it is
+	 * inserted in the same transaction.
 	 *
 	 * @param target The target version.
 	 * @param statements The number of statements executed.
@@ -340,16 +399,25 @@ public class DBVersion
 		if( this.stale )
 			init();
 
-		if( this.versionRecordExists )
-			execute( "UPDATE " + this.versionTableName + " SET TARGET = ?, STATEMENTS = ?", target, statements );
-		else
+		try
 		{
-			execute( "INSERT INTO " + this.versionTableName + " ( TARGET, STATEMENTS ) VALUES ( ?, ? )", target, statements );
-			this.versionRecordExists = true;
+			if( !this.pendingLog.isEmpty() && this.pendingLog.size() >= this.logBatchSize )
+				insertLog( false );
 		}
+		finally
+		{
+			// The progress is never held back, otherwise the statement is executed again when the upgrade is restarted
+			if( this.versionRecordExists )
+				execute( "UPDATE " + this.versionTableName + " SET TARGET = ?, STATEMENTS = ?", target, statements );
+			else
+			{
+				execute( "INSERT INTO " + this.versionTableName + " ( TARGET, STATEMENTS ) VALUES ( ?, ? )", target, statements );
+				this.versionRecordExists = true;
+			}
 
-		this.target = target;
-		this.statements = statements;
+			this.target = target;
+			this.statements = statements;
+		}
 	}
 
 	/**
@@ -364,6 +432,8 @@ public class DBVersion
 		if( this.stale )
 			init();
 
+		flushLog();
+
 		if( this.versionRecordExists )
 			execute( "UPDATE " + this.versionTableName + " SET VERSION = ?, TARGET = NULL", version );
 		else
@@ -420,6 +490,23 @@ public class DBVersion
 	 * @param result The result of executing the statement.
 	 */
 	protected void log( String type, String source, String target, int count, String command, String result )
+	{
+		log( type, source, target, count, command, result, -1 );
+	}
+
+	/**
+	 * Adds a log record to the version log table. The duration is only logged when the DBVERSIONLOG table contains a
+	 * DURATION column.
+	 *
+	 * @param type The type of the log entry.
+	 * @param source The source version.
+	 * @param target The target version.
+	 * @param count The statement count.
+	 * @param command The executed statement.
+	 * @param result The result of executing the statement.
+	 * @param duration The execution time in nanoseconds, -1 if unknown.
+	 */
+	protected void log( String type, String source, String target, int count, String command, String result, long duration )
 	{
 		Assert.notEmpty( target, "target must not be empty" );
 
@@ -436,12 +523,116 @@ public class DBVersion
 		if( result != null && result.length() > 3000 )
 			result = result.substring( 0, 3000 );
 
+		String sql;
+		Object[] parameters;
 		if( SPEC11.equals( this.effectiveSpec ) )
-			execute( "INSERT INTO " + this.logTableName + " ( TYPE, SOURCE, TARGET, STATEMENT, STAMP, COMMAND, RESULT ) VALUES ( ?, ?, ?, ?, ?, ?, ? )",
-					type, source, target, count, new Timestamp( System.currentTimeMillis() ), command, result );
+		{
+			if( this.durationColumnExists && duration >= 0 )
+			{
+				sql = "INSERT INTO " + this.logTableName + " ( TYPE, SOURCE, TARGET, STATEMENT, STAMP, COMMAND, RESULT, DURATION ) VALUES ( ?, ?, ?, ?, ?, ?, ?, ? )";
+				parameters = new Object[] { type, source, target, count, new Timestamp( System.currentTimeMillis() ), command, result, duration / 1000000 };
+			}
+			else
+			{
+				sql = "INSERT INTO " + this.logTableName + " ( TYPE, SOURCE, TARGET, STATEMENT, STAMP, COMMAND, RESULT ) VALUES ( ?, ?, ?, ?, ?, ?, ? )";
+				parameters = new Object[] { type, source, target, count, new Timestamp( System.currentTimeMillis() ), command, result };
+			}
+		}
 		else
-			execute( "INSERT INTO " + this.logTableName + " ( SOURCE, TARGET, STATEMENT, STAMP, COMMAND, RESULT ) VALUES ( ?, ?, ?, ?, ?, ? )",
-					source, target, count, new Timestamp( System.currentTimeMillis() ), command, result );
+		{
+			sql = "INSERT INTO " + this.logTableName + " ( SOURCE, TARGET, STATEMENT, STAMP, COMMAND, RESULT ) VALUES ( ?, ?, ?, ?, ?, ? )";
+			parameters = new Object[] { source, target, count, new Timestamp( System.currentTimeMillis() ), command, result };
+		}
+
+		if( this.logBatchSize == 0 )
+		{
+			execute( sql, parameters );
+			return;
+		}
+
+		// Batched, the log records are inserted with the next progress update when the batch is full, or when the log is
+		// flushed
+		if( !sql.equals( this.pendingLogSql ) )
+		{
+			flushLog();
+			this.pendingLogSql = sql;
+		}
+		this.pendingLog.add( parameters );
+	}
+
+	/**
+	 * Sets the timers and counters.
+	 *
+	 * @param metrics The timers and counters.
+	 */
+	protected void setMetrics( Metrics metrics )
+	{
+		Assert.notNull( metrics );
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the maximum number of log records to collect before they are inserted in one JDBC batch. The log records that
+	 * are waiting are inserted first.
+	 *
+	 * @param logBatchSize The maximum number of log records in one batch. 0 to insert the log records immediately.
+	 */
+	protected void setLogBatchSize( int logBatchSize )
+	{
+		Assert.isTrue( logBatchSize >= 0 );
+
+		flushLog();
+		this.logBatchSize = logBatchSize;
+	}
+
+	/**
+	 * Inserts the log records that are waiting in one JDBC batch, and commits.
+	 */
+	protected void flushLog()
+	{
+		if( !this.pendingLog.isEmpty() )
+			insertLog( true );
+	}
+
+	/**
+	 * Inserts the log records that are waiting in one JDBC batch.
+	 *
+	 * @param commit Commit the log records. False when they are committed together with the progress.
+	 */
+	protected void insertLog( boolean commit )
+	{
+		long start = System.nanoTime();
+		try
+		{
+			PreparedStatement statement = prepareStatement( this.pendingLogSql );
+			boolean success = false;
+			try
+			{
+				for( Object[] parameters : this.pendingLog )
+				{
+					setParameters( statement, parameters );
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				success = true;
+			}
+			finally
+			{
+				this.pendingLog.clear();
+				if( !success )
+					statement.clearBatch(); // The statement is reused
+				if( commit )
+					this.statementConnection.commit();
+			}
+		}
+		catch( SQLException e )
+		{
+			throw new SystemException( e );
+		}
+		finally
+		{
+			this.metrics.time( "dbversion", System.nanoTime() - start );
+		}
 	}
 
 	/**
@@ -453,7 +644,20 @@ public class DBVersion
 	 */
 	protected void log( UpgradeSegment segment, int count, String command )
 	{
-		log( segment.isDowngrade() ? "T" : "S", segment.getSource(), segment.getTarget(), count, command, null );
+		log( segment, count, command, -1 );
+	}
+
+	/**
+	 * Adds a log record to the version log table.
+	 *
+	 * @param segment The upgrade segment.
+	 * @param count The statement count.
+	 * @param command The executed statement.
+	 * @param duration The execution time in nanoseconds, -1 if unknown.
+	 */
+	protected void log( UpgradeSegment segment, int count, String command, long duration )
+	{
+		log( segment.isDowngrade() ? "T" : "S", segment.getSource(), segment.getTarget(), count, command, null, duration );
 	}
 
 	/**
@@ -465,10 +669,24 @@ public class DBVersion
 	 * @param e The SQL exception.
 	 */
 	protected void logSQLException( UpgradeSegment segment, int count, String command, SQLExecutionException e )
+	{
+		logSQLException( segment, count, command, e, -1 );
+	}
+
+	/**
+	 * Adds a log record to the version log table.
+	 *
+	 * @param segment The upgrade segment.
+	 * @param count The statement count.
+	 * @param command The executed statement.
+	 * @param e The SQL exception.
+	 * @param duration The execution time in nanoseconds, -1 if unknown.
+	 */
+	protected void logSQLException( UpgradeSegment segment, int count, String command, SQLExecutionException e, long duration )
 	{
 		Assert.notNull( e, "exception must not be null" );
 
-		log( segment.isDowngrade() ? "T" : "S", segment.getSource(), segment.getTarget(), count, command, e.getSQLErrorMessages() );
+		log( segment.isDowngrade() ? "T" : "S", segment.getSource(), segment.getTarget(), count, command, e.getSQLErrorMessages(), duration );
 	}
 
 	/**
@@ -479,7 +697,19 @@ public class DBVersion
 	 */
 	protected void logComplete( UpgradeSegment segment, int count )
 	{
-		log( segment.isDowngrade() ? "D" : "B", segment.getSource(), segment.getTarget(), count, null, SPEC11.equals( this.effectiveSpec ) ? "COMPLETE" : "COMPLETED VERSION " + segment.getTarget() );
+		logComplete( segment, count, -1 );
+	}
+
+	/**
+	 * Log a complete block.
+	 *
+	 * @param segment The upgrade segment.
+	 * @param count The statement count.
+	 * @param duration The execution time of the block in nanoseconds, -1 if unknown.
+	 */
+	protected void logComplete( UpgradeSegment segment, int count, long duration )
+	{
+		log( segment.isDowngrade() ? "D" : "B", segment.getSource(), segment.getTarget(), count, null, SPEC11.equals( this.effectiveSpec ) ? "COMPLETE" : "COMPLETED VERSION " + segment.getTarget(), duration );
 	}
 
 	/**
@@ -492,7 +722,10 @@ public class DBVersion
 	{
 		// This method does not care about staleness
 
+		flushLog();
+
 		boolean spec11 = SPEC11.equals( this.effectiveSpec );
+		boolean duration = spec11 && this.durationColumnExists;
 
 		try
 		{
@@ -500,7 +733,7 @@ public class DBVersion
 			Statement stat = connection.createStatement();
 			try
 			{
-				ResultSet result = stat.executeQuery( "SELECT " + ( spec11 ? "TYPE, " : "" ) + "SOURCE, TARGET, STATEMENT, STAMP, COMMAND, RESULT FROM " + this.logTableName + " ORDER BY STAMP" );
+				ResultSet result = stat.executeQuery( "SELECT " + ( spec11 ? "TYPE, " : "" ) + "SOURCE, TARGET, STATEMENT, STAMP, COMMAND, RESULT" + ( duration ? ", DURATION" : "" ) + " FROM " + this.logTableName + " ORDER BY STAMP" );
 
 				XMLOutputFactory xof = XMLOutputFactory.newInstance();
 				XMLStreamWriter xml = xof.createXMLStreamWriter( new OutputStreamWriter( out, charSet ) );
@@ -517,13 +750,19 @@ public class DBVersion
 					xml.writeAttribute( "statement", String.valueOf( result.getInt( i++ ) ) );
 					xml.writeAttribute( "stamp", String.valueOf( result.getTimestamp( i++ ) ) );
 					String sql = result.getString( i++ );
+					String res = result.getString( i++ );
+					if( duration )
+					{
+						long millis = result.getLong( i++ );
+						if( !result.wasNull() )
+							xml.writeAttribute( "duration", String.valueOf( millis ) );
+					}
 					if( sql != null )
 					{
 						xml.writeStartElement( "command" );
 						xml.writeCharacters( sql );
 						xml.writeEndElement();
 					}
-					String res = result.getString( i++ );
 					if( res != null )
 					{
 						xml.writeStartElement( "result" );
@@ -562,25 +801,36 @@ public class DBVersion
 	{
 		Assert.isFalse( this.stale );
 
-		String sql;
-		if( SPEC11.equals( this.effectiveSpec ) )
-			sql = "SELECT 1 FROM " + this.logTableName + " WHERE TYPE = 'B' AND TARGET = '" + version + "' AND RESULT = 'COMPLETE'";
-		else
-			sql = "SELECT 1 FROM " + this.logTableName + " WHERE RESULT = 'COMPLETED VERSION " + version + "'";
+		flushLog();
 
-		Connection connection = this.database.getDefaultConnection();
 		try
 		{
-			PreparedStatement stat = connection.prepareStatement( sql );
+			PreparedStatement stat;
+			if( SPEC11.equals( this.effectiveSpec ) )
+			{
+				stat = prepareStatement( "SELECT 1 FROM " + this.logTableName + " WHERE TYPE = 'B' AND TARGET = ? AND RESULT = 'COMPLETE'" );
+				stat.setString( 1, version );
+			}
+			else
+			{
+				stat = prepareStatement( "SELECT 1 FROM " + this.logTableName + " WHERE RESULT = ?" );
+				stat.setString( 1, "COMPLETED VERSION " + version );
+			}
 			try
 			{
 				ResultSet result = stat.executeQuery();
-				return result.next();
+				try
+				{
+					return result.next();
+				}
+				finally
+				{
+					result.close(); // The statement is reused
+				}
 			}
 			finally
 			{
-				stat.close();
-				connection.commit();
+				this.statementConnection.commit();
 			}
 		}
 		catch( SQLException e )
@@ -589,6 +839,65 @@ public class DBVersion
 		}
 	}
 
+	/**
+	 * Returns the numbers of the statements of the given segment that have been executed successfully since the
+	 * segment was last completed. These are the statements of an aborted run which may have been executed out of
+	 * order, in a PARALLEL block.
+	 *
+	 * @param segment The upgrade segment.
+	 * @param after Only statements with a number greater than this are returned.
+	 * @return The numbers of the statements that have been executed successfully.
+	 */
+	protected Set< Integer > getLoggedStatements( UpgradeSegment segment, int after )
+	{
+		if( this.stale )
+			init();
+
+		Set< Integer > result = new HashSet< Integer >();
+		if( !this.logTableExists )
+			return result;
+
+		flushLog();
+
+		try
+		{
+			// The complete records are the only records without a command
+			PreparedStatement stat = prepareStatement( "SELECT STATEMENT, COMMAND, RESULT FROM " + this.logTableName + " WHERE TARGET = ? ORDER BY STAMP" );
+			stat.setString( 1, segment.getTarget() );
+			try
+			{
+				ResultSet records = stat.executeQuery();
+				try
+				{
+					while( records.next() )
+					{
+						int statement = records.getInt( 1 );
+						if( records.getString( 2 ) == null )
+							result.clear();
+						else if( records.getString( 3 ) != null )
+							result.remove( statement );
+						else if( statement > after )
+							result.add( statement );
+					}
+				}
+				finally
+				{
+					records.close(); // The statement is reused
+				}
+			}
+			finally
+			{
+				this.statementConnection.commit();
+			}
+		}
+		catch( SQLException e )
+		{
+			throw new SystemException( e );
+		}
+
+		return result;
+	}
+
 	/**
 	 * Execute the given sql with the given parameters. It asserts that exactly one record is updated.
 	 *
@@ -597,20 +906,11 @@ public class DBVersion
 	 */
 	protected void execute( String sql, Object... parameters )
 	{
+		long start = System.nanoTime();
 		try
 		{
-			Connection connection = this.database.getDefaultConnection();
-			PreparedStatement statement = connection.prepareStatement( sql );
-			int i = 1;
-			for( Object parameter : parameters )
-				if( parameter == null )
-					// Derby does not allow setObject(null), so we need to use setNull() with a type obtained from getParameterMetaData().
-					// But getParameterMetaData() is not supported by the Oracle JDBC driver.
-					// As we know that only character columns will be nullable, we choose to use setString() with a null.
-					// This works with Oracle and Derby alike. Maybe it even works with number columns.
-					statement.setString( i++, null );
-				else
-					statement.setObject( i++, parameter );
+			PreparedStatement statement = prepareStatement( sql );
+			setParameters( statement, parameters );
 			try
 			{
 				int modified = statement.executeUpdate();
@@ -618,14 +918,85 @@ public class DBVersion
 			}
 			finally
 			{
-				statement.close();
-				connection.commit(); // You can commit even if it fails. Only 1 update done.
+				this.statementConnection.commit(); // You can commit even if it fails. Only 1 update done.
 			}
 		}
 		catch( SQLException e )
 		{
 			throw new SystemException( e );
 		}
+		finally
+		{
+			this.metrics.time( "dbversion", System.nanoTime() - start );
+		}
+	}
+
+	/**
+	 * Returns a prepared statement for the given sql on the default connection. The statement is cached, so it must not
+	 * be closed by the caller.
+	 *
+	 * @param sql The sql to prepare.
+	 * @return The prepared statement.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	protected PreparedStatement prepareStatement( String sql ) throws SQLException
+	{
+		Connection connection = this.database.getDefaultConnection();
+		if( connection != this.statementConnection )
+		{
+			// Different connection, the statements of the previous connection can't be used anymore
+			closeStatements();
+			this.statementConnection = connection;
+		}
+
+		PreparedStatement statement = this.statementCache.get( sql );
+		if( statement == null )
+		{
+			statement = connection.prepareStatement( sql );
+			this.statementCache.put( sql, statement );
+		}
+		return statement;
+	}
+
+	/**
+	 * Closes the cached statements.
+	 */
+	protected void closeStatements()
+	{
+		try
+		{
+			for( PreparedStatement statement : this.statementCache.values() )
+				statement.close();
+		}
+		catch( SQLException e )
+		{
+			throw new SystemException( e );
+		}
+		finally
+		{
+			this.statementCache.clear();
+		}
+	}
+
+	/**
+	 * Sets the parameters of the given statement.
+	 *
+	 * @param statement The statement.
+	 * @param parameters The parameters for the statement.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	static protected void setParameters( PreparedStatement statement, Object[] parameters ) throws SQLException
+	{
+		int i = 1;
+		for( Object parameter : parameters )
+			if( parameter == null )
+				// Derby does not allow setObject(null), so we need to use setNull() with a type obtained from getParameterMetaData().
+				// But getParameterMetaData() is not supported by the Oracle JDBC driver.
+				// As we know that only character columns will be nullable, we choose to use setString() with a null.
+				// This works with Oracle and Derby alike. Maybe it even works with number columns.
+				statement.setString( i++, null );
+			else
+				statement.setObject( i++, parameter );
 	}
 
 	/**
@@ -639,8 +1010,7 @@ public class DBVersion
 		Assert.notEmpty( versions );
 		try
 		{
-			Connection connection = this.database.getDefaultConnection();
-			PreparedStatement statement = connection.prepareStatement( "UPDATE " + this.logTableName + " SET TYPE = 'R', RESULT = 'REVERTED' WHERE TYPE = 'B' AND TARGET = ? AND RESULT = 'COMPLETE'" );
+			PreparedStatement statement = prepareStatement( "UPDATE " + this.logTableName + " SET TYPE = 'R', RESULT = 'REVERTED' WHERE TYPE = 'B' AND TARGET = ? AND RESULT = 'COMPLETE'" );
 			boolean commit = false;
 			try
 			{
@@ -654,11 +1024,10 @@ public class DBVersion
 			}
 			finally
 			{
-				statement.close();
 				if( commit )
-					connection.commit();
+					this.statementConnection.commit();
 				else
-					connection.rollback();
+					this.statementConnection.rollback();
 			}
 		}
 		catch( SQLException e )
@@ -16,9 +16,11 @@
 
 package solidbase.core;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 
 import solidstack.io.BufferedResource;
+import solidstack.io.FileResource;
 import solidstack.io.RandomAccessSourceReader;
 import solidstack.io.Resource;
 
@@ -83,19 +85,61 @@ public final class Factory
 	}
 
 	/**
-	 * Open the specified upgrade file in the specified folder.
+	 * Open the specified upgrade file in the specified folder. The whole upgrade file is scanned.
 	 *
 	 * @param resource The resource containing the upgrade file.
 	 * @param listener The progress listener.
 	 * @return The upgrade file.
 	 */
 	static public UpgradeFile openUpgradeFile( Resource resource, ProgressListener listener )
+	{
+		return openUpgradeFile( resource, listener, false, false );
+	}
+
+	/**
+	 * Open the specified upgrade file in the specified folder. When scanning lazily, only the definition is scanned and
+	 * the segments are located when they are executed. Otherwise the whole upgrade file is scanned.
+	 *
+	 * @param resource The resource containing the upgrade file.
+	 * @param listener The progress listener.
+	 * @param lazy Only scan the definition, and locate the segments when they are executed.
+	 * @return The upgrade file.
+	 */
+	static public UpgradeFile openUpgradeFile( Resource resource, ProgressListener listener, boolean lazy )
+	{
+		return openUpgradeFile( resource, listener, lazy, false );
+	}
+
+	/**
+	 * Open the specified upgrade file in the specified folder. When the index is enabled and the upgrade file is a file,
+	 * its {@link UpgradeFileIndex index} is used when it is still valid. Otherwise the upgrade file is scanned. When
+	 * scanning lazily, only the definition is scanned and the segments are located when they are executed. Otherwise the
+	 * whole upgrade file is scanned, and the index is saved when it is enabled.
+	 *
+	 * @param resource The resource containing the upgrade file.
+	 * @param listener The progress listener.
+	 * @param lazy Only scan the definition, and locate the segments when they are executed.
+	 * @param index Use and save the index next to the upgrade file.
+	 * @return The upgrade file.
+	 */
+	static public UpgradeFile openUpgradeFile( Resource resource, ProgressListener listener, boolean lazy, boolean index )
 	{
 		RandomAccessSourceReader reader = openRALR( resource, listener );
 		UpgradeFile result = new UpgradeFile( reader );
 		try
 		{
-			result.scan();
+			File file = index && resource instanceof FileResource ? resource.getFile() : null;
+			if( file == null || !UpgradeFileIndex.load( result, file, listener ) )
+			{
+				if( lazy )
+					result.scanLazy();
+				else
+				{
+					result.scan();
+					if( file != null )
+						UpgradeFileIndex.save( result, file, listener );
+				}
+			}
 		}
 		catch( RuntimeException e )
 		{
@@ -106,4 +150,21 @@ public final class Factory
 		listener.openedUpgradeFile( result );
 		return result;
 	}
+
+	/**
+	 * Open the same upgrade file again with its own reader. The segment index of the given upgrade file is shared, so
+	 * the file is not scanned again. This is used to execute one upgrade file against multiple databases at the same
+	 * time.
+	 *
+	 * @param shared The upgrade file to open again. It must have been scanned completely.
+	 * @param listener The progress listener.
+	 * @return The upgrade file.
+	 */
+	static public UpgradeFile openUpgradeFile( UpgradeFile shared, ProgressListener listener )
+	{
+		RandomAccessSourceReader reader = openRALR( shared.file.getResource(), listener );
+		UpgradeFile result = new UpgradeFile( shared, reader );
+		listener.openedUpgradeFile( result );
+		return result;
+	}
 }
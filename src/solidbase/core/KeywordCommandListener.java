@@ -0,0 +1,48 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+
+/**
+ * A {@link CommandListener} that declares the commands it responds to. The {@link PluginManager} uses the keywords to
+ * route commands to the plugins that may accept them, instead of asking every plugin for every command. Plugins that
+ * only implement {@link CommandListener} are still asked for every command.
+ *
+ * @author Ren M. de Bloois
+ */
+public interface KeywordCommandListener extends CommandListener
+{
+	/**
+	 * Returns the leading keywords of the transient commands that this listener may accept, for example "LOG POLLER".
+	 * Commands are routed on the first word only, so the listener must still check the complete command in
+	 * {@link #execute(CommandProcessor, Command, boolean)}.
+	 *
+	 * @return The leading keywords of the transient commands. An empty array if this listener does not accept
+	 *         transient commands.
+	 */
+	String[] getTransientKeywords();
+
+	/**
+	 * Returns the leading keywords of the persistent commands that this listener may accept, for example "IMPORT CSV".
+	 * Commands are routed on the first word only, so the listener must still check the complete command in
+	 * {@link #execute(CommandProcessor, Command, boolean)}.
+	 *
+	 * @return The leading keywords of the persistent commands. An empty array if this listener does not accept
+	 *         persistent commands.
+	 */
+	String[] getPersistentKeywords();
+}
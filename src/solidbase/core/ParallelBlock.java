@@ -0,0 +1,433 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import solidbase.util.Assert;
+import solidstack.io.SourceLocation;
+
+
+/**
+ * The statements of a PARALLEL block in an upgrade segment. The statements in the block do not depend on each other,
+ * so they are executed concurrently by a number of worker threads, each with its own connection from
+ * {@link Database#newConnection()}. The statements are executed with plain JDBC and each statement is committed
+ * separately. The {@link UpgradeProcessor} takes the finished statements in the order in which they finish and takes
+ * care of the progress and the logging.
+ * <p>
+ * Because the statements are not executed by the processor, commands that are executed by a plugin or by the processor
+ * itself, like IMPORT CSV or RUN, are not allowed in the block.
+ *
+ * @author Ren M. de Bloois
+ */
+public class ParallelBlock
+{
+	/**
+	 * The number of worker threads when the PARALLEL annotation does not specify it.
+	 */
+	static public final int DEFAULT_WIDTH = 4;
+
+	static private final Entry END = new Entry( null, 0, false, false );
+
+	/**
+	 * The maximum number of statements executing at the same time.
+	 */
+	protected int width;
+
+	/**
+	 * The location of the PARALLEL annotation.
+	 */
+	protected SourceLocation location;
+
+	/**
+	 * The statements in the block.
+	 */
+	protected List< Entry > entries = new ArrayList< Entry >();
+
+	private BlockingQueue< Entry > queue;
+	private BlockingQueue< Entry > finished;
+	private Worker[] workers;
+	private int running;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param width The maximum number of statements executing at the same time.
+	 * @param location The location of the PARALLEL annotation.
+	 */
+	protected ParallelBlock( int width, SourceLocation location )
+	{
+		Assert.isTrue( width > 0 );
+
+		this.width = width;
+		this.location = location;
+	}
+
+	/**
+	 * Adds a statement to the block.
+	 *
+	 * @param command The statement.
+	 * @param count The number of the statement in the segment.
+	 * @param windForward The statement has already been executed in a previous run and must not be logged again.
+	 * @param skip The statement must be skipped.
+	 * @throws SourceException When the statement is not plain SQL.
+	 */
+	protected void add( Command command, int count, boolean windForward, boolean skip )
+	{
+		if( CommandProcessor.commands.match( command.getCommand() ) != null || !PluginManager.getListeners( command ).isEmpty() )
+			throw new SourceException( "Only SQL statements are allowed in a PARALLEL block", command.getLocation() );
+		this.entries.add( new Entry( command, count, windForward, skip ) );
+	}
+
+	/**
+	 * Returns the location of the PARALLEL annotation.
+	 *
+	 * @return The location of the PARALLEL annotation.
+	 */
+	protected SourceLocation getLocation()
+	{
+		return this.location;
+	}
+
+	/**
+	 * Returns the statements in the block.
+	 *
+	 * @return The statements in the block.
+	 */
+	protected List< Entry > getEntries()
+	{
+		return this.entries;
+	}
+
+	/**
+	 * Starts executing the statements that are not done yet.
+	 *
+	 * @param database The database to execute the statements in.
+	 * @param jdbcEscaping Enable JDBC escape processing.
+	 */
+	protected void start( Database database, boolean jdbcEscaping )
+	{
+		Assert.isNull( this.workers );
+
+		this.queue = new LinkedBlockingQueue< Entry >();
+		this.finished = new LinkedBlockingQueue< Entry >();
+		for( Entry entry : this.entries )
+			if( !entry.done )
+			{
+				this.queue.add( entry );
+				this.running++;
+			}
+
+		Worker[] workers = new Worker[ Math.min( this.width, this.running ) ];
+		boolean success = false;
+		try
+		{
+			for( int i = 0; i < workers.length; i++ )
+				workers[ i ] = new Worker( "Parallel-" + ( i + 1 ), database.newConnection(), jdbcEscaping, this.queue, this.finished );
+			success = true;
+		}
+		finally
+		{
+			if( !success )
+				for( Worker worker : workers )
+					if( worker != null )
+						worker.close();
+		}
+
+		for( int i = 0; i < workers.length; i++ )
+			this.queue.add( END );
+		for( Worker worker : workers )
+			worker.start();
+		this.workers = workers;
+	}
+
+	/**
+	 * Waits for the next statement to finish. The statements that are not executed anymore because of
+	 * {@link #abort()} are returned too, with {@link Entry#executed} false. When the current thread is interrupted, the
+	 * block is aborted and the interrupted flag is set again.
+	 *
+	 * @return The statement that finished, or null if all statements have finished.
+	 */
+	protected Entry take()
+	{
+		if( this.running == 0 )
+			return null;
+
+		// When interrupted, the remaining statements are aborted, but the running statements still need to be taken
+		boolean interrupted = false;
+		try
+		{
+			while( true )
+				try
+				{
+					Entry entry = this.finished.take();
+					this.running--;
+					return entry;
+				}
+				catch( InterruptedException e )
+				{
+					interrupted = true;
+					abort();
+				}
+		}
+		finally
+		{
+			if( interrupted )
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Signals the workers to skip the statements that have not started yet.
+	 */
+	protected void abort()
+	{
+		if( this.workers != null )
+			for( Worker worker : this.workers )
+				worker.abort();
+	}
+
+	/**
+	 * Waits for the workers to end and closes their connections. If the workers are still busy, they are aborted first.
+	 */
+	protected void finish()
+	{
+		if( this.workers == null )
+			return;
+
+		boolean interrupted = Thread.interrupted(); // Clear the flag, we need to wait for the workers
+		try
+		{
+			if( this.running > 0 )
+				abort();
+
+			for( Worker worker : this.workers )
+				while( true )
+					try
+					{
+						worker.join();
+						break;
+					}
+					catch( InterruptedException e )
+					{
+						interrupted = true;
+					}
+
+			for( Worker worker : this.workers )
+				worker.close();
+		}
+		finally
+		{
+			if( interrupted )
+				Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * A statement in a PARALLEL block.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class Entry
+	{
+		/** The statement. */
+		protected Command command;
+
+		/** The number of the statement in the segment. */
+		protected int count;
+
+		/** The statement has already been executed in a previous run and must not be logged again. */
+		protected boolean windForward;
+
+		/** The statement must be skipped. */
+		protected boolean skip;
+
+		/** The statement has already been executed and logged in an aborted run of the block. */
+		protected boolean logged;
+
+		/** The statement does not need to be executed. */
+		protected boolean done;
+
+		/** The statement has been executed by a worker. */
+		protected boolean executed;
+
+		/** The SQLException thrown by the statement. */
+		protected SQLException sqlException;
+
+		/** Any other error thrown while executing the statement. */
+		protected Throwable error;
+
+		/** The execution time of the statement in nanoseconds. */
+		protected long time;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param command The statement.
+		 * @param count The number of the statement in the segment.
+		 * @param windForward The statement has already been executed in a previous run.
+		 * @param skip The statement must be skipped.
+		 */
+		protected Entry( Command command, int count, boolean windForward, boolean skip )
+		{
+			this.command = command;
+			this.count = count;
+			this.windForward = windForward;
+			this.skip = skip;
+			this.done = windForward || skip;
+		}
+	}
+
+
+	/**
+	 * A worker thread of a PARALLEL block. It takes statements from the queue, executes them with its own connection
+	 * and hands them back to the processor. After an abort it keeps taking statements from the queue without executing
+	 * them, until it receives the {@link ParallelBlock#END} marker.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class Worker extends Thread
+	{
+		private Connection connection;
+		private boolean jdbcEscaping;
+		private BlockingQueue< Entry > queue;
+		private BlockingQueue< Entry > finished;
+
+		private volatile boolean aborted;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name The name of the thread.
+		 * @param connection The connection to execute the statements with.
+		 * @param jdbcEscaping Enable JDBC escape processing.
+		 * @param queue The queue to take statements from.
+		 * @param finished The queue to put the finished statements on.
+		 */
+		protected Worker( String name, Connection connection, boolean jdbcEscaping, BlockingQueue< Entry > queue, BlockingQueue< Entry > finished )
+		{
+			super( name );
+			this.connection = connection;
+			this.jdbcEscaping = jdbcEscaping;
+			this.queue = queue;
+			this.finished = finished;
+		}
+
+		/**
+		 * Signals this worker to skip the remaining statements.
+		 */
+		protected void abort()
+		{
+			this.aborted = true;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				while( true )
+				{
+					Entry entry = this.queue.take();
+					if( entry == END )
+						break;
+					if( !this.aborted )
+					{
+						long start = System.nanoTime();
+						try
+						{
+							execute( entry.command.getCommand() );
+						}
+						catch( SQLException e )
+						{
+							entry.sqlException = e;
+							rollback();
+						}
+						catch( Throwable t )
+						{
+							entry.error = t;
+							rollback();
+						}
+						entry.time = System.nanoTime() - start;
+						entry.executed = true;
+					}
+					this.finished.put( entry );
+				}
+			}
+			catch( InterruptedException e )
+			{
+				// Only the processor ends this thread, by sending the END marker
+				throw new SystemException( e );
+			}
+		}
+
+		/**
+		 * Executes and commits the given statement.
+		 *
+		 * @param sql The statement.
+		 * @throws SQLException Whenever the database throws one.
+		 */
+		protected void execute( String sql ) throws SQLException
+		{
+			Statement statement = this.connection.createStatement();
+			try
+			{
+				statement.setEscapeProcessing( this.jdbcEscaping );
+				statement.execute( sql );
+			}
+			finally
+			{
+				statement.close();
+			}
+			this.connection.commit();
+		}
+
+		private void rollback()
+		{
+			try
+			{
+				this.connection.rollback();
+			}
+			catch( SQLException e )
+			{
+				// Ignore, the original error is more important
+			}
+		}
+
+		/**
+		 * Closes the connection of this worker.
+		 */
+		protected void close()
+		{
+			try
+			{
+				this.connection.close();
+			}
+			catch( SQLException e )
+			{
+				throw new SystemException( e );
+			}
+		}
+	}
+}
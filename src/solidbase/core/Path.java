@@ -20,8 +20,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import solidbase.util.Assert;
-
 
 /**
  * An upgrade path.
@@ -107,33 +105,6 @@ public class Path implements Iterable< UpgradeSegment >
 		return this;
 	}
 
-	/**
-	 * Is this path better than another?
-	 *
-	 * @param other The other path.
-	 * @return True if this path is better, false otherwise.
-	 */
-	protected boolean betterThan( Path other )
-	{
-		if( other.hasDowngrade )
-		{
-			if( !this.hasDowngrade )
-				return true;
-		}
-		else
-		{
-			if( this.hasDowngrade )
-				return false;
-		}
-
-		if( other.switches > this.switches )
-			return true;
-		if( other.switches < this.switches )
-			return false;
-		Assert.fail( "Couldn't decide between 2 upgrade paths" );
-		return false;
-	}
-
 	/**
 	 * Return the number of segments in this path.
 	 *
@@ -23,13 +23,21 @@ import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import solidbase.util.KeywordIndex;
 
 
 
 /**
  * Reads plugins from the classpath. First it collects all of the following files: META-INF/solidbase.plugins.
  * Each (non-empty) line in these files represents a plugin class. A plugin should extend {@link CommandListener}.
+ * Plugins that implement {@link KeywordCommandListener} are only asked for the commands that start with one of their
+ * keywords.
  *
  * @author Ren M. de Bloois
  * @since May 2010
@@ -41,6 +49,26 @@ public class PluginManager
 	 */
 	static protected List< CommandListener > listeners;
 
+	/**
+	 * The plugins to ask for transient commands, by the first keyword of the command.
+	 */
+	static protected Map< String, List< CommandListener > > transientRoutes;
+
+	/**
+	 * The plugins to ask for persistent commands, by the first keyword of the command.
+	 */
+	static protected Map< String, List< CommandListener > > persistentRoutes;
+
+	/**
+	 * The plugins to ask for transient commands with a keyword that no plugin declared.
+	 */
+	static protected List< CommandListener > transientDefault;
+
+	/**
+	 * The plugins to ask for persistent commands with a keyword that no plugin declared.
+	 */
+	static protected List< CommandListener > persistentDefault;
+
 	static
 	{
 		listeners = new ArrayList< CommandListener >();
@@ -100,6 +128,56 @@ public class PluginManager
 		{
 			throw new SystemException( e );
 		}
+
+		transientRoutes = new HashMap< String, List< CommandListener > >();
+		transientDefault = route( true, transientRoutes );
+		persistentRoutes = new HashMap< String, List< CommandListener > >();
+		persistentDefault = route( false, persistentRoutes );
+	}
+
+	/**
+	 * Builds the routes for transient or persistent commands. Each route contains the plugins in the order in which
+	 * they were found, the plugins that declared the keyword and the plugins that did not declare any keywords.
+	 *
+	 * @param isTransient Build the routes for transient commands?
+	 * @param routes The routes by keyword.
+	 * @return The plugins to ask for commands with a keyword that no plugin declared.
+	 */
+	static private List< CommandListener > route( boolean isTransient, Map< String, List< CommandListener > > routes )
+	{
+		List< CommandListener > result = new ArrayList< CommandListener >();
+		Set< String > keywords = new LinkedHashSet< String >();
+		for( CommandListener listener : listeners )
+			if( listener instanceof KeywordCommandListener )
+				keywords.addAll( getKeywords( (KeywordCommandListener)listener, isTransient ) );
+			else
+				result.add( listener );
+
+		for( String keyword : keywords )
+		{
+			List< CommandListener > route = new ArrayList< CommandListener >();
+			for( CommandListener listener : listeners )
+				if( !( listener instanceof KeywordCommandListener ) || getKeywords( (KeywordCommandListener)listener, isTransient ).contains( keyword ) )
+					route.add( listener );
+			routes.put( keyword, route );
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the first words of the keywords declared by the given plugin.
+	 *
+	 * @param listener The plugin.
+	 * @param isTransient Return the keywords of the transient commands?
+	 * @return The first words of the keywords declared by the given plugin.
+	 */
+	static private Set< String > getKeywords( KeywordCommandListener listener, boolean isTransient )
+	{
+		Set< String > result = new LinkedHashSet< String >();
+		for( String keyword : isTransient ? listener.getTransientKeywords() : listener.getPersistentKeywords() )
+			result.add( KeywordIndex.getKeyword( keyword ) );
+		return result;
 	}
 
 	/**
@@ -112,6 +190,24 @@ public class PluginManager
 		return listeners;
 	}
 
+	/**
+	 * Returns the plugins that may accept the given command, in the order in which they were found.
+	 *
+	 * @param command The command.
+	 * @return The plugins that may accept the given command.
+	 */
+	static public List< CommandListener > getListeners( Command command )
+	{
+		String keyword = KeywordIndex.getKeyword( command.getCommand() );
+		if( command.isTransient() )
+		{
+			List< CommandListener > result = transientRoutes.get( keyword );
+			return result != null ? result : transientDefault;
+		}
+		List< CommandListener > result = persistentRoutes.get( keyword );
+		return result != null ? result : persistentDefault;
+	}
+
 	/**
 	 * Send all listeners the signal to terminate
 	 */
@@ -0,0 +1,253 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+import solidstack.lang.ThreadInterrupted;
+
+
+/**
+ * A source for SQL statements that parses ahead. A producer thread reads the commands from the underlying source into
+ * a bounded queue, so that parsing overlaps with the execution of the commands in the database.
+ *
+ * <p>
+ * Some commands change the state of the parser or read from the underlying reader themselves, like SET DELIMITER,
+ * SCRIPT, INCLUDE or IMPORT CSV with inline data. That's why the producer pauses after each transient command and
+ * after each IMPORT command. It resumes when the next command is requested, which means that the processor has
+ * finished executing the previous one.
+ * </p>
+ *
+ * @author Ren M. de Bloois
+ */
+public class PrefetchingSQLSource extends SQLSource
+{
+	/**
+	 * The default number of commands to parse ahead.
+	 */
+	static public final int DEFAULT_SIZE = 100;
+
+	/**
+	 * Pattern for commands that may read data from the source itself.
+	 */
+	static protected final Pattern readsSourcePattern = Pattern.compile( "\\s*IMPORT\\s+.*", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
+
+	static private final Object END = new Object();
+
+	/**
+	 * The source that is read ahead.
+	 */
+	protected SQLSource source;
+
+	private BlockingQueue< Object > queue;
+	private Semaphore resume = new Semaphore( 0 );
+	private Thread producer;
+	private volatile boolean stopped;
+	private boolean paused;
+	private boolean ended;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source The source to read ahead.
+	 * @param size The maximum number of commands to parse ahead.
+	 */
+	public PrefetchingSQLSource( SQLSource source, int size )
+	{
+		super( source.reader );
+		this.source = source;
+		this.queue = new ArrayBlockingQueue< Object >( size );
+	}
+
+	/**
+	 * Overrides the default delimiter. This is called by the processor while executing a transient command, when the
+	 * producer is paused.
+	 *
+	 * @param delimiters The delimiters.
+	 */
+	@Override
+	public void setDelimiters( Delimiter[] delimiters )
+	{
+		this.source.setDelimiters( delimiters );
+	}
+
+	@Override
+	public Command readCommand()
+	{
+		if( this.ended )
+			return null;
+
+		if( this.producer == null )
+			start();
+		else if( this.paused )
+		{
+			this.paused = false;
+			this.resume.release();
+		}
+
+		Object item;
+		try
+		{
+			item = this.queue.take();
+		}
+		catch( InterruptedException e )
+		{
+			throw new ThreadInterrupted();
+		}
+
+		if( item == END )
+		{
+			this.ended = true;
+			return null;
+		}
+		if( item instanceof RuntimeException )
+		{
+			this.ended = true;
+			throw (RuntimeException)item;
+		}
+		if( item instanceof Error )
+		{
+			this.ended = true;
+			throw (Error)item;
+		}
+
+		Command command = (Command)item;
+		this.paused = isBarrier( command );
+		return command;
+	}
+
+	/**
+	 * Starts the producer thread.
+	 */
+	protected void start()
+	{
+		this.producer = new Thread( "SQLSource-Prefetch" )
+		{
+			@Override
+			public void run()
+			{
+				produce();
+			}
+		};
+		this.producer.setDaemon( true );
+		this.producer.start();
+	}
+
+	/**
+	 * Reads the commands from the underlying source into the queue, until the end of the source is reached or the
+	 * source is stopped. Errors are put into the queue too, they are thrown when the consumer reaches them.
+	 */
+	protected void produce()
+	{
+		try
+		{
+			while( !this.stopped )
+			{
+				Object item;
+				boolean barrier = false;
+				try
+				{
+					Command command = this.source.readCommand();
+					if( command != null )
+					{
+						item = command;
+						barrier = isBarrier( command );
+					}
+					else
+						item = END;
+				}
+				catch( Throwable t )
+				{
+					item = t;
+				}
+
+				this.queue.put( item );
+				if( !( item instanceof Command ) )
+					break;
+				if( barrier )
+					this.resume.acquire();
+			}
+		}
+		catch( InterruptedException e )
+		{
+			// Nobody interrupts the producer
+			throw new SystemException( e );
+		}
+	}
+
+	/**
+	 * Should the producer pause after the given command?
+	 *
+	 * @param command The command.
+	 * @return True if the producer should pause, false otherwise.
+	 */
+	static protected boolean isBarrier( Command command )
+	{
+		return command.isTransient() || readsSourcePattern.matcher( command.getCommand() ).matches();
+	}
+
+	/**
+	 * Stops the producer thread without closing the underlying source. Commands that have been read ahead are
+	 * discarded.
+	 */
+	public void stop()
+	{
+		if( this.producer == null )
+			return;
+
+		this.stopped = true;
+		this.ended = true;
+
+		boolean interrupted = false;
+		try
+		{
+			// The producer may be waiting for room in the queue or waiting to resume
+			while( this.producer.isAlive() )
+			{
+				this.queue.clear();
+				this.resume.release();
+				try
+				{
+					this.producer.join( 10 );
+				}
+				catch( InterruptedException e )
+				{
+					interrupted = true;
+				}
+			}
+		}
+		finally
+		{
+			if( interrupted )
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the producer thread and closes the underlying source.
+	 */
+	@Override
+	public void close()
+	{
+		stop();
+		this.source.close();
+		this.reader = null;
+	}
+}
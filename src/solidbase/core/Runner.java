@@ -18,14 +18,23 @@ package solidbase.core;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
 import solidbase.Version;
+import solidbase.util.Assert;
+import solidbase.util.Metrics;
 import solidbase.util.SynchronizedProtectedWorkerThread;
 import solidstack.io.Resource;
+import solidstack.lang.ThreadInterrupted;
 
 /**
  * The runner contains the logic to execute upgrade files and SQL files and is used by the Ant tasks and Maven plugins.
@@ -34,6 +43,16 @@ import solidstack.io.Resource;
  */
 public class Runner
 {
+	/**
+	 * The default number of tenants that are upgraded at the same time.
+	 */
+	static public final int DEFAULT_TENANT_THREADS = 4;
+
+	/**
+	 * The number of slowest statements that are printed at the end of a profiled upgrade.
+	 */
+	static public final int SLOWEST_PRINTED = 5;
+
 	/**
 	 * The progress listener.
 	 */
@@ -44,6 +63,16 @@ public class Runner
 	 */
 	protected Map< String, ConnectionAttributes > connections = new HashMap< String, ConnectionAttributes >();
 
+	/**
+	 * The tenant databases to upgrade with the same upgrade file. Each tenant replaces the 'default' connection.
+	 */
+	protected List< ConnectionAttributes > tenants = new ArrayList< ConnectionAttributes >();
+
+	/**
+	 * The maximum number of tenants that are upgraded at the same time.
+	 */
+	protected int tenantThreads = DEFAULT_TENANT_THREADS;
+
 	/**
 	 * SQL files to execute.
 	 */
@@ -64,11 +93,51 @@ public class Runner
 	 */
 	protected boolean downgradeAllowed;
 
+	/**
+	 * Only scan the upgrade file for the segments that are actually executed?
+	 */
+	protected boolean lazyScan;
+
+	/**
+	 * Use and save an index of the upgrade file next to it?
+	 */
+	protected boolean useIndex;
+
+	/**
+	 * The number of commands to parse ahead in a separate thread. 0 to disable.
+	 */
+	protected int prefetch;
+
+	/**
+	 * The batch size for the DML statements in SQL files. 0 to disable.
+	 */
+	protected int batchSize;
+
 	/**
 	 * Where to send output.
 	 */
 	protected Resource outputFile;
 
+	/**
+	 * The timers and counters of the runs.
+	 */
+	protected Metrics metrics = new Metrics();
+
+	/**
+	 * Where to write the timers and counters at the end of a run.
+	 */
+	protected Resource metricsFile;
+
+	/**
+	 * Records the execution time of the statements and segments of the upgrades. Null when not profiling.
+	 */
+	protected UpgradeProfile profile;
+
+	/**
+	 * Where to write the profile at the end of an upgrade.
+	 */
+	protected Resource profileFile;
+
 	/**
 	 * The parameters.
 	 */
@@ -100,7 +169,8 @@ public class Runner
 	}
 
 	/**
-	 * Sets a connection to use.
+	 * Sets a connection to use. Connections retrieved from the data source are closed when the execution ends. Use a
+	 * {@link solidbase.util.PooledDataSource} shared between runs to keep the connections open for the next run.
 	 *
 	 * @param name The name of the connection.
 	 * @param dataSource The data source to connect with.
@@ -112,6 +182,50 @@ public class Runner
 		this.connections.put( name, new ConnectionAttributes( name, dataSource, username, password ) );
 	}
 
+	/**
+	 * Adds a tenant database to upgrade with {@link #upgradeTenants()}. The tenant replaces the 'default' connection.
+	 * The driver is taken from the 'default' connection. The user name and password are taken from the 'default'
+	 * connection when no user name is given.
+	 *
+	 * @param name The name of the tenant.
+	 * @param url The URL of the tenant database.
+	 * @param username The user name to connect with. May be null.
+	 * @param password The password of the user.
+	 */
+	public void addTenant( String name, String url, String username, String password )
+	{
+		Assert.notNull( name );
+		Assert.notNull( url );
+		this.tenants.add( new ConnectionAttributes( name, null, url, username, password ) );
+	}
+
+	/**
+	 * Adds a tenant database to upgrade with {@link #upgradeTenants()}. The tenant replaces the 'default' connection.
+	 * The user name and password are taken from the 'default' connection when no user name is given.
+	 *
+	 * @param name The name of the tenant.
+	 * @param dataSource The data source of the tenant database.
+	 * @param username The user name to connect with. May be null.
+	 * @param password The password of the user.
+	 */
+	public void addTenant( String name, DataSource dataSource, String username, String password )
+	{
+		Assert.notNull( name );
+		Assert.notNull( dataSource );
+		this.tenants.add( new ConnectionAttributes( name, dataSource, username, password ) );
+	}
+
+	/**
+	 * Sets the maximum number of tenants that are upgraded at the same time.
+	 *
+	 * @param tenantThreads The maximum number of tenants that are upgraded at the same time.
+	 */
+	public void setTenantThreads( int tenantThreads )
+	{
+		Assert.isTrue( tenantThreads > 0, "tenantThreads must be greater than 0" );
+		this.tenantThreads = tenantThreads;
+	}
+
 	/**
 	 * Set SQL files to execute.
 	 *
@@ -163,6 +277,50 @@ public class Runner
 		this.downgradeAllowed = downgradeallowed;
 	}
 
+	/**
+	 * Set if the upgrade file should be scanned lazily. Only the definition is scanned up front, the segments are
+	 * located when they are executed. Segments that are not executed are not checked.
+	 *
+	 * @param lazyScan Scan the upgrade file lazily?
+	 */
+	public void setLazyScan( boolean lazyScan )
+	{
+		this.lazyScan = lazyScan;
+	}
+
+	/**
+	 * Set if an index of the upgrade file should be used. The index is saved in a file next to the upgrade file, so that
+	 * the upgrade file does not need to be scanned completely the next time. It is not used when upgrading tenants.
+	 *
+	 * @param useIndex Use and save an index of the upgrade file?
+	 */
+	public void setUseIndex( boolean useIndex )
+	{
+		this.useIndex = useIndex;
+	}
+
+	/**
+	 * Sets the number of commands to parse ahead in a separate thread, so that parsing of large files overlaps with
+	 * the execution of the commands in the database.
+	 *
+	 * @param prefetch The number of commands to parse ahead. 0 to disable.
+	 */
+	public void setPrefetch( int prefetch )
+	{
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Sets the batch size for SQL files. Consecutive INSERT, UPDATE, DELETE and MERGE statements are sent to the
+	 * database in batches of this size.
+	 *
+	 * @param batchSize The batch size. 0 to execute each statement separately.
+	 */
+	public void setBatchSize( int batchSize )
+	{
+		this.batchSize = batchSize;
+	}
+
 	/**
 	 * Sets where to send output to.
 	 *
@@ -173,6 +331,52 @@ public class Runner
 		this.outputFile = outputFile;
 	}
 
+	/**
+	 * Returns the timers and counters of the runs. They accumulate over the runs of this runner, and include the time
+	 * spent scanning the upgrade file, parsing, executing statements, updating the version tables and in the bulk
+	 * plugins.
+	 *
+	 * @return The timers and counters.
+	 */
+	public Metrics getMetrics()
+	{
+		return this.metrics;
+	}
+
+	/**
+	 * Sets where to write the timers and counters as JSON at the end of a run, also when the run fails.
+	 *
+	 * @param metricsFile Where to write the timers and counters.
+	 */
+	public void setMetricsFile( Resource metricsFile )
+	{
+		this.metricsFile = metricsFile;
+	}
+
+	/**
+	 * Enables profiling of the upgrades. At the end of an upgrade, also when the upgrade fails, the slowest statements
+	 * and the execution time of each segment are written as JSON to the given file, and the slowest statements are
+	 * printed.
+	 *
+	 * @param profileFile Where to write the profile.
+	 */
+	public void setProfileFile( Resource profileFile )
+	{
+		this.profileFile = profileFile;
+		if( this.profile == null )
+			this.profile = new UpgradeProfile();
+	}
+
+	/**
+	 * Returns the profile of the upgrades.
+	 *
+	 * @return The profile of the upgrades, null when profiling is not enabled.
+	 */
+	public UpgradeProfile getProfile()
+	{
+		return this.profile;
+	}
+
 	/**
 	 * Adds a parameter.
 	 *
@@ -196,6 +400,9 @@ public class Runner
 		this.listener.println( "" );
 
 		SQLProcessor processor = new SQLProcessor( this.listener );
+		processor.setMetrics( this.metrics );
+		processor.setPrefetch( this.prefetch );
+		processor.setBatchSize( this.batchSize );
 		DatabaseContext databases = getDatabases();
 
 		boolean complete = false;
@@ -204,7 +411,7 @@ public class Runner
 			boolean first = true;
 			for( Resource resource : this.sqlFiles )
 			{
-				SQLContext context = new SQLContext( Factory.openSQLFile( resource, this.listener ).getSource() );
+				SQLContext context = new SQLContext( processor.prefetch( Factory.openSQLFile( resource, this.listener ).getSource() ) );
 				context.setDatabases( databases );
 				context.getScope().setAll( this.parameters );
 				processor.setContext( context );
@@ -226,6 +433,7 @@ public class Runner
 
 			processor.end();
 			PluginManager.terminateListeners();
+			writeMetrics();
 		}
 
 		this.listener.println( "" );
@@ -244,8 +452,13 @@ public class Runner
 		this.listener.println( "" );
 
 		final UpgradeProcessor processor = new UpgradeProcessor( this.listener );
-		processor.setUpgradeFile( Factory.openUpgradeFile( this.upgradeFile, this.listener ) );
+		processor.setMetrics( this.metrics );
+		processor.setProfile( this.profile );
+		long start = System.nanoTime();
+		processor.setUpgradeFile( Factory.openUpgradeFile( this.upgradeFile, this.listener, this.lazyScan, this.useIndex ) );
+		this.metrics.time( "scan", System.nanoTime() - start );
 		processor.setDatabases( getDatabases() );
+		processor.setPrefetch( this.prefetch );
 		processor.setParameters( this.parameters );
 
 		final ProgressListener listener = this.listener;
@@ -278,11 +491,189 @@ public class Runner
 
 					processor.end();
 					PluginManager.terminateListeners();
+					writeMetrics();
+					writeProfile();
+				}
+			}
+		};
+
+		worker.start();
+	}
+
+	/**
+	 * Upgrade all tenant databases with the same upgrade file. The upgrade file is scanned once and shared by the
+	 * tenants. At most {@link #tenantThreads} tenants are upgraded at the same time. The progress of each tenant is
+	 * reported with the tenant name in front. At the end a summary is printed. A failing tenant does not stop the
+	 * other tenants. This method protects itself against SIGINT (Ctrl-C).
+	 *
+	 * @return The exceptions of the tenants that failed, indexed by tenant name. Empty when all tenants are upgraded.
+	 */
+	public Map< String, Throwable > upgradeTenants()
+	{
+		if( this.listener == null )
+			throw new IllegalStateException( "ProgressListener not set" );
+		if( this.tenants.isEmpty() )
+			throw new IllegalStateException( "No tenants set" );
+
+		this.listener.println( Version.getInfo() );
+		this.listener.println( "" );
+
+		long start = System.nanoTime();
+		final UpgradeFile upgradeFile = Factory.openUpgradeFile( this.upgradeFile, this.listener, false );
+		upgradeFile.getGraph(); // Build it once, before the tenant threads open their own readers on the shared file
+		this.metrics.time( "scan", System.nanoTime() - start );
+		final Map< String, Throwable > failures = new LinkedHashMap< String, Throwable >();
+
+		this.listener.println( "Upgrading " + this.tenants.size() + " tenants, " + this.tenantThreads + " at a time..." );
+
+		SynchronizedProtectedWorkerThread worker = new SynchronizedProtectedWorkerThread( "UpgradeThread" )
+		{
+			@Override
+			public void work()
+			{
+				ExecutorService executor = Executors.newFixedThreadPool( Runner.this.tenantThreads );
+				try
+				{
+					List< Future< ? > > futures = new ArrayList< Future< ? > >();
+					for( final ConnectionAttributes tenant : Runner.this.tenants )
+						futures.add( executor.submit( new Runnable()
+						{
+							//@Override
+							public void run()
+							{
+								upgradeTenant( tenant, upgradeFile );
+							}
+						} ) );
+
+					for( int i = 0; i < futures.size(); i++ )
+						try
+						{
+							futures.get( i ).get();
+						}
+						catch( ExecutionException e )
+						{
+							failures.put( Runner.this.tenants.get( i ).getName(), e.getCause() );
+						}
+						catch( InterruptedException e )
+						{
+							// Let the running tenants abort and wait for them
+							executor.shutdownNow();
+							try
+							{
+								executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+							}
+							catch( InterruptedException ee )
+							{
+								// Stop waiting
+							}
+							throw new ThreadInterrupted();
+						}
+				}
+				finally
+				{
+					executor.shutdown();
+					upgradeFile.close();
+					PluginManager.terminateListeners();
+					writeMetrics();
+					writeProfile();
 				}
 			}
 		};
 
 		worker.start();
+
+		this.listener.println( "" );
+		this.listener.println( "Upgraded " + ( this.tenants.size() - failures.size() ) + " of " + this.tenants.size() + " tenants." );
+		for( Map.Entry< String, Throwable > failure : failures.entrySet() )
+		{
+			Throwable t = failure.getValue();
+			this.listener.println( "    FAILED " + failure.getKey() + ": " + ( t.getMessage() != null ? t.getMessage() : t.toString() ) );
+		}
+		this.listener.println( "" );
+
+		return failures;
+	}
+
+	/**
+	 * Upgrade one tenant database.
+	 *
+	 * @param tenant The tenant.
+	 * @param upgradeFile The scanned upgrade file that is shared by all tenants.
+	 */
+	protected void upgradeTenant( ConnectionAttributes tenant, UpgradeFile upgradeFile )
+	{
+		ConnectionAttributes def = this.connections.get( "default" );
+		if( def == null )
+			throw new IllegalArgumentException( "Missing 'default' connection." );
+
+		String username = tenant.getUsername();
+		String password = tenant.getPassword();
+		if( username == null )
+		{
+			username = def.getUsername();
+			password = def.getPassword();
+		}
+		if( tenant.getDatasource() != null )
+			def = new ConnectionAttributes( "default", tenant.getDatasource(), username, password );
+		else
+			def = new ConnectionAttributes( "default", def.getDriver(), tenant.getUrl(), username, password );
+
+		ProgressListener listener = new TenantProgress( this.listener, tenant.getName() );
+		UpgradeProcessor processor = new UpgradeProcessor( listener );
+		processor.setMetrics( this.metrics );
+		processor.setProfile( this.profile );
+		processor.setUpgradeFile( Factory.openUpgradeFile( upgradeFile, listener ) );
+		processor.setDatabases( getDatabases( def, listener ) );
+		processor.setPrefetch( this.prefetch );
+		processor.setParameters( this.parameters );
+
+		boolean complete = false;
+		try
+		{
+			processor.init();
+			processor.upgrade( this.upgradeTarget, this.downgradeAllowed );
+			listener.println( processor.getVersionStatement() );
+
+			complete = true;
+		}
+		finally
+		{
+			if( complete )
+				listener.upgradeComplete();
+			else
+				listener.upgradeAborted();
+
+			processor.end();
+		}
+	}
+
+	/**
+	 * Writes the timers and counters to the metrics file, if one is set.
+	 */
+	protected void writeMetrics()
+	{
+		if( this.metricsFile != null )
+			this.metrics.write( this.metricsFile );
+	}
+
+	/**
+	 * Writes the profile to the profile file and prints the slowest statements, if profiling is enabled.
+	 */
+	protected void writeProfile()
+	{
+		if( this.profile == null )
+			return;
+
+		this.profile.write( this.profileFile );
+
+		List< UpgradeProfile.StatementTime > slowest = this.profile.getSlowest();
+		if( slowest.isEmpty() )
+			return;
+		this.listener.println( "" );
+		this.listener.println( "Slowest statements:" );
+		for( int i = 0; i < slowest.size() && i < SLOWEST_PRINTED; i++ )
+			this.listener.println( "    " + ( i + 1 ) + ". " + slowest.get( i ) );
+		this.listener.println( "The full profile is written to " + this.profileFile );
 	}
 
 	private DatabaseContext getDatabases()
@@ -291,9 +682,25 @@ public class Runner
 		if( def == null )
 			throw new IllegalArgumentException( "Missing 'default' connection." );
 
+		return getDatabases( def, this.listener );
+	}
+
+	/**
+	 * Creates the databases for the configured connections.
+	 *
+	 * @param def The attributes of the 'default' connection. Other connections inherit missing attributes from these.
+	 * @param listener The progress listener.
+	 * @return The databases.
+	 */
+	private DatabaseContext getDatabases( ConnectionAttributes def, ProgressListener listener )
+	{
 		DatabaseContext databases = new DatabaseContext();
 		for( ConnectionAttributes connection : this.connections.values() )
 		{
+			String name = connection.getName();
+			if( name.equals( "default" ) )
+				connection = def;
+
 			DataSource dataSource = connection.getDatasource();
 			String driver = connection.getDriver();
 			if( driver == null && dataSource == null )
@@ -306,9 +713,9 @@ public class Runner
 				url = def.getUrl();
 
 			if( dataSource != null )
-				databases.addDatabase( new Database( connection.getName(), dataSource, connection.getUsername(), connection.getPassword(), this.listener ) );
+				databases.addDatabase( new Database( name, dataSource, connection.getUsername(), connection.getPassword(), listener ) );
 			else
-				databases.addDatabase( new Database( connection.getName(), driver, url, connection.getUsername(), connection.getPassword(), this.listener ) );
+				databases.addDatabase( new Database( name, driver, url, connection.getUsername(), connection.getPassword(), listener ) );
 		}
 		return databases;
 	}
@@ -356,4 +763,99 @@ public class Runner
 			processor.end();
 		}
 	}
+
+
+	/**
+	 * A progress listener for one of the tenants that are upgraded at the same time. It reports the main events only,
+	 * with the tenant name in front.
+	 */
+	static protected class TenantProgress extends ProgressListener
+	{
+		/**
+		 * The progress listener that is shared by all tenants.
+		 */
+		protected ProgressListener listener;
+
+		/**
+		 * The name of the tenant.
+		 */
+		protected String tenant;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param listener The progress listener that is shared by all tenants.
+		 * @param tenant The name of the tenant.
+		 */
+		protected TenantProgress( ProgressListener listener, String tenant )
+		{
+			this.listener = listener;
+			this.tenant = tenant;
+		}
+
+		@Override
+		public void cr()
+		{
+			// Lines are printed as a whole
+		}
+
+		@Override
+		public void println( String message )
+		{
+			if( message.length() == 0 )
+				return;
+			synchronized( this.listener )
+			{
+				this.listener.println( "[" + this.tenant + "] " + message );
+			}
+		}
+
+		@Override
+		protected void openingUpgradeFile( Resource file )
+		{
+			// The file has already been opened once
+		}
+
+		@Override
+		protected void openedUpgradeFile( UpgradeFile file )
+		{
+			// The file has already been opened once
+		}
+
+		@Override
+		protected void upgradeStarting( UpgradeSegment segment )
+		{
+			String action;
+			switch( segment.getType() )
+			{
+				case SETUP:
+					println( "Setting up control tables" );
+					return;
+				case UPGRADE:
+					action = "Upgrading";
+					break;
+				case SWITCH:
+					action = "Switching";
+					break;
+				case DOWNGRADE:
+					action = "Downgrading";
+					break;
+				default:
+					throw new IllegalStateException( "Unknown segment type: " + segment.getType() );
+			}
+			if( segment.getSource() == null )
+				println( action + " to \"" + segment.getTarget() + "\"" );
+			else
+				println( action + " \"" + segment.getSource() + "\" to \"" + segment.getTarget() + "\"" );
+		}
+
+		@Override
+		protected String requestPassword( String user )
+		{
+			synchronized( this.listener )
+			{
+				return this.listener.requestPassword( user + " (" + this.tenant + ")" );
+			}
+		}
+	}
 }
@@ -16,8 +16,15 @@
 
 package solidbase.core;
 
+import java.sql.BatchUpdateException;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import solidbase.util.Assert;
 import solidstack.io.Resource;
 import solidstack.io.SourceReader;
 
@@ -32,11 +39,41 @@ import solidstack.io.SourceReader;
  */
 public class SQLProcessor extends CommandProcessor
 {
+	/**
+	 * The batch size used by BATCH ON when no batch size has been configured.
+	 */
+	static public final int DEFAULT_BATCH_SIZE = 1000;
+
+	/**
+	 * Pattern for BATCH.
+	 */
+	static protected final Pattern batchPattern = Pattern.compile( "BATCH\\s+(ON|OFF|\\d+)", Pattern.CASE_INSENSITIVE );
+
+	/**
+	 * Pattern for the statements that can be batched.
+	 */
+	static protected final Pattern batchablePattern = Pattern.compile( "\\s*(?:INSERT|UPDATE|DELETE|MERGE)\\s.*", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
+
 	/**
 	 * The SQL execution context.
 	 */
 	protected SQLContext sqlContext;
 
+	/**
+	 * The configured batch size. 0 if the statements are not batched unless the SQL file says so.
+	 */
+	protected int batchSize;
+
+	/**
+	 * The batch size of the SQL file being executed. 0 if batching is off.
+	 */
+	protected int currentBatchSize;
+
+	/**
+	 * The statements waiting to be sent to the database in one batch.
+	 */
+	protected List< Command > batch = new ArrayList< Command >();
+
 	/**
 	 * Construct a new instance of the sql executer.
 	 *
@@ -59,6 +96,18 @@ public class SQLProcessor extends CommandProcessor
 		this.sqlContext = context;
 	}
 
+	/**
+	 * Sets the batch size. Consecutive INSERT, UPDATE, DELETE and MERGE statements are sent to the database in batches
+	 * of this size. The SQL file can change this with the BATCH annotation.
+	 *
+	 * @param batchSize The batch size. 0 to execute each statement separately.
+	 */
+	public void setBatchSize( int batchSize )
+	{
+		Assert.isTrue( batchSize >= 0 );
+		this.batchSize = batchSize;
+	}
+
 	/**
 	 * Execute the SQL file.
 	 *
@@ -69,16 +118,165 @@ public class SQLProcessor extends CommandProcessor
 		this.context.setCurrentDatabase( getDefaultDatabase() );
 		this.context.getCurrentDatabase().resetUser();
 
-		Command command = this.sqlContext.getSource().readCommand();
-		while( command != null )
+		this.currentBatchSize = this.batchSize;
+		try
+		{
+			Command command = readCommand();
+			while( command != null )
+			{
+				executeWithListeners( command, this.context.skipping() ); // TODO What if exception is ignored, how do we call progress then?
+				command = readCommand();
+			}
+			flushBatch();
+		}
+		finally
 		{
-			executeWithListeners( command, this.context.skipping() ); // TODO What if exception is ignored, how do we call progress then?
-			command = this.sqlContext.getSource().readCommand();
+			this.batch.clear();
 		}
 
 		// FIXME Rollback every connection
 	}
 
+	/**
+	 * Reads a command from the SQL source. The time is added to the 'parse' timer.
+	 *
+	 * @return The command read.
+	 */
+	protected Command readCommand()
+	{
+		long start = System.nanoTime();
+		try
+		{
+			return this.sqlContext.getSource().readCommand();
+		}
+		finally
+		{
+			this.metrics.time( "parse", System.nanoTime() - start );
+		}
+	}
+
+	@Override
+	protected boolean executeListeners( Command command, boolean skip ) throws SQLException
+	{
+		// Transient commands can change the connection, the delimiters or the errors to ignore
+		if( command.isTransient() || !batchablePattern.matcher( command.getCommand() ).matches() )
+			flushBatch();
+
+		if( command.isTransient() )
+		{
+			Matcher matcher;
+			if( ( matcher = batchPattern.matcher( command.getCommand() ) ).matches() )
+			{
+				batch( matcher.group( 1 ) );
+				return true;
+			}
+		}
+
+		return super.executeListeners( command, skip );
+	}
+
+	@Override
+	protected void executeJdbc( Command command ) throws SQLException
+	{
+		if( this.currentBatchSize == 0 || command.getCommand().length() == 0 || !batchablePattern.matcher( command.getCommand() ).matches() )
+		{
+			super.executeJdbc( command );
+			return;
+		}
+
+		this.batch.add( command );
+		if( this.batch.size() >= this.currentBatchSize )
+			flushBatch();
+	}
+
+	/**
+	 * Enables or disables batching of the INSERT, UPDATE, DELETE and MERGE statements.
+	 *
+	 * @param size ON to use the configured batch size or {@link #DEFAULT_BATCH_SIZE}, OFF to execute each statement
+	 *        separately, or the size of the batches.
+	 */
+	protected void batch( String size )
+	{
+		if( size.equalsIgnoreCase( "ON" ) )
+			this.currentBatchSize = this.batchSize > 0 ? this.batchSize : DEFAULT_BATCH_SIZE;
+		else if( size.equalsIgnoreCase( "OFF" ) )
+			this.currentBatchSize = 0;
+		else
+			this.currentBatchSize = Integer.parseInt( size );
+	}
+
+	/**
+	 * Sends the statements that are waiting to the database in one batch. When the batch fails, the statements that
+	 * failed or have not been executed are executed separately, so that IGNORE SQL ERROR works as usual.
+	 *
+	 * @throws SQLExecutionException Whenever a statement fails with an {@link SQLException} that is not ignored.
+	 */
+	protected void flushBatch() throws SQLExecutionException
+	{
+		if( this.batch.isEmpty() )
+			return;
+
+		List< Command > commands = new ArrayList< Command >( this.batch );
+		this.batch.clear();
+
+		int[] counts = null;
+		try
+		{
+			Statement statement = createStatement();
+			boolean commit = false;
+			try
+			{
+				for( Command command : commands )
+					statement.addBatch( command.getCommand() );
+				statement.executeBatch();
+				commit = true;
+			}
+			catch( BatchUpdateException e )
+			{
+				// Drivers either stop at the failing statement or mark the failing statements
+				counts = e.getUpdateCounts();
+				if( counts == null )
+					counts = new int[ 0 ];
+				commit = true; // Keep the statements that succeeded, as if they were executed separately
+			}
+			finally
+			{
+				closeStatement( statement, commit );
+			}
+		}
+		catch( SQLException e )
+		{
+			// Not a failing statement, but a failing batch
+			Command command = commands.get( 0 );
+			SQLExecutionException newException = new SQLExecutionException( command.getCommand(), command.getLocation(), e );
+			this.progress.exception( newException );
+			throw newException;
+		}
+
+		if( counts == null )
+			return;
+
+		// Execute the statements that failed or have not been executed separately
+		for( int i = 0; i < commands.size(); i++ )
+			if( i >= counts.length || counts[ i ] == Statement.EXECUTE_FAILED )
+			{
+				Command command = commands.get( i );
+				try
+				{
+					super.executeJdbc( command );
+				}
+				catch( SQLException e )
+				{
+					SQLExecutionException newException = new SQLExecutionException( command.getCommand(), command.getLocation(), e );
+					if( !this.context.ignoreSQLError( e.getSQLState() ) )
+					{
+						this.progress.exception( newException );
+						throw newException;
+					}
+				}
+			}
+	}
+
 	@Override
 	protected void startSection( int level, String message )
 	{
@@ -16,6 +16,7 @@
 
 package solidbase.core;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -29,7 +30,6 @@ import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 
 import solidbase.core.UpgradeSegment.Type;
@@ -113,6 +113,26 @@ public class UpgradeFile
 	 */
 	protected String logTableName;
 
+	/**
+	 * The graph of the versions and the segments between them.
+	 */
+	protected VersionGraph graph;
+
+	/**
+	 * The number of the line where scanning for segments continues.
+	 */
+	protected int scanLine;
+
+	/**
+	 * Has the whole file been scanned for segments?
+	 */
+	protected boolean scanned;
+
+	/**
+	 * The index file from which the segments have been loaded, or null if the segments have been scanned.
+	 */
+	protected File indexFile;
+
 
 	/**
 	 * Constructor.
@@ -124,6 +144,30 @@ public class UpgradeFile
 		this.file = file;
 	}
 
+	/**
+	 * Constructor for a copy that shares the segment index of the given upgrade file, but reads the segments with its
+	 * own reader. This way one scanned upgrade file can be executed by multiple threads at the same time. The given
+	 * upgrade file must have been scanned completely, so that the shared index is not modified anymore.
+	 *
+	 * @param shared The upgrade file whose segment index is shared.
+	 * @param file The reader which is used to read the contents of the file.
+	 */
+	protected UpgradeFile( UpgradeFile shared, RandomAccessSourceReader file )
+	{
+		Assert.isTrue( shared.scanned, "Upgrade file has not been scanned completely" );
+
+		this.file = file;
+		this.defaultDelimiters = shared.defaultDelimiters;
+		this.segments = shared.segments;
+		this.versions = shared.versions;
+		this.setups = shared.setups;
+		this.versionTableName = shared.versionTableName;
+		this.logTableName = shared.logTableName;
+		this.graph = shared.getGraph();
+		this.scanLine = shared.scanLine;
+		this.scanned = true;
+	}
+
 
 	/**
 	 * Translates a segment type string to a type enum.
@@ -150,6 +194,27 @@ public class UpgradeFile
 	 * Scans for segments in the file.
 	 */
 	protected void scan()
+	{
+		scanDefinition();
+		scanSegments( null );
+	}
+
+
+	/**
+	 * Scans the definition only. The segments are located when they are needed by {@link #gotoSegment(UpgradeSegment)}.
+	 * This means that the file is only scanned up to the last segment that is actually executed, and that the segments
+	 * after that are not checked.
+	 */
+	protected void scanLazy()
+	{
+		scanDefinition();
+	}
+
+
+	/**
+	 * Scans the definition at the start of the file.
+	 */
+	protected void scanDefinition()
 	{
 		boolean withinDefinition = false;
 		boolean definitionComplete = false;
@@ -231,6 +296,24 @@ public class UpgradeFile
 			}
 		}
 
+		this.scanLine = this.file.getLineNumber();
+	}
+
+
+	/**
+	 * Scans the file for segments, continuing where the previous scan stopped. When the whole file has been scanned,
+	 * it checks that all defined segments are found.
+	 *
+	 * @param wanted Stop scanning when this segment is found. If null, the whole file is scanned.
+	 */
+	protected void scanSegments( UpgradeSegment wanted )
+	{
+		if( this.scanned )
+			return;
+
+		if( this.file.getLineNumber() != this.scanLine )
+			this.file.gotoLine( this.scanLine );
+
 		String line = this.file.readLine();
 		while( line != null )
 		{
@@ -344,12 +427,19 @@ public class UpgradeFile
 					if( segment.getLocation() != null )
 						throw new SourceException( "Duplicate upgrade block \"" + source + "\" --> \"" + target + "\" found", location );
 					segment.setLocation( location );
+					if( segment == wanted )
+					{
+						this.scanLine = this.file.getLineNumber();
+						return;
+					}
 				}
 			}
 
 			line = this.file.readLine();
 		}
 
+		this.scanned = true;
+
 		// Check that all defined upgrade blocks are found
 		for( Collection< UpgradeSegment > segments : this.segments.values() )
 			for( UpgradeSegment segment : segments )
@@ -429,19 +519,16 @@ public class UpgradeFile
 
 
 	/**
-	 * Determine the best path between a source version and a target version.
+	 * Returns the graph of the versions and the segments between them. It is built when it is needed for the first
+	 * time. Synchronized, because the tenant threads of {@link Runner#upgradeTenants()} share the scanned upgrade file.
 	 *
-	 * @param source The source version.
-	 * @param target The target version.
-	 * @param downgradesAllowed Allow downgrades in the resulting path.
-	 * @return The best path between a source version and a target version. This path can be empty when the source and
-	 *         target are equal. The result will be null if there is no path.
+	 * @return The graph of the versions and the segments between them.
 	 */
-	protected Path getUpgradePath( String source, String target, boolean downgradesAllowed )
+	synchronized protected VersionGraph getGraph()
 	{
-		Set< String > done = new HashSet< String >();
-		done.add( source );
-		return getUpgradePath0( source, target, downgradesAllowed, done );
+		if( this.graph == null )
+			this.graph = new VersionGraph( this.segments );
+		return this.graph;
 	}
 
 
@@ -451,72 +538,13 @@ public class UpgradeFile
 	 * @param source The source version.
 	 * @param target The target version.
 	 * @param downgradesAllowed Allow downgrades in the resulting path.
-	 * @param targetsProcessed A set of targets that have already been processed. This prevents endless loops.
 	 * @return The best path between a source version and a target version. This path can be empty when the source and
 	 *         target are equal. The result will be null if there is no path.
+	 * @see VersionGraph#getPath(String, String, boolean)
 	 */
-	protected Path getUpgradePath0( String source, String target, boolean downgradesAllowed, Set< String > targetsProcessed )
+	protected Path getUpgradePath( String source, String target, boolean downgradesAllowed )
 	{
-		Path result = new Path();
-
-		// If equal than return an empty path
-		if( ObjectUtils.equals( source, target ) )
-			return result;
-
-		// Start with all the segments that have the given source
-		Collection< UpgradeSegment > segments = this.segments.get( source );
-
-		// As long as only one segment found loop instead of recursion
-		while( segments != null && segments.size() == 1 )
-		{
-			UpgradeSegment segment = segments.iterator().next();
-
-			if( targetsProcessed.contains( segment.getTarget() ) ) // Target already processed -> no path found
-				return null;
-
-			targetsProcessed.add( segment.getTarget() ); // Register target
-
-			result.append( segment ); // Append to result
-			if( target.equals( segment.getTarget() ) ) // Target is requested target -> return result
-				return result;
-
-			segments = this.segments.get( segment.getTarget() );
-		}
-
-		// No segments -> no path found
-		if( segments == null )
-			return null;
-
-		// More then one segment found, select the best one
-		Path selected = null;
-		for( UpgradeSegment segment : segments )
-		{
-			if( targetsProcessed.contains( segment.getTarget() ) ) // Target already processed -> ignore
-				continue;
-
-			// Build new set for recursive call
-			Set< String > processed = new HashSet< String >();
-			processed.addAll( targetsProcessed );
-			processed.add( segment.getTarget() );
-
-			// Call recursive and select if better
-			Path path = getUpgradePath0( segment.getTarget(), target, downgradesAllowed, processed );
-			if( path != null )
-			{
-				path.prepend( segment );
-				if( selected == null )
-					selected = path;
-				else if( path.betterThan( selected ) )
-					selected = path;
-			}
-		}
-
-		// No segments found -> no path found
-		if( selected == null )
-			return null;
-
-		// Return the selected path appended to the first path
-		return result.append( selected );
+		return getGraph().getPath( source, target, downgradesAllowed );
 	}
 
 
@@ -619,44 +647,64 @@ public class UpgradeFile
 		if( !this.versions.contains( source ) )
 			throw new FatalException( "The current database version " + StringUtils.defaultString( source, "<no version>" ) + " is not available in the upgrade file. Maybe this version is deprecated or the wrong upgrade file is used." );
 
-		if( targeting == null )
-			result.add( source ); // The source is reachable
+		if( !getGraph().collectReachable( source, targeting, downgradesAllowed, result ) )
+			throw new FatalException( "The database is incompletely upgraded to version " + targeting + ", but that version is not reachable from version " + StringUtils.defaultString( source, "<no version>" ) );
+	}
 
-		Collection< UpgradeSegment > segments = this.segments.get( source ); // Get all segments with the given source
-		if( segments == null )
-			return;
 
-		// Queue contains segments that await processing
-		LinkedList< UpgradeSegment > queue = new LinkedList< UpgradeSegment >();
+	/**
+	 * Checks that the given line is the start of the given segment.
+	 *
+	 * @param line The line.
+	 * @param segment The segment.
+	 * @return True if the line is the start of the segment, false otherwise.
+	 */
+	protected boolean isStartOf( String line, UpgradeSegment segment )
+	{
+		if( line == null || !SEGMENT_START_MARKER_PATTERN.matcher( line ).matches() )
+			return false;
+		Matcher matcher = SEGMENT_START_PATTERN.matcher( line.substring( 3 ).trim() );
+		if( !matcher.matches() )
+			return false;
+		return stringToType( matcher.group( 1 ) ) == segment.getType()
+				&& matcher.group( 2 ).equals( StringUtils.defaultString( segment.getSource() ) )
+				&& matcher.group( 3 ).equals( segment.getTarget() );
+	}
+
 
-		// Fill queue with segments
-		if( targeting != null )
-		{
+	/**
+	 * Deletes the index that turned out to be out of date, scans the upgrade file again and relocates the segments. The
+	 * segments themselves are kept, because they may already be part of an upgrade path.
+	 */
+	protected void rescan()
+	{
+		this.indexFile.delete();
+		this.indexFile = null;
+
+		UpgradeFile scanned = new UpgradeFile( this.file );
+		this.file.gotoLine( 1 );
+		scanned.scan();
+
+		for( UpgradeSegment segment : this.setups.values() )
+			relocate( segment, scanned.setups.get( segment.getSource() ) );
+		for( Collection< UpgradeSegment > segments : this.segments.values() )
 			for( UpgradeSegment segment : segments )
-				if( targeting.equals( segment.getTarget() ) )
-					queue.add( segment ); // Add segment to the end of the list
-			if( queue.isEmpty() )
-				throw new FatalException( "The database is incompletely upgraded to version " + targeting + ", but that version is not reachable from version " + StringUtils.defaultString( source, "<no version>" ) );
-		}
-		else
-			queue.addAll( segments );
+				relocate( segment, scanned.getSegment( segment.getSource(), segment.getTarget() ) );
+		this.defaultDelimiters = scanned.defaultDelimiters;
+	}
 
-		// Process the queue
-		while( !queue.isEmpty() )
-		{
-			UpgradeSegment segment = queue.removeFirst(); // pop() is not available in java 5
-			if( !result.contains( segment.getTarget() ) ) // Already there?
-				if( downgradesAllowed || !segment.isDowngrade() ) // Downgrades allowed?
-				{
-					result.add( segment.getTarget() );
-					if( !segment.isOpen() ) // Stop when segment is open.
-					{
-						segments = this.segments.get( segment.getTarget() ); // Add the next to the queue
-						if( segments != null )
-							queue.addAll( segments ); // Add segments to the end of the list
-					}
-				}
-		}
+
+	/**
+	 * Moves the given segment to the location of the same segment in a new scan of the upgrade file.
+	 *
+	 * @param segment The segment.
+	 * @param scanned The same segment in the new scan, or null if it is not defined anymore.
+	 */
+	static private void relocate( UpgradeSegment segment, UpgradeSegment scanned )
+	{
+		if( scanned == null || scanned.getType() != segment.getType() || !scanned.getTarget().equals( segment.getTarget() ) )
+			throw new FatalException( "Upgrade block \"" + StringUtils.defaultString( segment.getSource() ) + "\" --> \"" + segment.getTarget() + "\" is not defined anymore, the upgrade file has changed" );
+		segment.setLocation( scanned.getLocation() );
 	}
 
 
@@ -668,12 +716,25 @@ public class UpgradeFile
 	 */
 	protected UpgradeSource gotoSegment( UpgradeSegment segment )
 	{
-		Assert.isTrue( segment.getLocation() != null, "Upgrade or setup block not found" );
+		if( segment.getLocation() == null )
+		{
+			scanSegments( segment );
+			Assert.isTrue( segment.getLocation() != null, "Upgrade or setup block not found" );
+		}
 
 		this.file.gotoLine( segment.getLineNumber() );
 		String line = this.file.readLine();
 //		System.out.println( line );
-		Assert.isTrue( SEGMENT_START_MARKER_PATTERN.matcher( line ).matches() );
+		if( !isStartOf( line, segment ) )
+		{
+			// The index is validated with the head and the tail of the upgrade file only, the middle may have changed
+			if( this.indexFile == null )
+				throw new FatalException( "Upgrade block \"" + StringUtils.defaultString( segment.getSource() ) + "\" --> \"" + segment.getTarget() + "\" not found at line " + segment.getLineNumber() + ", the upgrade file has changed" );
+			rescan();
+			this.file.gotoLine( segment.getLineNumber() );
+			line = this.file.readLine();
+			Assert.isTrue( isStartOf( line, segment ) );
+		}
 		UpgradeSource source = new UpgradeSource( this.file );
 		source.setDelimiters( this.defaultDelimiters );
 		return source;
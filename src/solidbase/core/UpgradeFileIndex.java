@@ -0,0 +1,296 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import solidbase.core.UpgradeSegment.Type;
+import solidbase.util.JSONArray;
+import solidbase.util.JSONObject;
+import solidbase.util.JSONReader;
+import solidbase.util.JSONWriter;
+import solidstack.io.FileResource;
+import solidstack.io.SourceLocation;
+import solidstack.io.SourceReaders;
+
+
+/**
+ * A sidecar index of an upgrade file. It contains the definition and the locations of all segments of the upgrade file,
+ * so that the upgrade file does not need to be scanned completely each time it is opened. The index is stored as JSON
+ * in a file next to the upgrade file, with the extension {@value #EXTENSION} added. It is only used when the size, the
+ * modification time and the hash of the upgrade file still match. The hash is calculated over the head and the tail of
+ * the upgrade file only, so that validating the index does not depend on the size of the upgrade file. That is why
+ * {@link UpgradeFile#gotoSegment(UpgradeSegment)} checks the header of each segment it jumps to, and deletes the index
+ * and scans the upgrade file again when the header does not match.
+ * <p>
+ * The index is only used when it is enabled with {@link Factory#openUpgradeFile(solidstack.io.Resource, ProgressListener, boolean, boolean)}
+ * or {@link Runner#setUseIndex(boolean)}.
+ *
+ * @author Ren M. de Bloois
+ */
+public class UpgradeFileIndex
+{
+	/**
+	 * The extension of the index file.
+	 */
+	static public final String EXTENSION = ".index";
+
+	/**
+	 * The format of the index file.
+	 */
+	static protected final int FORMAT = 1;
+
+	/**
+	 * The number of bytes at the head and the tail of the upgrade file that are hashed.
+	 */
+	static protected final int HASH_SIZE = 65536;
+
+	/**
+	 * This utility class cannot be instantiated.
+	 */
+	private UpgradeFileIndex()
+	{
+		super();
+	}
+
+	/**
+	 * Returns the index file for the given upgrade file.
+	 *
+	 * @param file The upgrade file.
+	 * @return The index file.
+	 */
+	static public File getIndexFile( File file )
+	{
+		return new File( file.getPath() + EXTENSION );
+	}
+
+	/**
+	 * Loads the index of the given upgrade file into the given {@link UpgradeFile}.
+	 *
+	 * @param upgradeFile The upgrade file to load the index into.
+	 * @param file The upgrade file.
+	 * @param listener The progress listener.
+	 * @return True if the index has been loaded, false if the index does not exist or is not valid anymore.
+	 */
+	static public boolean load( UpgradeFile upgradeFile, File file, ProgressListener listener )
+	{
+		File indexFile = getIndexFile( file );
+		if( !indexFile.exists() )
+			return false;
+
+		JSONObject index;
+		try
+		{
+			JSONReader reader = new JSONReader( SourceReaders.forResource( new FileResource( indexFile ), "UTF-8" ) );
+			try
+			{
+				index = (JSONObject)reader.read();
+			}
+			finally
+			{
+				reader.close();
+			}
+
+			if( index.getNumber( "format" ).intValue() != FORMAT
+					|| index.getNumber( "size" ).longValue() != file.length()
+					|| index.getNumber( "lastModified" ).longValue() != file.lastModified()
+					|| !index.getString( "hash" ).equals( hash( file ) ) )
+			{
+				listener.debug( "Index " + indexFile + " is out of date" );
+				return false;
+			}
+
+			upgradeFile.versionTableName = index.findString( "versionTable" );
+			upgradeFile.logTableName = index.findString( "logTable" );
+
+			JSONArray delimiters = index.getArray( "delimiters" );
+			upgradeFile.defaultDelimiters = new Delimiter[ delimiters.size() ];
+			for( int i = 0; i < delimiters.size(); i++ )
+			{
+				JSONObject delimiter = (JSONObject)delimiters.get( i );
+				upgradeFile.defaultDelimiters[ i ] = new Delimiter( delimiter.getString( "text" ), Delimiter.Type.valueOf( delimiter.getString( "type" ) ) );
+			}
+
+			SourceLocation location = upgradeFile.file.getLocation();
+			for( Object object : index.getArray( "segments" ) )
+			{
+				JSONObject entry = (JSONObject)object;
+				Type type = Type.valueOf( entry.getString( "type" ) );
+				String source = entry.findString( "source" );
+				String target = entry.getString( "target" );
+				UpgradeSegment segment = new UpgradeSegment( type, source, target, Boolean.TRUE.equals( entry.findBoolean( "open" ) ) );
+				segment.setLocation( location.lineNumber( entry.getNumber( "line" ).intValue() ) );
+				if( type == Type.SETUP )
+					upgradeFile.setups.put( source, segment );
+				else
+				{
+					Collection< UpgradeSegment > segments = upgradeFile.segments.get( source );
+					if( segments == null )
+						upgradeFile.segments.put( source, segments = new LinkedList< UpgradeSegment >() );
+					segments.add( segment );
+					upgradeFile.versions.add( source );
+					upgradeFile.versions.add( target );
+				}
+			}
+		}
+		catch( RuntimeException e )
+		{
+			// The index is only a cache, scan the upgrade file instead
+			listener.debug( "Could not load index " + indexFile + ": " + e );
+			upgradeFile.versionTableName = null;
+			upgradeFile.logTableName = null;
+			upgradeFile.defaultDelimiters = SQLSource.DEFAULT_DELIMITERS;
+			upgradeFile.setups.clear();
+			upgradeFile.segments.clear();
+			upgradeFile.versions.clear();
+			return false;
+		}
+		catch( FileNotFoundException e )
+		{
+			return false;
+		}
+
+		upgradeFile.scanned = true;
+		upgradeFile.indexFile = indexFile;
+		listener.debug( "Loaded index " + indexFile );
+		return true;
+	}
+
+	/**
+	 * Saves the index of the given scanned {@link UpgradeFile}. When the index can't be written, for example because
+	 * the folder is read-only, the upgrade file will simply be scanned again the next time.
+	 *
+	 * @param upgradeFile The scanned upgrade file.
+	 * @param file The upgrade file.
+	 * @param listener The progress listener.
+	 */
+	static public void save( UpgradeFile upgradeFile, File file, ProgressListener listener )
+	{
+		JSONObject index = new JSONObject();
+		index.set( "format", FORMAT );
+		index.set( "size", BigDecimal.valueOf( file.length() ) );
+		index.set( "lastModified", BigDecimal.valueOf( file.lastModified() ) );
+		index.set( "hash", hash( file ) );
+		if( upgradeFile.versionTableName != null )
+		{
+			index.set( "versionTable", upgradeFile.versionTableName );
+			index.set( "logTable", upgradeFile.logTableName );
+		}
+
+		JSONArray delimiters = new JSONArray();
+		for( Delimiter delimiter : upgradeFile.defaultDelimiters )
+			delimiters.add( new JSONObject( "text", delimiter.text, "type", delimiter.type.name() ) );
+		index.set( "delimiters", delimiters );
+
+		JSONArray segments = new JSONArray();
+		for( UpgradeSegment segment : upgradeFile.setups.values() )
+			segments.add( toJSON( segment ) );
+		for( Map.Entry< String, Collection< UpgradeSegment > > entry : upgradeFile.segments.entrySet() )
+			for( UpgradeSegment segment : entry.getValue() )
+				segments.add( toJSON( segment ) );
+		index.set( "segments", segments );
+
+		File indexFile = getIndexFile( file );
+		try
+		{
+			JSONWriter writer = new JSONWriter( new FileResource( indexFile ) );
+			try
+			{
+				writer.writeFormatted( index, 120 );
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		catch( RuntimeException e )
+		{
+			listener.debug( "Could not save index " + indexFile + ": " + e );
+			indexFile.delete();
+		}
+	}
+
+	/**
+	 * Converts a segment to its JSON form in the index.
+	 *
+	 * @param segment The segment.
+	 * @return The JSON form of the segment.
+	 */
+	static protected JSONObject toJSON( UpgradeSegment segment )
+	{
+		JSONObject result = new JSONObject( "type", segment.getType().name() );
+		if( segment.getSource() != null )
+			result.set( "source", segment.getSource() );
+		result.set( "target", segment.getTarget() );
+		if( segment.isOpen() )
+			result.set( "open", Boolean.TRUE );
+		result.set( "line", segment.getLineNumber() );
+		return result;
+	}
+
+	/**
+	 * Calculates the hash of the upgrade file, over its head and its tail.
+	 *
+	 * @param file The upgrade file.
+	 * @return The hash of the upgrade file.
+	 */
+	static protected String hash( File file )
+	{
+		CRC32 crc = new CRC32();
+		try
+		{
+			RandomAccessFile in = new RandomAccessFile( file, "r" );
+			try
+			{
+				byte[] buffer = new byte[ HASH_SIZE ];
+				int read = in.read( buffer );
+				if( read > 0 )
+					crc.update( buffer, 0, read );
+				long length = in.length();
+				if( length > HASH_SIZE * 2 )
+				{
+					in.seek( length - HASH_SIZE );
+					in.readFully( buffer );
+					crc.update( buffer );
+				}
+				else if( length > HASH_SIZE )
+				{
+					read = in.read( buffer ); // The rest
+					if( read > 0 )
+						crc.update( buffer, 0, read );
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
+		return Long.toHexString( crc.getValue() );
+	}
+}
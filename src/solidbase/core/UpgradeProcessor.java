@@ -31,6 +31,7 @@ import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 
 import solidbase.util.Assert;
+import solidbase.util.KeywordIndex;
 import solidstack.io.Resource;
 import solidstack.io.SourceLocation;
 import solidstack.io.SourceReader;
@@ -71,6 +72,37 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	 */
 	static protected Pattern includePattern = Pattern.compile( "INCLUDE\\s+\"(.*)\"", Pattern.CASE_INSENSITIVE );
 
+	/**
+	 * Pattern for LOG BATCH.
+	 */
+	static protected Pattern logBatchPattern = Pattern.compile( "LOG\\s+BATCH\\s+(ON|OFF|\\d+)", Pattern.CASE_INSENSITIVE );
+
+	/**
+	 * Pattern for PARALLEL.
+	 */
+	static protected Pattern parallelPattern = Pattern.compile( "PARALLEL(?:\\s+(\\d+))?", Pattern.CASE_INSENSITIVE );
+
+	/**
+	 * Pattern for /PARALLEL.
+	 */
+	static protected Pattern parallelPatternEnd = Pattern.compile( "END\\s+PARALLEL|/PARALLEL", Pattern.CASE_INSENSITIVE );
+
+	/**
+	 * The transient commands of upgrade files, indexed by their first keyword.
+	 */
+	static protected final KeywordIndex< UpgradeAnnotation > upgradeAnnotations = new KeywordIndex< UpgradeAnnotation >();
+
+	static
+	{
+		upgradeAnnotations.put( UpgradeAnnotation.TRANSIENT, transientPattern, "TRANSIENT" );
+		upgradeAnnotations.put( UpgradeAnnotation.END_TRANSIENT, transientPatternEnd, "END", "/TRANSIENT" );
+		upgradeAnnotations.put( UpgradeAnnotation.IF_HISTORY_CONTAINS, ifHistoryContainsPattern, "IF" );
+		upgradeAnnotations.put( UpgradeAnnotation.INCLUDE, includePattern, "INCLUDE" );
+		upgradeAnnotations.put( UpgradeAnnotation.LOG_BATCH, logBatchPattern, "LOG" );
+		upgradeAnnotations.put( UpgradeAnnotation.PARALLEL, parallelPattern, "PARALLEL" );
+		upgradeAnnotations.put( UpgradeAnnotation.END_PARALLEL, parallelPatternEnd, "END", "/PARALLEL" );
+	}
+
 	// The fields below are all part of the upgrade context. It's reset at the start of each change package.
 
 	/**
@@ -93,6 +125,11 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	 */
 	protected UpgradeSegment segment;
 
+	/**
+	 * The PARALLEL block that is currently collecting statements.
+	 */
+	protected ParallelBlock parallel;
+
 	/**
 	 * The upgrade execution context.
 	 */
@@ -104,6 +141,11 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	 */
 	protected Map<String, String> parameters;
 
+	/**
+	 * Records the execution time of the statements and segments. May be null.
+	 */
+	protected UpgradeProfile profile;
+
 	/**
 	 * Constructor.
 	 *
@@ -155,6 +197,16 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 		this.parameters = parameters;
 	}
 
+	/**
+	 * Sets the profile that records the execution time of the statements and segments.
+	 *
+	 * @param profile The profile, null to disable profiling.
+	 */
+	public void setProfile( UpgradeProfile profile )
+	{
+		this.profile = profile;
+	}
+
 	/**
 	 * Initialize.
 	 */
@@ -162,6 +214,7 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	public void init()
 	{
 		this.dbVersion = new DBVersion( getDefaultDatabase(), this.progress, this.upgradeFile.versionTableName, this.upgradeFile.logTableName );
+		this.dbVersion.setMetrics( this.metrics );
 	}
 
 	/**
@@ -178,6 +231,8 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	@Override
 	public void end()
 	{
+		if( this.dbVersion != null )
+			this.dbVersion.closeStatements();
 		for( Database database : this.databases.getDatabases() )
 			database.closeConnections();
 		this.upgradeFile.close();
@@ -353,26 +408,36 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	}
 
 	/**
-	 * Reads a command from the upgrade source.
+	 * Reads a command from the upgrade source. The time is added to the 'parse' timer.
 	 *
 	 * @return The command read.
 	 */
 	protected Command readCommand()
 	{
-		while( true )
+		long start = System.nanoTime();
+		try
 		{
-			Command command = this.upgradeContext.getSource().readCommand();
-			if( command != null )
-				return command;
-			UpgradeContext parent = (UpgradeContext)this.upgradeContext.getParent();
-			if( parent == null )
-				return null;
-			setContext( parent );
+			while( true )
+			{
+				Command command = this.upgradeContext.getSource().readCommand();
+				if( command != null )
+					return command;
+				UpgradeContext parent = (UpgradeContext)this.upgradeContext.getParent();
+				if( parent == null )
+					return null;
+				setContext( parent );
+			}
+		}
+		finally
+		{
+			this.metrics.time( "parse", System.nanoTime() - start );
 		}
 	}
 
 	/**
-	 * Execute a upgrade segment.
+	 * Execute a upgrade segment. The execution time of the segment is added to the 'segment' timer. The execution time
+	 * of the statements and the segment are logged in the DBVERSIONLOG table, when it has a DURATION column, and
+	 * recorded in the {@link #profile}.
 	 *
 	 * @param segment The segment to be executed.
 	 * @throws SQLExecutionException Whenever an {@link SQLException} occurs during the execution of a command.
@@ -384,7 +449,7 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 		this.progress.reset();
 		this.progress.upgradeStarting( segment );
 
-		UpgradeContext context = new UpgradeContext( this.upgradeFile.gotoSegment( segment ) );
+		UpgradeContext context = new UpgradeContext( prefetch( this.upgradeFile.gotoSegment( segment ) ) );
 		context.setDatabases( this.databases );
 		if( this.parameters != null ) // May be null during unit tests
 			context.getScope().setAll( this.parameters );
@@ -392,11 +457,15 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 		this.context.setCurrentDatabase( getDefaultDatabase() );
 		this.context.getCurrentDatabase().resetUser();
 
+		// Log batching is enabled per segment
+		this.dbVersion.setLogBatchSize( 0 );
+
 		// Determine how many to skip
 		int skipCount = 0;
 		if( this.dbVersion.getTarget() != null )
 			skipCount = this.dbVersion.getStatements();
 
+		long segmentStart = System.nanoTime();
 		int count = 0;
 		this.segment = segment;
 		try
@@ -408,25 +477,43 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 				{
 					boolean windForward = count < skipCount;
 					count++;
-					try
+					if( this.parallel != null )
 					{
-						SQLExecutionException result = executeWithListeners( command, windForward || this.context.skipping() );
-						if( !windForward )
-						{
-							// We have to update the progress even if the logging fails. Otherwise the segment cannot be
-							// restarted. That's why the progress update is first. But some logging will be lost in that case.
-							this.dbVersion.updateProgress( segment.getTarget(), count );
-							if( result != null )
-								this.dbVersion.logSQLException( segment, count, command.getCommand(), result );
-							else
-								this.dbVersion.log( segment, count, command.getCommand() );
-						}
+						// The block is executed when it ends
+						substituteVariables( command );
+						this.parallel.add( command, count, windForward, this.context.skipping() );
 					}
-					catch( SQLExecutionException e )
+					else
 					{
-						// TODO We need a unit test for this, and the above
-						this.dbVersion.logSQLException( segment, count, command.getCommand(), e );
-						throw e;
+						boolean skip = windForward || this.context.skipping();
+						long start = System.nanoTime();
+						try
+						{
+							SQLExecutionException result = executeWithListeners( command, skip );
+							long duration = System.nanoTime() - start;
+							if( !skip && this.profile != null )
+								this.profile.statement( segment, command, duration );
+							if( !windForward )
+							{
+								// We have to update the progress even if the logging fails. Otherwise the segment cannot be
+								// restarted. That's why the progress update is first. But some logging will be lost in that case.
+								this.dbVersion.updateProgress( segment.getTarget(), count );
+								if( result != null )
+									this.dbVersion.logSQLException( segment, count, command.getCommand(), result, duration );
+								else
+									this.dbVersion.log( segment, count, command.getCommand(), duration );
+							}
+						}
+						catch( SQLExecutionException e )
+						{
+							// TODO We need a unit test for this, and the above
+							long duration = System.nanoTime() - start;
+							if( this.profile != null )
+								this.profile.statement( segment, command, duration );
+							this.dbVersion.logSQLException( segment, count, command.getCommand(), e, duration );
+							this.dbVersion.flushLog();
+							throw e;
+						}
 					}
 				}
 				else
@@ -439,9 +526,21 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 				command = readCommand();
 			}
 
+			if( this.parallel != null )
+				throw new SourceException( "PARALLEL block not ended", this.parallel.getLocation() );
+
+			this.dbVersion.flushLog();
+
+			long duration = System.nanoTime() - segmentStart;
+			this.metrics.time( "segment", duration );
+			if( this.profile != null )
+				this.profile.segment( segment, count, duration );
+
 			this.progress.upgradeFinished();
 
-			this.dbVersion.setStale(); // TODO With a normal segment, only set stale if not both of the 2 version tables are found
+			// Only a SETUP block, or a block that creates the version tables, can change the version tables
+			if( segment.isSetup() || !this.dbVersion.isComplete() )
+				this.dbVersion.setStale();
 			if( segment.isSetup() )
 			{
 				this.dbVersion.updateSpec( segment.getTarget() );
@@ -458,13 +557,19 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 				if( !segment.isOpen() )
 				{
 					this.dbVersion.updateVersion( segment.getTarget() );
-					this.dbVersion.logComplete( segment, count );
+					this.dbVersion.logComplete( segment, count, duration );
 				}
 			}
 		}
 		finally
 		{
 			this.segment = null;
+			this.parallel = null;
+
+			// Stop reading ahead before the upgrade file is positioned at another segment
+			for( UpgradeContext c = this.upgradeContext; c != null; c = (UpgradeContext)c.getParent() )
+				if( c.getSource() instanceof PrefetchingSQLSource )
+					( (PrefetchingSQLSource)c.getSource() ).stop();
 		}
 	}
 
@@ -473,27 +578,39 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	{
 		if( command.isTransient() )
 		{
-			String sql = command.getCommand();
-			Matcher matcher;
-			if( transientPattern.matcher( sql ).matches() )
-			{
-				startTransient( command.getLocation() );
-				return true;
-			}
-			if( transientPatternEnd.matcher( sql ).matches() )
-			{
-				stopTransient( command.getLocation() );
-				return true;
-			}
-			if( ( matcher = ifHistoryContainsPattern.matcher( sql ) ).matches() )
-			{
-				ifHistoryContains( matcher.group( 1 ), matcher.group( 2 ) );
-				return true;
-			}
-			if( ( matcher = includePattern.matcher( sql ) ).matches() )
+			KeywordIndex.Match< UpgradeAnnotation > match = upgradeAnnotations.match( command.getCommand() );
+
+			// The statements of a PARALLEL block are executed at the end of the block, annotations would not apply to them
+			if( this.parallel != null && ( match == null || match.getValue() != UpgradeAnnotation.END_PARALLEL ) )
+				throw new SourceException( "Annotations are not allowed in a PARALLEL block", command.getLocation() );
+
+			if( match != null )
 			{
-				include( matcher.group( 1 ) );
-				return true;
+				Matcher matcher = match.getMatcher();
+				switch( match.getValue() )
+				{
+					case TRANSIENT:
+						startTransient( command.getLocation() );
+						return true;
+					case END_TRANSIENT:
+						stopTransient( command.getLocation() );
+						return true;
+					case IF_HISTORY_CONTAINS:
+						ifHistoryContains( matcher.group( 1 ), matcher.group( 2 ) );
+						return true;
+					case INCLUDE:
+						include( matcher.group( 1 ) );
+						return true;
+					case LOG_BATCH:
+						logBatch( matcher.group( 1 ) );
+						return true;
+					case PARALLEL:
+						startParallel( matcher.group( 1 ), command.getLocation() );
+						return true;
+					case END_PARALLEL:
+						stopParallel( command.getLocation() );
+						return true;
+				}
 			}
 		}
 
@@ -545,6 +662,179 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 		this.upgradeContext.setTransient( false );
 	}
 
+	/**
+	 * Start collecting the persistent commands in a PARALLEL block.
+	 *
+	 * @param width The maximum number of commands executing at the same time, or null for the default.
+	 * @param location Location of the PARALLEL annotation.
+	 */
+	protected void startParallel( String width, SourceLocation location )
+	{
+		if( this.segment == null || this.segment.isSetup() )
+			throw new SourceException( "PARALLEL is not allowed in a SETUP block", location );
+		if( this.upgradeContext.isTransient() )
+			throw new SourceException( "PARALLEL is not allowed in a TRANSIENT block", location );
+		if( this.parallel != null )
+			throw new SourceException( "PARALLEL already enabled", location );
+		this.parallel = new ParallelBlock( width != null ? Integer.parseInt( width ) : ParallelBlock.DEFAULT_WIDTH, location );
+	}
+
+	/**
+	 * Execute the persistent commands that were collected in the PARALLEL block.
+	 *
+	 * @param location Location of the END PARALLEL annotation.
+	 */
+	protected void stopParallel( SourceLocation location )
+	{
+		if( this.parallel == null )
+			throw new SourceException( "PARALLEL is not enabled", location );
+		ParallelBlock block = this.parallel;
+		this.parallel = null;
+		if( !block.getEntries().isEmpty() )
+			executeParallel( block );
+	}
+
+	/**
+	 * Executes the commands of a PARALLEL block concurrently. The progress is updated to the last command of the
+	 * uninterrupted sequence of finished commands, and each command is logged as soon as it finishes. When the upgrade
+	 * is restarted, the commands that have been logged are not executed again.
+	 *
+	 * @param block The PARALLEL block.
+	 * @throws SQLExecutionException Whenever an {@link SQLException} occurs during the execution of a command.
+	 */
+	protected void executeParallel( ParallelBlock block ) throws SQLExecutionException
+	{
+		UpgradeSegment segment = this.segment;
+		List< ParallelBlock.Entry > entries = block.getEntries();
+
+		// Commands that have been executed in an aborted run can be in the log only, beyond the progress
+		Set< Integer > logged = this.dbVersion.getLoggedStatements( segment, entries.get( 0 ).count - 1 );
+		for( ParallelBlock.Entry entry : entries )
+			if( !entry.done && logged.contains( entry.count ) )
+			{
+				entry.logged = true;
+				entry.done = true;
+			}
+
+		for( ParallelBlock.Entry entry : entries )
+			if( entry.done )
+			{
+				this.progress.skipped( entry.command );
+				if( !entry.windForward && !entry.logged )
+					this.dbVersion.log( segment, entry.count, entry.command.getCommand() );
+			}
+
+		int next = updateParallelProgress( entries, 0 );
+
+		SQLExecutionException failure = null;
+		int failureCount = 0;
+		Throwable error = null;
+		block.start( getCurrentDatabase(), this.context.getJdbcEscaping() );
+		try
+		{
+			ParallelBlock.Entry entry;
+			while( ( entry = block.take() ) != null )
+			{
+				if( Thread.currentThread().isInterrupted() )
+					block.abort();
+				if( !entry.executed )
+					continue;
+				if( entry.error != null )
+				{
+					if( error == null )
+						error = entry.error;
+					block.abort();
+					continue;
+				}
+
+				String sql = entry.command.getCommand();
+				this.progress.executing( entry.command );
+				if( this.profile != null )
+					this.profile.statement( segment, entry.command, entry.time );
+				if( entry.sqlException != null )
+				{
+					SQLExecutionException e = new SQLExecutionException( sql, entry.command.getLocation(), entry.sqlException );
+					this.dbVersion.logSQLException( segment, entry.count, sql, e, entry.time );
+					if( !this.context.ignoreSQLError( entry.sqlException.getSQLState() ) )
+					{
+						this.progress.exception( e );
+						this.dbVersion.flushLog();
+						// Report the first failing command in the order of the file
+						if( failure == null || entry.count < failureCount )
+						{
+							failure = e;
+							failureCount = entry.count;
+						}
+						block.abort();
+						continue;
+					}
+				}
+				else
+					this.dbVersion.log( segment, entry.count, sql, entry.time );
+				this.progress.executed();
+
+				entry.done = true;
+				next = updateParallelProgress( entries, next );
+				// The log is needed to restart the block, it may not be batched
+				this.dbVersion.flushLog();
+			}
+		}
+		finally
+		{
+			block.finish();
+		}
+
+		if( error != null )
+		{
+			if( error instanceof RuntimeException )
+				throw (RuntimeException)error;
+			if( error instanceof Error )
+				throw (Error)error;
+			throw new SystemException( error );
+		}
+		if( failure != null )
+			throw failure;
+	}
+
+	/**
+	 * Updates the progress to the last command of the uninterrupted sequence of finished commands.
+	 *
+	 * @param entries The commands of the PARALLEL block.
+	 * @param next The first command that was not finished yet.
+	 * @return The first command that is not finished yet.
+	 */
+	protected int updateParallelProgress( List< ParallelBlock.Entry > entries, int next )
+	{
+		int start = next;
+		while( next < entries.size() && entries.get( next ).done )
+			next++;
+		if( next > start )
+		{
+			ParallelBlock.Entry last = entries.get( next - 1 );
+			if( !last.windForward )
+				this.dbVersion.updateProgress( this.segment.getTarget(), last.count );
+		}
+		return next;
+	}
+
+	/**
+	 * Batch the inserts into the DBVERSIONLOG table. The progress in the DBVERSION table is still written after each
+	 * statement, so a restart continues with the right statement. The log records are inserted together with the
+	 * progress after each n statements, at the end of the segment, or when a statement fails. Only when the upgrade is
+	 * killed, the log misses the records of up to n - 1 statements that had been executed.
+	 *
+	 * @param size ON to batch the whole segment, OFF to insert the log records immediately, or the size of the batch.
+	 */
+	protected void logBatch( String size )
+	{
+		if( size.equalsIgnoreCase( "ON" ) )
+			this.dbVersion.setLogBatchSize( Integer.MAX_VALUE );
+		else if( size.equalsIgnoreCase( "OFF" ) )
+			this.dbVersion.setLogBatchSize( 0 );
+		else
+			this.dbVersion.setLogBatchSize( Integer.parseInt( size ) );
+	}
+
 	/**
 	 * If history does not contain the given version then start skipping the persistent commands. If <code>not</code> is true then this logic is reversed.
 	 *
@@ -567,7 +857,7 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	protected void include( String url )
 	{
 		SQLFile file = Factory.openSQLFile( getResource().resolve( url ), this.progress );
-		setContext( new UpgradeContext( this.upgradeContext, file.getSource() ) );
+		setContext( new UpgradeContext( this.upgradeContext, prefetch( file.getSource() ) ) );
 	}
 
 	@Override
@@ -651,4 +941,26 @@ public class UpgradeProcessor extends CommandProcessor implements ConnectionList
 	{
 		return true;
 	}
+
+
+	/**
+	 * The commands that are specific to upgrade files.
+	 */
+	static protected enum UpgradeAnnotation
+	{
+		/** TRANSIENT */
+		TRANSIENT,
+		/** /TRANSIENT */
+		END_TRANSIENT,
+		/** IF HISTORY [NOT] CONTAINS */
+		IF_HISTORY_CONTAINS,
+		/** INCLUDE */
+		INCLUDE,
+		/** LOG BATCH */
+		LOG_BATCH,
+		/** PARALLEL */
+		PARALLEL,
+		/** /PARALLEL */
+		END_PARALLEL
+	}
 }
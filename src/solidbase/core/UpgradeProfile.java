@@ -0,0 +1,355 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import solidbase.util.Assert;
+import solidbase.util.JSONArray;
+import solidbase.util.JSONObject;
+import solidbase.util.JSONWriter;
+import solidbase.util.Metrics;
+import solidstack.io.Resource;
+import solidstack.io.SourceLocation;
+
+
+/**
+ * Records the wall time of the statements and segments of upgrades. It keeps the slowest statements, with their
+ * location in the upgrade file, and the time of each segment in the order the segments were executed. All methods that
+ * record or read times are synchronized, because {@link Runner} shares one profile between its tenant threads.
+ *
+ * @author Ren M. de Bloois
+ */
+public class UpgradeProfile
+{
+	/**
+	 * The default number of slowest statements to keep.
+	 */
+	static public final int DEFAULT_SIZE = 20;
+
+	/**
+	 * The maximum length of the statement text in the report.
+	 */
+	static protected final int MAX_COMMAND_LENGTH = 60;
+
+	/**
+	 * The number of slowest statements to keep.
+	 */
+	protected int size;
+
+	/**
+	 * The slowest statements. The fastest of them is at the head, so that it can be replaced by a slower one.
+	 */
+	protected PriorityQueue< StatementTime > slowest;
+
+	/**
+	 * The segments in the order they were executed.
+	 */
+	protected List< SegmentTime > segments = new ArrayList< SegmentTime >();
+
+	/**
+	 * Constructor that keeps the {@link #DEFAULT_SIZE} slowest statements.
+	 */
+	public UpgradeProfile()
+	{
+		this( DEFAULT_SIZE );
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size The number of slowest statements to keep.
+	 */
+	public UpgradeProfile( int size )
+	{
+		Assert.isTrue( size > 0, "size should be 1 or more" );
+
+		this.size = size;
+		this.slowest = new PriorityQueue< StatementTime >( size + 1 );
+	}
+
+	/**
+	 * Records the execution time of a statement.
+	 *
+	 * @param segment The segment that contains the statement.
+	 * @param command The statement.
+	 * @param nanos The execution time in nanoseconds.
+	 */
+	synchronized public void statement( UpgradeSegment segment, Command command, long nanos )
+	{
+		if( this.slowest.size() >= this.size )
+		{
+			if( nanos <= this.slowest.peek().time )
+				return;
+			this.slowest.poll();
+		}
+		this.slowest.add( new StatementTime( describe( segment ), command.getCommand(), command.getLocation(), nanos ) );
+	}
+
+	/**
+	 * Records the execution time of a segment.
+	 *
+	 * @param segment The segment.
+	 * @param statements The number of statements executed in the segment.
+	 * @param nanos The execution time in nanoseconds.
+	 */
+	synchronized public void segment( UpgradeSegment segment, int statements, long nanos )
+	{
+		this.segments.add( new SegmentTime( describe( segment ), statements, nanos ) );
+	}
+
+	/**
+	 * Returns the slowest statements.
+	 *
+	 * @return The slowest statements, the slowest first.
+	 */
+	synchronized public List< StatementTime > getSlowest()
+	{
+		List< StatementTime > result = new ArrayList< StatementTime >( this.slowest );
+		Collections.sort( result, Collections.reverseOrder() );
+		return result;
+	}
+
+	/**
+	 * Returns the segments.
+	 *
+	 * @return The segments in the order they were executed.
+	 */
+	synchronized public List< SegmentTime > getSegments()
+	{
+		return new ArrayList< SegmentTime >( this.segments );
+	}
+
+	/**
+	 * Returns the profile as JSON. Times are in milliseconds.
+	 *
+	 * @return The profile as JSON.
+	 */
+	public JSONObject toJSON()
+	{
+		JSONArray slowest = new JSONArray();
+		int rank = 1;
+		for( StatementTime statement : getSlowest() )
+			slowest.add( new JSONObject( "rank", BigDecimal.valueOf( rank++ ), "time", Metrics.millis( statement.time ), "segment", statement.segment,
+					"location", statement.getLocation(), "command", statement.command ) );
+
+		JSONArray segments = new JSONArray();
+		for( SegmentTime segment : getSegments() )
+			segments.add( new JSONObject( "segment", segment.segment, "statements", BigDecimal.valueOf( segment.statements ), "time", Metrics.millis( segment.time ) ) );
+
+		return new JSONObject( "slowest", slowest, "segments", segments );
+	}
+
+	/**
+	 * Writes the profile as JSON to the given resource.
+	 *
+	 * @param resource The resource to write to.
+	 */
+	public void write( Resource resource )
+	{
+		JSONWriter.writeFormatted( resource, toJSON(), 120 );
+	}
+
+	/**
+	 * Describes the given segment like it is defined in the upgrade file.
+	 *
+	 * @param segment The segment.
+	 * @return The description of the segment.
+	 */
+	static protected String describe( UpgradeSegment segment )
+	{
+		return segment.getType() + " \"" + ( segment.getSource() == null ? "" : segment.getSource() ) + "\" --> \"" + segment.getTarget() + "\"";
+	}
+
+
+	/**
+	 * The execution time of a statement.
+	 */
+	static public class StatementTime implements Comparable< StatementTime >
+	{
+		/**
+		 * The segment that contains the statement.
+		 */
+		protected String segment;
+
+		/**
+		 * The statement.
+		 */
+		protected String command;
+
+		/**
+		 * The location of the statement in the upgrade file.
+		 */
+		protected SourceLocation location;
+
+		/**
+		 * The execution time in nanoseconds.
+		 */
+		protected long time;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param segment The segment that contains the statement.
+		 * @param command The statement.
+		 * @param location The location of the statement in the upgrade file.
+		 * @param time The execution time in nanoseconds.
+		 */
+		protected StatementTime( String segment, String command, SourceLocation location, long time )
+		{
+			this.segment = segment;
+			this.command = command;
+			this.location = location;
+			this.time = time;
+		}
+
+		/**
+		 * Returns the segment that contains the statement.
+		 *
+		 * @return The segment that contains the statement, like UPGRADE "1.0" --> "1.1".
+		 */
+		public String getSegment()
+		{
+			return this.segment;
+		}
+
+		/**
+		 * Returns the statement.
+		 *
+		 * @return The statement.
+		 */
+		public String getCommand()
+		{
+			return this.command;
+		}
+
+		/**
+		 * Returns the location of the statement in the upgrade file.
+		 *
+		 * @return The file and line number of the statement, like upgrade.sql:12.
+		 */
+		public String getLocation()
+		{
+			if( this.location == null )
+				return null;
+			if( this.location.getResource() == null )
+				return "line " + this.location.getLineNumber();
+			return this.location.getResource().getNormalized() + ":" + this.location.getLineNumber();
+		}
+
+		/**
+		 * Returns the execution time.
+		 *
+		 * @return The execution time in nanoseconds.
+		 */
+		public long getTime()
+		{
+			return this.time;
+		}
+
+		//@Override
+		public int compareTo( StatementTime other )
+		{
+			return this.time < other.time ? -1 : this.time > other.time ? 1 : 0;
+		}
+
+		/**
+		 * Returns a one line description for the console: the time, the location and the start of the statement.
+		 */
+		@Override
+		public String toString()
+		{
+			String command = this.command.trim();
+			int newline = command.indexOf( '\n' );
+			if( newline >= 0 )
+				command = command.substring( 0, newline ).trim() + " ...";
+			if( command.length() > MAX_COMMAND_LENGTH )
+				command = command.substring( 0, MAX_COMMAND_LENGTH ) + "...";
+			return this.time / 1000000 + " ms" + ( this.location != null ? " at " + getLocation() : "" ) + ": " + command;
+		}
+	}
+
+
+	/**
+	 * The execution time of a segment.
+	 */
+	static public class SegmentTime
+	{
+		/**
+		 * The segment.
+		 */
+		protected String segment;
+
+		/**
+		 * The number of statements executed.
+		 */
+		protected int statements;
+
+		/**
+		 * The execution time in nanoseconds.
+		 */
+		protected long time;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param segment The segment.
+		 * @param statements The number of statements executed.
+		 * @param time The execution time in nanoseconds.
+		 */
+		protected SegmentTime( String segment, int statements, long time )
+		{
+			this.segment = segment;
+			this.statements = statements;
+			this.time = time;
+		}
+
+		/**
+		 * Returns the segment.
+		 *
+		 * @return The segment, like UPGRADE "1.0" --> "1.1".
+		 */
+		public String getSegment()
+		{
+			return this.segment;
+		}
+
+		/**
+		 * Returns the number of statements executed.
+		 *
+		 * @return The number of statements executed.
+		 */
+		public int getStatements()
+		{
+			return this.statements;
+		}
+
+		/**
+		 * Returns the execution time.
+		 *
+		 * @return The execution time in nanoseconds.
+		 */
+		public long getTime()
+		{
+			return this.time;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.commons.lang.ObjectUtils;
+
+import solidbase.util.Assert;
+
+
+/**
+ * The graph of versions and the segments between them. The versions are interned to ids, and the segments are stored
+ * in adjacency arrays, so that paths can be computed without creating collections of versions. The graph is built once
+ * from the segments of the {@link UpgradeFile}.
+ *
+ * @author Ren M. de Bloois
+ */
+public class VersionGraph
+{
+	/**
+	 * The ids of the versions. The null version (no version) is also a version.
+	 */
+	protected Map< String, Integer > ids = new HashMap< String, Integer >();
+
+	/**
+	 * The versions by id.
+	 */
+	protected List< String > versions = new ArrayList< String >();
+
+	/**
+	 * The index of the first segment starting at each version in {@link #segments}. The segments of version i are
+	 * found from first[ i ] up to first[ i + 1 ].
+	 */
+	protected int[] first;
+
+	/**
+	 * The segments, grouped by source version, in the order of their definition.
+	 */
+	protected UpgradeSegment[] segments;
+
+	/**
+	 * The id of the target version of each segment.
+	 */
+	protected int[] targets;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param segments All normal segments indexed by source version.
+	 */
+	protected VersionGraph( Map< String, Collection< UpgradeSegment > > segments )
+	{
+		int count = 0;
+		for( Map.Entry< String, Collection< UpgradeSegment > > entry : segments.entrySet() )
+		{
+			intern( entry.getKey() );
+			for( UpgradeSegment segment : entry.getValue() )
+				intern( segment.getTarget() );
+			count += entry.getValue().size();
+		}
+
+		int size = this.versions.size();
+		this.first = new int[ size + 1 ];
+		this.segments = new UpgradeSegment[ count ];
+		this.targets = new int[ count ];
+
+		int index = 0;
+		for( int id = 0; id < size; id++ )
+		{
+			this.first[ id ] = index;
+			Collection< UpgradeSegment > list = segments.get( this.versions.get( id ) );
+			if( list != null )
+				for( UpgradeSegment segment : list )
+				{
+					this.segments[ index ] = segment;
+					this.targets[ index ] = this.ids.get( segment.getTarget() );
+					index++;
+				}
+		}
+		this.first[ size ] = index;
+	}
+
+	/**
+	 * Returns the id of the given version, adding it if needed.
+	 *
+	 * @param version The version.
+	 * @return The id of the version.
+	 */
+	private int intern( String version )
+	{
+		Integer id = this.ids.get( version );
+		if( id == null )
+		{
+			id = this.versions.size();
+			this.ids.put( version, id );
+			this.versions.add( version );
+		}
+		return id;
+	}
+
+	/**
+	 * Determine the best path between a source version and a target version. A path without a downgrade is better than
+	 * a path with a downgrade, then a path with fewer switches is better. When that does not decide, the path with the
+	 * fewest segments is selected. When that does not decide either, the upgrade file is ambiguous and this method
+	 * fails. The path is found with Dijkstra's algorithm over the versions, with each version visited twice: once for
+	 * the paths without a downgrade, and once for the paths with a downgrade.
+	 *
+	 * @param source The source version.
+	 * @param target The target version.
+	 * @param downgradesAllowed Allow downgrades in the resulting path.
+	 * @return The best path between a source version and a target version. This path can be empty when the source and
+	 *         target are equal. The result will be null if there is no path.
+	 */
+	protected Path getPath( String source, String target, boolean downgradesAllowed )
+	{
+		// If equal than return an empty path
+		if( ObjectUtils.equals( source, target ) )
+			return new Path();
+
+		Integer sourceId = this.ids.get( source );
+		Integer targetId = this.ids.get( target );
+		if( sourceId == null || targetId == null )
+			return null;
+
+		// State s = version * 2 + downgraded
+		int states = this.versions.size() * 2;
+		long[] costs = new long[ states ];
+		int[] via = new int[ states ]; // The segment that reached the state
+		int[] from = new int[ states ]; // The state that the segment started from
+		boolean[] tied = new boolean[ states ]; // More than one best path reaches the state
+		boolean[] done = new boolean[ states ];
+		for( int i = 0; i < states; i++ )
+		{
+			costs[ i ] = Long.MAX_VALUE;
+			via[ i ] = -1;
+		}
+
+		PriorityQueue< State > queue = new PriorityQueue< State >();
+		int start = sourceId * 2;
+		costs[ start ] = 0;
+		queue.add( new State( start, 0 ) );
+		while( !queue.isEmpty() )
+		{
+			State state = queue.poll();
+			int s = state.state;
+			if( done[ s ] )
+				continue;
+			done[ s ] = true;
+
+			int version = s >> 1;
+			int downgraded = s & 1;
+			for( int i = this.first[ version ]; i < this.first[ version + 1 ]; i++ )
+			{
+				UpgradeSegment segment = this.segments[ i ];
+				if( segment.isDowngrade() && !downgradesAllowed )
+					continue;
+				int next = this.targets[ i ] * 2 + ( segment.isDowngrade() ? 1 : downgraded );
+				// The number of switches counts most, the number of segments decides when the switches are equal
+				long cost = state.cost + ( segment.isSwitch() ? 1L << 32 : 0 ) + 1;
+				if( !done[ next ] )
+					if( cost < costs[ next ] )
+					{
+						costs[ next ] = cost;
+						via[ next ] = i;
+						from[ next ] = s;
+						tied[ next ] = tied[ s ];
+						queue.add( new State( next, cost ) );
+					}
+					else if( cost == costs[ next ] )
+						tied[ next ] = true;
+			}
+		}
+
+		// A path without a downgrade is always better
+		int end = targetId * 2;
+		if( via[ end ] < 0 )
+			end++;
+		if( via[ end ] < 0 )
+			return null;
+		if( tied[ end ] )
+			Assert.fail( "Couldn't decide between 2 upgrade paths" );
+
+		// Walk back to the source
+		List< UpgradeSegment > reversed = new ArrayList< UpgradeSegment >();
+		int s = end;
+		while( s != start )
+		{
+			reversed.add( this.segments[ via[ s ] ] );
+			s = from[ s ];
+		}
+
+		Path result = new Path();
+		for( int i = reversed.size() - 1; i >= 0; i-- )
+			result.append( reversed.get( i ) );
+		return result;
+	}
+
+	/**
+	 * Retrieves all versions that are reachable from the given source version, in breadth first order. Open segments
+	 * are not followed.
+	 *
+	 * @param source The source version.
+	 * @param targeting Already targeting a specific version. Only the segments to that version are followed from the
+	 *        source version.
+	 * @param downgradesAllowed Allow downgrades.
+	 * @param result This set gets filled with all versions that are reachable from the given source version.
+	 * @return False if the targeted version is not reachable from the source version, true otherwise.
+	 */
+	protected boolean collectReachable( String source, String targeting, boolean downgradesAllowed, Set< String > result )
+	{
+		if( targeting == null )
+			result.add( source ); // The source is reachable
+
+		Integer sourceId = this.ids.get( source );
+		if( sourceId == null || this.first[ sourceId ] == this.first[ sourceId + 1 ] )
+			return true; // No segments with the given source
+
+		boolean[] reached = new boolean[ this.versions.size() ];
+		reached[ sourceId ] = targeting == null;
+
+		// The queue contains the segments that await processing. The segments of a version are queued when the version
+		// is reached, which happens only once. The segments of the source can be queued twice.
+		int[] queue = new int[ this.segments.length + this.first[ sourceId + 1 ] - this.first[ sourceId ] ];
+		int head = 0;
+		int tail = 0;
+		for( int i = this.first[ sourceId ]; i < this.first[ sourceId + 1 ]; i++ )
+			if( targeting == null || targeting.equals( this.segments[ i ].getTarget() ) )
+				queue[ tail++ ] = i;
+		if( tail == 0 )
+			return targeting == null;
+
+		while( head < tail )
+		{
+			int i = queue[ head++ ];
+			int target = this.targets[ i ];
+			UpgradeSegment segment = this.segments[ i ];
+			if( !reached[ target ] ) // Already there?
+				if( downgradesAllowed || !segment.isDowngrade() ) // Downgrades allowed?
+				{
+					reached[ target ] = true;
+					result.add( segment.getTarget() );
+					if( !segment.isOpen() ) // Stop when segment is open.
+						for( int j = this.first[ target ]; j < this.first[ target + 1 ]; j++ )
+							queue[ tail++ ] = j;
+				}
+		}
+		return true;
+	}
+
+	/**
+	 * A state in the queue of Dijkstra's algorithm.
+	 */
+	static private class State implements Comparable< State >
+	{
+		/**
+		 * The state, which is the version id times 2 plus 1 when the path contains a downgrade.
+		 */
+		int state;
+
+		/**
+		 * The cost of the path to this state.
+		 */
+		long cost;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param state The state.
+		 * @param cost The cost of the path to this state.
+		 */
+		State( int state, long cost )
+		{
+			this.state = state;
+			this.cost = cost;
+		}
+
+		//@Override
+		public int compareTo( State other )
+		{
+			return this.cost < other.cost ? -1 : this.cost > other.cost ? 1 : 0;
+		}
+	}
+}
@@ -22,8 +22,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import solidbase.core.Command;
+import solidbase.core.KeywordCommandListener;
 import solidbase.core.SourceException;
-import solidbase.core.CommandListener;
 import solidbase.core.CommandProcessor;
 import solidbase.util.Assert;
 
@@ -35,7 +35,7 @@ import solidbase.util.Assert;
  * @author Ren M. de Bloois
  * @since Apr 1, 2006 7:13:28 PM
  */
-public class AssertExistsOrEmptySelect implements CommandListener
+public class AssertExistsOrEmptySelect implements KeywordCommandListener
 {
 	static private final Pattern assertPattern = Pattern.compile( "\\s*ASSERT\\s+(EXISTS|EMPTY)\\s+MESSAGE\\s+['\"]([^']*)['\"]\\s+(.*)", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
 
@@ -73,6 +73,18 @@ public class AssertExistsOrEmptySelect implements CommandListener
 		return true;
 	}
 
+	//@Override
+	public String[] getTransientKeywords()
+	{
+		return new String[ 0 ];
+	}
+
+	//@Override
+	public String[] getPersistentKeywords()
+	{
+		return new String[] { "ASSERT EXISTS", "ASSERT EMPTY" };
+	}
+
 	//@Override
 	public void terminate()
 	{
@@ -24,34 +24,35 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.sql.Blob;
 import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Types;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
-import org.apache.commons.lang.StringUtils;
-
 import solidbase.core.Command;
-import solidbase.core.CommandListener;
 import solidbase.core.CommandProcessor;
+import solidbase.core.Database;
 import solidbase.core.FatalException;
+import solidbase.core.KeywordCommandListener;
 import solidbase.core.SourceException;
 import solidbase.core.SystemException;
+import solidbase.core.plugins.ExportPipeline.Column;
 import solidbase.util.Assert;
 import solidbase.util.Counter;
 import solidbase.util.FixedCounter;
@@ -59,6 +60,7 @@ import solidbase.util.JDBCSupport;
 import solidbase.util.JSONArray;
 import solidbase.util.JSONObject;
 import solidbase.util.JSONWriter;
+import solidbase.util.Metrics;
 import solidbase.util.SQLTokenizer;
 import solidbase.util.SQLTokenizer.Token;
 import solidbase.util.TimedCounter;
@@ -79,7 +81,7 @@ import funny.Symbol;
  * @since Aug 12, 2011
  */
 // TODO To compressed file
-public class DumpJSON implements CommandListener
+public class DumpJSON implements KeywordCommandListener
 {
 	static private final Pattern triggerPattern = Pattern.compile( "\\s*DUMP\\s+JSON\\s+.*", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
 
@@ -130,8 +132,21 @@ public class DumpJSON implements CommandListener
 			dateCreated = true;
 		}
 
+		long start = System.nanoTime();
+		long records;
 		Resource jsvResource = new FileResource( new File( parsed.fileName ) ); // Relative to current folder
 
+		String query = parsed.query;
+		JSONArray parts = null;
+		if( parsed.partitionColumn != null )
+		{
+			// The main file only gets the header, the records go to the part files
+			query = "SELECT * FROM ( " + parsed.query + " ) SB_PARTITION WHERE 1 = 0";
+			parts = new JSONArray();
+			for( int i = 1; i <= parsed.partitions; i++ )
+				parts.add( new FileResource( getPartFileName( parsed.fileName, i ) ).getPathFrom( jsvResource ).toString() );
+		}
+
 		try
 		{
 			OutputStream out = jsvResource.getOutputStream();
@@ -141,331 +156,211 @@ public class DumpJSON implements CommandListener
 			JSONWriter jsonWriter = new JSONWriter( out );
 			try
 			{
-				Statement statement = processor.createStatement();
+				Statement statement = processor.createStreamingStatement( parsed.fetchSize );
 				try
 				{
-					ResultSet result = statement.executeQuery( parsed.query );
-					ResultSetMetaData metaData = result.getMetaData();
+					ResultSet result = statement.executeQuery( query );
+					ExportPipeline pipeline = new ExportPipeline( result, parsed.dateAsTimestamp );
 
-					// Define locals
+					RecordSink sink = createStages( parsed, new JSONSink( jsonWriter, parsed, jsvResource, dateCreated, parts ), jsvResource, jsonWriter.getEncoding(), command );
 
-					int columns = metaData.getColumnCount();
-					int[] types = new int[ columns ];
-					String[] names = new String[ columns ];
-					boolean[] ignore = new boolean[ columns ];
-					FileSpec[] fileSpecs = new FileSpec[ columns ];
-					String schemaNames[] = new String[ columns ];
-					String tableNames[] = new String[ columns ];
+					Counter counter = null;
+					if( parts == null )
+						if( parsed.logRecords > 0 )
+							counter = new FixedCounter( parsed.logRecords );
+						else if( parsed.logSeconds > 0 )
+							counter = new TimedCounter( parsed.logSeconds );
 
-					// Analyze metadata
+					records = pipeline.run( sink, counter, processor.getProgressListener() );
+				}
+				finally
+				{
+					processor.closeStatement( statement, true );
+				}
+			}
+			finally
+			{
+				jsonWriter.close();
+			}
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
 
-					for( int i = 0; i < columns; i++ )
-					{
-						int col = i + 1;
-						String name = metaData.getColumnName( col ).toUpperCase();
-						types[ i ] = metaData.getColumnType( col );
-						if( types[ i ] == Types.DATE && parsed.dateAsTimestamp )
-							types[ i ] = Types.TIMESTAMP;
-						names[ i ] = name;
-						if( parsed.columns != null )
-						{
-							ColumnSpec columnSpec = parsed.columns.get( name );
-							if( columnSpec != null )
-								if( columnSpec.skip )
-									ignore[ i ] = true;
-								else
-									fileSpecs[ i ] = columnSpec.toFile;
-						}
-						if( parsed.coalesce != null && parsed.coalesce.notFirst( name ) )
-							ignore[ i ] = true;
-						// TODO STRUCT serialize
-						// TODO This must be optional and not the default
-						else if( types[ i ] == 2002 || JDBCSupport.toTypeName( types[ i ] ) == null )
-							ignore[ i ] = true;
-						tableNames[ i ] = StringUtils.upperCase( StringUtils.defaultIfEmpty( metaData.getTableName( col ), null ) );
-						schemaNames[ i ] = StringUtils.upperCase( StringUtils.defaultIfEmpty( metaData.getSchemaName( col ), null ) );
-					}
+		long bytes = ImportCSV.getLocalFileSize( jsvResource );
+		if( parts != null )
+		{
+			records += dumpPartitions( processor, parsed );
+			for( int i = 1; i <= parsed.partitions; i++ )
+				bytes += new File( getPartFileName( parsed.fileName, i ) ).length();
+		}
 
-					if( parsed.coalesce != null )
-						parsed.coalesce.bind( names );
+		Metrics metrics = processor.getMetrics();
+		metrics.time( "dumpjson", System.nanoTime() - start );
+		metrics.count( "dumpjson.records", records );
+		metrics.count( "dumpjson.bytes", bytes );
+		return true;
+	}
 
-					// Write header
 
-					JSONObject properties = new JSONObject();
-					properties.set( "version", "1.0" );
-					properties.set( "format", "record-stream" );
-					properties.set( "description", "SolidBase JSON Data Dump File" );
-					properties.set( "createdBy", new JSONObject( "product", "SolidBase", "version", "2.0.0" ) );
+	/**
+	 * Builds the stages of the export pipeline, from last to first.
+	 *
+	 * @param parsed The parsed command.
+	 * @param sink The last stage, which writes the JSON.
+	 * @param jsvResource The JSON file.
+	 * @param encoding The encoding of the JSON file.
+	 * @param command The command, used in error messages.
+	 * @return The first stage.
+	 */
+	static protected RecordSink createStages( Parsed parsed, RecordSink sink, Resource jsvResource, String encoding, Command command )
+	{
+		if( parsed.pipelined )
+			sink = new ExportPipeline.Async( "DumpJSON-Writer", ExportPipeline.DEFAULT_QUEUE_SIZE, sink );
 
-					if( dateCreated )
-					{
-						SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
-						properties.set( "createdDate", format.format( new Date() ) );
-					}
+		Set< String > skipColumns = null;
+		boolean toFile = parsed.binaryFileName != null;
+		if( parsed.columns != null )
+		{
+			skipColumns = new HashSet< String >();
+			for( Map.Entry< String, ColumnSpec > entry : parsed.columns.entrySet() )
+				if( entry.getValue().skip )
+					skipColumns.add( entry.getKey() );
+				else
+					toFile = true;
+		}
+		sink = new ExportPipeline.SkipColumns( parsed.coalesce, skipColumns, sink );
+
+		if( toFile )
+			sink = new RedirectToFiles( parsed, jsvResource, encoding, command, sink );
+		if( parsed.coalesce != null )
+			sink = new ExportPipeline.Coalesce( parsed.coalesce, sink );
+		if( parsed.pipelined )
+			sink = new ExportPipeline.Async( "DumpJSON-Transformer", ExportPipeline.DEFAULT_QUEUE_SIZE, sink );
+		return sink;
+	}
 
-					if( parsed.binaryFileName != null )
-					{
-						// TODO FIXME Should be wrapped in a SourceException: solidbase.solidstack.io.FatalURISyntaxException: java.net.URISyntaxException: Illegal character in path at index 1: &{folder}/JIADHOCCH
-						Resource binResource = Resources.getResource( parsed.binaryFileName );
-						Resource resource = Resources.getResource( parsed.fileName );
-						properties.set( "binaryFile", binResource.getPathFrom( resource ).toString() );
-					}
 
-					JSONArray fields = new JSONArray();
-					properties.set( "fields", fields );
-					for( int i = 0; i < columns; i++ )
-						if( !ignore[ i ] )
-						{
-							JSONObject field = new JSONObject();
-							field.set( "schemaName", schemaNames[ i ] );
-							field.set( "tableName", tableNames[ i ] );
-							field.set( "name", names[ i ] );
-							field.set( "type", JDBCSupport.toTypeName( types[ i ] ) ); // TODO Better error message when type is not recognized, for example Oracle's 2007 for a user type
-							FileSpec spec = fileSpecs[ i ];
-							if( spec != null && !spec.generator.isDynamic() )
-							{
-								Resource fileResource = new FileResource( spec.generator.fileName );
-								field.set( "file", fileResource.getPathFrom( jsvResource ).toString() );
-							}
-							fields.add( field );
-						}
+	/**
+	 * Dumps the records of the query concurrently into {@link Parsed#partitions} part files. The range between the
+	 * minimum and the maximum value of the partition column is split into equal key ranges, one for each part. Records
+	 * with a null key go to the first part. Each part is dumped by its own thread with its own connection, so only
+	 * committed data is dumped.
+	 *
+	 * @param processor The command processor.
+	 * @param parsed The parsed command.
+	 * @return The number of records dumped.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	static protected long dumpPartitions( CommandProcessor processor, Parsed parsed ) throws SQLException
+	{
+		String column = parsed.partitionColumn;
+		String from = " FROM ( " + parsed.query + " ) SB_PARTITION";
 
-					FileSpec binaryFile = parsed.binaryFileName != null ? new FileSpec( true, parsed.binaryFileName, 0 ) : null;
+		// Determine the key range
 
-					jsonWriter.writeFormatted( properties, 120 );
-					jsonWriter.getWriter().write( '\n' );
+		BigDecimal min;
+		BigDecimal max;
+		Statement statement = processor.createStatement();
+		try
+		{
+			ResultSet result = statement.executeQuery( "SELECT MIN( " + column + " ), MAX( " + column + " )" + from );
+			result.next();
+			min = result.getBigDecimal( 1 );
+			max = result.getBigDecimal( 2 );
+		}
+		finally
+		{
+			processor.closeStatement( statement, true );
+		}
+		if( min == null )
+			min = max = BigDecimal.ZERO; // No keys, all records go to the first part
+		BigDecimal range = max.subtract( min );
+		BigDecimal count = BigDecimal.valueOf( parsed.partitions );
 
-					Counter counter = null;
-					if( parsed.logRecords > 0 )
-						counter = new FixedCounter( parsed.logRecords );
-					else if( parsed.logSeconds > 0 )
-						counter = new TimedCounter( parsed.logSeconds );
+		// Start a dumper for each key range
 
-					try
-					{
-						while( result.next() )
-						{
-							Object[] values = new Object[ columns ];
-							for( int i = 0; i < values.length; i++ )
-								values[ i ] = JDBCSupport.getValue( result, types, i );
-
-							if( parsed.coalesce != null )
-								parsed.coalesce.coalesce( values );
-
-							JSONArray array = new JSONArray();
-							for( int i = 0; i < columns; i++ )
-								if( !ignore[ i ] )
-								{
-									Object value = values[ i ];
-									if( value == null )
-									{
-										array.add( null );
-										continue;
-									}
-
-									// TODO 2 columns can't be written to the same dynamic filename
-
-									FileSpec spec = fileSpecs[ i ];
-									if( spec != null ) // The column is redirected to its own file
-									{
-										String relFileName = null;
-										int startIndex;
-										if( spec.binary )
-										{
-											if( spec.generator.isDynamic() )
-											{
-												String fileName = spec.generator.generateFileName( result );
-												Resource fileResource = new FileResource( fileName );
-												spec.out = fileResource.getOutputStream();
-												spec.index = 0;
-												relFileName = fileResource.getPathFrom( jsvResource ).toString();
-											}
-											else if( spec.out == null )
-											{
-												String fileName = spec.generator.generateFileName( result );
-												Resource fileResource = new FileResource( fileName );
-												spec.out = fileResource.getOutputStream();
-											}
-											if( value instanceof Blob )
-											{
-												InputStream in = ( (Blob)value ).getBinaryStream();
-												startIndex = spec.index;
-												byte[] buf = new byte[ 4096 ];
-												for( int read = in.read( buf ); read >= 0; read = in.read( buf ) )
-												{
-													spec.out.write( buf, 0, read );
-													spec.index += read;
-												}
-												in.close();
-											}
-											else if( value instanceof byte[] )
-											{
-												startIndex = spec.index;
-												spec.out.write( (byte[])value );
-												spec.index += ( (byte[])value ).length;
-											}
-											else
-												throw new SourceException( names[ i ] + " (" + value.getClass().getName() + ") is not a binary column. Only binary columns like BLOB, RAW, BINARY VARYING can be written to a binary file", command.getLocation() );
-											if( spec.generator.isDynamic() )
-											{
-												spec.out.close();
-												JSONObject ref = new JSONObject();
-												ref.set( "file", relFileName );
-												ref.set( "size", spec.index - startIndex );
-												array.add( ref );
-											}
-											else
-											{
-												JSONObject ref = new JSONObject();
-												ref.set( "index", startIndex );
-												ref.set( "length", spec.index - startIndex );
-												array.add( ref );
-											}
-										}
-										else
-										{
-											if( spec.generator.isDynamic() )
-											{
-												String fileName = spec.generator.generateFileName( result );
-												Resource fileResource = new FileResource( fileName );
-												spec.writer = new DeferringWriter( spec.threshold, fileResource, jsonWriter.getEncoding() );
-												spec.index = 0;
-												relFileName = fileResource.getPathFrom( jsvResource ).toString();
-											}
-											else if( spec.writer == null )
-											{
-												String fileName = spec.generator.generateFileName( result );
-												Resource fileResource = new FileResource( fileName );
-												spec.writer = new OutputStreamWriter( fileResource.getOutputStream(), jsonWriter.getEncoding() );
-											}
-											if( value instanceof Blob || value instanceof byte[] )
-												throw new SourceException( names[ i ] + " is a binary column. Binary columns like BLOB, RAW, BINARY VARYING cannot be written to a text file", command.getLocation() );
-											if( value instanceof Clob )
-											{
-												Reader in = ( (Clob)value ).getCharacterStream();
-												startIndex = spec.index;
-												char[] buf = new char[ 4096 ];
-												for( int read = in.read( buf ); read >= 0; read = in.read( buf ) )
-												{
-													spec.writer.write( buf, 0, read );
-													spec.index += read;
-												}
-												in.close();
-											}
-											else
-											{
-												String val = value.toString();
-												startIndex = spec.index;
-												spec.writer.write( val );
-												spec.index += val.length();
-											}
-											if( spec.generator.isDynamic() )
-											{
-												DeferringWriter writer = (DeferringWriter)spec.writer;
-												if( writer.isBuffered() )
-													array.add( writer.clearBuffer() );
-												else
-												{
-													JSONObject ref = new JSONObject();
-													ref.set( "file", relFileName );
-													ref.set( "size", spec.index - startIndex );
-													array.add( ref );
-												}
-												writer.close();
-											}
-											else
-											{
-												JSONObject ref = new JSONObject();
-												ref.set( "index", startIndex );
-												ref.set( "length", spec.index - startIndex );
-												array.add( ref );
-											}
-										}
-									}
-									else if( value instanceof Clob )
-										array.add( ( (Clob)value ).getCharacterStream() );
-									else if( binaryFile != null && ( value instanceof Blob || value instanceof byte[] ) )
-									{
-										if( binaryFile.out == null )
-										{
-											String fileName = binaryFile.generator.generateFileName( null );
-											Resource fileResource = new FileResource( fileName );
-											binaryFile.out = fileResource.getOutputStream();
-											if( parsed.binaryGzip )
-												binaryFile.out = new BufferedOutputStream( new GZIPOutputStream( binaryFile.out, 65536 ), 65536 ); // TODO Ctrl-C, close the outputstream?
-										}
-										int startIndex = binaryFile.index;
-										if( value instanceof Blob )
-										{
-											InputStream in = ( (Blob)value ).getBinaryStream();
-											byte[] buf = new byte[ 4096 ];
-											for( int read = in.read( buf ); read >= 0; read = in.read( buf ) )
-											{
-												binaryFile.out.write( buf, 0, read );
-												binaryFile.index += read;
-											}
-											in.close();
-										}
-										else
-										{
-											binaryFile.out.write( (byte[])value );
-											binaryFile.index += ( (byte[])value ).length;
-										}
-										JSONObject ref = new JSONObject();
-										ref.set( "index", startIndex );
-										ref.set( "length", binaryFile.index - startIndex );
-										array.add( ref );
-									}
-									else
-										array.add( value );
-								}
-
-							for( ListIterator< Object > i = array.iterator(); i.hasNext(); )
-							{
-								Object value = i.next();
-								if( value instanceof java.sql.Date || value instanceof java.sql.Time || value instanceof java.sql.Timestamp || value instanceof java.sql.RowId )
-									i.set( value.toString() );
-							}
-							jsonWriter.write( array );
-							jsonWriter.getWriter().write( '\n' );
-
-							if( counter != null && counter.next() )
-								processor.getProgressListener().println( "Exported " + counter.total() + " records." );
-						}
-						if( counter != null && counter.needFinal() )
-							processor.getProgressListener().println( "Exported " + counter.total() + " records." );
-					}
-					finally
-					{
-						// Close files that have been left open
-						for( FileSpec fileSpec : fileSpecs )
-							if( fileSpec != null )
-							{
-								if( fileSpec.out != null )
-									fileSpec.out.close();
-								if( fileSpec.writer != null )
-									fileSpec.writer.close();
-							}
-						if( binaryFile != null && binaryFile.out != null )
-							binaryFile.out.close();
-					}
+		Database database = processor.getCurrentDatabase();
+		PartDumper[] dumpers = new PartDumper[ parsed.partitions ];
+		try
+		{
+			for( int i = 0; i < dumpers.length; i++ )
+			{
+				StringBuilder sql = new StringBuilder( "SELECT *" ).append( from );
+				List< BigDecimal > bounds = new ArrayList< BigDecimal >();
+				String where = " WHERE ";
+				if( i > 0 )
+				{
+					sql.append( where ).append( column ).append( " >= ?" );
+					bounds.add( min.add( range.multiply( BigDecimal.valueOf( i ) ).divide( count, MathContext.DECIMAL64 ) ) );
+					where = " AND ";
 				}
-				finally
+				if( i < dumpers.length - 1 )
 				{
-					processor.closeStatement( statement, true );
+					sql.append( where ).append( "( " ).append( column ).append( " < ?" );
+					if( i == 0 )
+						sql.append( " OR " ).append( column ).append( " IS NULL" );
+					sql.append( " )" );
+					bounds.add( min.add( range.multiply( BigDecimal.valueOf( i + 1 ) ).divide( count, MathContext.DECIMAL64 ) ) );
 				}
-			}
-			finally
-			{
-				jsonWriter.close();
+				dumpers[ i ] = new PartDumper( "DumpJSON-Part-" + ( i + 1 ), database.newConnection(), sql.toString(), bounds, parsed, getPartFileName( parsed.fileName, i + 1 ) );
+				dumpers[ i ].start();
 			}
 		}
-		catch( IOException e )
+		finally
 		{
-			throw new SystemException( e );
+			boolean interrupted = false;
+			for( PartDumper dumper : dumpers )
+				if( dumper != null )
+					while( true )
+						try
+						{
+							dumper.join();
+							break;
+						}
+						catch( InterruptedException e )
+						{
+							interrupted = true;
+						}
+			if( interrupted )
+				Thread.currentThread().interrupt();
 		}
 
-		return true;
+		long total = 0;
+		for( PartDumper dumper : dumpers )
+		{
+			Throwable error = dumper.error;
+			if( error instanceof SQLException )
+				throw (SQLException)error;
+			if( error instanceof RuntimeException )
+				throw (RuntimeException)error;
+			if( error instanceof Error )
+				throw (Error)error;
+			if( error != null )
+				throw new SystemException( error );
+			total += dumper.count;
+		}
+
+		if( parsed.logRecords > 0 || parsed.logSeconds > 0 )
+			processor.getProgressListener().println( "Exported " + total + " records." );
+		return total;
+	}
+
+
+	/**
+	 * Returns the file name of a part of a partitioned dump. The number of the part is inserted before the extension.
+	 *
+	 * @param fileName The file name of the main file.
+	 * @param part The number of the part, starting with 1.
+	 * @return The file name of the part.
+	 */
+	static protected String getPartFileName( String fileName, int part )
+	{
+		int dot = fileName.lastIndexOf( '.' );
+		if( dot <= fileName.lastIndexOf( '/' ) || dot <= fileName.lastIndexOf( '\\' ) )
+			return fileName + "-" + part;
+		return fileName.substring( 0, dot ) + "-" + part + fileName.substring( dot );
 	}
 
 
@@ -481,6 +376,9 @@ public class DumpJSON implements CommandListener
 		DUMP JSON
 		DATE AS TIMESTAMP
 		COALESCE "<col1>", "<col2>"
+		PIPELINED
+		FETCH SIZE n
+		PARTITION BY <column> INTO n
 		LOG EVERY n RECORDS|SECONDS
 		FILE "file" GZIP
 		BINARY FILE "file" GZIP
@@ -494,7 +392,7 @@ public class DumpJSON implements CommandListener
 		tokenizer.get( "DUMP" );
 		tokenizer.get( "JSON" );
 
-		Token t = tokenizer.get( "DATE", "COALESCE", "LOG", "FILE" );
+		Token t = tokenizer.get( "DATE", "COALESCE", "PIPELINED", "FETCH", "PARTITION", "LOG", "FILE" );
 
 		if( t.eq( "DATE" ) )
 		{
@@ -503,7 +401,7 @@ public class DumpJSON implements CommandListener
 
 			result.dateAsTimestamp = true;
 
-			t = tokenizer.get( "COALESCE", "LOG", "FILE" );
+			t = tokenizer.get( "COALESCE", "PIPELINED", "FETCH", "PARTITION", "LOG", "FILE" );
 		}
 
 		while( t.eq( "COALESCE" ) )
@@ -531,6 +429,35 @@ public class DumpJSON implements CommandListener
 			result.coalesce.end();
 		}
 
+		if( t.eq( "PIPELINED" ) )
+		{
+			result.pipelined = true;
+
+			t = tokenizer.get( "FETCH", "PARTITION", "LOG", "FILE" );
+		}
+
+		if( t.eq( "FETCH" ) )
+		{
+			tokenizer.get( "SIZE" );
+			result.fetchSize = ImportCSV.getNumber( tokenizer );
+			if( result.fetchSize < 1 )
+				throw new SourceException( "FETCH SIZE needs at least 1 record", tokenizer.getLocation() );
+
+			t = tokenizer.get( "PARTITION", "LOG", "FILE" );
+		}
+
+		if( t.eq( "PARTITION" ) )
+		{
+			tokenizer.get( "BY" );
+			result.partitionColumn = tokenizer.get().getValue();
+			tokenizer.get( "INTO" );
+			result.partitions = ImportCSV.getNumber( tokenizer );
+			if( result.partitions < 1 )
+				throw new SourceException( "PARTITION BY needs at least 1 part", tokenizer.getLocation() );
+
+			t = tokenizer.get( "LOG", "FILE" );
+		}
+
 		tokenizer.expect( t, "LOG", "FILE" );
 
 		if( t.eq( "LOG" ) )
@@ -630,10 +557,34 @@ public class DumpJSON implements CommandListener
 
 		result.query = tokenizer.getRemaining();
 
+		// The parts are written concurrently, they can't share the files that columns are written to
+		if( result.partitionColumn != null )
+		{
+			boolean toFile = result.binaryFileName != null;
+			if( result.columns != null )
+				for( ColumnSpec columnSpec : result.columns.values() )
+					if( !columnSpec.skip )
+						toFile = true;
+			if( toFile )
+				throw new SourceException( "PARTITION BY can't be combined with BINARY FILE or COLUMN ... TO FILE", command.getLocation() );
+		}
+
 		return result;
 	}
 
 
+	//@Override
+	public String[] getTransientKeywords()
+	{
+		return new String[] { "DUMP JSON" };
+	}
+
+	//@Override
+	public String[] getPersistentKeywords()
+	{
+		return new String[] { "DUMP JSON" };
+	}
+
 	//@Override
 	public void terminate()
 	{
@@ -663,6 +614,18 @@ public class DumpJSON implements CommandListener
 		/** Which columns need to be coalesced */
 		protected Coalescer coalesce;
 
+		/** Fetch, transform and write the records on separate threads. */
+		protected boolean pipelined;
+
+		/** The number of records to fetch per round trip. 0 for the default of the database. */
+		protected int fetchSize;
+
+		/** The column to partition the dump by, null for a dump without parts. */
+		protected String partitionColumn;
+
+		/** The number of parts of a partitioned dump. */
+		protected int partitions;
+
 		protected int logRecords;
 		protected int logSeconds;
 
@@ -670,6 +633,532 @@ public class DumpJSON implements CommandListener
 	}
 
 
+	/**
+	 * The last stage of the export pipeline, writes the header and the records to the JSON file.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class JSONSink implements RecordSink
+	{
+		private JSONWriter jsonWriter;
+		private Parsed parsed;
+		private Resource jsvResource;
+		private boolean dateCreated;
+		private JSONArray parts;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param jsonWriter The JSON writer. It is not closed by this stage.
+		 * @param parsed The parsed command.
+		 * @param jsvResource The JSON file.
+		 * @param dateCreated Add the creation date to the header.
+		 * @param parts The file names of the parts of a partitioned dump, relative to the JSON file. May be null.
+		 */
+		protected JSONSink( JSONWriter jsonWriter, Parsed parsed, Resource jsvResource, boolean dateCreated, JSONArray parts )
+		{
+			this.jsonWriter = jsonWriter;
+			this.parsed = parsed;
+			this.jsvResource = jsvResource;
+			this.dateCreated = dateCreated;
+			this.parts = parts;
+		}
+
+		//@Override
+		public void start( Column[] columns )
+		{
+			JSONObject properties = new JSONObject();
+			properties.set( "version", "1.0" );
+			properties.set( "format", "record-stream" );
+			properties.set( "description", "SolidBase JSON Data Dump File" );
+			properties.set( "createdBy", new JSONObject( "product", "SolidBase", "version", "2.0.0" ) );
+
+			if( this.dateCreated )
+			{
+				SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss" );
+				properties.set( "createdDate", format.format( new Date() ) );
+			}
+
+			if( this.parsed.binaryFileName != null )
+			{
+				// TODO FIXME Should be wrapped in a SourceException: solidbase.solidstack.io.FatalURISyntaxException: java.net.URISyntaxException: Illegal character in path at index 1: &{folder}/JIADHOCCH
+				Resource binResource = Resources.getResource( this.parsed.binaryFileName );
+				Resource resource = Resources.getResource( this.parsed.fileName );
+				properties.set( "binaryFile", binResource.getPathFrom( resource ).toString() );
+			}
+
+			JSONArray fields = new JSONArray();
+			properties.set( "fields", fields );
+			for( Column column : columns )
+			{
+				JSONObject field = new JSONObject();
+				field.set( "schemaName", column.getSchemaName() );
+				field.set( "tableName", column.getTableName() );
+				field.set( "name", column.getName() );
+				field.set( "type", JDBCSupport.toTypeName( column.getType() ) ); // TODO Better error message when type is not recognized, for example Oracle's 2007 for a user type
+				ColumnSpec columnSpec = this.parsed.columns != null ? this.parsed.columns.get( column.getName() ) : null;
+				if( columnSpec != null && columnSpec.toFile != null && !columnSpec.toFile.generator.isDynamic() )
+				{
+					Resource fileResource = new FileResource( columnSpec.toFile.generator.fileName );
+					field.set( "file", fileResource.getPathFrom( this.jsvResource ).toString() );
+				}
+				fields.add( field );
+			}
+
+			if( this.parts != null )
+				properties.set( "parts", this.parts );
+
+			this.jsonWriter.writeFormatted( properties, 120 );
+			newLine();
+		}
+
+		//@Override
+		public void process( Object[] values ) throws SQLException
+		{
+			JSONArray array = new JSONArray();
+			for( Object value : values )
+				if( value instanceof Clob )
+					array.add( ( (Clob)value ).getCharacterStream() );
+				else if( value instanceof java.sql.Date || value instanceof java.sql.Time || value instanceof java.sql.Timestamp || value instanceof java.sql.RowId )
+					array.add( value.toString() );
+				else
+					array.add( value );
+
+			this.jsonWriter.write( array );
+			newLine();
+		}
+
+		/**
+		 * Writes a newline.
+		 */
+		protected void newLine()
+		{
+			try
+			{
+				this.jsonWriter.getWriter().write( '\n' );
+			}
+			catch( IOException e )
+			{
+				throw new SystemException( e );
+			}
+		}
+
+		//@Override
+		public void end()
+		{
+			// Nothing to flush, the JSON writer is closed by the plugin
+		}
+
+		//@Override
+		public void close()
+		{
+			// The JSON writer is closed by the plugin
+		}
+	}
+
+
+	/**
+	 * The last stage of the export pipeline for a part of a partitioned dump. Part files only contain records, the
+	 * header is in the main file.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class PartSink extends JSONSink
+	{
+		/**
+		 * Constructor.
+		 *
+		 * @param jsonWriter The JSON writer. It is not closed by this stage.
+		 */
+		protected PartSink( JSONWriter jsonWriter )
+		{
+			super( jsonWriter, null, null, false, null );
+		}
+
+		@Override
+		public void start( Column[] columns )
+		{
+			// The header is in the main file
+		}
+	}
+
+
+	/**
+	 * Dumps one key range of a partitioned dump into a part file, with its own connection.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class PartDumper extends Thread
+	{
+		private Connection connection;
+		private String sql;
+		private List< BigDecimal > bounds;
+		private Parsed parsed;
+		private String fileName;
+
+		/** The error that stopped this dumper. */
+		protected volatile Throwable error;
+
+		/** The number of records dumped. */
+		protected long count;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name The name of the thread.
+		 * @param connection The connection to query with. It is closed by this dumper.
+		 * @param sql The query for the key range.
+		 * @param bounds The bounds of the key range, the parameters of the query.
+		 * @param parsed The parsed command.
+		 * @param fileName The file name of the part.
+		 */
+		protected PartDumper( String name, Connection connection, String sql, List< BigDecimal > bounds, Parsed parsed, String fileName )
+		{
+			super( name );
+			this.connection = connection;
+			this.sql = sql;
+			this.bounds = bounds;
+			this.parsed = parsed;
+			this.fileName = fileName;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				PreparedStatement statement = this.connection.prepareStatement( this.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+				try
+				{
+					statement.setFetchSize( this.parsed.fetchSize > 0 ? this.parsed.fetchSize : JDBCSupport.getDefaultFetchSize( this.connection ) );
+					for( int i = 0; i < this.bounds.size(); i++ )
+						statement.setBigDecimal( i + 1, this.bounds.get( i ) );
+					ResultSet result = statement.executeQuery();
+
+					Resource resource = new FileResource( new File( this.fileName ) );
+					OutputStream out = resource.getOutputStream();
+					if( this.parsed.gzip )
+						out = new BufferedOutputStream( new GZIPOutputStream( out, 65536 ), 65536 );
+
+					JSONWriter jsonWriter = new JSONWriter( out );
+					try
+					{
+						ExportPipeline pipeline = new ExportPipeline( result, this.parsed.dateAsTimestamp );
+						this.count = pipeline.run( createStages( this.parsed, new PartSink( jsonWriter ), resource, jsonWriter.getEncoding(), null ), null, null );
+					}
+					finally
+					{
+						jsonWriter.close();
+					}
+				}
+				finally
+				{
+					statement.close();
+				}
+			}
+			catch( Throwable t )
+			{
+				this.error = t;
+			}
+			finally
+			{
+				try
+				{
+					try
+					{
+						this.connection.rollback(); // Nothing to commit
+					}
+					finally
+					{
+						this.connection.close();
+					}
+				}
+				catch( SQLException e )
+				{
+					if( this.error == null )
+						this.error = e;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * A stage of the export pipeline that writes the values of columns to separate files, as configured with
+	 * COLUMN ... TO BINARY|TEXT FILE and BINARY FILE. The values are replaced by references to the files.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class RedirectToFiles extends ExportPipeline.Stage
+	{
+		private Parsed parsed;
+		private Resource jsvResource;
+		private String encoding;
+		private Command command;
+
+		private String[] names;
+		private boolean[] ignore;
+		private FileSpec[] fileSpecs;
+		private FileSpec binaryFile;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param parsed The parsed command.
+		 * @param jsvResource The JSON file, file names are made relative to it.
+		 * @param encoding The encoding of the text files.
+		 * @param command The command, used in error messages.
+		 * @param next The next stage.
+		 */
+		protected RedirectToFiles( Parsed parsed, Resource jsvResource, String encoding, Command command, RecordSink next )
+		{
+			super( next );
+			this.parsed = parsed;
+			this.jsvResource = jsvResource;
+			this.encoding = encoding;
+			this.command = command;
+		}
+
+		@Override
+		public void start( Column[] columns ) throws SQLException
+		{
+			int count = columns.length;
+			this.names = new String[ count ];
+			this.ignore = new boolean[ count ];
+			this.fileSpecs = new FileSpec[ count ];
+			for( int i = 0; i < count; i++ )
+			{
+				String name = columns[ i ].getName();
+				this.names[ i ] = name;
+				ColumnSpec columnSpec = this.parsed.columns != null ? this.parsed.columns.get( name ) : null;
+				if( columnSpec != null && columnSpec.skip )
+					this.ignore[ i ] = true;
+				else if( this.parsed.coalesce != null && this.parsed.coalesce.notFirst( name ) )
+					this.ignore[ i ] = true;
+				else if( !ExportPipeline.isExportable( columns[ i ].getType() ) )
+					this.ignore[ i ] = true;
+				else if( columnSpec != null )
+					this.fileSpecs[ i ] = columnSpec.toFile;
+			}
+
+			if( this.parsed.binaryFileName != null )
+				this.binaryFile = new FileSpec( true, this.parsed.binaryFileName, 0 );
+
+			super.start( columns );
+		}
+
+		@Override
+		public void process( Object[] values ) throws SQLException
+		{
+			Object[] result = values.clone(); // The file names are generated from the original values
+			try
+			{
+				for( int i = 0; i < values.length; i++ )
+				{
+					Object value = values[ i ];
+					if( this.ignore[ i ] || value == null )
+						continue;
+
+					// TODO 2 columns can't be written to the same dynamic filename
+
+					FileSpec spec = this.fileSpecs[ i ];
+					if( spec != null ) // The column is redirected to its own file
+					{
+						if( spec.binary )
+							result[ i ] = writeBinary( spec, this.names[ i ], value, values );
+						else
+							result[ i ] = writeText( spec, this.names[ i ], value, values );
+					}
+					else if( this.binaryFile != null && ( value instanceof Blob || value instanceof byte[] ) )
+						result[ i ] = writeBinaryFile( value );
+				}
+			}
+			catch( IOException e )
+			{
+				throw new SystemException( e );
+			}
+
+			super.process( result );
+		}
+
+		private Object writeBinary( FileSpec spec, String name, Object value, Object[] values ) throws SQLException, IOException
+		{
+			String relFileName = null;
+			int startIndex;
+			if( spec.generator.isDynamic() )
+			{
+				String fileName = spec.generator.generateFileName( values );
+				Resource fileResource = new FileResource( fileName );
+				spec.out = fileResource.getOutputStream();
+				spec.index = 0;
+				relFileName = fileResource.getPathFrom( this.jsvResource ).toString();
+			}
+			else if( spec.out == null )
+			{
+				String fileName = spec.generator.generateFileName( values );
+				Resource fileResource = new FileResource( fileName );
+				spec.out = fileResource.getOutputStream();
+			}
+			if( value instanceof Blob )
+			{
+				InputStream in = ( (Blob)value ).getBinaryStream();
+				startIndex = spec.index;
+				byte[] buf = new byte[ 4096 ];
+				for( int read = in.read( buf ); read >= 0; read = in.read( buf ) )
+				{
+					spec.out.write( buf, 0, read );
+					spec.index += read;
+				}
+				in.close();
+			}
+			else if( value instanceof byte[] )
+			{
+				startIndex = spec.index;
+				spec.out.write( (byte[])value );
+				spec.index += ( (byte[])value ).length;
+			}
+			else
+				throw new SourceException( name + " (" + value.getClass().getName() + ") is not a binary column. Only binary columns like BLOB, RAW, BINARY VARYING can be written to a binary file", this.command.getLocation() );
+			if( spec.generator.isDynamic() )
+			{
+				spec.out.close();
+				JSONObject ref = new JSONObject();
+				ref.set( "file", relFileName );
+				ref.set( "size", spec.index - startIndex );
+				return ref;
+			}
+			JSONObject ref = new JSONObject();
+			ref.set( "index", startIndex );
+			ref.set( "length", spec.index - startIndex );
+			return ref;
+		}
+
+		private Object writeText( FileSpec spec, String name, Object value, Object[] values ) throws SQLException, IOException
+		{
+			String relFileName = null;
+			int startIndex;
+			if( spec.generator.isDynamic() )
+			{
+				String fileName = spec.generator.generateFileName( values );
+				Resource fileResource = new FileResource( fileName );
+				spec.writer = new DeferringWriter( spec.threshold, fileResource, this.encoding );
+				spec.index = 0;
+				relFileName = fileResource.getPathFrom( this.jsvResource ).toString();
+			}
+			else if( spec.writer == null )
+			{
+				String fileName = spec.generator.generateFileName( values );
+				Resource fileResource = new FileResource( fileName );
+				spec.writer = new OutputStreamWriter( fileResource.getOutputStream(), this.encoding );
+			}
+			if( value instanceof Blob || value instanceof byte[] )
+				throw new SourceException( name + " is a binary column. Binary columns like BLOB, RAW, BINARY VARYING cannot be written to a text file", this.command.getLocation() );
+			if( value instanceof Clob )
+			{
+				Reader in = ( (Clob)value ).getCharacterStream();
+				startIndex = spec.index;
+				char[] buf = new char[ 4096 ];
+				for( int read = in.read( buf ); read >= 0; read = in.read( buf ) )
+				{
+					spec.writer.write( buf, 0, read );
+					spec.index += read;
+				}
+				in.close();
+			}
+			else
+			{
+				String val = value.toString();
+				startIndex = spec.index;
+				spec.writer.write( val );
+				spec.index += val.length();
+			}
+			if( spec.generator.isDynamic() )
+			{
+				DeferringWriter writer = (DeferringWriter)spec.writer;
+				try
+				{
+					if( writer.isBuffered() )
+						return writer.clearBuffer();
+					JSONObject ref = new JSONObject();
+					ref.set( "file", relFileName );
+					ref.set( "size", spec.index - startIndex );
+					return ref;
+				}
+				finally
+				{
+					writer.close();
+				}
+			}
+			JSONObject ref = new JSONObject();
+			ref.set( "index", startIndex );
+			ref.set( "length", spec.index - startIndex );
+			return ref;
+		}
+
+		private Object writeBinaryFile( Object value ) throws SQLException, IOException
+		{
+			FileSpec binaryFile = this.binaryFile;
+			if( binaryFile.out == null )
+			{
+				String fileName = binaryFile.generator.generateFileName( null );
+				Resource fileResource = new FileResource( fileName );
+				binaryFile.out = fileResource.getOutputStream();
+				if( this.parsed.binaryGzip )
+					binaryFile.out = new BufferedOutputStream( new GZIPOutputStream( binaryFile.out, 65536 ), 65536 ); // TODO Ctrl-C, close the outputstream?
+			}
+			int startIndex = binaryFile.index;
+			if( value instanceof Blob )
+			{
+				InputStream in = ( (Blob)value ).getBinaryStream();
+				byte[] buf = new byte[ 4096 ];
+				for( int read = in.read( buf ); read >= 0; read = in.read( buf ) )
+				{
+					binaryFile.out.write( buf, 0, read );
+					binaryFile.index += read;
+				}
+				in.close();
+			}
+			else
+			{
+				binaryFile.out.write( (byte[])value );
+				binaryFile.index += ( (byte[])value ).length;
+			}
+			JSONObject ref = new JSONObject();
+			ref.set( "index", startIndex );
+			ref.set( "length", binaryFile.index - startIndex );
+			return ref;
+		}
+
+		@Override
+		public void close()
+		{
+			try
+			{
+				// Close files that have been left open
+				if( this.fileSpecs != null )
+					for( FileSpec fileSpec : this.fileSpecs )
+						if( fileSpec != null )
+						{
+							if( fileSpec.out != null )
+								fileSpec.out.close();
+							if( fileSpec.writer != null )
+								fileSpec.writer.close();
+						}
+				if( this.binaryFile != null && this.binaryFile.out != null )
+					this.binaryFile.out.close();
+			}
+			catch( IOException e )
+			{
+				throw new SystemException( e );
+			}
+			finally
+			{
+				super.close();
+			}
+		}
+	}
+
+
 	static protected class FileSpec
 	{
 		protected boolean binary;
@@ -719,7 +1208,7 @@ public class DumpJSON implements CommandListener
 			return this.generic;
 		}
 
-		protected String generateFileName( ResultSet resultSet )
+		protected String generateFileName( Object[] values )
 		{
 
 			Matcher matcher = this.pattern.matcher( this.fileName );
@@ -727,14 +1216,7 @@ public class DumpJSON implements CommandListener
 			while( matcher.find() )
 			{
 				int index = Integer.parseInt( matcher.group( 1 ) );
-				try
-				{
-					matcher.appendReplacement( result, resultSet.getString( index ) );
-				}
-				catch( SQLException e )
-				{
-					throw new SystemException( e );
-				}
+				matcher.appendReplacement( result, String.valueOf( values[ index - 1 ] ) );
 			}
 			matcher.appendTail( result );
 			return result.toString();
@@ -784,7 +1266,7 @@ public class DumpJSON implements CommandListener
 			return this.next.contains( name );
 		}
 
-		public void bind( String[] names )
+		public synchronized void bind( String[] names )
 		{
 			for( int i = 0; i < this.names.size(); i++ )
 			{
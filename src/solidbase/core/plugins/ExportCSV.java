@@ -26,23 +26,22 @@ import java.io.UnsupportedEncodingException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Types;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
 import solidbase.core.Command;
-import solidbase.core.CommandListener;
 import solidbase.core.CommandProcessor;
+import solidbase.core.KeywordCommandListener;
 import solidbase.core.SourceException;
 import solidbase.core.SystemException;
 import solidbase.core.plugins.DumpJSON.Coalescer;
+import solidbase.core.plugins.ExportPipeline.Column;
 import solidbase.util.CSVWriter;
 import solidbase.util.Counter;
 import solidbase.util.FixedCounter;
-import solidbase.util.JDBCSupport;
+import solidbase.util.Metrics;
 import solidbase.util.SQLTokenizer;
 import solidbase.util.SQLTokenizer.Token;
 import solidbase.util.TimedCounter;
@@ -59,7 +58,7 @@ import solidstack.io.SourceReaders;
  */
 // TODO To compressed file
 // TODO Escape with \ instead of doubling double quotes. This means also \n \t \r. ESCAPE DQ CR LF TAB WITH \
-public class ExportCSV implements CommandListener
+public class ExportCSV implements KeywordCommandListener
 {
 	static private final Pattern triggerPattern = Pattern.compile( "\\s*EXPORT\\s+CSV\\s+.*", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
 
@@ -78,6 +77,8 @@ public class ExportCSV implements CommandListener
 
 		Parsed parsed = parse( command );
 
+		long start = System.nanoTime();
+		long records;
 		Resource csvResource = Resources.getResource( parsed.fileName ); // Relative to current folder
 
 		try
@@ -97,52 +98,24 @@ public class ExportCSV implements CommandListener
 				throw new SourceException( e.toString(), command.getLocation() );
 			}
 
-			// TODO Lots of identical code in DumpJSON
 			try
 			{
-				Statement statement = processor.createStatement();
+				Statement statement = processor.createStreamingStatement( parsed.fetchSize );
 				try
 				{
 					ResultSet result = statement.executeQuery( parsed.query );
-					ResultSetMetaData metaData = result.getMetaData();
+					ExportPipeline pipeline = new ExportPipeline( result, parsed.dateAsTimestamp );
 
-					// Define locals
-
-					int columns = metaData.getColumnCount();
-					int[] types = new int[ columns ];
-					String[] names = new String[ columns ];
-					boolean[] ignore = new boolean[ columns ];
-
-					// Analyze metadata
-
-					for( int i = 0; i < columns; i++ )
-					{
-						int col = i + 1;
-						String name = metaData.getColumnName( col ).toUpperCase();
-						types[ i ] = metaData.getColumnType( col );
-						if( types[ i ] == Types.DATE && parsed.dateAsTimestamp )
-							types[ i ] = Types.TIMESTAMP;
-						names[ i ] = name;
-						if( parsed.coalesce != null && parsed.coalesce.notFirst( name ) )
-							ignore[ i ] = true;
-						// TODO STRUCT serialize
-						// TODO This must be optional and not the default
-						else if( types[ i ] == 2002 || JDBCSupport.toTypeName( types[ i ] ) == null )
-							ignore[ i ] = true;
-					}
+					// Build the stages from last to first
 
+					RecordSink sink = new CSVSink( csvWriter, parsed.withHeader );
+					if( parsed.pipelined )
+						sink = new ExportPipeline.Async( "ExportCSV-Writer", ExportPipeline.DEFAULT_QUEUE_SIZE, sink );
+					sink = new ExportPipeline.SkipColumns( parsed.coalesce, null, sink );
 					if( parsed.coalesce != null )
-						parsed.coalesce.bind( names );
-
-					// Write header
-
-					if( parsed.withHeader )
-					{
-						for( int i = 0; i < columns; i++ )
-							if( !ignore[ i ] )
-								csvWriter.writeValue( names[ i ] );
-						csvWriter.nextRecord();
-					}
+						sink = new ExportPipeline.Coalesce( parsed.coalesce, sink );
+					if( parsed.pipelined )
+						sink = new ExportPipeline.Async( "ExportCSV-Transformer", ExportPipeline.DEFAULT_QUEUE_SIZE, sink );
 
 					Counter counter = null;
 					if( parsed.logRecords > 0 )
@@ -150,46 +123,7 @@ public class ExportCSV implements CommandListener
 					else if( parsed.logSeconds > 0 )
 						counter = new TimedCounter( parsed.logSeconds );
 
-					while( result.next() )
-					{
-						Object[] values = new Object[ columns ];
-						for( int i = 0; i < values.length; i++ )
-							values[ i ] = JDBCSupport.getValue( result, types, i );
-
-						if( parsed.coalesce != null )
-							parsed.coalesce.coalesce( values );
-
-						for( int i = 0; i < columns; i++ )
-							if( !ignore[ i ] )
-							{
-								Object value = values[ i ];
-								if( value == null )
-									csvWriter.writeValue( (String)null );
-								else if( value instanceof Clob )
-								{
-									Reader in = ( (Clob)value ).getCharacterStream();
-									csvWriter.writeValue( in );
-									in.close();
-								}
-								else if( value instanceof Blob )
-								{
-									InputStream in = ( (Blob)value ).getBinaryStream();
-									csvWriter.writeValue( in );
-									in.close();
-								}
-								else if( value instanceof byte[] )
-									csvWriter.writeValue( (byte[])value );
-								else
-									csvWriter.writeValue( value.toString() );
-							}
-
-						csvWriter.nextRecord();
-
-						if( counter != null && counter.next() )
-								processor.getProgressListener().println( "Exported " + counter.total() + " records." );
-					}
-					if( counter != null && counter.needFinal() )
-						processor.getProgressListener().println( "Exported " + counter.total() + " records." );
+					records = pipeline.run( sink, counter, processor.getProgressListener() );
 				}
 				finally
 				{
@@ -206,6 +140,10 @@ public class ExportCSV implements CommandListener
 			throw new SystemException( e );
 		}
 
+		Metrics metrics = processor.getMetrics();
+		metrics.time( "exportcsv", System.nanoTime() - start );
+		metrics.count( "exportcsv.records", records );
+		metrics.count( "exportcsv.bytes", ImportCSV.getLocalFileSize( csvResource ) );
 		return true;
 	}
 
@@ -224,6 +162,8 @@ public class ExportCSV implements CommandListener
 		SEPARATED BY TAB|SPACE|<character>
 		DATE AS TIMESTAMP
 		COALESCE "<col1>", "<col2>"
+		PIPELINED
+		FETCH SIZE n
 		LOG EVERY n RECORDS|SECONDS
 		FILE "<file>" ENCODING "<encoding>" GZIP
 		*/
@@ -235,13 +175,13 @@ public class ExportCSV implements CommandListener
 		tokenizer.get( "EXPORT" );
 		tokenizer.get( "CSV" );
 
-		Token t = tokenizer.get( "WITH", "SEPARATED", "DATE", "COALESCE", "LOG", "FILE" );
+		Token t = tokenizer.get( "WITH", "SEPARATED", "DATE", "COALESCE", "PIPELINED", "FETCH", "LOG", "FILE" );
 		if( t.eq( "WITH" ) )
 		{
 			tokenizer.get( "HEADER" );
 			result.withHeader = true;
 
-			t = tokenizer.get( "SEPARATED", "DATE", "COALESCE", "LOG", "FILE" );
+			t = tokenizer.get( "SEPARATED", "DATE", "COALESCE", "PIPELINED", "FETCH", "LOG", "FILE" );
 		}
 
 		if( t.eq( "SEPARATED" ) )
@@ -259,7 +199,7 @@ public class ExportCSV implements CommandListener
 				result.separator = t.getValue().charAt( 0 );
 			}
 
-			t = tokenizer.get( "DATE", "COALESCE", "LOG", "FILE" );
+			t = tokenizer.get( "DATE", "COALESCE", "PIPELINED", "FETCH", "LOG", "FILE" );
 		}
 
 		if( t.eq( "DATE" ) )
@@ -269,7 +209,7 @@ public class ExportCSV implements CommandListener
 
 			result.dateAsTimestamp = true;
 
-			t = tokenizer.get( "COALESCE", "LOG", "FILE" );
+			t = tokenizer.get( "COALESCE", "PIPELINED", "FETCH", "LOG", "FILE" );
 		}
 
 		while( t.eq( "COALESCE" ) )
@@ -297,6 +237,23 @@ public class ExportCSV implements CommandListener
 			result.coalesce.end();
 		}
 
+		if( t.eq( "PIPELINED" ) )
+		{
+			result.pipelined = true;
+
+			t = tokenizer.get( "FETCH", "LOG", "FILE" );
+		}
+
+		if( t.eq( "FETCH" ) )
+		{
+			tokenizer.get( "SIZE" );
+			result.fetchSize = ImportCSV.getNumber( tokenizer );
+			if( result.fetchSize < 1 )
+				throw new SourceException( "FETCH SIZE needs at least 1 record", tokenizer.getLocation() );
+
+			t = tokenizer.get( "LOG", "FILE" );
+		}
+
 		tokenizer.expect( t, "LOG", "FILE" );
 
 		if( t.eq( "LOG" ) )
@@ -345,6 +302,18 @@ public class ExportCSV implements CommandListener
 	}
 
 
+	//@Override
+	public String[] getTransientKeywords()
+	{
+		return new String[ 0 ];
+	}
+
+	//@Override
+	public String[] getPersistentKeywords()
+	{
+		return new String[] { "EXPORT CSV" };
+	}
+
 	//@Override
 	public void terminate()
 	{
@@ -352,6 +321,89 @@ public class ExportCSV implements CommandListener
 	}
 
 
+	/**
+	 * The last stage of the export pipeline, writes the records to the CSV file.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class CSVSink implements RecordSink
+	{
+		private CSVWriter csvWriter;
+		private boolean withHeader;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param csvWriter The CSV writer. It is not closed by this stage.
+		 * @param withHeader Write the column names as the first record.
+		 */
+		protected CSVSink( CSVWriter csvWriter, boolean withHeader )
+		{
+			this.csvWriter = csvWriter;
+			this.withHeader = withHeader;
+		}
+
+		//@Override
+		public void start( Column[] columns )
+		{
+			if( this.withHeader )
+			{
+				for( Column column : columns )
+					this.csvWriter.writeValue( column.getName() );
+				this.csvWriter.nextRecord();
+			}
+		}
+
+		//@Override
+		public void process( Object[] values ) throws SQLException
+		{
+			CSVWriter csvWriter = this.csvWriter;
+			try
+			{
+				for( Object value : values )
+				{
+					if( value == null )
+						csvWriter.writeValue( (String)null );
+					else if( value instanceof Clob )
+					{
+						Reader in = ( (Clob)value ).getCharacterStream();
+						csvWriter.writeValue( in );
+						in.close();
+					}
+					else if( value instanceof Blob )
+					{
+						InputStream in = ( (Blob)value ).getBinaryStream();
+						csvWriter.writeValue( in );
+						in.close();
+					}
+					else if( value instanceof byte[] )
+						csvWriter.writeValue( (byte[])value );
+					else
+						csvWriter.writeValue( value.toString() );
+				}
+			}
+			catch( IOException e )
+			{
+				throw new SystemException( e );
+			}
+
+			csvWriter.nextRecord();
+		}
+
+		//@Override
+		public void end()
+		{
+			// Nothing to flush, the CSV writer is closed by the plugin
+		}
+
+		//@Override
+		public void close()
+		{
+			// The CSV writer is closed by the plugin
+		}
+	}
+
+
 	/**
 	 * A parsed command.
 	 *
@@ -361,6 +413,12 @@ public class ExportCSV implements CommandListener
 	{
 		protected boolean withHeader;
 
+		/** Fetch, transform and write the records on separate threads. */
+		protected boolean pipelined;
+
+		/** The number of records to fetch per round trip. 0 for the default of the database. */
+		protected int fetchSize;
+
 		/** The separator. */
 		protected char separator = ',';
 
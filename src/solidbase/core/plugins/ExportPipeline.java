@@ -0,0 +1,554 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package solidbase.core.plugins;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+import org.apache.commons.lang.StringUtils;
+
+import solidbase.core.ProgressListener;
+import solidbase.core.SystemException;
+import solidbase.core.plugins.DumpJSON.Coalescer;
+import solidbase.util.Counter;
+import solidbase.util.JDBCSupport;
+import solidstack.lang.ThreadInterrupted;
+
+
+/**
+ * Streams the records of a query through a chain of {@link RecordSink} stages, shared by EXPORT CSV and DUMP JSON. The
+ * pipeline itself is the source stage: it analyzes the metadata and fetches the records. The transform stages
+ * (coalescing, skipping columns) are nested classes of this class, the stages that write the records in a specific
+ * format belong to the plugins.
+ * <p>
+ * Stages normally run on the thread of the source. An {@link Async} stage hands the records over to its own thread
+ * through a bounded queue, so that fetching, transforming and encoding overlap.
+ *
+ * @author Ren M. de Bloois
+ */
+public class ExportPipeline
+{
+	/**
+	 * The default number of records that can wait in the queue of an {@link Async} stage.
+	 */
+	static public final int DEFAULT_QUEUE_SIZE = 1000;
+
+	private ResultSet result;
+	private int[] types;
+	private Column[] columns;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param result The result set to export.
+	 * @param dateAsTimestamp Export DATE columns as TIMESTAMP.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	public ExportPipeline( ResultSet result, boolean dateAsTimestamp ) throws SQLException
+	{
+		this.result = result;
+
+		ResultSetMetaData metaData = result.getMetaData();
+		int count = metaData.getColumnCount();
+		this.types = new int[ count ];
+		this.columns = new Column[ count ];
+		for( int i = 0; i < count; i++ )
+		{
+			int col = i + 1;
+			int type = metaData.getColumnType( col );
+			if( type == Types.DATE && dateAsTimestamp )
+				type = Types.TIMESTAMP;
+			this.types[ i ] = type;
+			String tableName = StringUtils.upperCase( StringUtils.defaultIfEmpty( metaData.getTableName( col ), null ) );
+			String schemaName = StringUtils.upperCase( StringUtils.defaultIfEmpty( metaData.getSchemaName( col ), null ) );
+			this.columns[ i ] = new Column( metaData.getColumnName( col ).toUpperCase(), type, tableName, schemaName );
+		}
+	}
+
+	/**
+	 * Fetches all records and sends them through the given stages. The stages are always closed, also when an error
+	 * occurs.
+	 *
+	 * @param sink The first stage.
+	 * @param counter Counts the records for the progress messages, may be null.
+	 * @param progress The listener to report the progress to.
+	 * @return The number of records fetched.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	public long run( RecordSink sink, Counter counter, ProgressListener progress ) throws SQLException
+	{
+		ResultSet result = this.result;
+		int[] types = this.types;
+		long count = 0;
+
+		try
+		{
+			sink.start( this.columns );
+
+			while( result.next() )
+			{
+				Object[] values = new Object[ types.length ];
+				for( int i = 0; i < values.length; i++ )
+					values[ i ] = JDBCSupport.getValue( result, types, i );
+
+				sink.process( values );
+				count++;
+
+				if( counter != null && counter.next() )
+					progress.println( "Exported " + counter.total() + " records." );
+			}
+
+			sink.end();
+
+			if( counter != null && counter.needFinal() )
+				progress.println( "Exported " + counter.total() + " records." );
+		}
+		finally
+		{
+			sink.close();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Can columns of the given type be exported?
+	 *
+	 * @param type The JDBC type.
+	 * @return True if the type can be exported, false otherwise.
+	 */
+	static public boolean isExportable( int type )
+	{
+		// TODO STRUCT serialize
+		// TODO This must be optional and not the default
+		return type != 2002 && JDBCSupport.toTypeName( type ) != null;
+	}
+
+
+	/**
+	 * A column of the exported records.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static public class Column
+	{
+		private String name;
+		private int type;
+		private String tableName;
+		private String schemaName;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name The name of the column.
+		 * @param type The JDBC type of the column.
+		 * @param tableName The table the column belongs to, may be null.
+		 * @param schemaName The schema of the table, may be null.
+		 */
+		public Column( String name, int type, String tableName, String schemaName )
+		{
+			this.name = name;
+			this.type = type;
+			this.tableName = tableName;
+			this.schemaName = schemaName;
+		}
+
+		/**
+		 * @return The name of the column.
+		 */
+		public String getName()
+		{
+			return this.name;
+		}
+
+		/**
+		 * @return The JDBC type of the column.
+		 */
+		public int getType()
+		{
+			return this.type;
+		}
+
+		/**
+		 * @return The table the column belongs to, may be null.
+		 */
+		public String getTableName()
+		{
+			return this.tableName;
+		}
+
+		/**
+		 * @return The schema of the table, may be null.
+		 */
+		public String getSchemaName()
+		{
+			return this.schemaName;
+		}
+	}
+
+
+	/**
+	 * A stage that passes everything on to the next stage. Subclasses override what they need to transform.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	abstract static public class Stage implements RecordSink
+	{
+		/** The next stage. */
+		protected RecordSink next;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param next The next stage.
+		 */
+		protected Stage( RecordSink next )
+		{
+			this.next = next;
+		}
+
+		//@Override
+		public void start( Column[] columns ) throws SQLException
+		{
+			this.next.start( columns );
+		}
+
+		//@Override
+		public void process( Object[] values ) throws SQLException
+		{
+			this.next.process( values );
+		}
+
+		//@Override
+		public void end() throws SQLException
+		{
+			this.next.end();
+		}
+
+		//@Override
+		public void close()
+		{
+			this.next.close();
+		}
+	}
+
+
+	/**
+	 * Replaces null values with the value of the first column that is not null, as configured with COALESCE.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static public class Coalesce extends Stage
+	{
+		private Coalescer coalescer;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param coalescer Which columns need to be coalesced.
+		 * @param next The next stage.
+		 */
+		public Coalesce( Coalescer coalescer, RecordSink next )
+		{
+			super( next );
+			this.coalescer = coalescer;
+		}
+
+		@Override
+		public void start( Column[] columns ) throws SQLException
+		{
+			String[] names = new String[ columns.length ];
+			for( int i = 0; i < columns.length; i++ )
+				names[ i ] = columns[ i ].getName();
+			this.coalescer.bind( names );
+
+			super.start( columns );
+		}
+
+		@Override
+		public void process( Object[] values ) throws SQLException
+		{
+			this.coalescer.coalesce( values );
+			super.process( values );
+		}
+	}
+
+
+	/**
+	 * Removes the columns that are not exported: the columns that have been coalesced into another column, the columns
+	 * that need to be skipped, and the columns with a type that can't be exported.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static public class SkipColumns extends Stage
+	{
+		private Coalescer coalescer;
+		private Set< String > skip;
+		private int[] selected;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param coalescer Which columns are coalesced, may be null.
+		 * @param skip The names of the columns to skip, may be null.
+		 * @param next The next stage.
+		 */
+		public SkipColumns( Coalescer coalescer, Set< String > skip, RecordSink next )
+		{
+			super( next );
+			this.coalescer = coalescer;
+			this.skip = skip;
+		}
+
+		@Override
+		public void start( Column[] columns ) throws SQLException
+		{
+			List< Integer > selected = new ArrayList< Integer >();
+			for( int i = 0; i < columns.length; i++ )
+			{
+				String name = columns[ i ].getName();
+				if( this.coalescer != null && this.coalescer.notFirst( name ) )
+					continue;
+				if( this.skip != null && this.skip.contains( name ) )
+					continue;
+				if( !isExportable( columns[ i ].getType() ) )
+					continue;
+				selected.add( i );
+			}
+
+			this.selected = new int[ selected.size() ];
+			Column[] result = new Column[ selected.size() ];
+			for( int i = 0; i < result.length; i++ )
+			{
+				this.selected[ i ] = selected.get( i );
+				result[ i ] = columns[ this.selected[ i ] ];
+			}
+
+			super.start( result );
+		}
+
+		@Override
+		public void process( Object[] values ) throws SQLException
+		{
+			int[] selected = this.selected;
+			if( selected.length == values.length )
+			{
+				super.process( values ); // Nothing skipped
+				return;
+			}
+
+			Object[] result = new Object[ selected.length ];
+			for( int i = 0; i < selected.length; i++ )
+				result[ i ] = values[ selected[ i ] ];
+			super.process( result );
+		}
+	}
+
+
+	/**
+	 * Runs the next stages on a separate thread. The records are handed over through a bounded queue, so that a slow
+	 * stage blocks the stages before it instead of filling the memory. An error in the separate thread is rethrown in
+	 * the thread that feeds this stage.
+	 * <p>
+	 * Many drivers invalidate BLOB and CLOB values when the result set moves to the next record, so these values are read
+	 * into memory before the record is handed over. The records that wait in the queue need to fit in memory together.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static public class Async extends Stage
+	{
+		/** Marks the end of the queue. */
+		static private final Object[] END = new Object[ 0 ];
+
+		private String name;
+		private BlockingQueue< Object[] > queue;
+		private Thread thread;
+		private volatile Throwable error;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name The name of the thread.
+		 * @param queueSize The maximum number of records that can wait for the next stage.
+		 * @param next The next stage.
+		 */
+		public Async( String name, int queueSize, RecordSink next )
+		{
+			super( next );
+			this.name = name;
+			this.queue = new ArrayBlockingQueue< Object[] >( queueSize );
+		}
+
+		@Override
+		public void start( Column[] columns ) throws SQLException
+		{
+			super.start( columns );
+
+			this.thread = new Thread( this.name )
+			{
+				@Override
+				public void run()
+				{
+					Async.this.drain();
+				}
+			};
+			this.thread.setDaemon( true );
+			this.thread.start();
+		}
+
+		/**
+		 * Takes records from the queue and sends them to the next stage, until the end marker or an error.
+		 */
+		protected void drain()
+		{
+			try
+			{
+				while( true )
+				{
+					Object[] values = this.queue.take();
+					if( values == END )
+						return;
+					this.next.process( values );
+				}
+			}
+			catch( InterruptedException e )
+			{
+				// Closed before the end
+			}
+			catch( Throwable t )
+			{
+				this.error = t;
+			}
+		}
+
+		@Override
+		public void process( Object[] values ) throws SQLException
+		{
+			for( int i = 0; i < values.length; i++ )
+			{
+				Object value = values[ i ];
+				if( value instanceof Blob && !( value instanceof SerialBlob ) )
+				{
+					Blob blob = (Blob)value;
+					values[ i ] = new SerialBlob( blob.getBytes( 1, (int)blob.length() ) );
+				}
+				else if( value instanceof Clob && !( value instanceof SerialClob ) )
+				{
+					Clob clob = (Clob)value;
+					values[ i ] = new SerialClob( clob.getSubString( 1, (int)clob.length() ).toCharArray() );
+				}
+			}
+			put( values );
+		}
+
+		@Override
+		public void end() throws SQLException
+		{
+			put( END );
+			join();
+			checkError();
+			super.end();
+		}
+
+		@Override
+		public void close()
+		{
+			if( this.thread != null && this.thread.isAlive() )
+			{
+				this.thread.interrupt();
+				join();
+			}
+			super.close();
+		}
+
+		/**
+		 * Puts a record on the queue. Waits for room, but stops waiting when the thread of the next stage failed.
+		 *
+		 * @param values The values of the record.
+		 * @throws SQLException When the thread of the next stage failed with an SQLException.
+		 */
+		private void put( Object[] values ) throws SQLException
+		{
+			try
+			{
+				while( true )
+				{
+					checkError();
+					if( this.queue.offer( values, 100, TimeUnit.MILLISECONDS ) )
+						return;
+				}
+			}
+			catch( InterruptedException e )
+			{
+				throw new ThreadInterrupted();
+			}
+		}
+
+		/**
+		 * Waits for the thread of the next stage to end.
+		 */
+		private void join()
+		{
+			boolean interrupted = false;
+			while( true )
+				try
+				{
+					this.thread.join();
+					break;
+				}
+				catch( InterruptedException e )
+				{
+					interrupted = true;
+				}
+			if( interrupted )
+				Thread.currentThread().interrupt();
+		}
+
+		/**
+		 * Rethrows the error of the thread of the next stage.
+		 *
+		 * @throws SQLException When the thread of the next stage failed with an SQLException.
+		 */
+		private void checkError() throws SQLException
+		{
+			Throwable error = this.error;
+			if( error == null )
+				return;
+			if( error instanceof SQLException )
+				throw (SQLException)error;
+			if( error instanceof RuntimeException )
+				throw (RuntimeException)error;
+			if( error instanceof Error )
+				throw (Error)error;
+			throw new SystemException( error );
+		}
+	}
+}
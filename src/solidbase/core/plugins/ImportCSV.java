@@ -16,29 +16,53 @@
 
 package solidbase.core.plugins;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import solidbase.core.Command;
-import solidbase.core.CommandListener;
 import solidbase.core.CommandProcessor;
+import solidbase.core.Database;
 import solidbase.core.FatalException;
+import solidbase.core.KeywordCommandListener;
 import solidbase.core.SQLExecutionException;
 import solidbase.core.SourceException;
 import solidbase.core.SystemException;
+import solidbase.util.AdaptiveBatchSize;
 import solidbase.util.Assert;
+import solidbase.util.BatchSize;
 import solidbase.util.CSVReader;
+import solidbase.util.CSVRecord;
+import solidbase.util.CSVRecordSource;
+import solidbase.util.CSVScanner;
 import solidbase.util.Counter;
+import solidbase.util.FixedBatchSize;
 import solidbase.util.FixedCounter;
+import solidbase.util.JDBCSupport;
+import solidbase.util.Metrics;
+import solidbase.util.ParallelCSVScanner;
 import solidbase.util.SQLTokenizer;
 import solidbase.util.SQLTokenizer.Token;
 import solidbase.util.TimedCounter;
 import solidstack.io.Resource;
+import solidstack.io.SourceLocation;
 import solidstack.io.SourceReader;
 import solidstack.io.SourceReaders;
 import solidstack.lang.ThreadInterrupted;
@@ -50,12 +74,17 @@ import solidstack.lang.ThreadInterrupted;
  * @author Ren M. de Bloois
  */
 // TODO Make this more strict, like assert that the number of values stays the same in the CSV data
-public class ImportCSV implements CommandListener
+public class ImportCSV implements KeywordCommandListener
 {
 	static private final Pattern triggerPattern = Pattern.compile( "\\s*IMPORT\\s+CSV\\s+.*", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
 
 	static private final Pattern parameterPattern = Pattern.compile( ":(\\d+)" );
 
+	/**
+	 * Marks the end of the queue for a writer.
+	 */
+	static final List< Record > END = new ArrayList< Record >();
+
 
 	//@Override
 	public boolean execute( CommandProcessor processor, Command command, boolean skip ) throws SQLException
@@ -81,55 +110,120 @@ public class ImportCSV implements CommandListener
 			return true;
 		}
 
-		SourceReader lineReader;
-		boolean needClose = false;
+		long start = System.nanoTime();
+		CSVRecordSource reader;
+		CSVScanner scanner = null;
+		ParallelCSVScanner parallelScanner = null;
+		long bytes = 0;
 		if( parsed.reader != null )
-			lineReader = parsed.reader; // Data is in the command
+			reader = new CSVReader( parsed.reader, parsed.separator, parsed.ignoreWhiteSpace ); // Data is in the command
 		else if( parsed.fileName != null )
 		{
-			// Data is in a file
+			// Data is in a file, it can be read ahead in large blocks
 			Resource resource = processor.getResource().resolve( parsed.fileName );
 			resource.setGZip( parsed.gzip );
+			SourceLocation location = new SourceLocation( resource, 1 );
+			File file = parsed.gzip ? null : getLocalFile( resource );
+			bytes = getLocalFileSize( resource );
+			int threads = Runtime.getRuntime().availableProcessors();
 			try
 			{
-				lineReader = SourceReaders.forResource( resource, parsed.encoding );
+				// Large local files are split and parsed by multiple threads
+				if( file != null && threads > 1 && file.length() >= 2L * ParallelCSVScanner.DEFAULT_CHUNK_SIZE && ParallelCSVScanner.isSplittable( parsed.encoding ) )
+					parallelScanner = new ParallelCSVScanner( file, parsed.encoding, location, parsed.separator, parsed.ignoreWhiteSpace, threads, ParallelCSVScanner.DEFAULT_CHUNK_SIZE );
+				else
+				{
+					InputStreamReader in = new InputStreamReader( resource.newInputStream(), parsed.encoding );
+					scanner = new CSVScanner( in, location, parsed.separator, parsed.ignoreWhiteSpace );
+				}
 			}
 			catch( FileNotFoundException e )
 			{
 				throw new FatalException( e.toString() );
 			}
-			needClose = true;
-			// TODO What about the FileNotFoundException?
+			catch( UnsupportedEncodingException e )
+			{
+				throw new FatalException( e.toString() );
+			}
+			reader = scanner != null ? scanner : parallelScanner;
 		}
 		else
-			lineReader = processor.getReader(); // Data is in the source file
+			reader = new CSVReader( processor.getReader(), parsed.separator, parsed.ignoreWhiteSpace ); // Data is in the source file
 
 		try
 		{
-			// Initialize csv reader & read first line (and skip header if needed)
-			CSVReader reader = new CSVReader( lineReader, parsed.separator, parsed.ignoreWhiteSpace );
+			// Read first record (and skip header if needed)
+			CSVRecord record = new CSVRecord();
 			if( parsed.skipHeader )
-			{
-				String[] line = reader.getLine();
-				if( line == null )
+				if( !reader.getRecord( record ) )
 					return true;
-			}
 			int lineNumber = reader.getLineNumber();
-			String[] line = reader.getLine();
-			if( line == null )
+			if( !reader.getRecord( record ) )
 				return true;
 
-			importNormal( command, processor, reader, parsed, line, lineNumber );
+			long records;
+			if( parsed.parallel > 0 )
+				records = importParallel( command, processor, reader, parsed, record, lineNumber );
+			else
+				records = importNormal( command, processor, reader, parsed, record, lineNumber );
+
+			Metrics metrics = processor.getMetrics();
+			metrics.time( "importcsv", System.nanoTime() - start );
+			metrics.count( "importcsv.records", records );
+			metrics.count( "importcsv.bytes", bytes );
 			return true;
 		}
 		finally
 		{
-			if( needClose )
-				lineReader.close();
+			if( scanner != null )
+				scanner.close();
+			if( parallelScanner != null )
+				parallelScanner.close();
+		}
+	}
+
+
+	/**
+	 * Returns the file of a resource when it is a local file.
+	 *
+	 * @param resource The resource.
+	 * @return The file, or null when the resource is not a local file.
+	 */
+	static protected File getLocalFile( Resource resource )
+	{
+		if( !resource.supportsURL() )
+			return null;
+		try
+		{
+			URL url = resource.getURL();
+			if( !url.getProtocol().equals( "file" ) )
+				return null;
+			return new File( url.toURI() );
+		}
+		catch( FileNotFoundException e )
+		{
+			return null;
+		}
+		catch( URISyntaxException e )
+		{
+			return null;
 		}
 	}
 
 
+	/**
+	 * Returns the size of a resource when it is a local file, for the metrics.
+	 *
+	 * @param resource The resource.
+	 * @return The size in bytes, or 0 when the resource is not a local file.
+	 */
+	static protected long getLocalFileSize( Resource resource )
+	{
+		File file = getLocalFile( resource );
+		return file != null ? file.length() : 0;
+	}
+
+
 	/**
 	 * Import data using a JDBC prepared statement, like this:
 	 *
@@ -141,70 +235,18 @@ public class ImportCSV implements CommandListener
 	 * @param processor The command processor.
 	 * @param reader The CSV reader.
 	 * @param parsed The parsed command.
-	 * @param line The first line of data read.
+	 * @param record The first record read. It is reused for the next records.
 	 * @param lineNumber The current line number.
+	 * @return The number of records imported.
 	 * @throws SQLException Whenever SQL execution throws it.
 	 */
 	// TODO Cope with a variable number of values in the CSV list
-	protected void importNormal( @SuppressWarnings( "unused" ) Command command, CommandProcessor processor, CSVReader reader, Parsed parsed, String[] line, int lineNumber ) throws SQLException
+	protected long importNormal( @SuppressWarnings( "unused" ) Command command, CommandProcessor processor, CSVRecordSource reader, Parsed parsed, CSVRecord record, int lineNumber ) throws SQLException
 	{
 		boolean prependLineNumber = parsed.prependLineNumber;
 
-		String sql;
 		List< Integer > parameterMap = new ArrayList< Integer >();
-
-		if( parsed.sql != null )
-		{
-			sql = parsed.sql;
-			sql = translateArgument( sql, parameterMap );
-		}
-		else
-		{
-			StringBuilder sql1 = new StringBuilder( "INSERT INTO " );
-			sql1.append( parsed.tableName );
-			if( parsed.columns != null )
-			{
-				sql1.append( " (" );
-				for( int i = 0; i < parsed.columns.length; i++ )
-				{
-					if( i > 0 )
-						sql1.append( ',' );
-					sql1.append( parsed.columns[ i ] );
-				}
-				sql1.append( ')' );
-			}
-			if( parsed.values != null )
-			{
-				sql1.append( " VALUES (" );
-				for( int i = 0; i < parsed.values.length; i++ )
-				{
-					if( i > 0 )
-						sql1.append( "," );
-					String value = parsed.values[ i ];
-					value = translateArgument( value, parameterMap );
-					sql1.append( value );
-				}
-				sql1.append( ')' );
-			}
-			else
-			{
-				int count = line.length;
-				if( parsed.columns != null )
-					count = parsed.columns.length;
-				if( prependLineNumber )
-					count++;
-				int par = 1;
-				sql1.append( " VALUES (?" );
-				parameterMap.add( par++ );
-				while( par <= count )
-				{
-					sql1.append( ",?" );
-					parameterMap.add( par++ );
-				}
-				sql1.append( ')' );
-			}
-			sql = sql1.toString();
-		}
+		String sql = buildSQL( parsed, record, parameterMap );
 
 		Counter counter = null;
 		if( parsed.logRecords > 0 )
@@ -212,44 +254,26 @@ public class ImportCSV implements CommandListener
 		else if( parsed.logSeconds > 0 )
 			counter = new TimedCounter( parsed.logSeconds );
 
+		SourceLocation location = reader.getLocation();
+
+		BatchSize batching = createBatchSize( parsed );
+		int limit = batching.size();
+
 		PreparedStatement statement = processor.prepareStatement( sql );
 		boolean commit = false;
 		try
 		{
+			int[] types = getParameterTypes( statement, parsed, parameterMap );
+			boolean strict = parsed.types != null;
+
 			int batchSize = 0;
+			long records = 0;
 			while( true )
 			{
 				if( Thread.currentThread().isInterrupted() ) // TODO Is this the right spot during an upgrade?
 					throw new ThreadInterrupted();
 
-				preprocess( line );
-
-				int pos = 1;
-				int index = 0;
-				for( int par : parameterMap )
-				{
-					try
-					{
-						if( prependLineNumber )
-						{
-							if( par == 1 )
-								statement.setInt( pos++, lineNumber );
-							else
-								statement.setString( pos++, line[ index = par - 2 ] );
-						}
-						else
-							statement.setString( pos++, line[ index = par - 1 ] );
-					}
-					catch( ArrayIndexOutOfBoundsException e )
-					{
-						throw new SourceException( "Value with index " + ( index + 1 ) + " does not exist, record has only " + line.length + " values", reader.getLocation().lineNumber( lineNumber ) );
-					}
-					catch( SQLException e )
-					{
-						String message = buildMessage( sql, parameterMap, prependLineNumber, lineNumber, line );
-						throw new SQLExecutionException( message, reader.getLocation().lineNumber( lineNumber ), e );
-					}
-				}
+				setParameters( statement, sql, parameterMap, prependLineNumber, lineNumber, record, types, strict, location );
 
 				if( parsed.noBatch )
 				{
@@ -259,37 +283,38 @@ public class ImportCSV implements CommandListener
 					}
 					catch( SQLException e )
 					{
-						String message = buildMessage( sql, parameterMap, prependLineNumber, lineNumber, line );
+						String message = buildMessage( sql, parameterMap, prependLineNumber, lineNumber, record );
 						// When NOBATCH is on, you can see the actual insert statement and line number in the file where the SQLException occurred.
-						throw new SQLExecutionException( message, reader.getLocation().lineNumber( lineNumber ), e );
+						throw new SQLExecutionException( message, location.lineNumber( lineNumber ), e );
 					}
 				}
 				else
 				{
 					statement.addBatch();
 					batchSize++;
-					if( batchSize >= 1000 )
+					if( batchSize >= limit )
 					{
-						statement.executeBatch();
+						executeBatch( statement, batchSize, batching );
 						batchSize = 0;
+						limit = reportBatchSize( processor, batching, limit );
 					}
 				}
 
+				records++;
 				if( counter != null && counter.next() )
 					processor.getProgressListener().println( "Imported " + counter.total() + " records." );
 
 				lineNumber = reader.getLineNumber();
-				line = reader.getLine();
-				if( line == null )
+				if( !reader.getRecord( record ) )
 				{
 					if( batchSize > 0 )
-						statement.executeBatch();
+						executeBatch( statement, batchSize, batching );
 
 					if( counter != null && counter.needFinal() )
 						processor.getProgressListener().println( "Imported " + counter.total() + " records." );
 
 					commit = true;
-					return;
+					return records;
 				}
 			}
 		}
@@ -300,7 +325,449 @@ public class ImportCSV implements CommandListener
 	}
 
 
-	static private String buildMessage( String sql, List<Integer> parameterMap, boolean prependLineNumber, int lineNumber, String[] line )
+	/**
+	 * Import data using multiple connections in parallel. The current thread reads the CSV data and hands it over in
+	 * chunks to {@link Parsed#parallel} writer threads. Each writer has its own connection from
+	 * {@link Database#newConnection()}, and a chunk is sent to the database as one JDBC batch. The size of the chunks is
+	 * determined by the batch size, which is shared by the writers when it is adaptive.
+	 * <p>
+	 * The connections are only committed when all records have been written without errors, otherwise all of them are
+	 * rolled back. The writer connections are committed separately from the connection of the command processor, so
+	 * PARALLEL is only allowed when the command processor is in auto commit mode. When more than one writer fails, the
+	 * error with the lowest line number is reported.
+	 * <p>
+	 * The connections are committed one after the other, so this is not all-or-nothing. When a commit fails after
+	 * other writers have been committed, the remaining writers are rolled back and the import is left half-loaded. This
+	 * is reported with a {@link SourceException} that says so, because restarting the upgrade would import the committed
+	 * records again.
+	 * <p>
+	 * The writers need a database that does not lock complete tables for inserts, like HSQLDB in MVCC mode. With table
+	 * locks, or when records in different chunks conflict with each other, a writer waits for another writer's commit,
+	 * which only happens at the end.
+	 *
+	 * @param command The import command.
+	 * @param processor The command processor.
+	 * @param reader The CSV reader.
+	 * @param parsed The parsed command.
+	 * @param record The first record read. It is reused for the next records.
+	 * @param lineNumber The current line number.
+	 * @return The number of records imported.
+	 * @throws SQLException Whenever SQL execution throws it.
+	 */
+	protected long importParallel( Command command, CommandProcessor processor, CSVRecordSource reader, Parsed parsed, CSVRecord record, int lineNumber ) throws SQLException
+	{
+		// The writers can't take part in the transaction of an SQL file
+		if( !processor.autoCommit() )
+			throw new SourceException( "PARALLEL is only allowed in upgrade files, the writers commit their own connections", command.getLocation() );
+
+		List< Integer > parameterMap = new ArrayList< Integer >();
+		String sql = buildSQL( parsed, record, parameterMap );
+
+		Counter counter = null;
+		if( parsed.logRecords > 0 )
+			counter = new FixedCounter( parsed.logRecords );
+		else if( parsed.logSeconds > 0 )
+			counter = new TimedCounter( parsed.logSeconds );
+
+		BatchSize batching = createBatchSize( parsed );
+		int chunkSize = batching.size();
+
+		Database database = processor.getCurrentDatabase();
+		BlockingQueue< List< Record > > queue = new ArrayBlockingQueue< List< Record > >( parsed.parallel * 2 );
+		Writer[] writers = new Writer[ parsed.parallel ];
+		long records = 0;
+		boolean complete = false;
+		try
+		{
+			for( int i = 0; i < writers.length; i++ )
+			{
+				writers[ i ] = new Writer( "ImportCSV-" + ( i + 1 ), database.newConnection(), sql, parameterMap, parsed, batching, reader.getLocation(), queue );
+				writers[ i ].start();
+			}
+
+			List< Record > chunk = new ArrayList< Record >( chunkSize );
+			while( true )
+			{
+				if( Thread.currentThread().isInterrupted() ) // TODO Is this the right spot during an upgrade?
+					throw new ThreadInterrupted();
+
+				chunk.add( new Record( lineNumber, record.copy() ) );
+				if( chunk.size() >= chunkSize )
+				{
+					if( failed( writers ) )
+						break; // No need to read further, the error is thrown below
+					put( queue, chunk );
+					chunkSize = reportBatchSize( processor, batching, chunkSize );
+					chunk = new ArrayList< Record >( chunkSize );
+				}
+
+				records++;
+				if( counter != null && counter.next() )
+					processor.getProgressListener().println( "Imported " + counter.total() + " records." );
+
+				lineNumber = reader.getLineNumber();
+				if( !reader.getRecord( record ) )
+				{
+					if( !chunk.isEmpty() )
+						put( queue, chunk );
+
+					if( counter != null && counter.needFinal() )
+						processor.getProgressListener().println( "Imported " + counter.total() + " records." );
+
+					complete = true;
+					break;
+				}
+			}
+		}
+		finally
+		{
+			finish( writers, queue, complete, command.getLocation() );
+		}
+		return records;
+	}
+
+
+	/**
+	 * Stops the writers, waits for them to end, and commits or rolls back and closes their connections. If a writer
+	 * failed, its error is thrown, the one with the lowest line number first. Otherwise the first error from committing
+	 * is thrown, after which the remaining connections are rolled back. When other connections had already been
+	 * committed, the error says that the import is partially committed. All connections are closed in any case. This
+	 * method waits for the writers even when the current thread is interrupted, the interrupt flag is restored
+	 * afterwards.
+	 *
+	 * @param writers The writers, some of which may be null when not all could be started.
+	 * @param queue The queue the writers are reading from.
+	 * @param complete True if all records have been handed over to the writers.
+	 * @param location The location of the command, used to report a partial commit.
+	 */
+	static private void finish( Writer[] writers, BlockingQueue< List< Record > > queue, boolean complete, SourceLocation location )
+	{
+		boolean interrupted = Thread.interrupted(); // Clear the flag, we need to wait for the writers
+		try
+		{
+			if( !complete )
+				for( Writer writer : writers )
+					if( writer != null )
+						writer.abort();
+
+			// The writers keep draining the queue, even after an error or abort, so this does not block forever
+			for( Writer writer : writers )
+				if( writer != null )
+					while( true )
+						try
+						{
+							queue.put( END );
+							break;
+						}
+						catch( InterruptedException e )
+						{
+							interrupted = true;
+						}
+
+			for( Writer writer : writers )
+				if( writer != null )
+					while( true )
+						try
+						{
+							writer.join();
+							break;
+						}
+						catch( InterruptedException e )
+						{
+							interrupted = true;
+						}
+
+			Writer failed = null;
+			for( Writer writer : writers )
+				if( writer != null && writer.error != null )
+					if( failed == null || writer.errorLineNumber < failed.errorLineNumber )
+						failed = writer;
+
+			Throwable error = failed != null ? failed.error : null;
+			boolean commit = complete && error == null;
+			int committed = 0;
+			for( Writer writer : writers )
+				if( writer != null )
+					try
+					{
+						writer.end( commit );
+						if( commit )
+							committed++;
+					}
+					catch( Throwable t )
+					{
+						if( error == null )
+							if( committed > 0 )
+								error = new SourceException( "IMPORT CSV PARALLEL is partially committed: " + committed + " of " + writers.length
+										+ " writers were committed before the commit of the next one failed with " + t
+										+ ". Remove the imported records before restarting the upgrade.", location );
+							else
+								error = t;
+						commit = false; // Roll back the others
+					}
+
+			if( error != null )
+			{
+				if( error instanceof Error )
+					throw (Error)error;
+				throw (RuntimeException)error;
+			}
+		}
+		finally
+		{
+			if( interrupted )
+				Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Did one of the writers fail?
+	 *
+	 * @param writers The writers.
+	 * @return True if one of the writers failed, false otherwise.
+	 */
+	static private boolean failed( Writer[] writers )
+	{
+		for( Writer writer : writers )
+			if( writer.error != null )
+				return true;
+		return false;
+	}
+
+
+	/**
+	 * Puts a chunk of records on the queue, waiting for room if needed.
+	 *
+	 * @param queue The queue.
+	 * @param chunk The chunk of records.
+	 */
+	static private void put( BlockingQueue< List< Record > > queue, List< Record > chunk )
+	{
+		try
+		{
+			queue.put( chunk );
+		}
+		catch( InterruptedException e )
+		{
+			throw new ThreadInterrupted();
+		}
+	}
+
+
+	/**
+	 * Creates the batch size configured in the command.
+	 *
+	 * @param parsed The parsed command.
+	 * @return The batch size.
+	 */
+	static protected BatchSize createBatchSize( Parsed parsed )
+	{
+		if( parsed.adaptiveBatch )
+			return new AdaptiveBatchSize( parsed.minBatchSize, parsed.maxBatchSize );
+		return new FixedBatchSize( parsed.batchSize );
+	}
+
+
+	/**
+	 * Executes the batch and lets the batch size know how long it took.
+	 *
+	 * @param statement The prepared statement.
+	 * @param records The number of records in the batch.
+	 * @param batching The batch size.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	static protected void executeBatch( PreparedStatement statement, int records, BatchSize batching ) throws SQLException
+	{
+		long start = System.nanoTime();
+		statement.executeBatch();
+		batching.executed( records, System.nanoTime() - start );
+	}
+
+
+	/**
+	 * Reports the batch size to the progress listener when it has changed.
+	 *
+	 * @param processor The command processor.
+	 * @param batching The batch size.
+	 * @param reportedSize The last reported batch size.
+	 * @return The current batch size.
+	 */
+	static protected int reportBatchSize( CommandProcessor processor, BatchSize batching, int reportedSize )
+	{
+		int size = batching.size();
+		if( size != reportedSize )
+			processor.getProgressListener().println( "Batch size changed to " + size + " records." );
+		return size;
+	}
+
+
+	/**
+	 * Builds the SQL for the prepared statement, like this:
+	 *
+	 * <blockquote><pre>
+	 * INSERT INTO TABLE1 VALUES ( ?, ? );
+	 * </pre></blockquote>
+	 *
+	 * @param parsed The parsed command.
+	 * @param record The first record read, needed to determine the number of values when no columns are given.
+	 * @param parameterMap A map of ? index to index of the CSV fields, filled by this method.
+	 * @return The SQL.
+	 */
+	static protected String buildSQL( Parsed parsed, CSVRecord record, List< Integer > parameterMap )
+	{
+		if( parsed.sql != null )
+			return translateArgument( parsed.sql, parameterMap );
+
+		StringBuilder sql = new StringBuilder( "INSERT INTO " );
+		sql.append( parsed.tableName );
+		if( parsed.columns != null )
+		{
+			sql.append( " (" );
+			for( int i = 0; i < parsed.columns.length; i++ )
+			{
+				if( i > 0 )
+					sql.append( ',' );
+				sql.append( parsed.columns[ i ] );
+			}
+			sql.append( ')' );
+		}
+		if( parsed.values != null )
+		{
+			sql.append( " VALUES (" );
+			for( int i = 0; i < parsed.values.length; i++ )
+			{
+				if( i > 0 )
+					sql.append( "," );
+				String value = parsed.values[ i ];
+				value = translateArgument( value, parameterMap );
+				sql.append( value );
+			}
+			sql.append( ')' );
+		}
+		else
+		{
+			int count = record.size();
+			if( parsed.columns != null )
+				count = parsed.columns.length;
+			if( parsed.prependLineNumber )
+				count++;
+			int par = 1;
+			sql.append( " VALUES (?" );
+			parameterMap.add( par++ );
+			while( par <= count )
+			{
+				sql.append( ",?" );
+				parameterMap.add( par++ );
+			}
+			sql.append( ')' );
+		}
+		return sql.toString();
+	}
+
+
+	/**
+	 * Determines the JDBC types of the parameters of the prepared statement. The types come from the TYPES clause when
+	 * given, otherwise from the {@link ParameterMetaData} of the statement. When the driver does not support parameter
+	 * metadata, all parameters are bound as strings.
+	 *
+	 * @param statement The prepared statement.
+	 * @param parsed The parsed command.
+	 * @param parameterMap A map of ? index to index of the CSV fields.
+	 * @return The JDBC type of each ? in the statement.
+	 */
+	static protected int[] getParameterTypes( PreparedStatement statement, Parsed parsed, List< Integer > parameterMap )
+	{
+		int[] types = new int[ parameterMap.size() ];
+		if( parsed.types != null )
+		{
+			int pos = 0;
+			for( int par : parameterMap )
+			{
+				int index = parsed.prependLineNumber ? par - 2 : par - 1;
+				types[ pos++ ] = index >= 0 && index < parsed.types.length ? parsed.types[ index ] : Types.VARCHAR;
+			}
+			return types;
+		}
+
+		try
+		{
+			ParameterMetaData metaData = statement.getParameterMetaData();
+			for( int i = 0; i < types.length; i++ )
+				types[ i ] = metaData.getParameterType( i + 1 );
+		}
+		catch( SQLException e )
+		{
+			// The driver does not know, the database will have to convert the strings
+			Arrays.fill( types, Types.VARCHAR );
+		}
+		return types;
+	}
+
+
+	/**
+	 * Sets the parameters of the prepared statement from the values of a CSV record. The values are converted to the
+	 * Java types that belong to the JDBC types of the parameters. When a value can't be converted, it is bound as a
+	 * string so that the database can try to convert it, unless the types were given explicitly. The type of that
+	 * parameter is then changed to {@link Types#VARCHAR}, so that the values of the next records are bound as strings
+	 * right away instead of failing the conversion again.
+	 *
+	 * @param statement The prepared statement.
+	 * @param sql The SQL of the prepared statement, used in error messages.
+	 * @param parameterMap A map of ? index to index of the CSV fields.
+	 * @param prependLineNumber Prepend the values with the line number.
+	 * @param lineNumber The line number of the record.
+	 * @param record The values of the record.
+	 * @param types The JDBC type of each ? in the statement. Types are changed to {@link Types#VARCHAR} when a value
+	 *        can't be converted.
+	 * @param strict Values that can't be converted to their type are an error.
+	 * @param location A location within the CSV data, used to report errors at the given line number.
+	 */
+	static protected void setParameters( PreparedStatement statement, String sql, List< Integer > parameterMap, boolean prependLineNumber, int lineNumber, CSVRecord record, int[] types, boolean strict, SourceLocation location )
+	{
+		int pos = 1;
+		int index = 0;
+		for( int par : parameterMap )
+		{
+			try
+			{
+				if( prependLineNumber && par == 1 )
+					statement.setInt( pos, lineNumber );
+				else
+				{
+					index = prependLineNumber ? par - 2 : par - 1;
+					String value = getValue( record, index );
+					int type = types[ pos - 1 ];
+					Object object;
+					try
+					{
+						object = JDBCSupport.toObject( type, value );
+					}
+					catch( IllegalArgumentException e )
+					{
+						if( strict )
+							throw new SourceException( "Value [" + value + "] with index " + ( index + 1 ) + " is not a valid " + JDBCSupport.toTypeName( type ), location.lineNumber( lineNumber ) );
+						object = value;
+						types[ pos - 1 ] = type = Types.VARCHAR; // Don't try again for the next records
+					}
+					JDBCSupport.setParameter( statement, pos, type, object );
+				}
+				pos++;
+			}
+			catch( ArrayIndexOutOfBoundsException e )
+			{
+				throw new SourceException( "Value with index " + ( index + 1 ) + " does not exist, record has only " + record.size() + " values", location.lineNumber( lineNumber ) );
+			}
+			catch( SQLException e )
+			{
+				String message = buildMessage( sql, parameterMap, prependLineNumber, lineNumber, record );
+				throw new SQLExecutionException( message, location.lineNumber( lineNumber ), e );
+			}
+		}
+	}
+
+
+	static private String buildMessage( String sql, List<Integer> parameterMap, boolean prependLineNumber, int lineNumber, CSVRecord record )
 	{
 		StringBuilder result = new StringBuilder( sql );
 		result.append( " VALUES (" );
@@ -318,10 +785,10 @@ public class ImportCSV implements CommandListener
 					if( par == 1 )
 						result.append( lineNumber );
 					else
-						result.append( line[ par - 2 ] );
+						result.append( getValue( record, par - 2 ) );
 				}
 				else
-					result.append( line[ par - 1 ] );
+					result.append( getValue( record, par - 1 ) );
 			}
 			catch( ArrayIndexOutOfBoundsException ee )
 			{
@@ -356,15 +823,17 @@ public class ImportCSV implements CommandListener
 
 
 	/**
-	 * Replaces empty strings with null.
+	 * Returns a value from the record as a string. Empty values are returned as null.
 	 *
-	 * @param line The line to preprocess.
+	 * @param record The record.
+	 * @param index The index of the value.
+	 * @return The value.
 	 */
-	static protected void preprocess( String[] line )
+	static protected String getValue( CSVRecord record, int index )
 	{
-		for( int i = 0; i < line.length; i++ )
-			if( line[ i ].length() == 0 )
-				line[ i ] = null;
+		if( record.getLength( index ) == 0 )
+			return null;
+		return record.getString( index );
 	}
 
 
@@ -383,7 +852,9 @@ public class ImportCSV implements CommandListener
 		[ SEPARATED BY TAB | SPACE | <character> ]
 		[ IGNORE WHITESPACE ]
 		[ PREPEND LINENUMBER ]
-		[ NOBATCH ]
+		[ NOBATCH | BATCH SIZE n | ADAPTIVE BATCH [ BETWEEN n AND n ] ]
+		[ PARALLEL n ]
+		[ TYPES ( <types> ) ]
 		[ LOG EVERY n RECORDS | SECONDS ]
 		(
 			[ FILE "<file>" ENCODING "<encoding>" [ GZIP ] ]
@@ -404,14 +875,14 @@ public class ImportCSV implements CommandListener
 		tokenizer.get( "IMPORT" );
 		tokenizer.get( "CSV" );
 
-		Token t = tokenizer.get( "SKIP", "SEPARATED", "IGNORE", "PREPEND", "NOBATCH", "LOG", "FILE", "EXECUTE", "INTO" );
+		Token t = tokenizer.get( "SKIP", "SEPARATED", "IGNORE", "PREPEND", "NOBATCH", "BATCH", "ADAPTIVE", "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
 
 		if( t.eq( "SKIP" ) )
 		{
 			tokenizer.get( "HEADER" );
 			result.skipHeader = true;
 
-			t = tokenizer.get( "SEPARATED", "IGNORE", "PREPEND", "NOBATCH", "LOG", "FILE", "EXECUTE", "INTO" );
+			t = tokenizer.get( "SEPARATED", "IGNORE", "PREPEND", "NOBATCH", "BATCH", "ADAPTIVE", "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
 		}
 
 		if( t.eq( "SEPARATED" ) )
@@ -429,7 +900,7 @@ public class ImportCSV implements CommandListener
 				result.separator = t.getValue().charAt( 0 );
 			}
 
-			t = tokenizer.get( "IGNORE", "PREPEND", "NOBATCH", "LOG", "FILE", "EXECUTE", "INTO" );
+			t = tokenizer.get( "IGNORE", "PREPEND", "NOBATCH", "BATCH", "ADAPTIVE", "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
 		}
 
 		if( t.eq( "IGNORE" ) )
@@ -437,7 +908,7 @@ public class ImportCSV implements CommandListener
 			tokenizer.get( "WHITESPACE" );
 			result.ignoreWhiteSpace = true;
 
-			t = tokenizer.get( "PREPEND", "NOBATCH", "LOG", "FILE", "EXECUTE", "INTO" );
+			t = tokenizer.get( "PREPEND", "NOBATCH", "BATCH", "ADAPTIVE", "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
 		}
 
 		if( t.eq( "PREPEND" ) )
@@ -445,13 +916,71 @@ public class ImportCSV implements CommandListener
 			tokenizer.get( "LINENUMBER" );
 			result.prependLineNumber = true;
 
-			t = tokenizer.get( "NOBATCH", "LOG", "FILE", "EXECUTE", "INTO" );
+			t = tokenizer.get( "NOBATCH", "BATCH", "ADAPTIVE", "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
 		}
 
 		if( t.eq( "NOBATCH" ) )
 		{
 			result.noBatch = true;
 
+			t = tokenizer.get( "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
+		}
+		else if( t.eq( "BATCH" ) )
+		{
+			tokenizer.get( "SIZE" );
+			result.batchSize = getNumber( tokenizer );
+			if( result.batchSize < 1 )
+				throw new SourceException( "BATCH SIZE needs at least 1 record", tokenizer.getLocation() );
+
+			t = tokenizer.get( "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
+		}
+		else if( t.eq( "ADAPTIVE" ) )
+		{
+			tokenizer.get( "BATCH" );
+			result.adaptiveBatch = true;
+
+			t = tokenizer.get( "BETWEEN", "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
+			if( t.eq( "BETWEEN" ) )
+			{
+				result.minBatchSize = getNumber( tokenizer );
+				tokenizer.get( "AND" );
+				result.maxBatchSize = getNumber( tokenizer );
+				if( result.minBatchSize < 1 || result.minBatchSize > result.maxBatchSize )
+					throw new SourceException( "Illegal batch size bounds " + result.minBatchSize + " and " + result.maxBatchSize, tokenizer.getLocation() );
+
+				t = tokenizer.get( "PARALLEL", "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
+			}
+		}
+
+		if( t.eq( "PARALLEL" ) )
+		{
+			result.parallel = getNumber( tokenizer );
+			if( result.parallel < 1 )
+				throw new SourceException( "PARALLEL needs at least 1 writer", tokenizer.getLocation() );
+
+			t = tokenizer.get( "TYPES", "LOG", "FILE", "EXECUTE", "INTO" );
+		}
+
+		if( t.eq( "TYPES" ) )
+		{
+			List< Integer > types = new ArrayList< Integer >();
+			tokenizer.get( "(" );
+			do
+			{
+				t = tokenizer.get();
+				Integer type = JDBCSupport.findType( t.getValue().toUpperCase() );
+				if( type == null )
+					throw new SourceException( "Expecting a JDBC type, not [" + t + "]", tokenizer.getLocation() );
+				types.add( type );
+
+				t = tokenizer.get( ",", ")" );
+			}
+			while( t.eq( "," ) );
+
+			result.types = new int[ types.size() ];
+			for( int i = 0; i < result.types.length; i++ )
+				result.types[ i ] = types.get( i );
+
 			t = tokenizer.get( "LOG", "FILE", "EXECUTE", "INTO" );
 		}
 
@@ -583,6 +1112,21 @@ public class ImportCSV implements CommandListener
 	}
 
 
+	/**
+	 * Reads a number from the tokenizer.
+	 *
+	 * @param tokenizer The tokenizer.
+	 * @return The number.
+	 */
+	static protected int getNumber( SQLTokenizer tokenizer )
+	{
+		Token t = tokenizer.get();
+		if( !t.isNumber() )
+			throw new SourceException( "Expecting a number, not [" + t + "]", tokenizer.getLocation() );
+		return Integer.parseInt( t.getValue() );
+	}
+
+
 	/**
 	 * Parse till the specified characters are found.
 	 *
@@ -657,6 +1201,24 @@ public class ImportCSV implements CommandListener
 		/** Don't use JDBC batch update. */
 		protected boolean noBatch;
 
+		/** The number of records in a JDBC batch. */
+		protected int batchSize = BatchSize.DEFAULT;
+
+		/** Adapt the batch size to the throughput of the database. */
+		protected boolean adaptiveBatch;
+
+		/** The minimum number of records in an adaptive batch. */
+		protected int minBatchSize = AdaptiveBatchSize.DEFAULT_MIN;
+
+		/** The maximum number of records in an adaptive batch. */
+		protected int maxBatchSize = AdaptiveBatchSize.DEFAULT_MAX;
+
+		/** The number of writer threads, each with its own connection. 0 means no parallel import. */
+		protected int parallel;
+
+		/** The JDBC types of the values in the CSV records. Null to use the parameter metadata of the statement. */
+		protected int[] types;
+
 		protected int logRecords;
 		protected int logSeconds;
 
@@ -684,6 +1246,274 @@ public class ImportCSV implements CommandListener
 	}
 
 
+	/**
+	 * A CSV record read by the reader thread, waiting to be written by a writer thread.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class Record
+	{
+		/** The line number of the record. */
+		protected int lineNumber;
+
+		/** The values of the record. */
+		protected CSVRecord values;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param lineNumber The line number of the record.
+		 * @param values The values of the record.
+		 */
+		protected Record( int lineNumber, CSVRecord values )
+		{
+			this.lineNumber = lineNumber;
+			this.values = values;
+		}
+	}
+
+
+	/**
+	 * A writer thread for a parallel import. It takes chunks of records from the queue and writes them with its own
+	 * connection. After an error or an abort it keeps taking chunks from the queue, so that the reader never blocks,
+	 * until it receives the {@link ImportCSV#END} marker. Committing or rolling back is done by the reader, after all
+	 * writers have ended.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class Writer extends Thread
+	{
+		private Connection connection;
+		private String sql;
+		private List< Integer > parameterMap;
+		private Parsed parsed;
+		private BatchSize batching;
+		private SourceLocation location;
+		private BlockingQueue< List< Record > > queue;
+		private int[] types;
+
+		private volatile boolean aborted;
+
+		/** The error that stopped this writer. */
+		protected volatile Throwable error;
+
+		/** The line number of the record that caused the error. */
+		protected int errorLineNumber;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name The name of the thread.
+		 * @param connection The connection to write with.
+		 * @param sql The SQL for the prepared statement.
+		 * @param parameterMap A map of ? index to index of the CSV fields.
+		 * @param parsed The parsed command.
+		 * @param batching The batch size, shared by all writers.
+		 * @param location A location within the CSV data, used to report errors.
+		 * @param queue The queue to take chunks of records from.
+		 */
+		protected Writer( String name, Connection connection, String sql, List< Integer > parameterMap, Parsed parsed, BatchSize batching, SourceLocation location, BlockingQueue< List< Record > > queue )
+		{
+			super( name );
+			this.connection = connection;
+			this.sql = sql;
+			this.parameterMap = parameterMap;
+			this.parsed = parsed;
+			this.batching = batching;
+			this.location = location;
+			this.queue = queue;
+		}
+
+		/**
+		 * Signals this writer to skip the remaining chunks.
+		 */
+		protected void abort()
+		{
+			this.aborted = true;
+		}
+
+		@Override
+		public void run()
+		{
+			PreparedStatement statement = null;
+			try
+			{
+				while( true )
+				{
+					List< Record > chunk;
+					try
+					{
+						chunk = this.queue.take();
+					}
+					catch( InterruptedException e )
+					{
+						// Only the reader ends this thread, by sending the END marker. Keep draining the queue, like
+						// after an error, the error makes sure that nothing is committed.
+						if( this.error == null )
+							this.error = new ThreadInterrupted();
+						continue;
+					}
+					if( chunk == END )
+						break;
+					if( this.aborted || this.error != null )
+						continue;
+					try
+					{
+						if( statement == null )
+						{
+							statement = this.connection.prepareStatement( this.sql );
+							this.types = getParameterTypes( statement, this.parsed, this.parameterMap );
+						}
+						write( statement, chunk );
+					}
+					catch( SQLException e )
+					{
+						// Preparing the statement or executing the batch failed
+						this.errorLineNumber = chunk.get( 0 ).lineNumber;
+						this.error = new SQLExecutionException( this.sql, this.location.lineNumber( this.errorLineNumber ), e );
+					}
+					catch( Throwable t )
+					{
+						this.error = t;
+					}
+					if( this.error != null )
+						rollback(); // Release the locks, other writers may be waiting for them
+				}
+			}
+			finally
+			{
+				if( statement != null )
+					try
+					{
+						statement.close();
+					}
+					catch( SQLException e )
+					{
+						if( this.error == null )
+							this.error = new SystemException( e );
+					}
+			}
+		}
+
+		/**
+		 * Writes a chunk of records.
+		 *
+		 * @param statement The prepared statement.
+		 * @param chunk The records to write.
+		 * @throws SQLException Whenever JDBC throws an SQLException.
+		 */
+		private void write( PreparedStatement statement, List< Record > chunk ) throws SQLException
+		{
+			String sql = this.sql;
+			List< Integer > parameterMap = this.parameterMap;
+			boolean prependLineNumber = this.parsed.prependLineNumber;
+			boolean noBatch = this.parsed.noBatch;
+
+			for( Record record : chunk )
+			{
+				this.errorLineNumber = record.lineNumber;
+				setParameters( statement, sql, parameterMap, prependLineNumber, record.lineNumber, record.values, this.types, this.parsed.types != null, this.location );
+				if( noBatch )
+				{
+					try
+					{
+						statement.executeUpdate();
+					}
+					catch( SQLException e )
+					{
+						String message = buildMessage( sql, parameterMap, prependLineNumber, record.lineNumber, record.values );
+						throw new SQLExecutionException( message, this.location.lineNumber( record.lineNumber ), e );
+					}
+				}
+				else
+					statement.addBatch();
+			}
+
+			if( !noBatch )
+				try
+				{
+					executeBatch( statement, chunk.size(), this.batching );
+				}
+				catch( BatchUpdateException e )
+				{
+					// Find the record that failed, drivers either stop at the failing record or mark it as failed
+					int index = 0;
+					int[] counts = e.getUpdateCounts();
+					if( counts != null )
+					{
+						index = counts.length;
+						for( int i = 0; i < counts.length; i++ )
+							if( counts[ i ] == Statement.EXECUTE_FAILED )
+							{
+								index = i;
+								break;
+							}
+						if( index >= chunk.size() )
+							index = 0;
+					}
+					Record record = chunk.get( index );
+					this.errorLineNumber = record.lineNumber;
+					String message = buildMessage( sql, parameterMap, prependLineNumber, record.lineNumber, record.values );
+					throw new SQLExecutionException( message, this.location.lineNumber( record.lineNumber ), e );
+				}
+		}
+
+		/**
+		 * Rolls back the connection after an error. The import will be rolled back completely anyway.
+		 */
+		private void rollback()
+		{
+			try
+			{
+				this.connection.rollback();
+			}
+			catch( SQLException e )
+			{
+				// Ignore, the original error is reported
+			}
+		}
+
+		/**
+		 * Commits or rolls back, and closes the connection.
+		 *
+		 * @param commit Commit if true, rollback otherwise.
+		 */
+		protected void end( boolean commit )
+		{
+			try
+			{
+				try
+				{
+					if( commit )
+						this.connection.commit();
+					else
+						this.connection.rollback();
+				}
+				finally
+				{
+					this.connection.close();
+				}
+			}
+			catch( SQLException e )
+			{
+				throw new SystemException( e );
+			}
+		}
+	}
+
+
+	//@Override
+	public String[] getTransientKeywords()
+	{
+		return new String[ 0 ];
+	}
+
+	//@Override
+	public String[] getPersistentKeywords()
+	{
+		return new String[] { "IMPORT CSV" };
+	}
+
 	//@Override
 	public void terminate()
 	{
@@ -28,43 +28,49 @@ import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import solidbase.core.Command;
-import solidbase.core.CommandListener;
 import solidbase.core.CommandProcessor;
 import solidbase.core.FatalException;
+import solidbase.core.KeywordCommandListener;
 import solidbase.core.SQLExecutionException;
 import solidbase.core.SourceException;
 import solidbase.core.SystemException;
+import solidbase.util.AdaptiveBatchSize;
 import solidbase.util.Assert;
+import solidbase.util.BatchSize;
 import solidbase.util.CloseQueue;
 import solidbase.util.Counter;
+import solidbase.util.FixedBatchSize;
 import solidbase.util.FixedCounter;
 import solidbase.util.JDBCSupport;
 import solidbase.util.JSONArray;
 import solidbase.util.JSONObject;
-import solidbase.util.JSONReader;
+import solidbase.util.JSONScanner;
+import solidbase.util.Metrics;
 import solidbase.util.SQLTokenizer;
 import solidbase.util.SQLTokenizer.Token;
 import solidbase.util.TimedCounter;
 import solidstack.io.Resource;
 import solidstack.io.SegmentedInputStream;
 import solidstack.io.SegmentedReader;
-import solidstack.io.SourceReader;
+import solidstack.io.SourceLocation;
 import solidstack.io.SourceReaders;
 import solidstack.lang.ThreadInterrupted;
 import solidstack.script.java.DefaultClassExtensions;
 
 
-public class LoadJSON implements CommandListener
+public class LoadJSON implements KeywordCommandListener
 {
 	static private final Pattern triggerPattern = Pattern.compile( "\\s*LOAD\\s+JSON\\s+.*", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
 
 	static private final Pattern parameterPattern = Pattern.compile( ":(\\d+)" );
 
+	// Marks a value that is stored in the array of longs, so that no object is created for it
+	static private final Object LONG = new Object();
+
 
 	//@Override
 	public boolean execute( CommandProcessor processor, Command command, boolean skip ) throws SQLException
@@ -83,29 +89,26 @@ public class LoadJSON implements CommandListener
 		Parsed parsed = parse( command );
 
 		// Open the file resource
+		long start = System.nanoTime();
 		Resource resource = processor.getResource().resolve( parsed.fileName );
-		resource.setGZip( parsed.gzip );
-		SourceReader sourceReader;
-		try
-		{
-			// TODO Use the same charset detection as JSON does. Maybe introduce the UTF charset if the default does not become UTF.
-			sourceReader = SourceReaders.forResource( resource, "UTF-8" );
-		}
-		catch( FileNotFoundException e )
-		{
-			throw new FatalException( e.toString() );
-		}
+		long bytes = ImportCSV.getLocalFileSize( resource );
 
 		// Create a JSON reader
-		JSONReader reader = new JSONReader( sourceReader );
+		JSONScanner reader = openReader( resource, parsed.gzip );
 		try
 		{
 			// Read the header
-			JSONObject properties = (JSONObject)reader.read();
+			if( reader.next() != JSONScanner.TYPE.BEGIN_OBJECT )
+				throw new SourceException( "Expecting {, not " + reader.getType(), reader.getLocation() );
+			JSONObject properties = (JSONObject)reader.readValue();
 
 			// The default binary file
 			String binaryFile = properties.findString( "binaryFile" );
 
+			// The part files of a partitioned dump
+			JSONArray parts = properties.findArray( "parts" );
+			int nextPart = 0;
+
 			// The fields
 			JSONArray fields = properties.getArray( "fields" );
 			int fieldCount = fields.size();
@@ -116,6 +119,10 @@ public class LoadJSON implements CommandListener
 			SegmentedInputStream[] streams = new SegmentedInputStream[ fieldCount ];
 			SegmentedReader[] textStreams = new SegmentedReader[ fieldCount ];
 
+			// The values of the current record, reused for each record
+			Object[] record = new Object[ fieldCount ];
+			long[] longs = new long[ fieldCount ];
+
 			for( int i = 0; i < fieldCount; i++ )
 			{
 				JSONObject field = (JSONObject)fields.get( i );
@@ -164,6 +171,14 @@ public class LoadJSON implements CommandListener
 			else if( parsed.logSeconds > 0 )
 				counter = new TimedCounter( parsed.logSeconds );
 
+			// Create the batch size
+			BatchSize batching;
+			if( parsed.adaptiveBatch )
+				batching = new AdaptiveBatchSize( parsed.minBatchSize, parsed.maxBatchSize );
+			else
+				batching = new FixedBatchSize( parsed.batchSize );
+			int limit = batching.size();
+
 			// Prepare the INSERT statement
 			PreparedStatement statement = processor.prepareStatement( sql.toString() );
 
@@ -175,6 +190,7 @@ public class LoadJSON implements CommandListener
 			try
 			{
 				int batchSize = 0;
+				long records = 0;
 				while( true )
 				{
 					// Detect interruption
@@ -182,40 +198,39 @@ public class LoadJSON implements CommandListener
 						throw new ThreadInterrupted();
 
 					// Read a record
-					JSONArray values = (JSONArray)reader.read();
-					if( values == null )
+					JSONScanner.TYPE token = reader.next();
+					if( token == JSONScanner.TYPE.EOF && parts != null && nextPart < parts.size() )
+					{
+						// Continue with the next part
+						reader.close();
+						Resource part = resource.resolve( (String)parts.get( nextPart++ ) );
+						bytes += ImportCSV.getLocalFileSize( part );
+						reader = openReader( part, parsed.gzip );
+						continue;
+					}
+					if( token == JSONScanner.TYPE.EOF )
 					{
 						// End of file, finalize things
-						Assert.isTrue( reader.isEOF() );
 						if( batchSize > 0 )
-							statement.executeBatch();
+							ImportCSV.executeBatch( statement, batchSize, batching );
 
 						if( counter != null && counter.needFinal() )
 							processor.getProgressListener().println( "Imported " + counter.total() + " records." );
 
+						Metrics metrics = processor.getMetrics();
+						metrics.time( "loadjson", System.nanoTime() - start );
+						metrics.count( "loadjson.records", records );
+						metrics.count( "loadjson.bytes", bytes );
+
 						commit = true;
 						return true;
 					}
 
-					int lineNumber = reader.getLineNumber();
+					if( token != JSONScanner.TYPE.BEGIN_ARRAY )
+						throw new SourceException( "Expecting [, not " + token, reader.getLocation() );
 
-					// Convert the strings to date, time and timestamps
-					// TODO Time zones, is there a default way of putting times and dates in a text file? For example whats in a HTTP header?
-					int i = 0;
-					for( ListIterator< Object > it = values.iterator(); it.hasNext(); )
-					{
-						Object value = it.next();
-						if( value != null )
-						{
-							if( types[ i ] == Types.DATE )
-								it.set( java.sql.Date.valueOf( (String)value ) );
-							else if( types[ i ] == Types.TIMESTAMP )
-								it.set( java.sql.Timestamp.valueOf( (String)value ) );
-							else if( types[ i ] == Types.TIME )
-								it.set( java.sql.Time.valueOf( (String)value ) );
-						}
-						i++;
-					}
+					int lineNumber = reader.getLineNumber();
+					int count = readRecord( reader, types, record, longs );
 
 					// Set the statement parameters
 					int pos = 1;
@@ -227,16 +242,12 @@ public class LoadJSON implements CommandListener
 						{
 							int index = par - ( prependLineNumber ? 2 : 1 );
 							int type = types[ index ];
-							Object value;
-							try
-							{
-								value = values.get( index );
-							}
-							catch( ArrayIndexOutOfBoundsException e )
-							{
-								throw new SourceException( "Value with index " + ( index + 1 ) + " does not exist, record has only " + values.size() + " values", reader.getLocation() );
-							}
-							if( value instanceof JSONObject )
+							if( index >= count )
+								throw new SourceException( "Value with index " + ( index + 1 ) + " does not exist, record has only " + count + " values", reader.getLocation() );
+							Object value = record[ index ];
+							if( value == LONG )
+								statement.setLong( pos++, longs[ index ] );
+							else if( value instanceof JSONObject )
 							{
 								// Value of parameter is in a separate file
 								JSONObject object = (JSONObject)value;
@@ -358,7 +369,7 @@ public class LoadJSON implements CommandListener
 									// MonetDB complains when calling setObject with null value
 //									Object v = values.get( index );
 //								if( v != null )
-									statement.setObject( pos++, values.get( index ) );
+									statement.setObject( pos++, value );
 //								else
 //									statement.setNull( pos++, type );
 							}
@@ -375,7 +386,7 @@ public class LoadJSON implements CommandListener
 						catch( SQLException e )
 						{
 							// When NOBATCH is on, you can see the actual insert statement and line number in the file where the SQLException occurred.
-							String message = buildErrorMessage( sql, parameterMap, values, prependLineNumber, lineNumber );
+							String message = buildErrorMessage( sql, parameterMap, record, longs, prependLineNumber, lineNumber );
 							throw new SQLExecutionException( message, reader.getLocation().lineNumber( lineNumber ), e );
 						}
 					}
@@ -384,14 +395,16 @@ public class LoadJSON implements CommandListener
 						statement.addBatch();
 						batchSize++;
 						// TODO Also check the closer's count
-						if( batchSize >= 1000 )
+						if( batchSize >= limit )
 						{
-							statement.executeBatch();
+							ImportCSV.executeBatch( statement, batchSize, batching );
 							batchSize = 0;
 							closer.closeAll();
+							limit = ImportCSV.reportBatchSize( processor, batching, limit );
 						}
 					}
 
+					records++;
 					if( counter != null && counter.next() )
 						processor.getProgressListener().println( "Imported " + counter.total() + " records." );
 				}
@@ -410,6 +423,94 @@ public class LoadJSON implements CommandListener
 	}
 
 
+	/**
+	 * Opens a JSON file for reading.
+	 *
+	 * @param resource The JSON file.
+	 * @param gzip Is the file gzipped?
+	 * @return The JSON reader.
+	 */
+	static protected JSONScanner openReader( Resource resource, boolean gzip )
+	{
+		resource.setGZip( gzip );
+		try
+		{
+			// TODO Use the same charset detection as JSON does. Maybe introduce the UTF charset if the default does not become UTF.
+			return new JSONScanner( new InputStreamReader( resource.newInputStream(), "UTF-8" ), new SourceLocation( resource, 1 ) );
+		}
+		catch( FileNotFoundException e )
+		{
+			throw new FatalException( e.toString() );
+		}
+		catch( UnsupportedEncodingException e )
+		{
+			throw new SystemException( e );
+		}
+	}
+
+
+	/**
+	 * Reads the values of a record. The start of the record has already been read. Strings are converted to dates,
+	 * times and timestamps according to the type of the field. Integers of integer fields are stored in the array of
+	 * longs with {@link #LONG} in the array of values, so that no objects are created for them.
+	 *
+	 * @param reader The JSON reader.
+	 * @param types The types of the fields.
+	 * @param values The array to store the values in.
+	 * @param longs The array to store the integers in.
+	 * @return The number of values in the record.
+	 */
+	static protected int readRecord( JSONScanner reader, int[] types, Object[] values, long[] longs )
+	{
+		int count = 0;
+		for( JSONScanner.TYPE type = reader.next(); type != JSONScanner.TYPE.END_ARRAY; type = reader.next() )
+		{
+			if( count >= values.length )
+				throw new SourceException( "Record has more than " + values.length + " values", reader.getLocation() );
+			int fieldType = types[ count ];
+			switch( type )
+			{
+				case STRING:
+					// TODO Time zones, is there a default way of putting times and dates in a text file? For example whats in a HTTP header?
+					if( fieldType == Types.DATE )
+						values[ count ] = java.sql.Date.valueOf( reader.getString() );
+					else if( fieldType == Types.TIMESTAMP )
+						values[ count ] = java.sql.Timestamp.valueOf( reader.getString() );
+					else if( fieldType == Types.TIME )
+						values[ count ] = java.sql.Time.valueOf( reader.getString() );
+					else
+						values[ count ] = reader.getString();
+					break;
+				case NUMBER:
+					if( isInteger( fieldType ) && reader.isLong() )
+					{
+						longs[ count ] = reader.getLong();
+						values[ count ] = LONG;
+					}
+					else
+						values[ count ] = reader.getDecimal();
+					break;
+				default:
+					values[ count ] = reader.readValue();
+			}
+			count++;
+		}
+		return count;
+	}
+
+
+	/**
+	 * Is the given JDBC type an integer type?
+	 *
+	 * @param type The JDBC type.
+	 * @return True if the type is an integer type, false otherwise.
+	 */
+	static protected boolean isInteger( int type )
+	{
+		return type == Types.INTEGER || type == Types.BIGINT || type == Types.SMALLINT || type == Types.TINYINT;
+	}
+
+
 	static byte[] readBytes( Resource resource ) throws FileNotFoundException
 	{
 		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
@@ -458,7 +559,7 @@ public class LoadJSON implements CommandListener
 	}
 
 
-	static protected String buildErrorMessage( StringBuilder sql, List< Integer > parameterMap, JSONArray values, boolean prependLineNumber, int lineNumber )
+	static protected String buildErrorMessage( StringBuilder sql, List< Integer > parameterMap, Object[] values, long[] longs, boolean prependLineNumber, int lineNumber )
 	{
 		StringBuilder b = new StringBuilder( sql.toString() );
 		b.append( " VALUES (" );
@@ -476,10 +577,10 @@ public class LoadJSON implements CommandListener
 					if( par == 1 )
 						b.append( lineNumber );
 					else
-						b.append( values.get( par - 2 ) );
+						b.append( values[ par - 2 ] == LONG ? longs[ par - 2 ] : values[ par - 2 ] );
 				}
 				else
-					b.append( values.get( par - 1 ) );
+					b.append( values[ par - 1 ] == LONG ? longs[ par - 1 ] : values[ par - 1 ] );
 			}
 			catch( ArrayIndexOutOfBoundsException ee ) // TODO Why is this caught?
 			{
@@ -505,7 +606,7 @@ public class LoadJSON implements CommandListener
 		/*
 		LOAD JSON
 		[ PREPEND LINENUMBER ]
-		[ NOBATCH ]
+		[ NOBATCH | BATCH SIZE n | ADAPTIVE BATCH [ BETWEEN n AND n ] ]
 		[ LOG EVERY n RECORDS | SECONDS ]
 		INTO <schema>.<table> [ ( <columns> ) ]
 		[ VALUES ( <values> ) ]
@@ -521,14 +622,14 @@ public class LoadJSON implements CommandListener
 		tokenizer.get( "LOAD" );
 		tokenizer.get( "JSON" );
 
-		Token t = tokenizer.get( "PREPEND", "NOBATCH", "LOG", "INTO" );
+		Token t = tokenizer.get( "PREPEND", "NOBATCH", "BATCH", "ADAPTIVE", "LOG", "INTO" );
 
 		if( t.eq( "PREPEND" ) )
 		{
 			tokenizer.get( "LINENUMBER" );
 			result.prependLineNumber = true;
 
-			t = tokenizer.get( "NOBATCH", "LOG", "INTO" );
+			t = tokenizer.get( "NOBATCH", "BATCH", "ADAPTIVE", "LOG", "INTO" );
 		}
 
 		if( t.eq( "NOBATCH" ) )
@@ -537,6 +638,32 @@ public class LoadJSON implements CommandListener
 
 			t = tokenizer.get( "LOG", "INTO" );
 		}
+		else if( t.eq( "BATCH" ) )
+		{
+			tokenizer.get( "SIZE" );
+			result.batchSize = ImportCSV.getNumber( tokenizer );
+			if( result.batchSize < 1 )
+				throw new SourceException( "BATCH SIZE needs at least 1 record", tokenizer.getLocation() );
+
+			t = tokenizer.get( "LOG", "INTO" );
+		}
+		else if( t.eq( "ADAPTIVE" ) )
+		{
+			tokenizer.get( "BATCH" );
+			result.adaptiveBatch = true;
+
+			t = tokenizer.get( "BETWEEN", "LOG", "INTO" );
+			if( t.eq( "BETWEEN" ) )
+			{
+				result.minBatchSize = ImportCSV.getNumber( tokenizer );
+				tokenizer.get( "AND" );
+				result.maxBatchSize = ImportCSV.getNumber( tokenizer );
+				if( result.minBatchSize < 1 || result.minBatchSize > result.maxBatchSize )
+					throw new SourceException( "Illegal batch size bounds " + result.minBatchSize + " and " + result.maxBatchSize, tokenizer.getLocation() );
+
+				t = tokenizer.get( "LOG", "INTO" );
+			}
+		}
 
 		if( t.eq( "LOG" ) )
 		{
@@ -697,6 +824,18 @@ public class LoadJSON implements CommandListener
 		/** Don't use JDBC batch update. */
 		protected boolean noBatch;
 
+		/** The number of records in a JDBC batch. */
+		protected int batchSize = BatchSize.DEFAULT;
+
+		/** Adapt the batch size to the throughput of the database. */
+		protected boolean adaptiveBatch;
+
+		/** The minimum number of records in an adaptive batch. */
+		protected int minBatchSize = AdaptiveBatchSize.DEFAULT_MIN;
+
+		/** The maximum number of records in an adaptive batch. */
+		protected int maxBatchSize = AdaptiveBatchSize.DEFAULT_MAX;
+
 		protected int logRecords;
 		protected int logSeconds;
 
@@ -718,6 +857,18 @@ public class LoadJSON implements CommandListener
 	}
 
 
+	//@Override
+	public String[] getTransientKeywords()
+	{
+		return new String[ 0 ];
+	}
+
+	//@Override
+	public String[] getPersistentKeywords()
+	{
+		return new String[] { "LOAD JSON" };
+	}
+
 	//@Override
 	public void terminate()
 	{
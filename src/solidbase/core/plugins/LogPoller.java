@@ -24,8 +24,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import solidbase.core.Command;
-import solidbase.core.CommandListener;
 import solidbase.core.CommandProcessor;
+import solidbase.core.KeywordCommandListener;
 import solidbase.core.ProgressListener;
 import solidbase.core.SystemException;
 import solidbase.util.Assert;
@@ -41,7 +41,7 @@ import solidstack.lang.ThreadInterrupted;
  * @author Ren M. de Bloois
  * @since May 29, 2006
  */
-public class LogPoller implements CommandListener
+public class LogPoller implements KeywordCommandListener
 {
 	static private Pattern disablePattern = Pattern.compile( "LOG\\s+POLLER\\s+OFF", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
 	static private Pattern enablePattern = Pattern.compile( "LOG\\s+POLLER\\s+ON", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
@@ -75,6 +75,18 @@ public class LogPoller implements CommandListener
 		return false;
 	}
 
+	//@Override
+	public String[] getTransientKeywords()
+	{
+		return new String[] { "LOG POLLER" };
+	}
+
+	//@Override
+	public String[] getPersistentKeywords()
+	{
+		return new String[ 0 ];
+	}
+
 	//@Override
 	public void terminate()
 	{
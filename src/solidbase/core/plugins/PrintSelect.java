@@ -28,8 +28,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import solidbase.core.Command;
+import solidbase.core.KeywordCommandListener;
 import solidbase.core.SourceException;
-import solidbase.core.CommandListener;
 import solidbase.core.CommandProcessor;
 import solidbase.util.JDBCSupport;
 
@@ -46,7 +46,7 @@ import solidbase.util.JDBCSupport;
  * @author Ren M. de Bloois
  * @since May 2010
  */
-public class PrintSelect implements CommandListener
+public class PrintSelect implements KeywordCommandListener
 {
 	static private final Pattern printSelectPattern = Pattern.compile( "\\s*PRINT\\s+(SELECT\\s+.+)", Pattern.DOTALL | Pattern.CASE_INSENSITIVE );
 
@@ -109,6 +109,18 @@ public class PrintSelect implements CommandListener
 		return true;
 	}
 
+	//@Override
+	public String[] getTransientKeywords()
+	{
+		return new String[ 0 ];
+	}
+
+	//@Override
+	public String[] getPersistentKeywords()
+	{
+		return new String[] { "PRINT SELECT" };
+	}
+
 	//@Override
 	public void terminate()
 	{
@@ -0,0 +1,60 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package solidbase.core.plugins;
+
+import java.sql.SQLException;
+
+import solidbase.core.plugins.ExportPipeline.Column;
+
+
+/**
+ * A stage of an {@link ExportPipeline} that receives the records of a query. A stage either transforms the records and
+ * passes them on to the next stage, or writes them to a file.
+ *
+ * @author Ren M. de Bloois
+ */
+public interface RecordSink
+{
+	/**
+	 * Called before the first record, with the columns of the records that follow.
+	 *
+	 * @param columns The columns.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	void start( Column[] columns ) throws SQLException;
+
+	/**
+	 * Processes a record. The values array is owned by the receiving stage, it is not reused by the sender.
+	 *
+	 * @param values The values of the record.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	void process( Object[] values ) throws SQLException;
+
+	/**
+	 * Called after the last record has been processed successfully.
+	 *
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	void end() throws SQLException;
+
+	/**
+	 * Releases the resources of this stage. Always called, also when the export failed.
+	 */
+	void close();
+}
@@ -0,0 +1,79 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.maven;
+
+
+/**
+ * A tenant database used during configuration of the Maven Plugin. The driver is taken from the default connection.
+ *
+ * @author Ren M. de Bloois
+ */
+public class Tenant
+{
+	private String name;
+	private String url;
+	private String username;
+	private String password;
+
+	/**
+	 * Constructor.
+	 */
+	public Tenant()
+	{
+		super();
+	}
+
+	/**
+	 * Returns the configured name of the tenant.
+	 *
+	 * @return The configured name of the tenant.
+	 */
+	public String getName()
+	{
+		return this.name;
+	}
+
+	/**
+	 * Returns the configured database url of the tenant.
+	 *
+	 * @return The configured database url of the tenant.
+	 */
+	public String getUrl()
+	{
+		return this.url;
+	}
+
+	/**
+	 * Returns the configured user name of the tenant. If null, the user name of the default connection is used.
+	 *
+	 * @return The configured user name of the tenant.
+	 */
+	public String getUsername()
+	{
+		return this.username;
+	}
+
+	/**
+	 * Returns the configured password of the tenant.
+	 *
+	 * @return The configured password of the tenant.
+	 */
+	public String getPassword()
+	{
+		return this.password;
+	}
+}
@@ -16,6 +16,8 @@
 
 package solidbase.maven;
 
+import java.util.Map;
+
 import org.apache.maven.plugin.MojoFailureException;
 
 import solidbase.core.FatalException;
@@ -45,6 +47,17 @@ public class UpgradeMojo extends DBMojo
 	 */
 	public boolean downgradeallowed;
 
+	/**
+	 * An array of tenant connections. When tenants are configured, the upgrade is executed on each tenant instead of
+	 * on the default connection.
+	 */
+	public Tenant[] tenants;
+
+	/**
+	 * Number of tenants to upgrade at the same time.
+	 */
+	public int threads;
+
 	public void execute() throws MojoFailureException
 	{
 		if( this.skip )
@@ -59,7 +72,14 @@ public class UpgradeMojo extends DBMojo
 		Runner runner = prepareRunner();
 		try
 		{
-			runner.upgrade();
+			if( this.tenants != null && this.tenants.length > 0 )
+			{
+				Map< String, Throwable > failures = runner.upgradeTenants();
+				if( !failures.isEmpty() )
+					throw new MojoFailureException( failures.size() + " tenant(s) failed to upgrade" );
+			}
+			else
+				runner.upgrade();
 		}
 		catch( FatalException e )
 		{
@@ -67,6 +87,21 @@ public class UpgradeMojo extends DBMojo
 		}
 	}
 
+	@Override
+	protected void validate() throws MojoFailureException
+	{
+		super.validate();
+
+		if( this.tenants != null )
+			for( Tenant tenant : this.tenants )
+			{
+				if( tenant.getName() == null )
+					throw new MojoFailureException( "The 'name' attribute is mandatory for a 'tenant' element" );
+				if( tenant.getUrl() == null )
+					throw new MojoFailureException( "The 'url' attribute is mandatory for a 'tenant' element" );
+			}
+	}
+
 	@Override
 	public Runner prepareRunner()
 	{
@@ -75,6 +110,11 @@ public class UpgradeMojo extends DBMojo
 		runner.setUpgradeFile( Resources.getResource( this.project.getBasedir() ).resolve( this.upgradefile ) );
 		runner.setUpgradeTarget( this.target );
 		runner.setDowngradeAllowed( this.downgradeallowed );
+		if( this.tenants != null )
+			for( Tenant tenant : this.tenants )
+				runner.addTenant( tenant.getName(), tenant.getUrl(), tenant.getUsername(), tenant.getPassword() == null ? "" : tenant.getPassword() );
+		if( this.threads > 0 )
+			runner.setTenantThreads( this.threads );
 
 		return runner;
 	}
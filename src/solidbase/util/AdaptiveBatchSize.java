@@ -0,0 +1,123 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+
+/**
+ * A batch size that adapts itself to the throughput of the database. After each full batch the number of records per
+ * second is compared with that of the previous batch. The batch size keeps growing or shrinking as long as the
+ * throughput improves, and reverses direction when it does not. Each reversal halves the step, so that the size
+ * settles after a number of batches. A settled size is still watched: when the throughput drops sharply, for example
+ * because the load reaches wide or LOB rows, the size starts adapting again, shrinking first. This class is thread
+ * safe, so that parallel writers can share it.
+ *
+ * @author Ren de Bloois
+ */
+public class AdaptiveBatchSize extends BatchSize
+{
+	/**
+	 * The default minimum number of records in a batch.
+	 */
+	static public final int DEFAULT_MIN = 100;
+
+	/**
+	 * The default maximum number of records in a batch.
+	 */
+	static public final int DEFAULT_MAX = 10000;
+
+	/**
+	 * Below this step the batch size is considered settled.
+	 */
+	static private final double SETTLED = 0.05;
+
+	/**
+	 * The initial step.
+	 */
+	static private final double STEP = 0.5;
+
+	/**
+	 * When the throughput of a settled batch size drops below this fraction of the throughput it settled at, the batch
+	 * size starts adapting again.
+	 */
+	static private final double DROP = 0.5;
+
+	private int min;
+	private int max;
+	private int size;
+	private double step = STEP;
+	private boolean grow = true;
+	private double lastRate;
+	private double settledRate;
+
+	/**
+	 * Constructor. The initial batch size is the {@link BatchSize#DEFAULT} within the given bounds.
+	 *
+	 * @param min The minimum number of records in a batch.
+	 * @param max The maximum number of records in a batch.
+	 */
+	public AdaptiveBatchSize( int min, int max )
+	{
+		Assert.isTrue( min > 0 && min <= max, "Illegal batch size bounds" );
+		this.min = min;
+		this.max = max;
+		this.size = Math.max( min, Math.min( max, DEFAULT ) );
+	}
+
+	@Override
+	synchronized public int size()
+	{
+		return this.size;
+	}
+
+	@Override
+	synchronized public void executed( int records, long nanos )
+	{
+		// Only full batches are comparable, the last batch is usually smaller
+		if( records < this.size || nanos <= 0 )
+			return;
+
+		double rate = (double)records / nanos;
+		if( this.step < SETTLED )
+		{
+			if( rate >= this.settledRate * DROP )
+				return;
+
+			// The load has changed, start again from the current size
+			this.step = STEP;
+			this.grow = false;
+			this.lastRate = 0;
+		}
+
+		if( this.lastRate > 0 && rate < this.lastRate )
+		{
+			this.grow = !this.grow;
+			this.step /= 2;
+			if( this.step < SETTLED )
+				this.settledRate = this.lastRate; // The best of the last two sizes
+		}
+		this.lastRate = rate;
+
+		int size = (int)( this.grow ? this.size * ( 1 + this.step ) : this.size / ( 1 + this.step ) );
+		if( size > this.max )
+			size = this.max;
+		else if( size < this.min )
+			size = this.min;
+		if( size == this.size )
+			this.grow = !this.grow; // Bound reached, try the other direction next time
+		this.size = size;
+	}
+}
@@ -0,0 +1,44 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+
+/**
+ * Determines the number of records in a JDBC batch.
+ *
+ * @author Ren de Bloois
+ */
+abstract public class BatchSize
+{
+	/**
+	 * The default number of records in a batch.
+	 */
+	static public final int DEFAULT = 1000;
+
+	/**
+	 * @return The number of records in the next batch.
+	 */
+	abstract public int size();
+
+	/**
+	 * Called after a batch has been executed, so that the batch size can be adjusted.
+	 *
+	 * @param records The number of records in the batch.
+	 * @param nanos The time it took to execute the batch, in nanoseconds.
+	 */
+	abstract public void executed( int records, long nanos );
+}
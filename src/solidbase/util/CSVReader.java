@@ -30,7 +30,7 @@ import solidstack.io.SourceReader;
  *
  * @author Ren M. de Bloois
  */
-public class CSVReader
+public class CSVReader implements CSVRecordSource
 {
 	/**
 	 * The source of tokens.
@@ -97,6 +97,18 @@ public class CSVReader
 		return values.toArray( new String[ values.size() ] );
 	}
 
+	//@Override
+	public boolean getRecord( CSVRecord record )
+	{
+		record.clear();
+		String[] line = getLine();
+		if( line == null )
+			return false;
+		for( String value : line )
+			record.add( value );
+		return true;
+	}
+
 	/**
 	 * Returns the current line number. The line number is the number of the line of data about to be read.
 	 *
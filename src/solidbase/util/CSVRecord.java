@@ -0,0 +1,256 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+
+/**
+ * A record of CSV values that can be reused for each record read. The characters of all values are stored in one
+ * character array, the values themselves are slices (offset and length) of this array. Strings are only created when
+ * {@link #getString(int)} is called.
+ *
+ * @author Ren M. de Bloois
+ */
+public class CSVRecord
+{
+	/**
+	 * The characters of all values.
+	 */
+	protected char[] chars;
+
+	/**
+	 * The number of characters used in {@link #chars}.
+	 */
+	protected int end;
+
+	/**
+	 * The offsets of the values in {@link #chars}.
+	 */
+	protected int[] offsets;
+
+	/**
+	 * The lengths of the values.
+	 */
+	protected int[] lengths;
+
+	/**
+	 * The number of values in this record.
+	 */
+	protected int size;
+
+
+	/**
+	 * Constructor.
+	 */
+	public CSVRecord()
+	{
+		this( 256, 16 );
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param chars The initial capacity in characters.
+	 * @param values The initial capacity in values.
+	 */
+	protected CSVRecord( int chars, int values )
+	{
+		this.chars = new char[ chars ];
+		this.offsets = new int[ values ];
+		this.lengths = new int[ values ];
+	}
+
+	/**
+	 * Removes all values from this record.
+	 */
+	public void clear()
+	{
+		this.end = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Starts a new value. Characters appended after this call belong to the new value.
+	 */
+	protected void startValue()
+	{
+		int size = this.size;
+		if( size == this.offsets.length )
+		{
+			int[] offsets = new int[ size * 2 ];
+			System.arraycopy( this.offsets, 0, offsets, 0, size );
+			this.offsets = offsets;
+			int[] lengths = new int[ size * 2 ];
+			System.arraycopy( this.lengths, 0, lengths, 0, size );
+			this.lengths = lengths;
+		}
+		this.offsets[ size ] = this.end;
+		this.lengths[ size ] = 0;
+		this.size = size + 1;
+	}
+
+	/**
+	 * Appends a character to the current value.
+	 *
+	 * @param ch The character to append.
+	 */
+	protected void append( char ch )
+	{
+		if( this.end == this.chars.length )
+		{
+			char[] chars = new char[ this.end * 2 ];
+			System.arraycopy( this.chars, 0, chars, 0, this.end );
+			this.chars = chars;
+		}
+		this.chars[ this.end++ ] = ch;
+		this.lengths[ this.size - 1 ]++;
+	}
+
+	/**
+	 * Removes characters from the end of the current value.
+	 *
+	 * @param count The number of characters to remove.
+	 */
+	protected void truncate( int count )
+	{
+		this.end -= count;
+		this.lengths[ this.size - 1 ] -= count;
+	}
+
+	/**
+	 * Adds a complete value.
+	 *
+	 * @param value The value to add.
+	 */
+	public void add( String value )
+	{
+		startValue();
+		int len = value.length();
+		for( int i = 0; i < len; i++ )
+			append( value.charAt( i ) );
+	}
+
+	/**
+	 * @return The number of values in this record.
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Checks the index and throws an {@link ArrayIndexOutOfBoundsException} when the value does not exist, just like an
+	 * array would do.
+	 *
+	 * @param index The index of the value.
+	 */
+	private void check( int index )
+	{
+		if( index < 0 || index >= this.size )
+			throw new ArrayIndexOutOfBoundsException( index );
+	}
+
+	/**
+	 * @param index The index of the value.
+	 * @return The number of characters in the value.
+	 */
+	public int getLength( int index )
+	{
+		check( index );
+		return this.lengths[ index ];
+	}
+
+	/**
+	 * @param index The index of the value.
+	 * @return The offset of the value in the array returned by {@link #getChars()}.
+	 */
+	public int getOffset( int index )
+	{
+		check( index );
+		return this.offsets[ index ];
+	}
+
+	/**
+	 * @return The characters of all values. Only valid until the record is cleared.
+	 */
+	public char[] getChars()
+	{
+		return this.chars;
+	}
+
+	/**
+	 * Creates a string from the value.
+	 *
+	 * @param index The index of the value.
+	 * @return The value as a string.
+	 */
+	public String getString( int index )
+	{
+		check( index );
+		return new String( this.chars, this.offsets[ index ], this.lengths[ index ] );
+	}
+
+	/**
+	 * Replaces the values of this record with the values of the given record.
+	 *
+	 * @param record The record to copy the values from.
+	 */
+	public void set( CSVRecord record )
+	{
+		int end = record.end;
+		int size = record.size;
+		if( this.chars.length < end )
+			this.chars = new char[ Math.max( end, this.chars.length * 2 ) ];
+		if( this.offsets.length < size )
+		{
+			this.offsets = new int[ Math.max( size, this.offsets.length * 2 ) ];
+			this.lengths = new int[ this.offsets.length ];
+		}
+		System.arraycopy( record.chars, 0, this.chars, 0, end );
+		System.arraycopy( record.offsets, 0, this.offsets, 0, size );
+		System.arraycopy( record.lengths, 0, this.lengths, 0, size );
+		this.end = end;
+		this.size = size;
+	}
+
+	/**
+	 * Creates a compact copy of this record. Needed when the record is handed over to another thread.
+	 *
+	 * @return A copy of this record.
+	 */
+	public CSVRecord copy()
+	{
+		int size = this.size;
+		CSVRecord result = new CSVRecord( Math.max( this.end, 1 ), Math.max( size, 1 ) );
+		System.arraycopy( this.chars, 0, result.chars, 0, this.end );
+		System.arraycopy( this.offsets, 0, result.offsets, 0, size );
+		System.arraycopy( this.lengths, 0, result.lengths, 0, size );
+		result.end = this.end;
+		result.size = size;
+		return result;
+	}
+
+	/**
+	 * @return The values of this record as an array of strings.
+	 */
+	public String[] toArray()
+	{
+		String[] result = new String[ this.size ];
+		for( int i = 0; i < result.length; i++ )
+			result[ i ] = getString( i );
+		return result;
+	}
+}
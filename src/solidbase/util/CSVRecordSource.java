@@ -0,0 +1,48 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+import solidstack.io.SourceLocation;
+
+
+/**
+ * A source of CSV records.
+ *
+ * @author Ren M. de Bloois
+ */
+public interface CSVRecordSource
+{
+	/**
+	 * Reads the next record from the CSV data into the given record.
+	 *
+	 * @param record The record to fill. Its previous values are removed.
+	 * @return False if there are no more records, true otherwise.
+	 */
+	boolean getRecord( CSVRecord record );
+
+	/**
+	 * Returns the current line number. The line number is the number of the line of data about to be read.
+	 *
+	 * @return The current line number.
+	 */
+	int getLineNumber();
+
+	/**
+	 * @return The current location within the file.
+	 */
+	SourceLocation getLocation();
+}
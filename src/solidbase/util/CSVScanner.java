@@ -0,0 +1,329 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import solidbase.core.SourceException;
+import solidbase.core.SystemException;
+import solidstack.io.SourceLocation;
+
+
+/**
+ * Reads CSV records from a {@link Reader} without creating objects for each value or record. The characters are read
+ * in large blocks into a window, and the values are collected in a reused {@link CSVRecord}. It accepts the same CSV as
+ * the {@link CSVReader}. The difference is that it reads ahead, so it can only be used when it owns the complete
+ * input, like a separate file.
+ *
+ * @author Ren M. de Bloois
+ */
+public class CSVScanner implements CSVRecordSource
+{
+	/**
+	 * The size of the window.
+	 */
+	static private final int WINDOW_SIZE = 65536;
+
+	/**
+	 * The input.
+	 */
+	protected Reader reader;
+
+	/**
+	 * The location of the start of the input, used to create locations for error messages.
+	 */
+	protected SourceLocation location;
+
+	/**
+	 * The CSV separator.
+	 */
+	protected int separator;
+
+	/**
+	 * If true, whitespace is ignored around the values, but not inside double quoted values.
+	 */
+	protected boolean ignoreWhiteSpace;
+
+	/**
+	 * The window.
+	 */
+	protected char[] window = new char[ WINDOW_SIZE ];
+
+	/**
+	 * The position of the next character in the window.
+	 */
+	protected int pos;
+
+	/**
+	 * The number of characters in the window.
+	 */
+	protected int limit;
+
+	/**
+	 * The current line number.
+	 */
+	protected int lineNumber;
+
+	/**
+	 * True when the start of the input has been checked for a byte order mark.
+	 */
+	protected boolean started;
+
+	/**
+	 * True when the end of the input has been reached.
+	 */
+	protected boolean endOfInput;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param reader The input.
+	 * @param location The location of the start of the input.
+	 * @param separator The CSV separator.
+	 * @param ignoreWhiteSpace Ignore white space, except white space enclosed in double quotes.
+	 */
+	public CSVScanner( Reader reader, SourceLocation location, char separator, boolean ignoreWhiteSpace )
+	{
+		this.reader = reader;
+		this.location = location;
+		this.separator = separator;
+		this.ignoreWhiteSpace = ignoreWhiteSpace;
+		this.lineNumber = location.getLineNumber();
+	}
+
+	/**
+	 * Fills the window.
+	 *
+	 * @return False if the end of the input has been reached, true otherwise.
+	 */
+	protected boolean fill()
+	{
+		int read;
+		try
+		{
+			read = this.reader.read( this.window, 0, this.window.length );
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
+		if( read <= 0 )
+		{
+			this.pos = this.limit = 0;
+			this.endOfInput = true;
+			return false;
+		}
+		this.pos = 0;
+		this.limit = read;
+		if( !this.started )
+		{
+			this.started = true;
+			if( this.window[ 0 ] == '\uFEFF' )
+				this.pos++; // Skip the byte order mark
+		}
+		return this.pos < this.limit || fill();
+	}
+
+	/**
+	 * Reads a character. Carriage returns and carriage return line feed combinations are returned as a line feed.
+	 *
+	 * @return The character read, or -1 if the end of the input has been reached.
+	 */
+	protected int read()
+	{
+		if( this.pos >= this.limit && !fill() )
+			return -1;
+		char ch = this.window[ this.pos++ ];
+		if( ch == '\r' )
+		{
+			if( ( this.pos < this.limit || fill() ) && this.window[ this.pos ] == '\n' )
+				this.pos++;
+			ch = '\n';
+		}
+		if( ch == '\n' )
+			this.lineNumber++;
+		return ch;
+	}
+
+	/**
+	 * Is the given character a whitespace?
+	 *
+	 * @param ch The character to check.
+	 * @return True if the characters is whitespace, false otherwise.
+	 */
+	protected boolean isWhitespace( int ch )
+	{
+		switch( ch )
+		{
+			case ' ':
+			case '\t':
+			case '\f':
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Skips whitespace if whitespace is ignored.
+	 *
+	 * @param ch The current character.
+	 * @return The first character that is not ignored.
+	 */
+	protected int skipWhiteSpace( int ch )
+	{
+		if( this.ignoreWhiteSpace )
+			while( isWhitespace( ch ) && ch != this.separator )
+				ch = read();
+		return ch;
+	}
+
+	//@Override
+	public boolean getRecord( CSVRecord record )
+	{
+		record.clear();
+
+		int separator = this.separator;
+		boolean ignoreWhiteSpace = this.ignoreWhiteSpace;
+
+		while( true )
+		{
+			// We expect a value here
+			int ch = skipWhiteSpace( read() );
+
+			if( ch == '"' )
+			{
+				// Read a value enclosed by "
+				record.startValue();
+				while( true )
+				{
+					ch = read();
+					if( ch == -1 )
+						throw new SourceException( "Missing \"", getLocation() );
+					if( ch == '"' )
+					{
+						ch = read();
+						if( ch != '"' )
+							break;
+						// Double "" do not end the value
+					}
+					record.append( (char)ch );
+				}
+
+				ch = skipWhiteSpace( ch );
+				if( ch == '\n' || ch == -1 )
+					return true;
+				if( ch != separator )
+					throw unexpected( ch );
+				continue;
+			}
+
+			if( ch == separator )
+			{
+				record.startValue(); // Empty value
+				continue;
+			}
+
+			if( ch == '\n' || ch == -1 )
+			{
+				if( record.size() == 0 )
+					return false; // An empty line ends the data
+				record.startValue(); // Empty value after the last separator
+				return true;
+			}
+
+			// Collect all characters until separator or newline or end-of-input
+			record.startValue();
+			int trailing = 0;
+			do
+			{
+				if( ch == '"' )
+					throw new SourceException( "Unexpected \"", getLocation() );
+				record.append( (char)ch );
+				if( ignoreWhiteSpace && isWhitespace( ch ) )
+					trailing++;
+				else
+					trailing = 0;
+				ch = read();
+			}
+			while( ch != separator && ch != -1 && ch != '\n' );
+
+			if( trailing > 0 )
+				record.truncate( trailing );
+			if( ch != separator )
+				return true;
+		}
+	}
+
+	/**
+	 * Creates the exception for unexpected data after a value enclosed by double quotes.
+	 *
+	 * @param ch The first unexpected character.
+	 * @return The exception.
+	 */
+	protected SourceException unexpected( int ch )
+	{
+		StringBuilder value = new StringBuilder();
+		while( ch != this.separator && ch != -1 && ch != '\n' )
+		{
+			if( ch == '"' )
+				return new SourceException( "Unexpected \"", getLocation() );
+			value.append( (char)ch );
+			ch = read();
+		}
+		return new SourceException( "Expecting <separator>, <newline> or <end-of-input>, not '" + value + "'", getLocation() );
+	}
+
+	/**
+	 * Tells if the end of the input has been reached. When {@link #getRecord(CSVRecord)} returns false and the end of the
+	 * input has not been reached, an empty line has been found.
+	 *
+	 * @return True if the end of the input has been reached, false otherwise.
+	 */
+	public boolean isEndOfInput()
+	{
+		return this.endOfInput;
+	}
+
+	//@Override
+	public int getLineNumber()
+	{
+		return this.lineNumber;
+	}
+
+	//@Override
+	public SourceLocation getLocation()
+	{
+		return this.location.lineNumber( this.lineNumber );
+	}
+
+	/**
+	 * Closes the input.
+	 */
+	public void close()
+	{
+		try
+		{
+			this.reader.close();
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
+	}
+}
@@ -28,7 +28,8 @@ import javax.sql.DataSource;
 import solidbase.core.SystemException;
 
 /**
- * A datasource that gets its connections from the DriverManager.
+ * A datasource that gets its connections from the DriverManager. Each call creates a new connection. Wrap it in a
+ * {@link PooledDataSource} to reuse connections.
  *
  * @author Ren M. de Bloois
  */
@@ -17,8 +17,14 @@
 package solidbase.util;
 
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.HashMap;
 import java.util.Map;
@@ -33,6 +39,11 @@ import solidbase.core.SystemException;
  */
 public class JDBCSupport
 {
+	/**
+	 * The default fetch size for streaming query results. Most drivers fetch only 10 rows per round trip by default.
+	 */
+	static public final int DEFAULT_FETCH_SIZE = 1000;
+
 	static private Map< Integer, String > typeNames;
 	static private Map< String, Integer > typeNames2;
 
@@ -57,6 +68,138 @@ public class JDBCSupport
 		return result.getObject( index );
 	}
 
+	/**
+	 * Converts a string to the Java type that belongs to the given JDBC type, so that it can be bound with the matching
+	 * setter of a {@link PreparedStatement}. Types without a conversion are returned as the string itself.
+	 *
+	 * @param type The JDBC type.
+	 * @param value The string to convert.
+	 * @return The converted value, or null when the string is null.
+	 * @throws IllegalArgumentException When the string is not a valid value for the type.
+	 */
+	static public Object toObject( int type, String value )
+	{
+		if( value == null )
+			return null;
+
+		switch( type )
+		{
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+				return Long.valueOf( value ); // NumberFormatException is an IllegalArgumentException
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				return new BigDecimal( value );
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return Double.valueOf( value );
+			case Types.DATE:
+				return Date.valueOf( value );
+			case Types.TIME:
+				return Time.valueOf( value );
+			case Types.TIMESTAMP:
+				return Timestamp.valueOf( value );
+			case Types.BIT:
+			case Types.BOOLEAN:
+				if( value.equalsIgnoreCase( "true" ) )
+					return Boolean.TRUE;
+				if( value.equalsIgnoreCase( "false" ) )
+					return Boolean.FALSE;
+				throw new IllegalArgumentException( "Expecting true or false, not [" + value + "]" );
+		}
+		return value;
+	}
+
+	/**
+	 * Does {@link #toObject(int, String)} convert strings for the given JDBC type?
+	 *
+	 * @param type The JDBC type.
+	 * @return True if strings are converted for the type, false if they are bound as strings.
+	 */
+	static public boolean isConverted( int type )
+	{
+		switch( type )
+		{
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.DATE:
+			case Types.TIME:
+			case Types.TIMESTAMP:
+			case Types.BIT:
+			case Types.BOOLEAN:
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Binds a value to a parameter of a prepared statement with the setter that belongs to the Java type of the value.
+	 * This is the counterpart of {@link #toObject(int, String)}.
+	 *
+	 * @param statement The prepared statement.
+	 * @param index The index of the parameter, starting with 1.
+	 * @param type The JDBC type of the parameter, needed to bind null values. Null values of types that are not
+	 *        {@link #isConverted(int) converted} are bound as a null string, because drivers may not accept those types
+	 *        in {@link PreparedStatement#setNull(int, int)}.
+	 * @param value The value.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	static public void setParameter( PreparedStatement statement, int index, int type, Object value ) throws SQLException
+	{
+		if( value == null )
+		{
+			if( isConverted( type ) )
+				statement.setNull( index, type );
+			else
+				statement.setString( index, null );
+		}
+		else if( value instanceof String )
+			statement.setString( index, (String)value );
+		else if( value instanceof Long )
+			statement.setLong( index, (Long)value );
+		else if( value instanceof BigDecimal )
+			statement.setBigDecimal( index, (BigDecimal)value );
+		else if( value instanceof Double )
+			statement.setDouble( index, (Double)value );
+		else if( value instanceof Date )
+			statement.setDate( index, (Date)value );
+		else if( value instanceof Time )
+			statement.setTime( index, (Time)value );
+		else if( value instanceof Timestamp )
+			statement.setTimestamp( index, (Timestamp)value );
+		else if( value instanceof Boolean )
+			statement.setBoolean( index, (Boolean)value );
+		else
+			statement.setObject( index, value );
+	}
+
+	/**
+	 * Returns the fetch size that streams query results for the database of the given connection. MySQL buffers the
+	 * complete result set unless the fetch size is {@link Integer#MIN_VALUE}, which streams row by row. Other databases
+	 * get {@link #DEFAULT_FETCH_SIZE}. PostgreSQL only uses a cursor when autocommit is off.
+	 *
+	 * @param connection The connection.
+	 * @return The fetch size.
+	 * @throws SQLException Whenever JDBC throws an SQLException.
+	 */
+	static public int getDefaultFetchSize( Connection connection ) throws SQLException
+	{
+		String product = connection.getMetaData().getDatabaseProductName();
+		if( product != null && product.toLowerCase().contains( "mysql" ) )
+			return Integer.MIN_VALUE;
+		return DEFAULT_FETCH_SIZE;
+	}
+
 	static private void initTypeNames()
 	{
 		typeNames = new HashMap< Integer, String >();
@@ -90,12 +233,23 @@ public class JDBCSupport
 	}
 
 	static public int fromTypeName( String type )
+	{
+		Integer result = findType( type );
+		Assert.notNull( result, "Unknown JDBC type " + type );
+		return result;
+	}
+
+	/**
+	 * Returns the JDBC type with the given name.
+	 *
+	 * @param type The name of the type, as in {@link Types}.
+	 * @return The JDBC type, or null when there is no type with the given name.
+	 */
+	static public Integer findType( String type )
 	{
 		if( typeNames == null )
 			initTypeNames();
 
-		Integer result = typeNames2.get( type );
-		Assert.notNull( result, "Unknown JDBC type " + type );
-		return result;
+		return typeNames2.get( type );
 	}
 }
@@ -59,6 +59,30 @@ public class JSONObject implements Iterable< Map.Entry< String, Object > >
 		return result;
 	}
 
+	public Boolean findBoolean( String name )
+	{
+		Object result = this.values.get( name );
+		if( result == null || result instanceof Boolean )
+			return (Boolean)result;
+		throw new SystemException( "Attribute '" + name + "' is not a Boolean" );
+	}
+
+	public JSONArray findArray( String name )
+	{
+		Object result = this.values.get( name );
+		if( result == null || result instanceof JSONArray )
+			return (JSONArray)result;
+		throw new SystemException( "Attribute '" + name + "' is not an JSONArray" );
+	}
+
+	public JSONObject findObject( String name )
+	{
+		Object result = this.values.get( name );
+		if( result == null || result instanceof JSONObject )
+			return (JSONObject)result;
+		throw new SystemException( "Attribute '" + name + "' is not an JSONObject" );
+	}
+
 	public JSONArray getArray( String name )
 	{
 		Object result = this.values.get( name );
@@ -0,0 +1,660 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+
+import solidbase.core.SourceException;
+import solidbase.core.SystemException;
+import solidstack.io.SourceLocation;
+
+
+/**
+ * Reads JSON data from a {@link Reader} like a cursor, without creating objects for each token. The characters are read
+ * in large blocks into a window. {@link #next()} moves to the next token and returns its type. The characters of a name,
+ * string or number are collected in a reused buffer, from which they can be read with {@link #getString()},
+ * {@link #getLong()} or {@link #getDecimal()}. Only {@link #readValue()} materializes a {@link JSONObject} or
+ * {@link JSONArray}, for small parts of the data like a header.
+ * <p>
+ * It accepts the same JSON as the {@link JSONReader}. The difference is that it reads ahead, so it can only be used when
+ * it owns the complete input, like a separate file.
+ *
+ * @author Ren M. de Bloois
+ */
+public class JSONScanner
+{
+	/**
+	 * The types of tokens.
+	 */
+	static public enum TYPE { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, EOF }
+
+	/**
+	 * The state of the scanner.
+	 */
+	static protected enum STATE { BEFOREVALUE, BEFORENAME, AFTERVALUE }
+
+	/**
+	 * The size of the window.
+	 */
+	static private final int WINDOW_SIZE = 65536;
+
+	/**
+	 * The input.
+	 */
+	protected Reader reader;
+
+	/**
+	 * The location of the start of the input, used to create locations for error messages.
+	 */
+	protected SourceLocation location;
+
+	/**
+	 * The window.
+	 */
+	protected char[] window = new char[ WINDOW_SIZE ];
+
+	/**
+	 * The position of the next character in the window.
+	 */
+	protected int pos;
+
+	/**
+	 * The number of characters in the window.
+	 */
+	protected int limit;
+
+	/**
+	 * The current line number.
+	 */
+	protected int lineNumber;
+
+	/**
+	 * True when the start of the input has been checked for a byte order mark.
+	 */
+	protected boolean started;
+
+	/**
+	 * The characters of the current name, string or number.
+	 */
+	protected char[] value = new char[ 256 ];
+
+	/**
+	 * The number of characters in {@link #value}.
+	 */
+	protected int length;
+
+	/**
+	 * Does the current number contain a fraction or an exponent?
+	 */
+	protected boolean decimal;
+
+	/**
+	 * The value of the current boolean.
+	 */
+	protected boolean bool;
+
+	/**
+	 * The type of the current token.
+	 */
+	protected TYPE type;
+
+	/**
+	 * The parsing state.
+	 */
+	protected STATE state = STATE.BEFOREVALUE;
+
+	/**
+	 * True directly after the start of an object or array, when the end of it is allowed.
+	 */
+	protected boolean first;
+
+	/**
+	 * The open objects and arrays, true for an object.
+	 */
+	protected boolean[] structs = new boolean[ 16 ];
+
+	/**
+	 * The number of open objects and arrays.
+	 */
+	protected int depth;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param reader The input.
+	 * @param location The location of the start of the input.
+	 */
+	public JSONScanner( Reader reader, SourceLocation location )
+	{
+		this.reader = reader;
+		this.location = location;
+		this.lineNumber = location.getLineNumber();
+	}
+
+	/**
+	 * Fills the window.
+	 *
+	 * @return False if the end of the input has been reached, true otherwise.
+	 */
+	protected boolean fill()
+	{
+		int read;
+		try
+		{
+			read = this.reader.read( this.window, 0, this.window.length );
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
+		if( read <= 0 )
+		{
+			this.pos = this.limit = 0;
+			return false;
+		}
+		this.pos = 0;
+		this.limit = read;
+		if( !this.started )
+		{
+			this.started = true;
+			if( this.window[ 0 ] == '\uFEFF' )
+				this.pos++; // Skip the byte order mark
+		}
+		return this.pos < this.limit || fill();
+	}
+
+	/**
+	 * Reads a character.
+	 *
+	 * @return The character read, or -1 if the end of the input has been reached.
+	 */
+	protected int read()
+	{
+		if( this.pos >= this.limit && !fill() )
+			return -1;
+		char ch = this.window[ this.pos++ ];
+		if( ch == '\n' )
+			this.lineNumber++;
+		return ch;
+	}
+
+	/**
+	 * Returns the next character without reading it.
+	 *
+	 * @return The next character, or -1 if the end of the input has been reached.
+	 */
+	protected int peek()
+	{
+		if( this.pos >= this.limit && !fill() )
+			return -1;
+		return this.window[ this.pos ];
+	}
+
+	/**
+	 * Reads the first character that is not whitespace.
+	 *
+	 * @return The character read, or -1 if the end of the input has been reached.
+	 */
+	protected int readSkipWhiteSpace()
+	{
+		while( true )
+		{
+			int ch = read();
+			switch( ch )
+			{
+				case ' ':
+				case '\t':
+				case '\n':
+				case '\r':
+					continue;
+				default:
+					return ch;
+			}
+		}
+	}
+
+	/**
+	 * Adds a character to the value buffer.
+	 *
+	 * @param ch The character to add.
+	 */
+	protected void append( char ch )
+	{
+		if( this.length >= this.value.length )
+		{
+			char[] value = new char[ this.value.length * 2 ];
+			System.arraycopy( this.value, 0, value, 0, this.length );
+			this.value = value;
+		}
+		this.value[ this.length++ ] = ch;
+	}
+
+	/**
+	 * Moves to the next token.
+	 *
+	 * @return The type of the token.
+	 */
+	public TYPE next()
+	{
+		this.length = 0;
+
+		int ch = readSkipWhiteSpace();
+
+		if( this.first )
+		{
+			this.first = false;
+			boolean object = this.structs[ this.depth - 1 ];
+			if( ch == ( object ? '}' : ']' ) )
+				return end( object );
+		}
+		else if( this.state == STATE.AFTERVALUE && this.depth > 0 )
+		{
+			boolean object = this.structs[ this.depth - 1 ];
+			if( ch == ( object ? '}' : ']' ) )
+				return end( object );
+			if( ch != ',' )
+				throw new SourceException( "Expecting , or " + ( object ? '}' : ']' ) + ", not " + describe( ch ), getLocation() );
+			this.state = object ? STATE.BEFORENAME : STATE.BEFOREVALUE;
+			ch = readSkipWhiteSpace();
+		}
+		// Multiple top level values are allowed
+
+		if( this.state == STATE.BEFORENAME )
+		{
+			if( ch != '"' )
+				throw new SourceException( "Expecting \", not " + describe( ch ), getLocation() );
+			readString();
+			ch = readSkipWhiteSpace();
+			if( ch != ':' )
+				throw new SourceException( "Expecting :, not " + describe( ch ), getLocation() );
+			this.state = STATE.BEFOREVALUE;
+			return this.type = TYPE.NAME;
+		}
+
+		this.state = STATE.AFTERVALUE;
+		switch( ch )
+		{
+			case '"':
+				readString();
+				return this.type = TYPE.STRING;
+			case '{':
+				begin( true );
+				this.state = STATE.BEFORENAME;
+				return this.type = TYPE.BEGIN_OBJECT;
+			case '[':
+				begin( false );
+				this.state = STATE.BEFOREVALUE;
+				return this.type = TYPE.BEGIN_ARRAY;
+			case '-':
+			case '0': case '1': case '2': case '3': case '4':
+			case '5': case '6': case '7': case '8': case '9':
+				readNumber( ch );
+				return this.type = TYPE.NUMBER;
+			case 't':
+				readKeyword( "true" );
+				this.bool = true;
+				return this.type = TYPE.BOOLEAN;
+			case 'f':
+				readKeyword( "false" );
+				this.bool = false;
+				return this.type = TYPE.BOOLEAN;
+			case 'n':
+				readKeyword( "null" );
+				return this.type = TYPE.NULL;
+			case -1:
+				if( this.depth == 0 )
+					return this.type = TYPE.EOF;
+				throw new SourceException( "Unexpected end of input", getLocation() );
+			default:
+				throw new SourceException( "Expecting {, [, \", a number, true, false or null, not " + describe( ch ), getLocation() );
+		}
+	}
+
+	/**
+	 * Opens an object or array.
+	 *
+	 * @param object True for an object, false for an array.
+	 */
+	protected void begin( boolean object )
+	{
+		if( this.depth >= this.structs.length )
+		{
+			boolean[] structs = new boolean[ this.structs.length * 2 ];
+			System.arraycopy( this.structs, 0, structs, 0, this.depth );
+			this.structs = structs;
+		}
+		this.structs[ this.depth++ ] = object;
+		this.first = true;
+	}
+
+	/**
+	 * Closes an object or array.
+	 *
+	 * @param object True for an object, false for an array.
+	 * @return The type of the token.
+	 */
+	protected TYPE end( boolean object )
+	{
+		this.depth--;
+		this.state = STATE.AFTERVALUE;
+		return this.type = object ? TYPE.END_OBJECT : TYPE.END_ARRAY;
+	}
+
+	/**
+	 * Reads a string into the value buffer. The opening double quote has already been read.
+	 */
+	protected void readString()
+	{
+		while( true )
+		{
+			int ch = read();
+			if( ch == -1 )
+				throw new SourceException( "Missing \"", getLocation() );
+			if( ch == '"' )
+				return;
+			if( ch == '\\' )
+			{
+				ch = read();
+				switch( ch )
+				{
+					case 'b': ch = '\b'; break;
+					case 'f': ch = '\f'; break;
+					case 'n': ch = '\n'; break;
+					case 'r': ch = '\r'; break;
+					case 't': ch = '\t'; break;
+					case '"': break;
+					case '\\': break;
+					case '/': break;
+					case 'u':
+						int codePoint = 0;
+						for( int i = 0; i < 4; i++ )
+						{
+							int digit = Character.digit( read(), 16 );
+							if( digit < 0 )
+								throw new SourceException( "Illegal escape sequence: \\u", getLocation() );
+							codePoint = codePoint * 16 + digit;
+						}
+						ch = codePoint;
+						break;
+					case -1:
+						throw new SourceException( "Incomplete escape sequence", getLocation() );
+					default:
+						throw new SourceException( "Illegal escape sequence: \\" + (char)ch, getLocation() );
+				}
+			}
+			append( (char)ch );
+		}
+	}
+
+	/**
+	 * Reads a number into the value buffer.
+	 *
+	 * @param ch The first character of the number.
+	 */
+	protected void readNumber( int ch )
+	{
+		this.decimal = false;
+		append( (char)ch );
+		if( ch == '-' )
+		{
+			ch = read();
+			if( !( ch >= '0' && ch <= '9' ) )
+				throw new SourceException( "Invalid number", getLocation() );
+			append( (char)ch );
+		}
+		readDigits();
+		if( peek() == '.' )
+		{
+			this.decimal = true;
+			append( (char)read() );
+			if( readDigits() == 0 )
+				throw new SourceException( "Invalid number", getLocation() );
+		}
+		ch = peek();
+		if( ch == 'e' || ch == 'E' )
+		{
+			this.decimal = true;
+			append( (char)read() );
+			ch = peek();
+			if( ch == '+' || ch == '-' )
+				append( (char)read() );
+			if( readDigits() == 0 )
+				throw new SourceException( "Invalid number", getLocation() );
+		}
+	}
+
+	/**
+	 * Reads digits into the value buffer.
+	 *
+	 * @return The number of digits read.
+	 */
+	protected int readDigits()
+	{
+		int count = 0;
+		int ch = peek();
+		while( ch >= '0' && ch <= '9' )
+		{
+			append( (char)read() );
+			count++;
+			ch = peek();
+		}
+		return count;
+	}
+
+	/**
+	 * Reads the rest of a keyword. The first character has already been read.
+	 *
+	 * @param keyword The expected keyword.
+	 */
+	protected void readKeyword( String keyword )
+	{
+		for( int i = 1; i < keyword.length(); i++ )
+			if( read() != keyword.charAt( i ) )
+				throw new SourceException( "Expecting " + keyword, getLocation() );
+		int ch = peek();
+		if( ch >= 'a' && ch <= 'z' )
+			throw new SourceException( "Expecting " + keyword, getLocation() );
+	}
+
+	/**
+	 * Describes the given character for an error message.
+	 *
+	 * @param ch The character.
+	 * @return The description of the character.
+	 */
+	static protected String describe( int ch )
+	{
+		if( ch == -1 )
+			return "<end-of-input>";
+		return "'" + (char)ch + "'";
+	}
+
+	/**
+	 * Returns the type of the current token.
+	 *
+	 * @return The type of the current token.
+	 */
+	public TYPE getType()
+	{
+		return this.type;
+	}
+
+	/**
+	 * Returns the current name or string. A number is returned as it is in the input.
+	 *
+	 * @return The current name, string or number. Null if the current token is null.
+	 */
+	public String getString()
+	{
+		switch( this.type )
+		{
+			case NAME:
+			case STRING:
+			case NUMBER:
+				return new String( this.value, 0, this.length );
+			case NULL:
+				return null;
+			default:
+				throw new SourceException( "Expecting a string, not " + this.type, getLocation() );
+		}
+	}
+
+	/**
+	 * Tells if the current number fits in a long.
+	 *
+	 * @return True if the current token is a number without a fraction or exponent that fits in a long.
+	 */
+	public boolean isLong()
+	{
+		if( this.type != TYPE.NUMBER || this.decimal )
+			return false;
+		int digits = this.value[ 0 ] == '-' ? this.length - 1 : this.length;
+		return digits < 19; // Larger numbers may overflow, they are handled by getDecimal()
+	}
+
+	/**
+	 * Returns the current number as a long, without creating objects when {@link #isLong()} is true.
+	 *
+	 * @return The current number.
+	 * @throws ArithmeticException When the number has a fraction or does not fit in a long.
+	 */
+	public long getLong()
+	{
+		if( !isLong() )
+			return getDecimal().longValueExact();
+
+		char[] value = this.value;
+		boolean negative = value[ 0 ] == '-';
+		long result = 0;
+		for( int i = negative ? 1 : 0; i < this.length; i++ )
+			result = result * 10 + ( value[ i ] - '0' );
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Returns the current number.
+	 *
+	 * @return The current number.
+	 */
+	public BigDecimal getDecimal()
+	{
+		if( this.type != TYPE.NUMBER )
+			throw new SourceException( "Expecting a number, not " + this.type, getLocation() );
+		return new BigDecimal( this.value, 0, this.length );
+	}
+
+	/**
+	 * Returns the current boolean.
+	 *
+	 * @return The current boolean.
+	 */
+	public boolean getBoolean()
+	{
+		if( this.type != TYPE.BOOLEAN )
+			throw new SourceException( "Expecting true or false, not " + this.type, getLocation() );
+		return this.bool;
+	}
+
+	/**
+	 * Returns the current value as an object, like the {@link JSONReader} does. Objects and arrays are materialized
+	 * with {@link #readValue()}.
+	 *
+	 * @return The current value: a String, BigDecimal, Boolean, JSONObject, JSONArray or null.
+	 */
+	public Object readValue()
+	{
+		switch( this.type )
+		{
+			case STRING:
+				return getString();
+			case NUMBER:
+				return getDecimal();
+			case BOOLEAN:
+				return Boolean.valueOf( this.bool );
+			case NULL:
+				return null;
+			case BEGIN_OBJECT:
+				JSONObject object = new JSONObject();
+				while( next() == TYPE.NAME )
+				{
+					String name = getString();
+					next();
+					object.set( name, readValue() );
+				}
+				// Can only be an END_OBJECT here
+				return object;
+			case BEGIN_ARRAY:
+				JSONArray array = new JSONArray();
+				while( next() != TYPE.END_ARRAY )
+					array.add( readValue() );
+				return array;
+			default:
+				throw new SourceException( "Expecting {, [, \", a number, true, false or null, not " + this.type, getLocation() );
+		}
+	}
+
+	/**
+	 * Skips the current value. If the current token is the start of an object or array, the scanner is moved to the
+	 * end of it.
+	 */
+	public void skipValue()
+	{
+		if( this.type != TYPE.BEGIN_OBJECT && this.type != TYPE.BEGIN_ARRAY )
+			return;
+		int depth = this.depth;
+		while( this.depth >= depth )
+			next();
+	}
+
+	/**
+	 * Returns the current line number.
+	 *
+	 * @return The current line number.
+	 */
+	public int getLineNumber()
+	{
+		return this.lineNumber;
+	}
+
+	/**
+	 * Returns the current location.
+	 *
+	 * @return The current location.
+	 */
+	public SourceLocation getLocation()
+	{
+		return this.location.lineNumber( this.lineNumber );
+	}
+
+	/**
+	 * Closes the input.
+	 */
+	public void close()
+	{
+		try
+		{
+			this.reader.close();
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
+	}
+}
@@ -99,6 +99,19 @@ public class JSONWriter
 		}
 	}
 
+	static public void writeFormatted( Resource resource, Object object, int maxLength )
+	{
+		JSONWriter writer = new JSONWriter( resource );
+		try
+		{
+			writer.writeFormatted( object, maxLength );
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
 	public void writeFormatted( Object object, int maxLength )
 	{
 		this.maxLength = maxLength;
@@ -0,0 +1,177 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * An index of command patterns by the first keyword of the command. Instead of trying all the patterns one after the
+ * other, only the patterns registered for the first keyword of the command are tried. The keyword is the first word
+ * of the command, including a leading slash if present, in upper case.
+ *
+ * @author Ren de Bloois
+ * @param <T> The type of the values that identify the patterns.
+ */
+public class KeywordIndex< T >
+{
+	private Map< String, List< Entry< T > > > index = new HashMap< String, List< Entry< T > > >();
+
+	/**
+	 * Registers a pattern under one or more keywords. Patterns registered under the same keyword are tried in the order
+	 * in which they are registered.
+	 *
+	 * @param value The value that identifies the pattern.
+	 * @param pattern The pattern that should match the complete command.
+	 * @param keywords The keywords the command can start with.
+	 */
+	public void put( T value, Pattern pattern, String... keywords )
+	{
+		Assert.isTrue( keywords.length > 0 );
+
+		Entry< T > entry = new Entry< T >( value, pattern );
+		for( String keyword : keywords )
+		{
+			Assert.isTrue( keyword.equals( getKeyword( keyword ) ), "Not a keyword: " + keyword );
+			List< Entry< T > > entries = this.index.get( keyword );
+			if( entries == null )
+				this.index.put( keyword, entries = new ArrayList< Entry< T > >( 1 ) );
+			entries.add( entry );
+		}
+	}
+
+	/**
+	 * Finds the pattern that matches the given command.
+	 *
+	 * @param command The command.
+	 * @return The match, or null if none of the patterns registered for the keyword of the command match.
+	 */
+	public Match< T > match( String command )
+	{
+		List< Entry< T > > entries = this.index.get( getKeyword( command ) );
+		if( entries == null )
+			return null;
+		for( Entry< T > entry : entries )
+		{
+			Matcher matcher = entry.pattern.matcher( command );
+			if( matcher.matches() )
+				return new Match< T >( entry.value, matcher );
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the keyword of the given command. Leading white space is skipped. The keyword consists of an optional
+	 * slash followed by the ASCII letters, converted to upper case.
+	 *
+	 * @param command The command.
+	 * @return The keyword of the command. This is an empty string when the command does not start with a letter.
+	 */
+	static public String getKeyword( String command )
+	{
+		int len = command.length();
+		int start = 0;
+		while( start < len && Character.isWhitespace( command.charAt( start ) ) )
+			start++;
+
+		StringBuilder result = new StringBuilder( 16 );
+		int i = start;
+		if( i < len && command.charAt( i ) == '/' )
+		{
+			result.append( '/' );
+			i++;
+		}
+		while( i < len )
+		{
+			char c = command.charAt( i++ );
+			if( c >= 'a' && c <= 'z' )
+				result.append( (char)( c - 'a' + 'A' ) );
+			else if( c >= 'A' && c <= 'Z' )
+				result.append( c );
+			else
+				break;
+		}
+		return result.toString();
+	}
+
+
+	/**
+	 * A registered pattern.
+	 *
+	 * @param <T> The type of the value that identifies the pattern.
+	 */
+	static private class Entry< T >
+	{
+		T value;
+		Pattern pattern;
+
+		Entry( T value, Pattern pattern )
+		{
+			this.value = value;
+			this.pattern = pattern;
+		}
+	}
+
+
+	/**
+	 * The result of a successful {@link KeywordIndex#match(String)}.
+	 *
+	 * @param <T> The type of the value that identifies the pattern.
+	 */
+	static public class Match< T >
+	{
+		private T value;
+		private Matcher matcher;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param value The value that identifies the pattern that matched.
+		 * @param matcher The matcher that matched the command.
+		 */
+		protected Match( T value, Matcher matcher )
+		{
+			this.value = value;
+			this.matcher = matcher;
+		}
+
+		/**
+		 * Returns the value that identifies the pattern that matched.
+		 *
+		 * @return The value that identifies the pattern that matched.
+		 */
+		public T getValue()
+		{
+			return this.value;
+		}
+
+		/**
+		 * Returns the matcher that matched the command, for access to the groups.
+		 *
+		 * @return The matcher that matched the command.
+		 */
+		public Matcher getMatcher()
+		{
+			return this.matcher;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.TreeMap;
+
+import solidstack.io.Resource;
+
+
+/**
+ * Collects named timers and counters during a run. A timer keeps the number of measurements, the total, minimum and
+ * maximum time, and a latency histogram with a bucket for each power of 10 milliseconds. A counter keeps a total, for
+ * example of records or bytes. When a counter is named after a timer followed by a dot and a name, like
+ * <code>importcsv.records</code> and <code>importcsv</code>, the counter is also reported per second of the timer.
+ * <p>
+ * The metrics are thread safe, so that the tenants of a multi-tenant upgrade and the threads of the plugins can share
+ * them.
+ *
+ * @author Ren M. de Bloois
+ */
+public class Metrics
+{
+	/**
+	 * The upper bounds of the histogram buckets in nanoseconds. The last bucket has no upper bound.
+	 */
+	static protected final long[] BUCKETS = { 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L };
+
+	/**
+	 * The names of the histogram buckets.
+	 */
+	static protected final String[] BUCKET_NAMES = { "<1ms", "<10ms", "<100ms", "<1s", "<10s", ">=10s" };
+
+	/**
+	 * The timers, sorted by name.
+	 */
+	protected Map< String, Timer > timers = new TreeMap< String, Timer >();
+
+	/**
+	 * The counters, sorted by name.
+	 */
+	protected Map< String, Count > counts = new TreeMap< String, Count >();
+
+	/**
+	 * Returns the timer with the given name. The timer is created when it does not exist.
+	 *
+	 * @param name The name of the timer.
+	 * @return The timer.
+	 */
+	synchronized public Timer getTimer( String name )
+	{
+		Timer result = this.timers.get( name );
+		if( result == null )
+			this.timers.put( name, result = new Timer() );
+		return result;
+	}
+
+	/**
+	 * Returns the counter with the given name. The counter is created when it does not exist.
+	 *
+	 * @param name The name of the counter.
+	 * @return The counter.
+	 */
+	synchronized public Count getCount( String name )
+	{
+		Count result = this.counts.get( name );
+		if( result == null )
+			this.counts.put( name, result = new Count() );
+		return result;
+	}
+
+	/**
+	 * Adds a measurement to the timer with the given name.
+	 *
+	 * @param name The name of the timer.
+	 * @param nanos The time in nanoseconds.
+	 */
+	public void time( String name, long nanos )
+	{
+		getTimer( name ).add( nanos );
+	}
+
+	/**
+	 * Adds to the counter with the given name.
+	 *
+	 * @param name The name of the counter.
+	 * @param amount The amount to add.
+	 */
+	public void count( String name, long amount )
+	{
+		getCount( name ).add( amount );
+	}
+
+	/**
+	 * Returns the timers.
+	 *
+	 * @return A copy of the timers, sorted by name.
+	 */
+	synchronized public Map< String, Timer > getTimers()
+	{
+		return new TreeMap< String, Timer >( this.timers );
+	}
+
+	/**
+	 * Returns the counters.
+	 *
+	 * @return A copy of the counters, sorted by name.
+	 */
+	synchronized public Map< String, Count > getCounts()
+	{
+		return new TreeMap< String, Count >( this.counts );
+	}
+
+	/**
+	 * Returns the metrics as JSON. Times are in milliseconds.
+	 *
+	 * @return The metrics as JSON.
+	 */
+	public JSONObject toJSON()
+	{
+		Map< String, Timer > timers = getTimers();
+
+		JSONObject timersJSON = new JSONObject();
+		for( Map.Entry< String, Timer > entry : timers.entrySet() )
+			timersJSON.set( entry.getKey(), entry.getValue().toJSON() );
+
+		JSONObject countsJSON = new JSONObject();
+		JSONObject ratesJSON = new JSONObject();
+		for( Map.Entry< String, Count > entry : getCounts().entrySet() )
+		{
+			String name = entry.getKey();
+			long total = entry.getValue().getTotal();
+			countsJSON.set( name, BigDecimal.valueOf( total ) );
+
+			int dot = name.lastIndexOf( '.' );
+			Timer timer = dot > 0 ? timers.get( name.substring( 0, dot ) ) : null;
+			if( timer != null && timer.getTotal() > 0 )
+				ratesJSON.set( name + "/s", BigDecimal.valueOf( total ).movePointRight( 9 ).divide( BigDecimal.valueOf( timer.getTotal() ), 1, RoundingMode.HALF_UP ) );
+		}
+
+		return new JSONObject( "timers", timersJSON, "counters", countsJSON, "rates", ratesJSON );
+	}
+
+	/**
+	 * Writes the metrics as JSON to the given resource.
+	 *
+	 * @param resource The resource to write to.
+	 */
+	public void write( Resource resource )
+	{
+		JSONWriter.writeFormatted( resource, toJSON(), 120 );
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds.
+	 *
+	 * @param nanos The time in nanoseconds.
+	 * @return The time in milliseconds, with 3 decimals.
+	 */
+	static public BigDecimal millis( long nanos )
+	{
+		return BigDecimal.valueOf( nanos, 6 ).setScale( 3, RoundingMode.HALF_UP );
+	}
+
+
+	/**
+	 * A timer with a latency histogram.
+	 */
+	static public class Timer
+	{
+		private long count;
+		private long total;
+		private long min = Long.MAX_VALUE;
+		private long max;
+		private long[] histogram = new long[ BUCKETS.length + 1 ];
+
+		/**
+		 * Adds a measurement.
+		 *
+		 * @param nanos The time in nanoseconds.
+		 */
+		synchronized public void add( long nanos )
+		{
+			this.count++;
+			this.total += nanos;
+			if( nanos < this.min )
+				this.min = nanos;
+			if( nanos > this.max )
+				this.max = nanos;
+			int i = 0;
+			while( i < BUCKETS.length && nanos >= BUCKETS[ i ] )
+				i++;
+			this.histogram[ i ]++;
+		}
+
+		/**
+		 * Returns the number of measurements.
+		 *
+		 * @return The number of measurements.
+		 */
+		synchronized public long getCount()
+		{
+			return this.count;
+		}
+
+		/**
+		 * Returns the total time.
+		 *
+		 * @return The total time in nanoseconds.
+		 */
+		synchronized public long getTotal()
+		{
+			return this.total;
+		}
+
+		/**
+		 * Returns the shortest time.
+		 *
+		 * @return The shortest time in nanoseconds, 0 when there are no measurements.
+		 */
+		synchronized public long getMin()
+		{
+			return this.count == 0 ? 0 : this.min;
+		}
+
+		/**
+		 * Returns the longest time.
+		 *
+		 * @return The longest time in nanoseconds.
+		 */
+		synchronized public long getMax()
+		{
+			return this.max;
+		}
+
+		/**
+		 * Returns the latency histogram. Bucket i counts the measurements below 10^i milliseconds that are not in a
+		 * lower bucket. The last bucket counts the measurements of 10 seconds or more.
+		 *
+		 * @return A copy of the latency histogram.
+		 */
+		synchronized public long[] getHistogram()
+		{
+			return this.histogram.clone();
+		}
+
+		/**
+		 * Returns the timer as JSON. Times are in milliseconds.
+		 *
+		 * @return The timer as JSON.
+		 */
+		synchronized public JSONObject toJSON()
+		{
+			JSONObject histogram = new JSONObject();
+			for( int i = 0; i < this.histogram.length; i++ )
+				histogram.set( BUCKET_NAMES[ i ], BigDecimal.valueOf( this.histogram[ i ] ) );
+			return new JSONObject( "count", BigDecimal.valueOf( this.count ), "total", millis( this.total ), "min", millis( getMin() ), "max", millis( this.max ),
+					"mean", millis( this.count == 0 ? 0 : this.total / this.count ), "histogram", histogram );
+		}
+	}
+
+
+	/**
+	 * A counter.
+	 */
+	static public class Count
+	{
+		private long total;
+
+		/**
+		 * Adds to the counter.
+		 *
+		 * @param amount The amount to add.
+		 */
+		synchronized public void add( long amount )
+		{
+			this.total += amount;
+		}
+
+		/**
+		 * Returns the total.
+		 *
+		 * @return The total.
+		 */
+		synchronized public long getTotal()
+		{
+			return this.total;
+		}
+	}
+}
@@ -0,0 +1,582 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import solidbase.core.SystemException;
+import solidstack.io.SourceLocation;
+import solidstack.lang.ThreadInterrupted;
+
+
+/**
+ * Reads CSV records from a local file with multiple threads. The file is memory mapped and split into chunks at record
+ * boundaries. To find the boundaries the bytes of the file are scanned once for double quotes and line feeds, which is
+ * much faster than decoding and parsing. The chunks are decoded and parsed by {@link CSVScanner}s in parser threads,
+ * and the records are returned in the original order. This only works with character encodings in which double quotes
+ * and line feeds cannot be part of other characters, see {@link #isSplittable(String)}.
+ *
+ * @author Ren M. de Bloois
+ */
+public class ParallelCSVScanner implements CSVRecordSource
+{
+	/**
+	 * The default number of bytes in a chunk.
+	 */
+	static public final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * The number of bytes mapped at once while scanning for record boundaries.
+	 */
+	static private final int SCAN_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The number of records handed over from a parser thread at once.
+	 */
+	static private final int BATCH_SIZE = 256;
+
+	/**
+	 * The number of batches a parser thread can run ahead for each chunk.
+	 */
+	static private final int QUEUE_SIZE = 4;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private Charset charset;
+	private SourceLocation location;
+	private char separator;
+	private boolean ignoreWhiteSpace;
+
+	private Chunk[] chunks;
+	private Parser[] parsers;
+	private BlockingQueue< Batch > free = new LinkedBlockingQueue< Batch >();
+	private int window;
+
+	private volatile int current;
+	private Batch batch;
+	private int index;
+	private boolean stopped;
+	private int lineNumber;
+
+
+	/**
+	 * Constructor. Splits the file and starts the parser threads.
+	 *
+	 * @param file The file to read.
+	 * @param encoding The character encoding of the file, one for which {@link #isSplittable(String)} returns true.
+	 * @param location The location of the start of the file.
+	 * @param separator The CSV separator.
+	 * @param ignoreWhiteSpace Ignore white space, except white space enclosed in double quotes.
+	 * @param threads The number of parser threads.
+	 * @param chunkSize The minimum number of bytes in a chunk.
+	 * @throws FileNotFoundException When the file does not exist.
+	 */
+	public ParallelCSVScanner( File file, String encoding, SourceLocation location, char separator, boolean ignoreWhiteSpace, int threads, int chunkSize ) throws FileNotFoundException
+	{
+		Assert.isTrue( isSplittable( encoding ), "Encoding " + encoding + " can't be split" );
+
+		this.charset = Charset.forName( encoding );
+		this.location = location;
+		this.separator = separator;
+		this.ignoreWhiteSpace = ignoreWhiteSpace;
+		this.lineNumber = location.getLineNumber();
+
+		this.file = new RandomAccessFile( file, "r" );
+		this.channel = this.file.getChannel();
+		try
+		{
+			this.chunks = split( this.channel, chunkSize, location.getLineNumber() );
+		}
+		catch( IOException e )
+		{
+			close();
+			throw new SystemException( e );
+		}
+
+		threads = Math.max( 1, Math.min( threads, this.chunks.length ) );
+
+		// Only as many chunks as there are threads can be parsed ahead of the chunk being read, and there are enough batches
+		// for all of them, so that the parsers never wait for each other
+		this.window = threads;
+		int batches = ( threads + 2 ) * ( QUEUE_SIZE + 1 );
+		for( int i = 0; i < batches; i++ )
+			this.free.add( new Batch() );
+
+		this.parsers = new Parser[ threads ];
+		for( int i = 0; i < threads; i++ )
+		{
+			this.parsers[ i ] = new Parser( "CSVParser-" + ( i + 1 ), i, threads );
+			this.parsers[ i ].start();
+		}
+	}
+
+	/**
+	 * Tells if files with the given encoding can be split at line feeds without decoding them. This is the case with
+	 * UTF-8 and single byte encodings that encode double quotes and line feeds like ASCII does.
+	 *
+	 * @param encoding The character encoding.
+	 * @return True if files with the given encoding can be split, false otherwise.
+	 */
+	static public boolean isSplittable( String encoding )
+	{
+		Charset charset;
+		try
+		{
+			charset = Charset.forName( encoding );
+		}
+		catch( IllegalArgumentException e )
+		{
+			return false;
+		}
+		if( !charset.canEncode() )
+			return false;
+		if( !charset.name().equals( "UTF-8" ) && charset.newEncoder().maxBytesPerChar() != 1 )
+			return false;
+		ByteBuffer bytes = charset.encode( CharBuffer.wrap( "\"\r\n" ) );
+		return bytes.remaining() == 3 && bytes.get( 0 ) == '"' && bytes.get( 1 ) == '\r' && bytes.get( 2 ) == '\n';
+	}
+
+	/**
+	 * Splits the file into chunks that end after a line feed that is not enclosed in double quotes.
+	 *
+	 * @param channel The file channel.
+	 * @param chunkSize The minimum number of bytes in a chunk.
+	 * @param lineNumber The line number of the start of the file.
+	 * @return The chunks.
+	 * @throws IOException Whenever the file can't be read.
+	 */
+	static protected Chunk[] split( FileChannel channel, int chunkSize, int lineNumber ) throws IOException
+	{
+		List< Chunk > result = new ArrayList< Chunk >();
+		long size = channel.size();
+		long start = 0;
+		int startLine = lineNumber;
+		long target = chunkSize;
+		boolean quoted = false;
+
+		for( long pos = 0; pos < size; pos += SCAN_SIZE )
+		{
+			int length = (int)Math.min( SCAN_SIZE, size - pos );
+			MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, pos, length );
+			for( int i = 0; i < length; i++ )
+			{
+				byte b = buffer.get( i );
+				if( b == '"' )
+					quoted = !quoted; // Double "" toggle twice, so they do not matter
+				else if( b == '\n' )
+				{
+					lineNumber++;
+					long end = pos + i + 1;
+					if( !quoted && end >= target )
+					{
+						result.add( new Chunk( start, end, startLine ) );
+						start = end;
+						startLine = lineNumber;
+						target = end + chunkSize;
+					}
+				}
+			}
+		}
+
+		if( start < size || result.isEmpty() )
+			result.add( new Chunk( start, size, startLine ) );
+		return result.toArray( new Chunk[ result.size() ] );
+	}
+
+	/**
+	 * Makes sure that there is a record available in the current batch.
+	 *
+	 * @return False if there are no more records, true otherwise.
+	 */
+	protected boolean advance()
+	{
+		while( true )
+		{
+			Batch batch = this.batch;
+			if( batch != null )
+			{
+				if( this.index < batch.size )
+					return true;
+
+				// Batch done, recycle it
+				Throwable error = batch.error;
+				boolean last = batch.last;
+				boolean stop = batch.stop;
+				if( last )
+					this.lineNumber = batch.endLineNumber;
+				this.batch = null;
+				this.free.add( batch );
+
+				if( error != null )
+				{
+					this.stopped = true;
+					if( error instanceof Error )
+						throw (Error)error;
+					throw (RuntimeException)error;
+				}
+				if( stop )
+					this.stopped = true; // An empty line ends the data
+				if( last )
+					synchronized( this )
+					{
+						this.current++;
+						notifyAll();
+					}
+			}
+
+			if( this.stopped || this.current >= this.chunks.length )
+				return false;
+
+			try
+			{
+				this.batch = this.chunks[ this.current ].queue.take();
+			}
+			catch( InterruptedException e )
+			{
+				throw new ThreadInterrupted();
+			}
+			this.index = 0;
+		}
+	}
+
+	//@Override
+	public boolean getRecord( CSVRecord record )
+	{
+		record.clear();
+		if( !advance() )
+			return false;
+		record.set( this.batch.records[ this.index ] );
+		this.lineNumber = this.batch.lineNumbers[ this.index ];
+		this.index++;
+		return true;
+	}
+
+	//@Override
+	public int getLineNumber()
+	{
+		if( advance() )
+			return this.batch.lineNumbers[ this.index ];
+		return this.lineNumber;
+	}
+
+	//@Override
+	public SourceLocation getLocation()
+	{
+		return this.location.lineNumber( this.lineNumber );
+	}
+
+	/**
+	 * Stops the parser threads and closes the file.
+	 */
+	public void close()
+	{
+		if( this.parsers != null )
+		{
+			for( Parser parser : this.parsers )
+				parser.interrupt();
+			boolean interrupted = false;
+			for( Parser parser : this.parsers )
+				while( true )
+					try
+					{
+						parser.join();
+						break;
+					}
+					catch( InterruptedException e )
+					{
+						interrupted = true;
+					}
+			if( interrupted )
+				Thread.currentThread().interrupt();
+			this.parsers = null;
+		}
+
+		try
+		{
+			this.file.close();
+		}
+		catch( IOException e )
+		{
+			throw new SystemException( e );
+		}
+	}
+
+
+	/**
+	 * A part of the file that starts at a record boundary.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class Chunk
+	{
+		/** The position of the first byte. */
+		protected long start;
+
+		/** The position after the last byte. */
+		protected long end;
+
+		/** The line number of the first line. */
+		protected int lineNumber;
+
+		/** The parsed records of this chunk. */
+		protected BlockingQueue< Batch > queue = new ArrayBlockingQueue< Batch >( QUEUE_SIZE );
+
+		/**
+		 * Constructor.
+		 *
+		 * @param start The position of the first byte.
+		 * @param end The position after the last byte.
+		 * @param lineNumber The line number of the first line.
+		 */
+		protected Chunk( long start, long end, int lineNumber )
+		{
+			this.start = start;
+			this.end = end;
+			this.lineNumber = lineNumber;
+		}
+	}
+
+
+	/**
+	 * Records handed over from a parser thread. Batches and their records are reused.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class Batch
+	{
+		/** The records. */
+		protected CSVRecord[] records = new CSVRecord[ BATCH_SIZE ];
+
+		/** The line numbers of the records. */
+		protected int[] lineNumbers = new int[ BATCH_SIZE ];
+
+		/** The number of records. */
+		protected int size;
+
+		/** This is the last batch of the chunk. */
+		protected boolean last;
+
+		/** An empty line has been found after the records of this batch. */
+		protected boolean stop;
+
+		/** The line number of the line after the last record, only valid in the last batch. */
+		protected int endLineNumber;
+
+		/** The error that occurred after the records of this batch. */
+		protected Throwable error;
+
+		/**
+		 * Resets this batch for reuse.
+		 */
+		protected void reset()
+		{
+			this.size = 0;
+			this.last = false;
+			this.stop = false;
+			this.error = null;
+		}
+
+		/**
+		 * @return The next record to fill.
+		 */
+		protected CSVRecord next()
+		{
+			CSVRecord result = this.records[ this.size ];
+			if( result == null )
+				result = this.records[ this.size ] = new CSVRecord();
+			return result;
+		}
+
+		/**
+		 * @return True if this batch is full.
+		 */
+		protected boolean isFull()
+		{
+			return this.size >= BATCH_SIZE;
+		}
+	}
+
+
+	/**
+	 * A parser thread. It parses every nth chunk, starting with the given chunk.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	protected class Parser extends Thread
+	{
+		private int first;
+		private int step;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param name The name of the thread.
+		 * @param first The first chunk to parse.
+		 * @param step The number of chunks to skip to get to the next chunk.
+		 */
+		protected Parser( String name, int first, int step )
+		{
+			super( name );
+			setDaemon( true );
+			this.first = first;
+			this.step = step;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				Chunk[] chunks = ParallelCSVScanner.this.chunks;
+				for( int i = this.first; i < chunks.length; i += this.step )
+				{
+					waitForWindow( i );
+					parse( chunks[ i ] );
+				}
+			}
+			catch( InterruptedException e )
+			{
+				// Closed
+			}
+		}
+
+		/**
+		 * Waits until the given chunk is within the window of chunks that can be parsed ahead.
+		 *
+		 * @param chunk The index of the chunk.
+		 * @throws InterruptedException When the thread is interrupted.
+		 */
+		protected void waitForWindow( int chunk ) throws InterruptedException
+		{
+			ParallelCSVScanner scanner = ParallelCSVScanner.this;
+			synchronized( scanner )
+			{
+				while( chunk >= scanner.current + scanner.window )
+					scanner.wait();
+			}
+		}
+
+		/**
+		 * Parses a chunk.
+		 *
+		 * @param chunk The chunk to parse.
+		 * @throws InterruptedException When the thread is interrupted.
+		 */
+		protected void parse( Chunk chunk ) throws InterruptedException
+		{
+			BlockingQueue< Batch > free = ParallelCSVScanner.this.free;
+			Batch batch = free.take();
+			batch.reset();
+			int lineNumber = chunk.lineNumber;
+			try
+			{
+				MappedByteBuffer buffer = ParallelCSVScanner.this.channel.map( FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start );
+				InputStreamReader reader = new InputStreamReader( new ByteBufferInputStream( buffer ), ParallelCSVScanner.this.charset );
+				CSVScanner scanner = new CSVScanner( reader, ParallelCSVScanner.this.location.lineNumber( chunk.lineNumber ), ParallelCSVScanner.this.separator, ParallelCSVScanner.this.ignoreWhiteSpace );
+				while( true )
+				{
+					if( isInterrupted() )
+						throw new InterruptedException();
+					if( batch.isFull() )
+					{
+						chunk.queue.put( batch );
+						batch = free.take();
+						batch.reset();
+					}
+					lineNumber = scanner.getLineNumber();
+					if( !scanner.getRecord( batch.next() ) )
+					{
+						batch.stop = !scanner.isEndOfInput();
+						break;
+					}
+					batch.lineNumbers[ batch.size++ ] = lineNumber;
+				}
+			}
+			catch( IOException e )
+			{
+				batch.error = new SystemException( e );
+			}
+			catch( RuntimeException e )
+			{
+				batch.error = e;
+			}
+			catch( Error e )
+			{
+				batch.error = e;
+			}
+			batch.last = true;
+			batch.endLineNumber = lineNumber;
+			chunk.queue.put( batch );
+		}
+	}
+
+
+	/**
+	 * An input stream that reads from a byte buffer.
+	 *
+	 * @author Ren M. de Bloois
+	 */
+	static protected class ByteBufferInputStream extends InputStream
+	{
+		private ByteBuffer buffer;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param buffer The buffer to read from.
+		 */
+		protected ByteBufferInputStream( ByteBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read()
+		{
+			if( !this.buffer.hasRemaining() )
+				return -1;
+			return this.buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read( byte[] b, int off, int len )
+		{
+			int remaining = this.buffer.remaining();
+			if( remaining == 0 )
+				return -1;
+			if( len > remaining )
+				len = remaining;
+			this.buffer.get( b, off, len );
+			return len;
+		}
+	}
+}
@@ -0,0 +1,589 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.util;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import solidstack.lang.ThreadInterrupted;
+
+
+/**
+ * A datasource that pools the connections it gets from another datasource. When a connection is closed, it is rolled
+ * back and kept for reuse instead of being closed. Connections are pooled per user name and password. Because
+ * {@link solidbase.core.Database} closes its connections when the processor ends, sharing one instance of this
+ * datasource between multiple runs of the {@link solidbase.core.Runner} lets the connections survive between runs.
+ *
+ * <p>Session state (the current schema for example) is not reset when a connection is returned to the pool.</p>
+ *
+ * @author Ren M. de Bloois
+ */
+public class PooledDataSource implements DataSource
+{
+	/**
+	 * The default maximum number of connections.
+	 */
+	static public final int DEFAULT_MAX_SIZE = 8;
+
+	/**
+	 * The default number of milliseconds after which an idle connection is closed.
+	 */
+	static public final long DEFAULT_IDLE_TIMEOUT = 300000;
+
+	/**
+	 * The default number of milliseconds to wait for a connection when the maximum number of connections has been
+	 * reached.
+	 */
+	static public final long DEFAULT_WAIT_TIMEOUT = 30000;
+
+	/**
+	 * The datasource that provides the physical connections.
+	 */
+	protected DataSource dataSource;
+
+	/**
+	 * The maximum number of connections, both in use and idle.
+	 */
+	protected int maxSize = DEFAULT_MAX_SIZE;
+
+	/**
+	 * The number of milliseconds after which an idle connection is closed. 0 to keep idle connections forever.
+	 */
+	protected long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	/**
+	 * The number of milliseconds to wait for a connection when the maximum number of connections has been reached.
+	 */
+	protected long waitTimeout = DEFAULT_WAIT_TIMEOUT;
+
+	/**
+	 * The query used to validate an idle connection before it is handed out. If null, {@link Connection#isValid(int)}
+	 * is used.
+	 */
+	protected String validationQuery;
+
+	/**
+	 * The idle connections indexed by user name and password. The most recently used connection is at the front.
+	 */
+	private Map< String, LinkedList< PooledConnection > > idle = new HashMap< String, LinkedList< PooledConnection > >();
+
+	/**
+	 * The total number of physical connections, both in use and idle.
+	 */
+	private int size;
+
+	/**
+	 * Has this datasource been closed?
+	 */
+	private boolean closed;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dataSource The datasource that provides the physical connections.
+	 */
+	public PooledDataSource( DataSource dataSource )
+	{
+		Assert.notNull( dataSource );
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Constructor for a pool on top of a {@link DriverDataSource}.
+	 *
+	 * @param driverClassName The database driver class name.
+	 * @param url The database URL.
+	 * @param username The default user name.
+	 * @param password The password for the default user.
+	 */
+	public PooledDataSource( String driverClassName, String url, String username, String password )
+	{
+		this( new DriverDataSource( driverClassName, url, username, password ) );
+	}
+
+	/**
+	 * Sets the maximum number of connections, both in use and idle.
+	 *
+	 * @param maxSize The maximum number of connections.
+	 */
+	public void setMaxSize( int maxSize )
+	{
+		Assert.isTrue( maxSize > 0, "maxSize must be greater than 0" );
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Sets the number of milliseconds after which an idle connection is closed.
+	 *
+	 * @param idleTimeout The number of milliseconds. 0 to keep idle connections forever.
+	 */
+	public void setIdleTimeout( long idleTimeout )
+	{
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Sets the number of milliseconds to wait for a connection when the maximum number of connections has been reached.
+	 *
+	 * @param waitTimeout The number of milliseconds.
+	 */
+	public void setWaitTimeout( long waitTimeout )
+	{
+		this.waitTimeout = waitTimeout;
+	}
+
+	/**
+	 * Sets the query used to validate an idle connection before it is handed out.
+	 *
+	 * @param validationQuery The query. If null, {@link Connection#isValid(int)} is used.
+	 */
+	public void setValidationQuery( String validationQuery )
+	{
+		this.validationQuery = validationQuery;
+	}
+
+	/**
+	 * Returns the total number of physical connections, both in use and idle.
+	 *
+	 * @return The total number of physical connections.
+	 */
+	synchronized public int getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of idle connections.
+	 *
+	 * @return The number of idle connections.
+	 */
+	synchronized public int getIdleCount()
+	{
+		int result = 0;
+		for( LinkedList< PooledConnection > list : this.idle.values() )
+			result += list.size();
+		return result;
+	}
+
+	/**
+	 * Returns a connection using the default user.
+	 */
+	public Connection getConnection() throws SQLException
+	{
+		return getConnection( null, null, false );
+	}
+
+	/**
+	 * Returns a connection using the given user name and password.
+	 *
+	 * @param username The user name to connect with.
+	 * @param password The password of the user.
+	 */
+	public Connection getConnection( String username, String password ) throws SQLException
+	{
+		return getConnection( username, password, true );
+	}
+
+	/**
+	 * Returns an idle connection that is still valid, or a new connection when none is available.
+	 *
+	 * @param username The user name to connect with.
+	 * @param password The password of the user.
+	 * @param withUser Use the user name and password, or the default user of the underlying datasource?
+	 * @return The connection.
+	 * @throws SQLException When a new connection could not be created, or the wait for a connection timed out.
+	 */
+	protected Connection getConnection( String username, String password, boolean withUser ) throws SQLException
+	{
+		String key = withUser ? username + "\n" + password : null;
+
+		while( true )
+		{
+			PooledConnection connection = take( key );
+			if( connection == null )
+				break;
+			if( validate( connection.connection ) )
+				return connection.lease();
+			discard( connection );
+		}
+
+		boolean created = false;
+		try
+		{
+			Connection connection = withUser ? this.dataSource.getConnection( username, password ) : this.dataSource.getConnection();
+			created = true;
+			return new PooledConnection( key, connection ).lease();
+		}
+		finally
+		{
+			if( !created )
+				synchronized( this )
+				{
+					this.size--;
+					notifyAll();
+				}
+		}
+	}
+
+	/**
+	 * Takes an idle connection for the given key from the pool. When there is none, reserves room for a new connection
+	 * and returns null. Waits when the maximum number of connections has been reached.
+	 *
+	 * @param key The user name and password.
+	 * @return An idle connection, or null if a new connection must be created.
+	 * @throws SQLException When the wait for a connection timed out.
+	 */
+	synchronized private PooledConnection take( String key ) throws SQLException
+	{
+		if( this.closed )
+			throw new SQLException( "Connection pool is closed" );
+
+		long end = System.currentTimeMillis() + this.waitTimeout;
+		while( true )
+		{
+			evict();
+
+			LinkedList< PooledConnection > list = this.idle.get( key );
+			if( list != null && !list.isEmpty() )
+				return list.removeFirst();
+
+			if( this.size < this.maxSize )
+			{
+				this.size++;
+				return null;
+			}
+
+			// Make room by closing an idle connection of another user
+			if( closeIdle() )
+				continue;
+
+			long wait = end - System.currentTimeMillis();
+			if( wait <= 0 )
+				throw new SQLException( "Timed out waiting for a connection, maximum of " + this.maxSize + " connections reached" );
+			try
+			{
+				wait( wait );
+			}
+			catch( InterruptedException e )
+			{
+				throw new ThreadInterrupted();
+			}
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool. The connection is rolled back first. If that fails, it is closed.
+	 *
+	 * @param connection The connection to return.
+	 */
+	protected void release( PooledConnection connection )
+	{
+		try
+		{
+			if( !connection.connection.getAutoCommit() )
+				connection.connection.rollback();
+		}
+		catch( SQLException e )
+		{
+			discard( connection );
+			return;
+		}
+
+		synchronized( this )
+		{
+			if( !this.closed )
+			{
+				connection.lastUsed = System.currentTimeMillis();
+				LinkedList< PooledConnection > list = this.idle.get( connection.key );
+				if( list == null )
+					this.idle.put( connection.key, list = new LinkedList< PooledConnection >() );
+				list.addFirst( connection );
+				notifyAll();
+				return;
+			}
+		}
+
+		discard( connection );
+	}
+
+	/**
+	 * Checks if the given connection is still usable.
+	 *
+	 * @param connection The connection to check.
+	 * @return True if the connection is still usable, false otherwise.
+	 */
+	protected boolean validate( Connection connection )
+	{
+		try
+		{
+			if( this.validationQuery == null )
+				return connection.isValid( 5 );
+			Statement statement = connection.createStatement();
+			try
+			{
+				statement.execute( this.validationQuery );
+			}
+			finally
+			{
+				statement.close();
+			}
+			return true;
+		}
+		catch( SQLException e )
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Closes the physical connection and frees its room in the pool.
+	 *
+	 * @param connection The connection to discard.
+	 */
+	protected void discard( PooledConnection connection )
+	{
+		synchronized( this )
+		{
+			this.size--;
+			notifyAll();
+		}
+		closeQuietly( connection.connection );
+	}
+
+	/**
+	 * Closes the idle connections that have not been used for longer than the idle timeout.
+	 */
+	synchronized private void evict()
+	{
+		if( this.idleTimeout <= 0 )
+			return;
+		long limit = System.currentTimeMillis() - this.idleTimeout;
+		for( LinkedList< PooledConnection > list : this.idle.values() )
+			// The least recently used connections are at the end
+			while( !list.isEmpty() && list.getLast().lastUsed < limit )
+			{
+				closeQuietly( list.removeLast().connection );
+				this.size--;
+			}
+	}
+
+	/**
+	 * Closes the least recently used idle connection.
+	 *
+	 * @return True if an idle connection was closed, false if there were no idle connections.
+	 */
+	synchronized private boolean closeIdle()
+	{
+		LinkedList< PooledConnection > oldest = null;
+		for( LinkedList< PooledConnection > list : this.idle.values() )
+			if( !list.isEmpty() && ( oldest == null || list.getLast().lastUsed < oldest.getLast().lastUsed ) )
+				oldest = list;
+		if( oldest == null )
+			return false;
+		closeQuietly( oldest.removeLast().connection );
+		this.size--;
+		return true;
+	}
+
+	/**
+	 * Closes all idle connections. Connections that are in use are closed when they are returned. After this, no new
+	 * connections can be retrieved from this datasource.
+	 */
+	synchronized public void close()
+	{
+		this.closed = true;
+		for( Iterator< LinkedList< PooledConnection > > i = this.idle.values().iterator(); i.hasNext(); )
+		{
+			for( PooledConnection connection : i.next() )
+			{
+				closeQuietly( connection.connection );
+				this.size--;
+			}
+			i.remove();
+		}
+		notifyAll();
+	}
+
+	static private void closeQuietly( Connection connection )
+	{
+		try
+		{
+			connection.close();
+		}
+		catch( SQLException e )
+		{
+			// Nothing we can do
+		}
+	}
+
+	public PrintWriter getLogWriter() throws SQLException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public void setLogWriter( PrintWriter out ) throws SQLException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public void setLoginTimeout( int seconds ) throws SQLException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public int getLoginTimeout() throws SQLException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public < T > T unwrap( Class< T > iface ) throws SQLException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean isWrapperFor( Class< ? > iface ) throws SQLException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+
+	/**
+	 * A physical connection in the pool.
+	 */
+	protected class PooledConnection
+	{
+		/**
+		 * The user name and password that the connection belongs to.
+		 */
+		protected String key;
+
+		/**
+		 * The physical connection.
+		 */
+		protected Connection connection;
+
+		/**
+		 * The time that the connection was returned to the pool.
+		 */
+		protected long lastUsed;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param key The user name and password that the connection belongs to.
+		 * @param connection The physical connection.
+		 */
+		protected PooledConnection( String key, Connection connection )
+		{
+			this.key = key;
+			this.connection = connection;
+		}
+
+		/**
+		 * Hands out the connection with a new proxy.
+		 *
+		 * @return The proxy.
+		 */
+		protected Connection lease()
+		{
+			return (Connection)Proxy.newProxyInstance( Connection.class.getClassLoader(), new Class< ? >[] { Connection.class }, new Lease( this ) );
+		}
+	}
+
+
+	/**
+	 * The proxy of a connection that is handed out to a user of the pool. Each time a connection is handed out, it gets
+	 * a new proxy. Closing the proxy returns the connection to the pool. After that the proxy can't be used anymore,
+	 * even when the connection has been handed out to someone else.
+	 */
+	protected class Lease implements InvocationHandler
+	{
+		/**
+		 * The pooled connection.
+		 */
+		protected PooledConnection pooled;
+
+		/**
+		 * Has the proxy been closed?
+		 */
+		protected volatile boolean closed;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param pooled The pooled connection.
+		 */
+		protected Lease( PooledConnection pooled )
+		{
+			this.pooled = pooled;
+		}
+
+		//@Override
+		public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+		{
+			String name = method.getName();
+			if( name.equals( "close" ) )
+			{
+				synchronized( this )
+				{
+					if( this.closed )
+						return null;
+					this.closed = true;
+				}
+				release( this.pooled );
+				return null;
+			}
+			if( name.equals( "isClosed" ) )
+				return this.closed;
+			if( name.equals( "equals" ) )
+				return proxy == args[ 0 ];
+			if( name.equals( "hashCode" ) )
+				return System.identityHashCode( proxy );
+			if( this.closed )
+				throw new SQLException( "Connection is closed" );
+
+			try
+			{
+				return method.invoke( this.pooled.connection, args );
+			}
+			catch( InvocationTargetException e )
+			{
+				throw e.getCause();
+			}
+		}
+	}
+}
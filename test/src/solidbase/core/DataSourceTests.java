@@ -16,12 +16,14 @@
 
 package solidbase.core;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Set;
 
 import org.testng.annotations.Test;
 
 import solidbase.util.DriverDataSource;
+import solidbase.util.PooledDataSource;
 import solidstack.io.FileResource;
 
 public class DataSourceTests
@@ -71,4 +73,98 @@ public class DataSourceTests
 
 		processor.end();
 	}
+
+	@Test
+	public void testWithPooledDataSource() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( "jdbc:hsqldb:mem:testdb2", "sa", null );
+
+		TestProgressListener progress = new TestProgressListener();
+		PooledDataSource dataSource = new PooledDataSource( "org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:testdb2", "sa", null );
+		dataSource.setMaxSize( 1 );
+		dataSource.setWaitTimeout( 100 );
+
+		for( int i = 0; i < 2; i++ )
+		{
+			Database database = new Database( "default", dataSource, "sa", null, progress );
+			DatabaseContext databases = new DatabaseContext( database );
+			UpgradeProcessor processor = new UpgradeProcessor( progress );
+			processor.setDatabases( databases );
+			UpgradeFile upgradeFile = Factory.openUpgradeFile( new FileResource( "testpatch1.sql" ), progress );
+			processor.setUpgradeFile( upgradeFile );
+			processor.init();
+
+			processor.upgrade( "1.0.2" );
+			TestUtil.verifyVersion( processor, "1.0.2", null, 2, null );
+
+			processor.end();
+
+			// The connection survives the processor
+			assert dataSource.getSize() == 1;
+			assert dataSource.getIdleCount() == 1;
+		}
+
+		Connection connection = dataSource.getConnection( "sa", null );
+		try
+		{
+			dataSource.getConnection( "sa", null );
+			assert false : "Expected SQLException";
+		}
+		catch( SQLException e )
+		{
+			assert e.getMessage().contains( "maximum of 1 connections reached" );
+		}
+		connection.close();
+		assert connection.isClosed();
+
+		dataSource.setIdleTimeout( 1 );
+		try
+		{
+			Thread.sleep( 10 );
+		}
+		catch( InterruptedException e )
+		{
+			throw new RuntimeException( e );
+		}
+		connection = dataSource.getConnection( "sa", null );
+		assert dataSource.getSize() == 1;
+		connection.close();
+
+		dataSource.close();
+		assert dataSource.getSize() == 0;
+	}
+
+	@Test
+	public void testPooledConnectionHandles() throws SQLException
+	{
+		PooledDataSource dataSource = new PooledDataSource( "org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:testdb2", "sa", null );
+		dataSource.setMaxSize( 1 );
+
+		Connection first = dataSource.getConnection();
+		first.close();
+		Connection second = dataSource.getConnection();
+		assert dataSource.getSize() == 1;
+
+		// The handle of the first borrower does not come back to life
+		assert first.isClosed();
+		assert !second.isClosed();
+		try
+		{
+			first.createStatement();
+			assert false : "Expected SQLException";
+		}
+		catch( SQLException e )
+		{
+			assert e.getMessage().contains( "Connection is closed" );
+		}
+
+		// Closing the first handle again does not return the connection of the second borrower
+		first.close();
+		assert dataSource.getIdleCount() == 0;
+		second.createStatement().close();
+		second.close();
+		assert dataSource.getIdleCount() == 1;
+
+		dataSource.close();
+	}
 }
@@ -47,6 +47,8 @@ public class Export
 		processor.closeStatement( statement, true );
 
 		processor.upgrade( "2" );
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "TEMP2", 2 );
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "TEMP3", 2 );
 
 		processor.end();
 	}
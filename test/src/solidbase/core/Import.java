@@ -16,7 +16,9 @@
 
 package solidbase.core;
 
+import java.math.BigDecimal;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 
 import org.testng.annotations.Test;
 
@@ -50,6 +52,24 @@ public class Import
 		patcher.end();
 	}
 
+	@Test
+	public void testImportPrefetch() throws SQLException
+	{
+		String prefetchDb = "jdbc:hsqldb:mem:testImportPrefetch";
+		TestUtil.dropHSQLDBSchema( prefetchDb, "sa", null );
+		UpgradeProcessor patcher = Setup.setupUpgradeProcessor( "folder/testpatch-import1.sql", prefetchDb );
+		patcher.setPrefetch( 2 );
+
+		patcher.upgrade( "1.0.2" );
+		TestUtil.verifyVersion( patcher, "1.0.2", null, 23, null );
+		TestUtil.assertRecordCount( patcher.getCurrentDatabase(), "TEMP", 10 );
+		TestUtil.assertRecordCount( patcher.getCurrentDatabase(), "TEMP2", 6 );
+		TestUtil.assertRecordCount( patcher.getCurrentDatabase(), "TEMP7", 3 );
+		TestUtil.assertQueryResultEquals( patcher, "SELECT TEMP4 FROM TEMP3 WHERE TEMP1 = 2", "-)-\", \nTEST 'X" );
+
+		patcher.end();
+	}
+
 	@Test(dependsOnMethods="testImport")
 	public void testImportNotExist() throws SQLException
 	{
@@ -122,6 +142,55 @@ public class Import
 		patcher.end();
 	}
 
+	@Test
+	public void testImportParallel() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( "jdbc:hsqldb:mem:testdb", "sa", null );
+		UpgradeProcessor patcher = Setup.setupUpgradeProcessor( "testpatch-import4.sql" );
+
+		patcher.upgrade( "1" );
+		TestUtil.assertRecordCount( patcher.getCurrentDatabase(), "TEMP2", 3072 );
+
+		try
+		{
+			patcher.upgrade( "2" );
+			assert false;
+		}
+		catch( SQLExecutionException e )
+		{
+			assert e.getMessage().contains( "integrity constraint violation" );
+			assert e.getMessage().contains( "executing line 4" ) : "Wrong error message: " + e.getMessage();
+		}
+		TestUtil.assertRecordCount( patcher.getCurrentDatabase(), "TEMP3", 0 );
+
+		patcher.end();
+	}
+
+	@Test
+	public void testImportTyped() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( "jdbc:hsqldb:mem:testdb", "sa", null );
+		UpgradeProcessor patcher = Setup.setupUpgradeProcessor( "testpatch-import5.sql" );
+
+		patcher.upgrade( "1" );
+		TestUtil.assertRecordCount( patcher.getCurrentDatabase(), "TEMP", 3 );
+		TestUtil.assertQueryResultEquals( patcher, "SELECT SUM( AMOUNT ) FROM TEMP", new BigDecimal( "13.75" ) );
+		TestUtil.assertQueryResultEquals( patcher, "SELECT ID FROM TEMP WHERE DAY IS NULL AND STAMP IS NULL AND FLAG IS NULL AND NAME IS NULL", 2 );
+		TestUtil.assertQueryResultEquals( patcher, "SELECT STAMP FROM TEMP WHERE ID = 3", Timestamp.valueOf( "2012-03-01 00:00:00.5" ) );
+
+		try
+		{
+			patcher.upgrade( "2" );
+			assert false;
+		}
+		catch( SourceException e )
+		{
+			assert e.getMessage().contains( "Value [01-04-2012] with index 3 is not a valid DATE" ) : "Wrong error message: " + e.getMessage();
+		}
+
+		patcher.end();
+	}
+
 	@Test
 	static public void testProgress() throws SQLException
 	{
@@ -0,0 +1,169 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.testng.annotations.Test;
+
+import solidstack.io.FileResource;
+
+public class Index
+{
+	static private File copy( String fileName ) throws IOException
+	{
+		File file = File.createTempFile( "solidbase", ".sql" );
+		file.deleteOnExit();
+		UpgradeFileIndex.getIndexFile( file ).deleteOnExit();
+		InputStream in = new FileInputStream( fileName );
+		try
+		{
+			OutputStream out = new FileOutputStream( file );
+			try
+			{
+				byte[] buffer = new byte[ 4096 ];
+				int read;
+				while( ( read = in.read( buffer ) ) >= 0 )
+					out.write( buffer, 0, read );
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void testIndex() throws IOException
+	{
+		File file = copy( "testpatch1.sql" );
+		File indexFile = UpgradeFileIndex.getIndexFile( file );
+		assert !indexFile.exists();
+
+		TestProgressListener progress = new TestProgressListener();
+		UpgradeFile scanned = Factory.openUpgradeFile( new FileResource( file ), progress );
+		scanned.close();
+		assert !indexFile.exists();
+
+		scanned = Factory.openUpgradeFile( new FileResource( file ), progress, false, true );
+		scanned.close();
+		assert indexFile.exists();
+
+		UpgradeFile indexed = new UpgradeFile( Factory.openRALR( new FileResource( file ), progress ) );
+		try
+		{
+			assert UpgradeFileIndex.load( indexed, file, progress );
+			assert indexed.versions.equals( scanned.versions );
+			assert indexed.getSegment( null, "1.0.1" ).getLineNumber() == scanned.getSegment( null, "1.0.1" ).getLineNumber();
+			assert indexed.getSegment( "1.0.1", "1.0.2" ).getLineNumber() == scanned.getSegment( "1.0.1", "1.0.2" ).getLineNumber();
+		}
+		finally
+		{
+			indexed.close();
+		}
+
+		// A changed upgrade file invalidates the index
+		OutputStream out = new FileOutputStream( file, true );
+		try
+		{
+			out.write( "\n".getBytes() );
+		}
+		finally
+		{
+			out.close();
+		}
+		indexed = new UpgradeFile( Factory.openRALR( new FileResource( file ), progress ) );
+		try
+		{
+			assert !UpgradeFileIndex.load( indexed, file, progress );
+		}
+		finally
+		{
+			indexed.close();
+		}
+	}
+
+	@Test
+	public void testOutOfDate() throws IOException
+	{
+		File file = copy( "testpatch1.sql" );
+		File indexFile = UpgradeFileIndex.getIndexFile( file );
+
+		TestProgressListener progress = new TestProgressListener();
+		Factory.openUpgradeFile( new FileResource( file ), progress, false, true ).close();
+		assert indexFile.exists();
+
+		UpgradeFile indexed = Factory.openUpgradeFile( new FileResource( file ), progress, false, true );
+		try
+		{
+			assert indexed.indexFile != null;
+
+			// Simulate a change in the middle of the upgrade file that is not detected by the hash
+			UpgradeSegment first = indexed.getSegment( null, "1.0.1" );
+			UpgradeSegment second = indexed.getSegment( "1.0.1", "1.0.2" );
+			int line = first.getLineNumber();
+			first.setLocation( second.getLocation() );
+
+			indexed.gotoSegment( first );
+			assert first.getLineNumber() == line;
+			assert indexed.indexFile == null;
+			assert !indexFile.exists();
+		}
+		finally
+		{
+			indexed.close();
+		}
+	}
+
+	@Test
+	public void testLazy() throws IOException
+	{
+		File file = copy( "testpatch1.sql" );
+
+		TestProgressListener progress = new TestProgressListener();
+		UpgradeFile lazy = Factory.openUpgradeFile( new FileResource( file ), progress, true );
+		try
+		{
+			assert !UpgradeFileIndex.getIndexFile( file ).exists();
+			UpgradeSegment first = lazy.getSegment( null, "1.0.1" );
+			UpgradeSegment second = lazy.getSegment( "1.0.1", "1.0.2" );
+			assert first.getLocation() == null;
+			assert second.getLocation() == null;
+
+			lazy.gotoSegment( first );
+			assert first.getLocation() != null;
+			assert second.getLocation() == null;
+
+			lazy.gotoSegment( second );
+			assert second.getLineNumber() > first.getLineNumber();
+		}
+		finally
+		{
+			lazy.close();
+		}
+	}
+}
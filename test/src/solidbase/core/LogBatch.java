@@ -0,0 +1,98 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LogBatch
+{
+	static private final String db = "jdbc:hsqldb:mem:testdb2";
+
+	@Test
+	public void testLogBatch() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( db, "sa", null );
+		UpgradeProcessor processor = Setup.setupUpgradeProcessor( "testpatch-logbatch1.sql", db );
+
+		processor.upgrade( "1" );
+		TestUtil.verifyVersion( processor, "1", null, 5, "1.1" );
+		TestUtil.verifyHistoryIncludes( processor, "1" );
+		TestUtil.assertQueryResultEquals( processor, "SELECT MAX( STATEMENT ) FROM DBVERSIONLOG WHERE TYPE = 'S' AND TARGET = '1'", 5 );
+
+		processor.upgrade( "2" );
+		TestUtil.verifyVersion( processor, "2", null, 3, "1.1" );
+		TestUtil.verifyHistoryIncludes( processor, "2" );
+		TestUtil.assertQueryResultEquals( processor, "SELECT MAX( STATEMENT ) FROM DBVERSIONLOG WHERE TYPE = 'S' AND TARGET = '2'", 3 );
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "TEMP1", 7 );
+
+		// The log is flushed when a statement fails
+		try
+		{
+			processor.upgrade( "3" );
+			Assert.fail( "Expected an SQLExecutionException" );
+		}
+		catch( SQLExecutionException e )
+		{
+			Assert.assertTrue( e.getMessage().contains( "TEMP2" ) );
+		}
+		TestUtil.verifyVersion( processor, "2", "3", 2, "1.1" );
+		TestUtil.assertQueryResultEquals( processor, "SELECT COUNT(*) FROM DBVERSIONLOG WHERE TYPE = 'S' AND TARGET = '3'", 3 );
+
+		// The restart continues with the failed statement, the 2 statements before it are not executed again
+		processor.getCurrentDatabase().getConnection().createStatement().executeUpdate( "CREATE TABLE TEMP2 ( ID INTEGER )" );
+		processor.upgrade( "3" );
+		TestUtil.verifyVersion( processor, "3", null, 3, "1.1" );
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "TEMP1", 9 );
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "TEMP2", 1 );
+
+		// The progress is committed after each statement, while the log records wait for the batch to fill up. An
+		// upgrade that is killed now restarts with the third statement, and its log misses 2 records.
+		DBVersion dbVersion = processor.dbVersion;
+		dbVersion.setLogBatchSize( 10 );
+		dbVersion.updateProgress( "4", 1 );
+		dbVersion.log( "S", "3", "4", 1, "INSERT INTO TEMP1 ( ID ) VALUES ( 11 )", null );
+		dbVersion.updateProgress( "4", 2 );
+		dbVersion.log( "S", "3", "4", 2, "INSERT INTO TEMP1 ( ID ) VALUES ( 12 )", null );
+
+		Connection connection = DriverManager.getConnection( db, "sa", "" );
+		try
+		{
+			ResultSet result = connection.createStatement().executeQuery( "SELECT TARGET, STATEMENTS FROM DBVERSION" );
+			Assert.assertTrue( result.next() );
+			Assert.assertEquals( result.getString( 1 ), "4" );
+			Assert.assertEquals( result.getInt( 2 ), 2 );
+			result = connection.createStatement().executeQuery( "SELECT COUNT(*) FROM DBVERSIONLOG WHERE TARGET = '4'" );
+			Assert.assertTrue( result.next() );
+			Assert.assertEquals( result.getInt( 1 ), 0 );
+		}
+		finally
+		{
+			connection.close();
+		}
+
+		dbVersion.flushLog();
+		TestUtil.assertQueryResultEquals( processor, "SELECT COUNT(*) FROM DBVERSIONLOG WHERE TARGET = '4'", 2 );
+
+		processor.end();
+	}
+}
@@ -0,0 +1,92 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.sql.SQLException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class Parallel
+{
+	static private final String db = "jdbc:hsqldb:mem:testdb2";
+
+	@Test
+	public void testParallel() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( db, "sa", null );
+		UpgradeProcessor processor = Setup.setupUpgradeProcessor( "testpatch-parallel1.sql", db );
+
+		processor.upgrade( "1" );
+		TestUtil.verifyVersion( processor, "1", null, 5, "1.1" );
+		TestUtil.assertQueryResultEquals( processor, "SELECT COUNT(*) FROM DBVERSIONLOG WHERE TYPE = 'S' AND TARGET = '1'", 5 );
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "TEMP4", 0 );
+
+		try
+		{
+			processor.upgrade( "2" );
+			Assert.fail( "Expected an SQLExecutionException" );
+		}
+		catch( SQLExecutionException e )
+		{
+			Assert.assertTrue( e.getMessage().contains( "TEMP6" ) );
+		}
+		TestUtil.verifyVersion( processor, "1", "2", 1, "1.1" );
+		processor.end();
+
+		// The tables that have been created must not be created again
+		processor = Setup.setupUpgradeProcessor( "testpatch-parallel2.sql", db );
+		processor.upgrade( "2" );
+		TestUtil.verifyVersion( processor, "2", null, 3, "1.1" );
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "TEMP7", 0 );
+
+		processor.end();
+	}
+
+	@Test
+	public void testNotAllowed() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( db, "sa", null );
+		UpgradeProcessor processor = Setup.setupUpgradeProcessor( "testpatch-parallel3.sql", db );
+
+		try
+		{
+			processor.upgrade( "1" );
+			Assert.fail( "Expected a SourceException" );
+		}
+		catch( SourceException e )
+		{
+			Assert.assertTrue( e.getMessage().contains( "Only SQL statements are allowed in a PARALLEL block" ) );
+		}
+		processor.end();
+
+		TestUtil.dropHSQLDBSchema( db, "sa", null );
+		processor = Setup.setupUpgradeProcessor( "testpatch-parallel3.sql", db );
+		try
+		{
+			processor.upgrade( "2" );
+			Assert.fail( "Expected a SourceException" );
+		}
+		catch( SourceException e )
+		{
+			Assert.assertTrue( e.getMessage().contains( "Annotations are not allowed in a PARALLEL block" ) );
+		}
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "TEMP2", 0 );
+
+		processor.end();
+	}
+}
@@ -28,6 +28,7 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import solidbase.core.UpgradeSegment.Type;
+import solidbase.util.AssertionFailedException;
 import solidstack.io.FileResource;
 import solidstack.io.RandomAccessSourceReader;
 
@@ -191,4 +192,84 @@ public class PatchFileTests
 
 		Assert.assertEquals( result, expected );
 	}
+
+	/**
+	 * Tests the path selection in a large upgrade graph with release branches that are connected with switches and
+	 * downgrades.
+	 *
+	 * @throws IOException Whenever it needs to.
+	 */
+	@Test
+	public void testUpgradePath() throws IOException
+	{
+		RandomAccessSourceReader ralr = new RandomAccessSourceReader( new FileResource( "testpatch1.sql" ) );
+		UpgradeFile upgradeFile = new UpgradeFile( ralr );
+		upgradeFile.close();
+
+		// Main line 1 to 1000, with a release branch at each 10th version that switches back to the next one
+		Map< String, Collection< UpgradeSegment > > patches = upgradeFile.segments;
+		for( int i = 1; i < 1000; i++ )
+		{
+			put( patches, "" + i, new UpgradeSegment( Type.UPGRADE, "" + i, "" + ( i + 1 ), false ) );
+			if( i % 10 == 0 )
+			{
+				put( patches, "" + i, new UpgradeSegment( Type.UPGRADE, "" + i, i + ".1", false ) );
+				put( patches, i + ".1", new UpgradeSegment( Type.SWITCH, i + ".1", "" + ( i + 1 ), false ) );
+				put( patches, i + ".1", new UpgradeSegment( Type.DOWNGRADE, i + ".1", "" + i, false ) );
+			}
+		}
+
+		// Prefer the main line over the switches
+		Path path = upgradeFile.getUpgradePath( "1", "1000", false );
+		Assert.assertEquals( path.size(), 999 );
+		Assert.assertEquals( path.switches, 0 );
+
+		// Only a switch leads from a branch to the main line
+		path = upgradeFile.getUpgradePath( "500.1", "1000", false );
+		Assert.assertEquals( path.size(), 500 );
+		Assert.assertEquals( path.switches, 1 );
+
+		// A downgrade only when allowed
+		Assert.assertNull( upgradeFile.getUpgradePath( "500.1", "500", false ) );
+		path = upgradeFile.getUpgradePath( "500.1", "500", true );
+		Assert.assertEquals( path.size(), 1 );
+		Assert.assertTrue( path.hasDowngrade );
+	}
+
+	/**
+	 * Tests the path selection when the downgrades and the switches do not decide. The path with the fewest segments is
+	 * selected, and when the number of segments does not decide either, the path selection fails.
+	 *
+	 * @throws IOException Whenever it needs to.
+	 */
+	@Test
+	public void testUpgradePathTie() throws IOException
+	{
+		RandomAccessSourceReader ralr = new RandomAccessSourceReader( new FileResource( "testpatch1.sql" ) );
+		UpgradeFile upgradeFile = new UpgradeFile( ralr );
+		upgradeFile.close();
+
+		// 1 to 3 in 1 or 2 segments, and 3 to 5 through 4a or 4b
+		Map< String, Collection< UpgradeSegment > > patches = upgradeFile.segments;
+		put( patches, "1", new UpgradeSegment( Type.UPGRADE, "1", "2", false ) );
+		put( patches, "2", new UpgradeSegment( Type.UPGRADE, "2", "3", false ) );
+		put( patches, "1", new UpgradeSegment( Type.UPGRADE, "1", "3", false ) );
+		put( patches, "3", new UpgradeSegment( Type.UPGRADE, "3", "4a", false ) );
+		put( patches, "3", new UpgradeSegment( Type.UPGRADE, "3", "4b", false ) );
+		put( patches, "4a", new UpgradeSegment( Type.UPGRADE, "4a", "5", false ) );
+		put( patches, "4b", new UpgradeSegment( Type.UPGRADE, "4b", "5", false ) );
+
+		Path path = upgradeFile.getUpgradePath( "1", "3", false );
+		Assert.assertEquals( path.size(), 1 );
+
+		try
+		{
+			upgradeFile.getUpgradePath( "1", "5", false );
+			Assert.fail( "Expected an AssertionFailedException" );
+		}
+		catch( AssertionFailedException e )
+		{
+			Assert.assertTrue( e.getMessage().contains( "Couldn't decide between 2 upgrade paths" ) );
+		}
+	}
 }
@@ -0,0 +1,61 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class Profile
+{
+	static private final String db = "jdbc:hsqldb:mem:testdb2";
+
+	@Test
+	public void testProfile() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( db, "sa", null );
+		UpgradeProcessor processor = Setup.setupUpgradeProcessor( "testpatch-profile1.sql", db );
+		UpgradeProfile profile = new UpgradeProfile( 3 );
+		processor.setProfile( profile );
+
+		processor.upgrade( "2" );
+		TestUtil.verifyVersion( processor, "2", null, 1, "1.1" );
+
+		List< UpgradeProfile.StatementTime > slowest = profile.getSlowest();
+		Assert.assertEquals( slowest.size(), 3 );
+		for( int i = 1; i < slowest.size(); i++ )
+			Assert.assertTrue( slowest.get( i - 1 ).getTime() >= slowest.get( i ).getTime() );
+		Assert.assertTrue( slowest.get( 0 ).getLocation().matches( ".*testpatch-profile1\\.sql:\\d+" ), slowest.get( 0 ).getLocation() );
+
+		List< UpgradeProfile.SegmentTime > segments = profile.getSegments();
+		Assert.assertEquals( segments.size(), 3 );
+		Assert.assertEquals( segments.get( 1 ).getSegment(), "UPGRADE \"\" --> \"1\"" );
+		Assert.assertEquals( segments.get( 1 ).getStatements(), 3 );
+		Assert.assertEquals( segments.get( 2 ).getSegment(), "UPGRADE \"1\" --> \"2\"" );
+		Assert.assertEquals( segments.get( 2 ).getStatements(), 1 );
+
+		// The DBVERSIONLOG table has the optional DURATION column
+		TestUtil.assertQueryResultEquals( processor, "SELECT COUNT(*) FROM DBVERSIONLOG WHERE TYPE IN ( 'S', 'B' ) AND DURATION IS NULL", 0 );
+		TestUtil.assertQueryResultEquals( processor, "SELECT COUNT(*) FROM DBVERSIONLOG WHERE TYPE IN ( 'S', 'B' )", 6 );
+
+		Assert.assertEquals( processor.getMetrics().getTimer( "segment" ).getCount(), 3 );
+
+		processor.end();
+	}
+}
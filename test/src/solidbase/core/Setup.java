@@ -52,13 +52,19 @@ public class Setup
 	}
 
 	static public SQLProcessor setupSQLProcessor( String fileName )
+	{
+		return setupSQLProcessor( fileName, 0 );
+	}
+
+	static public SQLProcessor setupSQLProcessor( String fileName, int prefetch )
 	{
 		TestProgressListener progress = new TestProgressListener();
 		Database database = new Database( "default", "org.hsqldb.jdbcDriver", defaultdb, "sa", null, progress );
 		SQLProcessor processor = new SQLProcessor( progress );
+		processor.setPrefetch( prefetch );
 		SQLFile sqlFile = Factory.openSQLFile( Resources.getResource( fileName ), progress );
 		DatabaseContext databases = new DatabaseContext( database );
-		SQLContext context = new SQLContext( sqlFile.getSource() );
+		SQLContext context = new SQLContext( processor.prefetch( sqlFile.getSource() ) );
 		context.setDatabases( databases );
 		processor.setContext( context );
 		return processor;
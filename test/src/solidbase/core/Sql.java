@@ -20,6 +20,8 @@ import java.sql.SQLException;
 
 import org.testng.annotations.Test;
 
+import solidbase.util.Metrics;
+
 public class Sql
 {
 	@Test
@@ -34,6 +36,51 @@ public class Sql
 		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "USERS", 13 );
 	}
 
+	@Test
+	public void testSqlPrefetch() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( "jdbc:hsqldb:mem:testdb", "sa", null );
+		SQLProcessor processor = Setup.setupSQLProcessor( "testsql1.sql", 2 );
+
+		processor.process();
+		processor.end();
+
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "USERS", 13 );
+	}
+
+	@Test
+	public void testSqlBatch() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( "jdbc:hsqldb:mem:testdb", "sa", null );
+		SQLProcessor processor = Setup.setupSQLProcessor( "testsql-batch1.sql" );
+
+		processor.process();
+		processor.end();
+
+		TestUtil.assertRecordCount( processor.getCurrentDatabase(), "USERS", 7 );
+	}
+
+	@Test
+	public void testSqlMetrics() throws SQLException
+	{
+		TestUtil.dropHSQLDBSchema( "jdbc:hsqldb:mem:testdb", "sa", null );
+		SQLProcessor processor = Setup.setupSQLProcessor( "testsql1.sql" );
+
+		processor.process();
+		processor.end();
+
+		Metrics metrics = processor.getMetrics();
+		Metrics.Timer statements = metrics.getTimer( "statement" );
+		assert statements.getCount() > 0;
+		assert metrics.getTimer( "statement.jdbc" ).getCount() <= statements.getCount();
+		assert metrics.getTimer( "parse" ).getCount() > statements.getCount(); // The last read returns null
+
+		long total = 0;
+		for( long count : statements.getHistogram() )
+			total += count;
+		assert total == statements.getCount();
+	}
+
 	@Test
 	// TODO Move to console test
 	public void testSql2() throws SQLException
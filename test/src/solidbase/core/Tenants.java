@@ -0,0 +1,55 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.core;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import solidstack.io.FileResource;
+
+public class Tenants
+{
+	@Test
+	public void testTenants() throws SQLException
+	{
+		for( int i = 1; i <= 3; i++ )
+			TestUtil.dropHSQLDBSchema( "jdbc:hsqldb:mem:tenant" + i, "sa", null );
+
+		Runner runner = new Runner();
+		runner.setProgressListener( new TestProgressListener() );
+		runner.setConnectionAttributes( "default", "org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:tenant1", "sa", "" );
+		runner.setUpgradeFile( new FileResource( "testpatch1.sql" ) );
+		runner.setUpgradeTarget( "1.0.2" );
+		runner.addTenant( "tenant1", "jdbc:hsqldb:mem:tenant1", null, null );
+		runner.addTenant( "tenant2", "jdbc:hsqldb:mem:tenant2", null, null );
+		runner.addTenant( "tenant3", "jdbc:hsqldb:mem:tenant3", "nobody", "wrong" );
+		runner.setTenantThreads( 2 );
+
+		Map< String, Throwable > failures = runner.upgradeTenants();
+		Assert.assertEquals( failures.keySet().toString(), "[tenant3]" );
+
+		for( int i = 1; i <= 2; i++ )
+		{
+			UpgradeProcessor processor = Setup.setupUpgradeProcessor( "testpatch1.sql", "jdbc:hsqldb:mem:tenant" + i );
+			TestUtil.verifyVersion( processor, "1.0.2", null, 2, null );
+			processor.end();
+		}
+	}
+}
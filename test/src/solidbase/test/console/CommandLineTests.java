@@ -177,19 +177,26 @@ public class CommandLineTests
 		String output = TestUtil.generalizeOutput( console.getOutput() );
 //		System.out.println( "[[[" + output + "]]]" );
 		Assert.assertEquals( output,
-				"usage: solidbase [-config <filename>] [-D <property=value>] [-downgradeallowed]\n" +
-				"       [-driver <classname>] [-dumplog <filename>] [-help] [-password\n" +
-				"       <password>] [-sqlfile <filename>] [-target <version>] [-upgradefile\n" +
-				"       <filename>] [-url <url>] [-username <username>] [-verbose]\n" +
+				"usage: solidbase [-batch <size>] [-config <filename>] [-D <property=value>]\n" +
+				"       [-downgradeallowed] [-driver <classname>] [-dumplog <filename>] [-help]\n" +
+				"       [-metrics <filename>] [-password <password>] [-profile <filename>]\n" +
+				"       [-sqlfile <filename>] [-target <version>] [-tenants <filename>] [-threads\n" +
+				"       <count>] [-upgradefile <filename>] [-url <url>] [-username <username>]\n" +
+				"       [-verbose]\n" +
+				" -batch <size>             sends DML statements in batches of the given size\n" +
 				" -config <filename>        specifies a properties file to use\n" +
 				" -D <property=value>       parameter to the SQL file or upgrade file\n" +
 				" -downgradeallowed         allow downgrades to reach the target\n" +
 				" -driver <classname>       sets the JDBC driverclass\n" +
 				" -dumplog <filename>       export historical upgrade results to an XML file\n" +
 				" -help                     Brings up this page\n" +
+				" -metrics <filename>       writes timings and counters to a JSON file\n" +
 				" -password <password>      sets the password of the default user\n" +
+				" -profile <filename>       writes a profile of the upgrade to a JSON file\n" +
 				" -sqlfile <filename>       specifies an SQL file to execute\n" +
 				" -target <version>         sets the target version to upgrade to\n" +
+				" -tenants <filename>       upgrades the tenant databases listed in the file\n" +
+				" -threads <count>          number of tenants to upgrade at the same time\n" +
 				" -upgradefile <filename>   specifies the file containing the database upgrades\n" +
 				" -url <url>                sets the URL for the database\n" +
 				" -username <username>      sets the default user name to connect with\n" +
@@ -208,19 +215,26 @@ public class CommandLineTests
 		String output = TestUtil.generalizeOutput( console.getOutput() );
 //		System.out.println( "[[[" + output + "]]]" );
 		Assert.assertEquals( output,
-				"usage: solidbase [-config <filename>] [-D <property=value>] [-downgradeallowed]\n" +
-				"       [-driver <classname>] [-dumplog <filename>] [-help] [-password\n" +
-				"       <password>] [-sqlfile <filename>] [-target <version>] [-upgradefile\n" +
-				"       <filename>] [-url <url>] [-username <username>] [-verbose]\n" +
+				"usage: solidbase [-batch <size>] [-config <filename>] [-D <property=value>]\n" +
+				"       [-downgradeallowed] [-driver <classname>] [-dumplog <filename>] [-help]\n" +
+				"       [-metrics <filename>] [-password <password>] [-profile <filename>]\n" +
+				"       [-sqlfile <filename>] [-target <version>] [-tenants <filename>] [-threads\n" +
+				"       <count>] [-upgradefile <filename>] [-url <url>] [-username <username>]\n" +
+				"       [-verbose]\n" +
+				" -batch <size>             sends DML statements in batches of the given size\n" +
 				" -config <filename>        specifies a properties file to use\n" +
 				" -D <property=value>       parameter to the SQL file or upgrade file\n" +
 				" -downgradeallowed         allow downgrades to reach the target\n" +
 				" -driver <classname>       sets the JDBC driverclass\n" +
 				" -dumplog <filename>       export historical upgrade results to an XML file\n" +
 				" -help                     Brings up this page\n" +
+				" -metrics <filename>       writes timings and counters to a JSON file\n" +
 				" -password <password>      sets the password of the default user\n" +
+				" -profile <filename>       writes a profile of the upgrade to a JSON file\n" +
 				" -sqlfile <filename>       specifies an SQL file to execute\n" +
 				" -target <version>         sets the target version to upgrade to\n" +
+				" -tenants <filename>       upgrades the tenant databases listed in the file\n" +
+				" -threads <count>          number of tenants to upgrade at the same time\n" +
 				" -upgradefile <filename>   specifies the file containing the database upgrades\n" +
 				" -url <url>                sets the URL for the database\n" +
 				" -username <username>      sets the default user name to connect with\n" +
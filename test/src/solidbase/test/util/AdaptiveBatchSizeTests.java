@@ -0,0 +1,65 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.test.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import solidbase.util.AdaptiveBatchSize;
+
+public class AdaptiveBatchSizeTests
+{
+	/**
+	 * Executes batches against a simulated database. Each batch costs a round trip, a time per record, and a time that
+	 * grows with the square of the batch size. The best batch size is the square root of round trip / square.
+	 */
+	static private void execute( AdaptiveBatchSize batching, int batches, double record, double square )
+	{
+		for( int i = 0; i < batches; i++ )
+		{
+			int size = batching.size();
+			batching.executed( size, (long)( 1000000 + size * record + (double)size * size * square ) );
+		}
+	}
+
+	@Test
+	static public void testSettle()
+	{
+		AdaptiveBatchSize batching = new AdaptiveBatchSize( 10, 10000 );
+		execute( batching, 100, 1000, 0.25 ); // Best size is 2000
+		int size = batching.size();
+		Assert.assertTrue( size > 1500 && size < 2500, "size: " + size );
+
+		// Settled, the same load keeps the same size
+		execute( batching, 100, 1000, 0.25 );
+		Assert.assertEquals( batching.size(), size );
+	}
+
+	@Test
+	static public void testLoadChange()
+	{
+		AdaptiveBatchSize batching = new AdaptiveBatchSize( 10, 10000 );
+		execute( batching, 100, 1000, 1 ); // Best size is 1000
+		int size = batching.size();
+		Assert.assertTrue( size > 750 && size < 1250, "size: " + size );
+
+		// The load reaches wide rows, the throughput drops sharply and the batch size adapts again
+		execute( batching, 100, 10000, 100 ); // Best size is 100
+		size = batching.size();
+		Assert.assertTrue( size > 75 && size < 125, "size: " + size );
+	}
+}
@@ -0,0 +1,95 @@
+package solidbase.test.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.testng.annotations.Test;
+
+import solidbase.util.CSVRecord;
+import solidbase.util.CSVScanner;
+import solidbase.util.ParallelCSVScanner;
+import solidstack.io.FileResource;
+import solidstack.io.SourceLocation;
+
+public class CSV
+{
+	static private File createFile( boolean emptyLine ) throws IOException
+	{
+		File file = File.createTempFile( "solidbase", ".csv" );
+		file.deleteOnExit();
+		Writer out = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+		try
+		{
+			for( int i = 0; i < 5000; i++ )
+			{
+				if( i % 7 == 0 )
+					out.write( i + ",\"multi\nline, \"\"quoted\"\"\",Ren\r\n" );
+				else
+					out.write( i + ",value " + i + ",\r\n" );
+				if( emptyLine && i == 3000 )
+					out.write( "\r\n" );
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	static private void compare( File file ) throws IOException
+	{
+		SourceLocation location = new SourceLocation( new FileResource( file.getPath() ), 1 );
+		CSVScanner expected = new CSVScanner( new InputStreamReader( new FileInputStream( file ), "UTF-8" ), location, ',', false );
+		ParallelCSVScanner actual = new ParallelCSVScanner( file, "UTF-8", location, ',', false, 3, 1000 );
+		try
+		{
+			CSVRecord record1 = new CSVRecord();
+			CSVRecord record2 = new CSVRecord();
+			while( true )
+			{
+				int line = expected.getLineNumber();
+				assert actual.getLineNumber() == line : "Expected line " + line + ", got " + actual.getLineNumber();
+				boolean more = expected.getRecord( record1 );
+				assert actual.getRecord( record2 ) == more;
+				if( !more )
+					break;
+				assert record1.size() == record2.size();
+				for( int i = 0; i < record1.size(); i++ )
+					assert record1.getString( i ).equals( record2.getString( i ) ) : "Line " + line + ": [" + record1.getString( i ) + "] != [" + record2.getString( i ) + "]";
+			}
+		}
+		finally
+		{
+			expected.close();
+			actual.close();
+		}
+	}
+
+	@Test
+	public void testParallelScanner() throws IOException
+	{
+		compare( createFile( false ) );
+	}
+
+	@Test
+	public void testParallelScannerEmptyLine() throws IOException
+	{
+		compare( createFile( true ) );
+	}
+
+	@Test
+	public void testSplittable()
+	{
+		assert ParallelCSVScanner.isSplittable( "UTF-8" );
+		assert ParallelCSVScanner.isSplittable( "ISO-8859-1" );
+		assert !ParallelCSVScanner.isSplittable( "UTF-16" );
+		assert !ParallelCSVScanner.isSplittable( "UTF-16LE" );
+		assert !ParallelCSVScanner.isSplittable( "unknown" );
+	}
+}
@@ -1,13 +1,22 @@
 package solidbase.test.util;
 
 import java.io.FileNotFoundException;
+import java.io.StringReader;
+import java.math.BigDecimal;
 
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import solidbase.core.SourceException;
+import solidbase.util.JSONArray;
+import solidbase.util.JSONObject;
 import solidbase.util.JSONReader;
+import solidbase.util.JSONScanner;
+import solidbase.util.JSONScanner.TYPE;
 import solidbase.util.JSONWriter;
 import solidstack.io.FileResource;
 import solidstack.io.Resource;
+import solidstack.io.SourceLocation;
 import solidstack.io.SourceReader;
 import solidstack.io.SourceReaders;
 
@@ -41,4 +50,74 @@ public class JSON
 		writer.writeFormatted( object, 80 );
 		writer.close();
 	}
+
+	@Test
+	public void testScanner()
+	{
+		JSONScanner scanner = new JSONScanner( new StringReader( "{ \"fields\": [ { \"type\": \"INTEGER\" } ] }\n[ 1, -23, 4.5e3, \"a\\u00e9\\n\", true, null, 123456789012345678901, { \"file\": \"x\" } ]\n[]\n" ), new SourceLocation( null, 1 ) );
+
+		Assert.assertEquals( scanner.next(), TYPE.BEGIN_OBJECT );
+		JSONObject header = (JSONObject)scanner.readValue();
+		Assert.assertEquals( ( (JSONObject)header.getArray( "fields" ).get( 0 ) ).getString( "type" ), "INTEGER" );
+
+		Assert.assertEquals( scanner.next(), TYPE.BEGIN_ARRAY );
+		Assert.assertEquals( scanner.getLineNumber(), 2 );
+		Assert.assertEquals( scanner.next(), TYPE.NUMBER );
+		Assert.assertTrue( scanner.isLong() );
+		Assert.assertEquals( scanner.getLong(), 1 );
+		Assert.assertEquals( scanner.next(), TYPE.NUMBER );
+		Assert.assertEquals( scanner.getLong(), -23 );
+		Assert.assertEquals( scanner.next(), TYPE.NUMBER );
+		Assert.assertFalse( scanner.isLong() );
+		Assert.assertEquals( scanner.getDecimal(), new BigDecimal( "4.5e3" ) );
+		Assert.assertEquals( scanner.next(), TYPE.STRING );
+		Assert.assertEquals( scanner.getString(), "a\u00e9\n" );
+		Assert.assertEquals( scanner.next(), TYPE.BOOLEAN );
+		Assert.assertTrue( scanner.getBoolean() );
+		Assert.assertEquals( scanner.next(), TYPE.NULL );
+		Assert.assertNull( scanner.getString() );
+		Assert.assertEquals( scanner.next(), TYPE.NUMBER );
+		Assert.assertFalse( scanner.isLong() );
+		Assert.assertEquals( scanner.getDecimal(), new BigDecimal( "123456789012345678901" ) );
+		Assert.assertEquals( scanner.next(), TYPE.BEGIN_OBJECT );
+		Assert.assertEquals( ( (JSONObject)scanner.readValue() ).getString( "file" ), "x" );
+		Assert.assertEquals( scanner.next(), TYPE.END_ARRAY );
+
+		Assert.assertEquals( scanner.next(), TYPE.BEGIN_ARRAY );
+		Assert.assertEquals( scanner.next(), TYPE.END_ARRAY );
+		Assert.assertEquals( scanner.next(), TYPE.EOF );
+		scanner.close();
+	}
+
+	@Test
+	public void testScannerSkip()
+	{
+		JSONScanner scanner = new JSONScanner( new StringReader( "[ [ 1, [ 2 ] ], { \"a\": [ 3 ] } ] [ 4 ]" ), new SourceLocation( null, 1 ) );
+		Assert.assertEquals( scanner.next(), TYPE.BEGIN_ARRAY );
+		scanner.skipValue();
+		JSONArray array = (JSONArray)( scanner.next() == TYPE.BEGIN_ARRAY ? scanner.readValue() : null );
+		Assert.assertEquals( array.size(), 1 );
+		Assert.assertEquals( array.get( 0 ), new BigDecimal( 4 ) );
+		Assert.assertEquals( scanner.next(), TYPE.EOF );
+	}
+
+	@Test
+	public void testScannerErrors()
+	{
+		String[] inputs = { "[ 1, ]", "[ 1 2 ]", "{ \"a\" 1 }", "[ tru ]", "[ \"abc", "[ - ]", "{ \"a\": 1, }", "[ 1" };
+		for( String input : inputs )
+		{
+			JSONScanner scanner = new JSONScanner( new StringReader( input ), new SourceLocation( null, 1 ) );
+			try
+			{
+				while( scanner.next() != TYPE.EOF )
+					continue;
+				Assert.fail( "Expected a SourceException for: " + input );
+			}
+			catch( SourceException e )
+			{
+				// Expected
+			}
+		}
+	}
 }
@@ -0,0 +1,34 @@
+package solidbase.test.util;
+
+import java.util.regex.Pattern;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import solidbase.util.KeywordIndex;
+
+public class Keywords
+{
+	@Test
+	public void testKeywordIndex()
+	{
+		KeywordIndex< String > index = new KeywordIndex< String >();
+		index.put( "delimiter", Pattern.compile( "SET\\s+DELIMITER\\s+(\\S+)", Pattern.CASE_INSENSITIVE ), "SET" );
+		index.put( "user", Pattern.compile( "SET\\s+USER\\s+(\\w+)", Pattern.CASE_INSENSITIVE ), "SET" );
+		index.put( "endskip", Pattern.compile( "END\\s+SKIP|/SKIP", Pattern.CASE_INSENSITIVE ), "END", "/SKIP" );
+
+		KeywordIndex.Match< String > match = index.match( "set user scott" );
+		Assert.assertEquals( match.getValue(), "user" );
+		Assert.assertEquals( match.getMatcher().group( 1 ), "scott" );
+		Assert.assertEquals( index.match( "SET DELIMITER GO" ).getValue(), "delimiter" );
+		Assert.assertEquals( index.match( "End Skip" ).getValue(), "endskip" );
+		Assert.assertEquals( index.match( "/SKIP" ).getValue(), "endskip" );
+		Assert.assertNull( index.match( "SET ISOLATION" ) );
+		Assert.assertNull( index.match( "SKIP" ) );
+
+		Assert.assertEquals( KeywordIndex.getKeyword( "  section.1 \"x\"" ), "SECTION" );
+		Assert.assertEquals( KeywordIndex.getKeyword( "/if" ), "/IF" );
+		Assert.assertEquals( KeywordIndex.getKeyword( "// comment" ), "/" );
+		Assert.assertEquals( KeywordIndex.getKeyword( "" ), "" );
+	}
+}
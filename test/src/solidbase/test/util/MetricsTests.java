@@ -0,0 +1,75 @@
+/*--
+ * Copyright 2012 Ren M. de Bloois
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solidbase.test.util;
+
+import java.math.BigDecimal;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import solidbase.util.JSONObject;
+import solidbase.util.Metrics;
+
+public class MetricsTests
+{
+	@Test
+	static public void testTimer()
+	{
+		Metrics metrics = new Metrics();
+		metrics.time( "statement", 500000L ); // 0.5 ms
+		metrics.time( "statement", 2000000L ); // 2 ms
+		metrics.time( "statement", 20000000000L ); // 20 s
+
+		Metrics.Timer timer = metrics.getTimer( "statement" );
+		Assert.assertEquals( timer.getCount(), 3 );
+		Assert.assertEquals( timer.getTotal(), 20002500000L );
+		Assert.assertEquals( timer.getMin(), 500000L );
+		Assert.assertEquals( timer.getMax(), 20000000000L );
+
+		long[] histogram = timer.getHistogram();
+		Assert.assertEquals( histogram.length, 6 );
+		Assert.assertEquals( histogram[ 0 ], 1 );
+		Assert.assertEquals( histogram[ 1 ], 1 );
+		Assert.assertEquals( histogram[ 5 ], 1 );
+
+		JSONObject json = metrics.toJSON().findObject( "timers" ).findObject( "statement" );
+		Assert.assertEquals( json.getNumber( "count" ), new BigDecimal( 3 ) );
+		Assert.assertEquals( json.getNumber( "min" ), new BigDecimal( "0.500" ) );
+		Assert.assertEquals( json.getNumber( "total" ), new BigDecimal( "20002.500" ) );
+		Assert.assertEquals( json.findObject( "histogram" ).getNumber( ">=10s" ), new BigDecimal( 1 ) );
+	}
+
+	@Test
+	static public void testRates()
+	{
+		Metrics metrics = new Metrics();
+		metrics.time( "importcsv", 2000000000L ); // 2 s
+		metrics.count( "importcsv.records", 1000 );
+		metrics.count( "importcsv.records", 500 );
+		metrics.count( "other", 7 );
+
+		Assert.assertEquals( metrics.getCount( "importcsv.records" ).getTotal(), 1500 );
+
+		JSONObject json = metrics.toJSON();
+		JSONObject counters = json.findObject( "counters" );
+		Assert.assertEquals( counters.getNumber( "importcsv.records" ), new BigDecimal( 1500 ) );
+		Assert.assertEquals( counters.getNumber( "other" ), new BigDecimal( 7 ) );
+		JSONObject rates = json.findObject( "rates" );
+		Assert.assertEquals( rates.getNumber( "importcsv.records/s" ), new BigDecimal( "750.0" ) );
+		Assert.assertNull( rates.findNumber( "other/s" ) );
+	}
+}
@@ -37,12 +37,15 @@ CREATE TABLE TEMP1 ( ID INTEGER, PICTURE BLOB, TEXT VARCHAR(100), TEXT2 CLOB, DA
 SELECT * FROM TEMP1;
 
 EXPORT CSV
+	PIPELINED
+	FETCH SIZE 1
 	FILE "export2.csv" ENCODING "UTF-8"
 SELECT ID, PICTURE, TEXT, TEXT2
 FROM TEMP1;
 
  DUMP JSON
 	DATE AS TIMESTAMP
+	FETCH SIZE 100
 	FILE "export3.json"
 	COLUMN PICTURE TO BINARY FILE "folder/export3.bin"
 	COLUMN TEXT2 TO TEXT FILE "folder/export3.txt"
@@ -51,6 +54,7 @@ SELECT * FROM TEMP1;
 --* DUMP JSON DATE_CREATED OFF
 
 DUMP JSON
+PIPELINED
 FILE "folder/export4.json"
 COLUMN PICTURE TO BINARY FILE "folder/export4-blob-?1.txt"
 COLUMN TEXT2 TO TEXT FILE "folder/export4-text-?1.txt" THRESHOLD 100
@@ -58,6 +62,28 @@ COLUMN DATE1 SKIP
 SELECT ID, PICTURE, TEXT, TEXT2, DATE1
 FROM TEMP1;
 
+DUMP JSON
+PARTITION BY ID INTO 3
+FILE "folder/export5.json"
+SELECT ID, TEXT, DATE1
+FROM TEMP1;
+
+CREATE TABLE TEMP2 ( ID INTEGER, TEXT VARCHAR(100), DATE1 DATE );
+
+LOAD JSON INTO TEMP2 FILE "folder/export5.json";
+
+DUMP JSON
+DATE AS TIMESTAMP
+PIPELINED
+PARTITION BY ID INTO 2
+FILE "folder/export6.json"
+SELECT ID, TEXT
+FROM TEMP1;
+
+CREATE TABLE TEMP3 ( ID INTEGER, TEXT VARCHAR(100) );
+
+LOAD JSON INTO TEMP3 FILE "folder/export6.json";
+
 --* /UPGRADE
 
 These cannot be part of a filename (in Windows)
@@ -60,21 +60,25 @@ FILE "export2.json"
 SELECT * FROM TEMP;
 
 IMPORT CSV
+BATCH SIZE 50
 log every 10 records
 INTO TEMP
 FILE "export1.csv" ENCODING "UTF-8";
 
 IMPORT CSV
+ADAPTIVE BATCH BETWEEN 10 AND 100
 LOG EVERY 1 seconds
 INTO TEMP
 FILE "export1.csv" ENCODING "UTF-8";
 
 LOAD JSON
+BATCH SIZE 50
 LOG EVERY 10 RECORDS
 INTO TEMP
 FILE "export1.json";
 
 LOAD JSON
+ADAPTIVE BATCH
 LOG EVERY 1 SECONDS
 INTO TEMP
 FILE "export1.json";
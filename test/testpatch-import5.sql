@@ -0,0 +1,49 @@
+
+--* // Copyright 2012 Ren M. de Bloois
+
+--* // Licensed under the Apache License, Version 2.0 (the "License");
+--* // you may not use this file except in compliance with the License.
+--* // You may obtain a copy of the License at
+
+--* //     http://www.apache.org/licenses/LICENSE-2.0
+
+--* // Unless required by applicable law or agreed to in writing, software
+--* // distributed under the License is distributed on an "AS IS" BASIS,
+--* // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--* // See the License for the specific language governing permissions and
+--* // limitations under the License.
+
+--* // ========================================================================
+
+--*	DEFINITION
+--*		SETUP "" --> "1.1"
+--*		UPGRADE "" --> "1"
+--*		UPGRADE "1" --> "2"
+--*	/DEFINITION
+
+--* SETUP "" --> "1.1"
+RUN "setup-1.1.sql";
+--* /SETUP
+
+--* UPGRADE "" --> "1"
+CREATE TABLE TEMP ( ID INTEGER, AMOUNT DECIMAL(10,2), DAY DATE, STAMP TIMESTAMP, FLAG BOOLEAN, NAME VARCHAR(40) );
+
+IMPORT CSV INTO TEMP;
+1,12.50,2012-01-31,2012-01-31 10:20:30,true,first
+2,,,,,
+
+IMPORT CSV
+TYPES ( INTEGER, DECIMAL, DATE, TIMESTAMP, BOOLEAN, VARCHAR )
+INTO TEMP;
+3,1.25,2012-03-01,2012-03-01 00:00:00.5,false,third
+
+--* /UPGRADE
+
+--* UPGRADE "1" --> "2"
+IMPORT CSV
+TYPES ( INTEGER, DECIMAL, DATE )
+INTO TEMP ( ID, AMOUNT, DAY );
+4,1.00,2012-04-01
+5,1.00,01-04-2012
+
+--* /UPGRADE
@@ -0,0 +1,62 @@
+
+--* // Copyright 2012 Ren M. de Bloois
+
+--* // Licensed under the Apache License, Version 2.0 (the "License");
+--* // you may not use this file except in compliance with the License.
+--* // You may obtain a copy of the License at
+
+--* //     http://www.apache.org/licenses/LICENSE-2.0
+
+--* // Unless required by applicable law or agreed to in writing, software
+--* // distributed under the License is distributed on an "AS IS" BASIS,
+--* // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--* // See the License for the specific language governing permissions and
+--* // limitations under the License.
+
+--* // ========================================================================
+
+--*	DEFINITION
+--*		SETUP "" --> "1.1"
+--*		UPGRADE "" --> "1"
+--*		UPGRADE "1" --> "2"
+--*		UPGRADE "2" --> "3"
+--*	/DEFINITION
+
+--* SETUP "" --> "1.1"
+RUN "setup-1.1.sql";
+--* /SETUP
+
+--* UPGRADE "" --> "1"
+
+--* LOG BATCH 2
+
+CREATE TABLE TEMP1 ( ID INTEGER );
+INSERT INTO TEMP1 ( ID ) VALUES ( 1 );
+INSERT INTO TEMP1 ( ID ) VALUES ( 2 );
+INSERT INTO TEMP1 ( ID ) VALUES ( 3 );
+INSERT INTO TEMP1 ( ID ) VALUES ( 4 );
+
+--* /UPGRADE
+
+--* UPGRADE "1" --> "2"
+
+--* LOG BATCH ON
+
+INSERT INTO TEMP1 ( ID ) VALUES ( 5 );
+INSERT INTO TEMP1 ( ID ) VALUES ( 6 );
+
+--* LOG BATCH OFF
+
+INSERT INTO TEMP1 ( ID ) VALUES ( 7 );
+
+--* /UPGRADE
+
+--* UPGRADE "2" --> "3"
+
+--* LOG BATCH 10
+
+INSERT INTO TEMP1 ( ID ) VALUES ( 8 );
+INSERT INTO TEMP1 ( ID ) VALUES ( 9 );
+INSERT INTO TEMP2 ( ID ) VALUES ( 10 );
+
+--* /UPGRADE
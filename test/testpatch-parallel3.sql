@@ -0,0 +1,56 @@
+
+--* // Copyright 2012 Ren M. de Bloois
+
+--* // Licensed under the Apache License, Version 2.0 (the "License");
+--* // you may not use this file except in compliance with the License.
+--* // You may obtain a copy of the License at
+
+--* //     http://www.apache.org/licenses/LICENSE-2.0
+
+--* // Unless required by applicable law or agreed to in writing, software
+--* // distributed under the License is distributed on an "AS IS" BASIS,
+--* // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--* // See the License for the specific language governing permissions and
+--* // limitations under the License.
+
+--* // ========================================================================
+
+--*	DEFINITION
+--*		SETUP "" --> "1.1"
+--*		UPGRADE "" --> "1"
+--*		UPGRADE "" --> "2"
+--*	/DEFINITION
+
+--* SETUP "" --> "1.1"
+RUN "setup-1.1.sql";
+--* /SETUP
+
+--* UPGRADE "" --> "1"
+
+CREATE TABLE TEMP1 ( ID INTEGER );
+
+--* PARALLEL
+
+INSERT INTO TEMP1 ( ID ) VALUES ( 1 );
+IMPORT CSV INTO TEMP1 DATA
+"1"
+"2";
+
+--* END PARALLEL
+
+--* /UPGRADE
+
+--* UPGRADE "" --> "2"
+
+CREATE TABLE TEMP2 ( ID INTEGER );
+
+--* PARALLEL
+
+INSERT INTO TEMP2 ( ID ) VALUES ( 1 );
+--* IGNORE SQL ERROR 23505
+INSERT INTO TEMP2 ( ID ) VALUES ( 1 );
+--* /IGNORE SQL ERROR
+
+--* END PARALLEL
+
+--* /UPGRADE
@@ -0,0 +1,44 @@
+
+--* // Copyright 2012 Ren M. de Bloois
+
+--* // Licensed under the Apache License, Version 2.0 (the "License");
+--* // you may not use this file except in compliance with the License.
+--* // You may obtain a copy of the License at
+
+--* //     http://www.apache.org/licenses/LICENSE-2.0
+
+--* // Unless required by applicable law or agreed to in writing, software
+--* // distributed under the License is distributed on an "AS IS" BASIS,
+--* // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--* // See the License for the specific language governing permissions and
+--* // limitations under the License.
+
+--* // ========================================================================
+
+--* BATCH 3
+
+CREATE TABLE USERS ( USER_ID INTEGER PRIMARY KEY, USER_USERNAME VARCHAR(40) NOT NULL );
+
+INSERT INTO USERS VALUES ( 1, 'admin' );
+INSERT INTO USERS VALUES ( 2, '1' );
+INSERT INTO USERS VALUES ( 3, '2' );
+INSERT INTO USERS VALUES ( 4, '3' );
+UPDATE USERS SET USER_USERNAME = 'x' WHERE USER_ID = 4;
+
+--* // The duplicate key fails the batch, the remaining statements are executed separately
+--* IGNORE SQL ERROR 23505
+INSERT INTO USERS VALUES ( 5, '4' );
+INSERT INTO USERS VALUES ( 1, 'duplicate' );
+INSERT INTO USERS VALUES ( 6, '5' );
+--* /IGNORE SQL ERROR
+
+--* BATCH OFF
+
+INSERT INTO USERS VALUES ( 7, '6' );
+
+--* BATCH ON
+
+DELETE FROM USERS WHERE USER_ID = 7;
+INSERT INTO USERS VALUES ( 8, '7' );
+
+COMMIT;